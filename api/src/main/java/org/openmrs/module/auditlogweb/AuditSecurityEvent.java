@@ -18,6 +18,8 @@ import lombok.NonNull;
 import org.openmrs.BaseOpenmrsObject;
 import org.openmrs.module.auditlogweb.api.utils.AuditSecurityEventType;
 
+import javax.persistence.Access;
+import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -27,6 +29,7 @@ import javax.persistence.Enumerated;
 import javax.persistence.EnumType;
 import javax.persistence.Table;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * Hibernate entity representing a single security-related audit event.
@@ -75,6 +78,20 @@ public class AuditSecurityEvent extends BaseOpenmrsObject {
 	@Column(name = "details", columnDefinition = "TEXT")
 	private String details;
 	
+	/**
+	 * @return the username in lower case, stored alongside it so that username filters ignore case and
+	 *         can still be answered from an index
+	 */
+	@Access(AccessType.PROPERTY)
+	@Column(name = "username_lower", length = 50)
+	public String getUsernameLower() {
+		return username != null ? username.toLowerCase(Locale.ROOT) : null;
+	}
+	
+	protected void setUsernameLower(String usernameLower) {
+		// derived from the username
+	}
+	
 	@Override
 	public void setId(Integer id) {
 		if (this.id != null && !this.id.equals(id)) {
@@ -11,7 +11,15 @@ package org.openmrs.module.auditlogweb;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.auditlogweb.api.dao.AuditTableProbe;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.task.AuditFieldChangeBackfill;
+import org.openmrs.module.auditlogweb.api.task.AuditFieldChangeWriter;
+import org.openmrs.module.auditlogweb.api.task.AuditRevisionIndexBackfill;
+import org.openmrs.module.auditlogweb.api.task.SecurityEventWriter;
+import org.openmrs.module.auditlogweb.api.utils.AuditLogConstants;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
@@ -22,11 +30,105 @@ public class AuditlogwebActivator extends BaseModuleActivator {
 	
 	@Override
 	public void started() {
+		refreshAuditedEntities();
+		probeAuditTables();
+		try {
+			getRevisionIndexBackfill().start();
+		}
+		catch (Exception e) {
+			log.error("Could not start the audit revision index backfill", e);
+		}
+		startFieldChangeRecording();
+		startSecurityEventWriter();
 		log.info("Started Auditlogweb");
 	}
 	
+	@Override
+	public void contextRefreshed() {
+		refreshAuditedEntities();
+		probeAuditTables();
+	}
+	
 	@Override
 	public void stopped() {
+		try {
+			getRevisionIndexBackfill().stop();
+		}
+		catch (Exception e) {
+			log.warn("Could not stop the audit revision index backfill", e);
+		}
+		try {
+			getFieldChangeBackfill().stop();
+			getFieldChangeWriter().stop();
+		}
+		catch (Exception e) {
+			log.warn("Could not stop recording audit field changes", e);
+		}
+		try {
+			getSecurityEventWriter().stop();
+		}
+		catch (Exception e) {
+			log.warn("Could not write the queued security events", e);
+		}
 		log.info("Stopped Auditlogweb");
 	}
+	
+	private void refreshAuditedEntities() {
+		try {
+			Context.getRegisteredComponent("auditlogweb.AuditedEntityRegistry", AuditedEntityRegistry.class).refresh();
+		}
+		catch (Exception e) {
+			log.warn("Could not read the audited entities", e);
+		}
+	}
+	
+	private void probeAuditTables() {
+		try {
+			Context.getRegisteredComponent("auditlogweb.AuditTableProbe", AuditTableProbe.class).probe();
+		}
+		catch (Exception e) {
+			log.warn("Could not probe the audit tables", e);
+		}
+	}
+	
+	private void startFieldChangeRecording() {
+		try {
+			if (Boolean.parseBoolean(Context.getAdministrationService()
+			        .getGlobalProperty(AuditLogConstants.GP_FIELD_CHANGES_ENABLED, "false"))) {
+				getFieldChangeWriter().start();
+				getFieldChangeBackfill().start();
+			}
+		}
+		catch (Exception e) {
+			log.error("Could not start recording audit field changes", e);
+		}
+	}
+	
+	private void startSecurityEventWriter() {
+		try {
+			if (Boolean.parseBoolean(Context.getAdministrationService()
+			        .getGlobalProperty(AuditLogConstants.GP_ASYNC_SECURITY_EVENTS_ENABLED, "false"))) {
+				getSecurityEventWriter().start();
+			}
+		}
+		catch (Exception e) {
+			log.error("Could not start writing security events in the background", e);
+		}
+	}
+	
+	private AuditFieldChangeWriter getFieldChangeWriter() {
+		return Context.getRegisteredComponent("auditlogweb.AuditFieldChangeWriter", AuditFieldChangeWriter.class);
+	}
+	
+	private AuditFieldChangeBackfill getFieldChangeBackfill() {
+		return Context.getRegisteredComponent("auditlogweb.AuditFieldChangeBackfill", AuditFieldChangeBackfill.class);
+	}
+	
+	private SecurityEventWriter getSecurityEventWriter() {
+		return Context.getRegisteredComponent("auditlogweb.SecurityEventWriter", SecurityEventWriter.class);
+	}
+	
+	private AuditRevisionIndexBackfill getRevisionIndexBackfill() {
+		return Context.getRegisteredComponent("auditlogweb.AuditRevisionIndexBackfill", AuditRevisionIndexBackfill.class);
+	}
 }
@@ -0,0 +1,45 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api;
+
+/**
+ * Per-request state of audit log queries, kept on the request thread. Parallel queries that miss
+ * their deadline mark the result as partial here so controllers can flag the response instead of
+ * failing it.
+ */
+public final class AuditQueryContext {
+	
+	private static final ThreadLocal<Boolean> PARTIAL_RESULT = new ThreadLocal<>();
+	
+	private AuditQueryContext() {
+	}
+	
+	/**
+	 * Records that the current request returned incomplete audit data.
+	 */
+	public static void markPartialResult() {
+		PARTIAL_RESULT.set(Boolean.TRUE);
+	}
+	
+	/**
+	 * @return true if any query of the current request returned incomplete audit data
+	 */
+	public static boolean isPartialResult() {
+		return Boolean.TRUE.equals(PARTIAL_RESULT.get());
+	}
+	
+	/**
+	 * Clears the state of the current request. Call before the first query and once the response has
+	 * been built.
+	 */
+	public static void clear() {
+		PARTIAL_RESULT.remove();
+	}
+}
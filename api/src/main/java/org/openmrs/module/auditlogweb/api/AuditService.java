@@ -12,12 +12,16 @@ package org.openmrs.module.auditlogweb.api;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.module.auditlogweb.AuditEntity;
 import org.openmrs.module.auditlogweb.AuditSecurityEvent;
+import org.openmrs.module.auditlogweb.api.dao.AuditEntityPage;
 import org.openmrs.module.auditlogweb.api.utils.AuditSecurityEventType;
 import org.openmrs.module.auditlogweb.api.dto.AuditEntityTypesResponseDto;
 import org.openmrs.module.auditlogweb.api.dto.AuditLogDetailDTO;
 import org.openmrs.module.auditlogweb.api.utils.AuditLogConstants;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.Date;
 
 /**
@@ -134,13 +138,47 @@ public interface AuditService {
 	String resolveUsername(Integer userId);
 	
 	/**
-	 * Resolves the numeric user ID associated with a given username.
+	 * Resolves the usernames of several users at once, as {@link #resolveUsername(Integer)} does for
+	 * one. Names not cached yet are read with a single query.
+	 *
+	 * @param userIds the IDs of the users to resolve, which may repeat or contain {@code null}
+	 * @return the resolved username of each distinct non-null ID
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	Map<Integer, String> resolveUsernames(Collection<Integer> userIds);
+	
+	/**
+	 * Resolves the numeric user ID associated with a given username, by an exact match on the
+	 * username or the system ID.
 	 *
 	 * @param username the username to resolve
 	 * @return the corresponding user ID, or {@code null} if not found
 	 */
 	Integer resolveUserId(String username);
 	
+	/**
+	 * Resolves the numeric user ID associated with a given username, as
+	 * {@link #resolveUserId(String)} does, optionally falling back to a search of user and person
+	 * names, which is much slower, when no user matches exactly.
+	 *
+	 * @param username the username to resolve
+	 * @param fuzzy whether to search names when no user matches exactly; the first user found is
+	 *            returned
+	 * @return the corresponding user ID, or {@code null} if not found
+	 */
+	Integer resolveUserId(String username, boolean fuzzy);
+	
+	/**
+	 * Resolves a role to the IDs of the users it is directly assigned to, with a single query, so that
+	 * the changes or security events of all of them can be filtered at once.
+	 *
+	 * @param role the exact name of the role
+	 * @return the IDs of the users assigned the role, empty if there are none
+	 */
+	@Authorized(value = { AuditLogConstants.VIEW_AUDIT_LOGS,
+	        AuditLogConstants.VIEW_SECURITY_AUDIT_LOGS }, requireAll = false)
+	List<Integer> resolveUserIdsByRole(String role);
+	
 	/**
 	 * Retrieves a paginated list of audit revisions across all audited entity types, optionally
 	 * filtered by user ID and/or date range.
@@ -197,6 +235,20 @@ public interface AuditService {
 	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
 	List<AuditLogDetailDTO> mapAuditEntitiesToDetails(List<AuditEntity<?>> auditEntities);
 	
+	/**
+	 * Maps audit entities to {@link AuditLogDetailDTO} objects one at a time, handing each to the
+	 * action as soon as it is built, so that callers writing them out never hold a whole page of
+	 * details.
+	 *
+	 * @param auditEntities the list of audit entities to be mapped
+	 * @param includeChanges false to leave the changed fields empty, in which case they are not
+	 *            computed
+	 * @param action receives the audit log detail of each entity, in order
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	void forEachAuditLogDetail(List<AuditEntity<?>> auditEntities, boolean includeChanges,
+	        Consumer<AuditLogDetailDTO> action);
+	
 	/**
 	 * Retrieves a paginated list of audit logs filtered by user, date range, and entity type.
 	 *
@@ -213,6 +265,71 @@ public interface AuditService {
 	List<AuditEntity<?>> getAllRevisionsAcrossEntitiesWithEntityType(int page, int size, Integer userId, Date startDate,
 	        Date endDate, String entityType, String sortOrder);
 	
+	/**
+	 * Retrieves a paginated list of audit logs made by any of several users, filtered by date range
+	 * and entity type. The users are matched in the same queries, whatever their number.
+	 *
+	 * @param page zero-based page index
+	 * @param size number of records per page
+	 * @param userIds optional IDs of the users; can be null, while an empty collection matches nothing
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type filter (e.g., "Patient"); can be null
+	 * @param sortOrder optional sort order ("asc" or "desc"); can be null
+	 * @return the matching {@link AuditEntity} entries, with the cursor of the page that follows
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	AuditEntityPage getRevisionsAcrossEntitiesByUsers(int page, int size, Collection<Integer> userIds,
+	        Date startDate, Date endDate, String entityType, String sortOrder);
+	
+	/**
+	 * Retrieves the page of audit logs that follows the given cursor, filtered by user, date range,
+	 * and entity type. Unlike page numbers, cursors stay fast on deep pages.
+	 *
+	 * @param cursor opaque cursor returned by {@link #getNextCursor(AuditEntityPage)} for the previous page
+	 * @param size number of records per page
+	 * @param userId optional user ID filter; can be null
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type filter (e.g., "Patient"); can be null
+	 * @param sortOrder optional sort order ("asc" or "desc"); can be null
+	 * @return the matching {@link AuditEntity} entries after the cursor, with the cursor of the page
+	 *         that follows
+	 * @throws IllegalArgumentException if the cursor or entity type is invalid
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	AuditEntityPage getRevisionsAcrossEntitiesAfterCursor(String cursor, int size, Integer userId, Date startDate,
+	        Date endDate, String entityType, String sortOrder);
+	
+	/**
+	 * Retrieves the page of audit logs that follows the given cursor in the listing of
+	 * {@link #getRevisionsAcrossEntitiesByUsers}.
+	 *
+	 * @param cursor opaque cursor returned by {@link #getNextCursor(AuditEntityPage)} for the previous page
+	 * @param size number of records per page
+	 * @param userIds optional IDs of the users; can be null, while an empty collection matches nothing
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type filter (e.g., "Patient"); can be null
+	 * @param sortOrder optional sort order ("asc" or "desc"); can be null
+	 * @return the matching {@link AuditEntity} entries after the cursor, with the cursor of the page
+	 *         that follows
+	 * @throws IllegalArgumentException if the cursor or entity type is invalid
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	AuditEntityPage getRevisionsAcrossEntitiesByUsersAfterCursor(String cursor, int size, Collection<Integer> userIds,
+	        Date startDate, Date endDate, String entityType, String sortOrder);
+	
+	/**
+	 * Returns the cursor of the page that follows the given one. It points after the last audit row
+	 * the page scanned, which may lie past its last entry when some rows could not be loaded.
+	 *
+	 * @param page the current page
+	 * @return an opaque cursor, or {@code null} if the page is the last one
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	String getNextCursor(AuditEntityPage page);
+	
 	/**
 	 * Counts audit logs filtered by user, date range, and entity type.
 	 *
@@ -225,6 +342,46 @@ public interface AuditService {
 	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
 	long countRevisionsAcrossEntitiesWithEntityType(Integer userId, Date startDate, Date endDate, String entityType);
 	
+	/**
+	 * Counts audit logs made by any of several users, filtered by date range and entity type.
+	 *
+	 * @param userIds optional IDs of the users; can be null, while an empty collection matches nothing
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type filter; can be null
+	 * @return count of matching audit log entries
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	long countRevisionsAcrossEntitiesByUsers(Collection<Integer> userIds, Date startDate, Date endDate,
+	        String entityType);
+	
+	/**
+	 * Estimates the number of audit logs filtered by user, date range, and entity type from database
+	 * statistics, which is much cheaper than counting them on large audit tables.
+	 *
+	 * @param userId optional user ID filter; can be null
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type filter; can be null
+	 * @return the estimated count, or {@code null} if the database offers nothing to estimate from
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	Long estimateRevisionsAcrossEntitiesWithEntityType(Integer userId, Date startDate, Date endDate, String entityType);
+	
+	/**
+	 * Estimates the number of audit logs made by any of several users, filtered by date range and
+	 * entity type, from database statistics.
+	 *
+	 * @param userIds optional IDs of the users; can be null, while an empty collection matches nothing
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type filter; can be null
+	 * @return the estimated count, or {@code null} if the database offers nothing to estimate from
+	 */
+	@Authorized(AuditLogConstants.VIEW_AUDIT_LOGS)
+	Long estimateRevisionsAcrossEntitiesByUsers(Collection<Integer> userIds, Date startDate, Date endDate,
+	        String entityType);
+	
 	/**
 	 * Finds all entities modified in the same revision as the given entity. This method retrieves all
 	 * entities changed in the same revision and filters them to only include those whose types match
@@ -281,7 +438,7 @@ public interface AuditService {
 	 * Retrieves paginated security audit events from {@code audit_security_event} table.
 	 *
 	 * @param eventType optional event type filter
-	 * @param username optional username filter (partial, case-insensitive)
+	 * @param username optional username filter, matching the start of the username in any case
 	 * @param startDate optional inclusive start time filter
 	 * @param endDate optional inclusive end time filter
 	 * @param page zero-based page index
@@ -292,11 +449,28 @@ public interface AuditService {
 	List<AuditSecurityEvent> getSecurityEvents(String eventType, String username, Date startDate, Date endDate, int page,
 	        int size);
 	
+	/**
+	 * Retrieves paginated security audit events, optionally restricted to the events of several
+	 * users at once.
+	 *
+	 * @param eventType optional event type filter
+	 * @param username optional username filter, matching the start of the username in any case
+	 * @param userIds optional IDs of the users; can be null, while an empty collection matches nothing
+	 * @param startDate optional inclusive start time filter
+	 * @param endDate optional inclusive end time filter
+	 * @param page zero-based page index
+	 * @param size page size
+	 * @return paginated list of matching security events
+	 */
+	@Authorized(AuditLogConstants.VIEW_SECURITY_AUDIT_LOGS)
+	List<AuditSecurityEvent> getSecurityEvents(String eventType, String username, Collection<Integer> userIds,
+	        Date startDate, Date endDate, int page, int size);
+	
 	/**
 	 * Counts security audit events with optional filters.
 	 *
 	 * @param eventType optional event type filter
-	 * @param username optional username filter (partial, case-insensitive)
+	 * @param username optional username filter, matching the start of the username in any case
 	 * @param startDate optional inclusive start time filter
 	 * @param endDate optional inclusive end time filter
 	 * @return number of matching security events
@@ -304,6 +478,20 @@ public interface AuditService {
 	@Authorized(AuditLogConstants.VIEW_SECURITY_AUDIT_LOGS)
 	long countSecurityEvents(String eventType, String username, Date startDate, Date endDate);
 	
+	/**
+	 * Counts security audit events, optionally restricted to the events of several users at once.
+	 *
+	 * @param eventType optional event type filter
+	 * @param username optional username filter, matching the start of the username in any case
+	 * @param userIds optional IDs of the users; can be null, while an empty collection matches nothing
+	 * @param startDate optional inclusive start time filter
+	 * @param endDate optional inclusive end time filter
+	 * @return number of matching security events
+	 */
+	@Authorized(AuditLogConstants.VIEW_SECURITY_AUDIT_LOGS)
+	long countSecurityEvents(String eventType, String username, Collection<Integer> userIds, Date startDate,
+	        Date endDate);
+	
 	/**
 	 * Persists a security audit event to the audit_security_event table.
 	 *
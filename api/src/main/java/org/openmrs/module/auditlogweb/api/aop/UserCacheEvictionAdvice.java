@@ -0,0 +1,53 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.aop;
+
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.openmrs.User;
+import org.openmrs.module.auditlogweb.api.dao.UserDisplayNameDao;
+import org.openmrs.module.auditlogweb.api.dao.UserIdLookupDao;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops the cached display name of a user, and the cached username filter lookups, when the user is
+ * saved, retired, unretired or purged through the {@code UserService}, so audit listings show and
+ * find the new name right away.
+ */
+@Aspect
+@Component
+@RequiredArgsConstructor
+public class UserCacheEvictionAdvice {
+	
+	private final UserDisplayNameDao userDisplayNameDao;
+	
+	private final UserIdLookupDao userIdLookupDao;
+	
+	@AfterReturning(pointcut = "execution(* org.openmrs.api.UserService.saveUser(..))"
+	        + " || execution(* org.openmrs.api.UserService.createUser(..))"
+	        + " || execution(* org.openmrs.api.UserService.retireUser(..))"
+	        + " || execution(* org.openmrs.api.UserService.unretireUser(..))"
+	        + " || execution(* org.openmrs.api.UserService.purgeUser(..))", returning = "result")
+	public void evictSavedUser(JoinPoint joinPoint, Object result) {
+		for (Object arg : joinPoint.getArgs()) {
+			evict(arg);
+		}
+		evict(result);
+		userIdLookupDao.evictAll();
+	}
+	
+	private void evict(Object value) {
+		if (value instanceof User) {
+			userDisplayNameDao.evict(((User) value).getUserId());
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.internal.entities.RelationDescription;
+import org.hibernate.envers.internal.entities.RelationType;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.openmrs.module.auditlogweb.AuditEntity;
+import org.openmrs.module.auditlogweb.api.utils.CollectionElements;
+import org.openmrs.module.auditlogweb.api.utils.UtilClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads the element identifiers of the audited collections of a page of audit rows, which Envers
+ * leaves as proxies that would otherwise run one audit query each. One-to-many collections mapped
+ * by a property of their element are read with one query on the element audit table per collection
+ * field and page, covering both the state at each row's revision and the state right before it.
+ * Other collections, such as those kept in join tables, are left as they are.
+ */
+@Component("auditlogweb.AuditCollectionLoader")
+@RequiredArgsConstructor
+public class AuditCollectionLoader {
+	
+	private final Logger log = LoggerFactory.getLogger(AuditCollectionLoader.class);
+	
+	private final SessionFactory sessionFactory;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final Map<String, Optional<CollectionTable>> collectionTables = new ConcurrentHashMap<>();
+	
+	/**
+	 * Loads the element identifiers of the collections that were not loaded, of each audit row at its
+	 * revision and of its previous state right before that revision.
+	 *
+	 * @param auditEntities audit rows, for example one page of a listing
+	 * @param previousEntities the previous state of each row in the same order, {@code null} where
+	 *            there is none
+	 * @return the loaded element identifiers by entity and collection field
+	 */
+	public CollectionElements load(List<AuditEntity<?>> auditEntities, List<Object> previousEntities) {
+		Map<Object, Map<String, Collection<String>>> loaded = new IdentityHashMap<>();
+		Map<String, List<CollectionOwner>> ownersByField = new LinkedHashMap<>();
+		for (int i = 0; i < auditEntities.size(); i++) {
+			AuditEntity<?> auditEntity = auditEntities.get(i);
+			Object entity = auditEntity.getEntity();
+			if (entity == null) {
+				continue;
+			}
+			int revision = auditEntity.getRevisionEntity().getId();
+			addOwner(ownersByField, entity, revision);
+			Object previous = i < previousEntities.size() ? previousEntities.get(i) : null;
+			if (previous != null) {
+				addOwner(ownersByField, previous, revision - 1);
+			}
+		}
+		
+		for (Map.Entry<String, List<CollectionOwner>> entry : ownersByField.entrySet()) {
+			List<CollectionOwner> owners = entry.getValue();
+			String fieldName = entry.getKey().substring(entry.getKey().indexOf('#') + 1);
+			Optional<CollectionTable> table = collectionTables.computeIfAbsent(entry.getKey(),
+			    key -> Optional.ofNullable(resolveCollectionTable(owners.get(0).entity.getClass(), fieldName)));
+			if (!table.isPresent()) {
+				continue;
+			}
+			try {
+				loadElements(table.get(), fieldName, owners, loaded);
+			}
+			catch (Exception e) {
+				log.warn("Could not load the {} collections of {} audit rows, they are shown as not loaded: {}",
+				    fieldName, owners.size(), e.getMessage());
+			}
+		}
+		
+		if (loaded.isEmpty()) {
+			return CollectionElements.NONE;
+		}
+		return (entity, fieldName) -> {
+			Map<String, Collection<String>> fields = loaded.get(entity);
+			return fields != null ? fields.get(fieldName) : null;
+		};
+	}
+	
+	private static void addOwner(Map<String, List<CollectionOwner>> ownersByField, Object entity, int revision) {
+		Object id = UtilClass.getEntityId(entity);
+		if (id == null) {
+			return;
+		}
+		for (String fieldName : UtilClass.findUnloadedCollectionFields(entity)) {
+			ownersByField.computeIfAbsent(entity.getClass().getName() + "#" + fieldName, key -> new ArrayList<>())
+			        .add(new CollectionOwner(entity, id, revision));
+		}
+	}
+	
+	private void loadElements(CollectionTable table, String fieldName, List<CollectionOwner> owners,
+	        Map<Object, Map<String, Collection<String>>> loaded) {
+		Set<Object> ownerIds = new LinkedHashSet<>();
+		int maxRevision = 0;
+		for (CollectionOwner owner : owners) {
+			ownerIds.add(owner.id);
+			maxRevision = Math.max(maxRevision, owner.revision);
+		}
+		
+		List<?> results = sessionFactory.getCurrentSession().createNativeQuery(buildElementsSql(table))
+		        .setParameter("maxRevision", maxRevision).setParameterList("ownerIds", ownerIds).getResultList();
+		List<Object[]> rows = new ArrayList<>(results.size());
+		results.forEach(row -> rows.add((Object[]) row));
+		
+		for (CollectionOwner owner : owners) {
+			loaded.computeIfAbsent(owner.entity, entity -> new HashMap<>()).put(fieldName,
+			    elementsAt(rows, String.valueOf(owner.id), owner.revision, table.elementName));
+		}
+	}
+	
+	/**
+	 * Selects every audit row, up to the latest requested revision, of the elements that belonged to
+	 * one of the owners at some point, so elements that were removed or moved to another owner later
+	 * are seen as well. Rows are ordered by revision.
+	 */
+	static String buildElementsSql(CollectionTable table) {
+		AuditTableMetadata elements = table.elementTable;
+		return "select a." + elements.getIdColumn() + ", a." + table.ownerColumn + ", a." + elements.getRevisionColumn()
+		        + ", a." + elements.getRevisionTypeColumn() + " from " + elements.getTableName() + " a where a."
+		        + elements.getRevisionColumn() + " <= :maxRevision and a." + elements.getIdColumn() + " in (select o."
+		        + elements.getIdColumn() + " from " + elements.getTableName() + " o where o." + table.ownerColumn
+		        + " in (:ownerIds))" + elements.getRowRestriction() + " order by a." + elements.getRevisionColumn();
+	}
+	
+	/**
+	 * Replays the element audit rows up to the given revision and keeps the elements whose latest row
+	 * links them to the owner and does not delete them.
+	 *
+	 * @param rows element id, owner id, revision and revision type of each audit row, by revision
+	 * @return the serialized identifiers of the elements the owner held at the revision
+	 */
+	static Collection<String> elementsAt(List<Object[]> rows, String ownerId, int revision, String elementName) {
+		Map<String, Object[]> latestRows = new LinkedHashMap<>();
+		for (Object[] row : rows) {
+			if (((Number) row[2]).intValue() > revision) {
+				break;
+			}
+			latestRows.put(String.valueOf(row[0]), row);
+		}
+		
+		Set<String> elements = new LinkedHashSet<>();
+		latestRows.forEach((elementId, row) -> {
+			if (row[1] != null && ownerId.equals(String.valueOf(row[1]))
+			        && ((Number) row[3]).intValue() != RevisionType.DEL.getRepresentation()) {
+				elements.add(elementName + "#" + elementId);
+			}
+		});
+		return Collections.unmodifiableSet(elements);
+	}
+	
+	private CollectionTable resolveCollectionTable(Class<?> ownerClass, String fieldName) {
+		try {
+			SessionFactoryImplementor factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+			EnversService enversService = factory.getServiceRegistry().getService(EnversService.class);
+			RelationDescription relation = enversService.getEntitiesConfigurations()
+			        .getRelationDescription(ownerClass.getName(), fieldName);
+			if (relation == null || relation.getRelationType() != RelationType.TO_MANY_NOT_OWNING) {
+				return null;
+			}
+			
+			EntityPersister elementPersister = factory.getMetamodel().entityPersister(relation.getToEntityName());
+			Optional<AuditTableMetadata> elementTable = crossEntityRevisionQuery
+			        .getTableMetadata(elementPersister.getMappedClass());
+			if (!elementTable.isPresent() || elementTable.get().isJoinedSubclass()
+			        || !(elementPersister instanceof AbstractEntityPersister)) {
+				return null;
+			}
+			String[] ownerColumns = ((AbstractEntityPersister) elementPersister)
+			        .getPropertyColumnNames(relation.getMappedByPropertyName());
+			if (ownerColumns.length != 1) {
+				return null;
+			}
+			return new CollectionTable(elementTable.get(), ownerColumns[0],
+			        elementPersister.getMappedClass().getSimpleName());
+		}
+		catch (Exception e) {
+			log.debug("Cannot load the {} collections of {} ahead: {}", fieldName, ownerClass.getName(), e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Where the elements of a one-to-many collection are audited: the element audit table and the
+	 * column in it that points at the owner.
+	 */
+	static final class CollectionTable {
+		
+		private final AuditTableMetadata elementTable;
+		
+		private final String ownerColumn;
+		
+		private final String elementName;
+		
+		CollectionTable(AuditTableMetadata elementTable, String ownerColumn, String elementName) {
+			this.elementTable = elementTable;
+			this.ownerColumn = ownerColumn;
+			this.elementName = elementName;
+		}
+	}
+	
+	private static final class CollectionOwner {
+		
+		private final Object entity;
+		
+		private final Object id;
+		
+		private final int revision;
+		
+		private CollectionOwner(Object entity, Object id, int revision) {
+			this.entity = entity;
+			this.id = id;
+			this.revision = revision;
+		}
+	}
+}
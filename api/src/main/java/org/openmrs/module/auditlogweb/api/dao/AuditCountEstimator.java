@@ -0,0 +1,186 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.query.NativeQuery;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery.RevisionTableMetadata;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Estimates audit row counts without counting the audit tables. Unfiltered estimates are the row
+ * counts the database keeps in its table statistics. Filtered estimates scale those by the share of
+ * audit rows matching the filters among the rows written in a sample of revisions, taken as evenly
+ * spaced blocks of revision ids, so that both the total and the share are counted in audit rows.
+ */
+@Repository("auditlogweb.AuditCountEstimator")
+@RequiredArgsConstructor
+public class AuditCountEstimator {
+	
+	static final int SAMPLE_BLOCKS = 100;
+	
+	static final int SAMPLE_BLOCK_SIZE = 100;
+	
+	private final SessionFactory sessionFactory;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	/**
+	 * Estimates the number of audit rows of the given classes that match the criteria.
+	 *
+	 * @param classes the audited entity classes
+	 * @param criteria the revision filters
+	 * @return the estimate, or {@code null} if there is nothing to estimate from, in which case the
+	 *         rows should be counted
+	 */
+	public Long estimateRevisions(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		if (classes.isEmpty()) {
+			return 0L;
+		}
+		Map<String, AuditTableMetadata> tables = new LinkedHashMap<>();
+		for (Class<?> entityClass : classes) {
+			Optional<AuditTableMetadata> table = crossEntityRevisionQuery.getTableMetadata(entityClass);
+			if (!table.isPresent()) {
+				return null;
+			}
+			tables.putIfAbsent(table.get().getTableName().toLowerCase(Locale.ROOT), table.get());
+		}
+		
+		Long rows = estimateTableRows(tables.keySet());
+		if (rows == null || !criteria.hasRevisionFilters()) {
+			return rows;
+		}
+		Double matchingShare = sampleMatchingRowShare(new ArrayList<>(tables.values()), criteria);
+		return matchingShare != null ? Math.round(rows * matchingShare) : null;
+	}
+	
+	private Long estimateTableRows(Set<String> tableNames) {
+		String sql = buildTableStatisticsSql(getDialect());
+		if (sql == null) {
+			return null;
+		}
+		NativeQuery<?> query = sessionFactory.getCurrentSession().createNativeQuery(sql);
+		query.setParameterList("tableNames", tableNames);
+		Number rows = (Number) query.getSingleResult();
+		return rows != null ? rows.longValue() : 0L;
+	}
+	
+	/**
+	 * @return the share of the audit rows written in the sampled revisions that match the criteria, or
+	 *         {@code null} if none of them does, since the filters are then too selective for the
+	 *         sample to say anything
+	 */
+	private Double sampleMatchingRowShare(List<AuditTableMetadata> tables, AuditRevisionCriteria criteria) {
+		RevisionTableMetadata revisions = crossEntityRevisionQuery.getRevisionTableMetadata();
+		Object[] bounds = (Object[]) sessionFactory.getCurrentSession()
+		        .createNativeQuery("select min(" + revisions.getIdColumn() + "), max(" + revisions.getIdColumn()
+		                + ") from " + revisions.getTableName())
+		        .getSingleResult();
+		if (bounds[0] == null) {
+			return 0.0;
+		}
+		
+		List<long[]> blocks = sampleBlocks(((Number) bounds[0]).longValue(), ((Number) bounds[1]).longValue());
+		NativeQuery<?> query = sessionFactory.getCurrentSession()
+		        .createNativeQuery(buildSampleSql(tables, revisions, criteria, blocks.size()));
+		for (int i = 0; i < blocks.size(); i++) {
+			query.setParameter("blockStart" + i, blocks.get(i)[0]);
+			query.setParameter("blockEnd" + i, blocks.get(i)[1]);
+		}
+		CrossEntityRevisionQuery.bindRevisionFilters(query, criteria);
+		
+		Object[] sample = (Object[]) query.getSingleResult();
+		long sampled = sample[0] != null ? ((Number) sample[0]).longValue() : 0L;
+		long matching = sample[1] != null ? ((Number) sample[1]).longValue() : 0L;
+		return matching > 0 ? (double) matching / sampled : null;
+	}
+	
+	private Dialect getDialect() {
+		return sessionFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+	}
+	
+	/**
+	 * @return the query summing the statistics row counts of the {@code :tableNames} tables, or
+	 *         {@code null} if the database is not known to keep them
+	 */
+	static String buildTableStatisticsSql(Dialect dialect) {
+		if (dialect instanceof MySQLDialect) {
+			return "select coalesce(sum(t.table_rows), 0) from information_schema.tables t"
+			        + " where t.table_schema = database() and lower(t.table_name) in (:tableNames)";
+		}
+		if (dialect instanceof PostgreSQL81Dialect) {
+			return "select coalesce(sum(greatest(c.reltuples, 0)), 0) from pg_class c"
+			        + " where c.relkind = 'r' and pg_table_is_visible(c.oid) and c.relname in (:tableNames)";
+		}
+		return null;
+	}
+	
+	/**
+	 * Splits the revision id range into evenly spaced blocks of {@link #SAMPLE_BLOCK_SIZE} ids, or a
+	 * single block covering the whole range if it is small enough to read in full.
+	 */
+	static List<long[]> sampleBlocks(long minId, long maxId) {
+		long span = maxId - minId + 1;
+		if (span <= (long) SAMPLE_BLOCKS * SAMPLE_BLOCK_SIZE) {
+			return Collections.singletonList(new long[] { minId, maxId });
+		}
+		long stride = span / SAMPLE_BLOCKS;
+		List<long[]> blocks = new ArrayList<>(SAMPLE_BLOCKS);
+		for (int i = 0; i < SAMPLE_BLOCKS; i++) {
+			long start = minId + i * stride;
+			blocks.add(new long[] { start, start + SAMPLE_BLOCK_SIZE - 1 });
+		}
+		return blocks;
+	}
+	
+	/**
+	 * @return the query counting the audit rows of the tables written in the sampled revision blocks,
+	 *         and how many of them belong to a revision matching the criteria
+	 */
+	static String buildSampleSql(List<AuditTableMetadata> tables, RevisionTableMetadata revisions,
+	        AuditRevisionCriteria criteria, int blockCount) {
+		StringBuilder matching = new StringBuilder("1=1");
+		CrossEntityRevisionQuery.appendRevisionFilters(matching, revisions, criteria);
+		
+		StringBuilder sql = new StringBuilder("select count(*), coalesce(sum(case when ").append(matching)
+		        .append(" then 1 else 0 end), 0) from (");
+		for (int t = 0; t < tables.size(); t++) {
+			if (t > 0) {
+				sql.append(" union all ");
+			}
+			String revisionColumn = "a." + tables.get(t).getRevisionColumn();
+			sql.append("select ").append(revisionColumn).append(" as rev_id from ").append(tables.get(t).getTableName())
+			        .append(" a where (");
+			for (int i = 0; i < blockCount; i++) {
+				if (i > 0) {
+					sql.append(" or ");
+				}
+				sql.append(revisionColumn).append(" between :blockStart").append(i).append(" and :blockEnd").append(i);
+			}
+			sql.append(')');
+		}
+		return sql.append(") s join ").append(revisions.getTableName()).append(" r on r.")
+		        .append(revisions.getIdColumn()).append(" = s.rev_id").toString();
+	}
+}
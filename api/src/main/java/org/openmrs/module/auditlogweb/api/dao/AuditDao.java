@@ -10,21 +10,27 @@
 package org.openmrs.module.auditlogweb.api.dao;
 
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Hibernate;
 import org.hibernate.query.Query;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.envers.AuditReader;
 import org.hibernate.envers.AuditReaderFactory;
 import org.hibernate.envers.RevisionType;
 import org.hibernate.envers.exception.NotAuditedException;
 import org.hibernate.envers.query.AuditQuery;
+import org.hibernate.envers.query.criteria.AuditCriterion;
+import org.hibernate.envers.query.criteria.AuditDisjunction;
 import org.hibernate.exception.SQLGrammarException;
 import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
 import org.openmrs.module.auditlogweb.AuditEntity;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
 import org.openmrs.module.auditlogweb.AuditSecurityEvent;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
 import org.openmrs.module.auditlogweb.api.exception.AuditLogUnavailableException;
 import org.openmrs.module.auditlogweb.api.utils.AuditSecurityEventType;
+import org.openmrs.module.auditlogweb.api.utils.CollectionElements;
 import org.openmrs.module.auditlogweb.api.utils.EnversUtils;
-import org.openmrs.module.auditlogweb.api.utils.UtilClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
@@ -32,11 +38,25 @@ import org.springframework.stereotype.Repository;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Role;
 
-import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
 import java.sql.SQLSyntaxErrorException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.Date;
 import java.util.stream.Collectors;
 
@@ -49,8 +69,34 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class AuditDao {
 	
+	private static final String INSERT_SECURITY_EVENT = "insert into audit_security_event (uuid, event_type, username,"
+	        + " username_lower, user_uuid, event_time, ip_address, user_agent, session_id, details)"
+	        + " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	
 	private final SessionFactory sessionFactory;
 	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final AuditRevisionIndexDao auditRevisionIndexDao;
+	
+	private final ParallelAuditQueryExecutor parallelQueryExecutor;
+	
+	private final AuditCountEstimator auditCountEstimator;
+	
+	private final RevisionFirstQueryPlanner revisionQueryPlanner;
+	
+	private final AuditTableProbe auditTableProbe;
+	
+	private final AuditedEntityRegistry auditedEntityRegistry;
+	
+	private final AuditRevisionRangeCache revisionRangeCache;
+	
+	private final AuditFieldChangeDao auditFieldChangeDao;
+	
+	private final AuditCollectionLoader auditCollectionLoader;
+	
+	private final AuditRevisionCountCache revisionCountCache = new AuditRevisionCountCache();
+	
 	private final Logger log = LoggerFactory.getLogger(AuditDao.class);
 	
 	/**
@@ -99,8 +145,12 @@ public class AuditDao {
 	public long countAllRevisions(Class<?> entityClass) {
 		AuditReader auditReader = AuditReaderFactory.get(sessionFactory.getCurrentSession());
 		
-		return (long) auditReader.createQuery().forRevisionsOfEntity(entityClass, false, true)
-		        .addProjection(org.hibernate.envers.query.AuditEntity.revisionNumber().count()).getSingleResult();
+		return countCached(AuditRevisionCountCache.key("all", entityClass.getName()), (revisionAbove, revisionUpTo) -> {
+			AuditQuery query = auditReader.createQuery().forRevisionsOfEntity(entityClass, false, true)
+			        .addProjection(org.hibernate.envers.query.AuditEntity.revisionNumber().count());
+			addRevisionRange(query, revisionAbove, revisionUpTo);
+			return (long) query.getSingleResult();
+		});
 	}
 	
 	/**
@@ -182,9 +232,45 @@ public class AuditDao {
 	 */
 	public <T> long countRevisionsWithFilters(Class<T> entityClass, Integer userId, Date startDate, Date endDate) {
 		AuditReader reader = AuditReaderFactory.get(sessionFactory.getCurrentSession());
-		AuditQuery query = EnversUtils.buildCountQueryWithFilters(reader, entityClass, userId, startDate, endDate);
-		Number countResult = (Number) query.getSingleResult();
-		return countResult != null ? countResult.longValue() : 0L;
+		return countCached(AuditRevisionCountCache.key("entity", entityClass.getName(), userId, startDate, endDate),
+		    (revisionAbove, revisionUpTo) -> {
+			    AuditQuery query = EnversUtils.buildCountQueryWithFilters(reader, entityClass, userId, startDate, endDate);
+			    addRevisionRange(query, revisionAbove, revisionUpTo);
+			    Number countResult = (Number) query.getSingleResult();
+			    return countResult != null ? countResult.longValue() : 0L;
+		    });
+	}
+	
+	/**
+	 * Counts through the revision count cache, so only revisions created since the cached count are
+	 * queried. Counts that missed some entities are not kept.
+	 */
+	private long countCached(List<Object> key, AuditRevisionCountCache.RangeCounter counter) {
+		long count = revisionCountCache.count(key, getCurrentRevisionNumber(), counter);
+		if (AuditQueryContext.isPartialResult()) {
+			revisionCountCache.invalidate(key);
+		}
+		return count;
+	}
+	
+	private Integer getCurrentRevisionNumber() {
+		try {
+			return sessionFactory.getCurrentSession()
+			        .createQuery("select max(r.id) from OpenmrsRevisionEntity r", Integer.class).uniqueResult();
+		}
+		catch (Exception e) {
+			log.debug("Could not read the current revision number, counting without the cache: {}", e.getMessage());
+			return null;
+		}
+	}
+	
+	private static void addRevisionRange(AuditQuery query, Integer revisionAbove, Integer revisionUpTo) {
+		if (revisionAbove != null) {
+			query.add(org.hibernate.envers.query.AuditEntity.revisionNumber().gt(revisionAbove));
+		}
+		if (revisionUpTo != null) {
+			query.add(org.hibernate.envers.query.AuditEntity.revisionNumber().le(revisionUpTo));
+		}
 	}
 	
 	/**
@@ -215,7 +301,7 @@ public class AuditDao {
 	public List<AuditEntity<?>> getAllRevisionsAcrossEntities(int page, int size, Integer userId, Date startDate,
 	        Date endDate, String sortOrder) {
 		List<Class<?>> classes = getNonAbstractAuditedClasses();
-		return getAuditEntities(page, size, userId, startDate, endDate, sortOrder, classes);
+		return getAuditEntities(page, size, userIdsOf(userId), startDate, endDate, sortOrder, classes).getEntries();
 	}
 	
 	/**
@@ -227,7 +313,7 @@ public class AuditDao {
 	 * @return total number of matching audit entries
 	 */
 	public long countRevisionsAcrossEntities(Integer userId, Date startDate, Date endDate) {
-		return countAcrossEntities(getNonAbstractAuditedClasses(), userId, startDate, endDate);
+		return countAcrossEntities(getNonAbstractAuditedClasses(), userIdsOf(userId), startDate, endDate);
 	}
 	
 	/**
@@ -318,79 +404,313 @@ public class AuditDao {
 	}
 	
 	/**
-	 * Retrieves the list of classes annotated as audited entities.
+	 * Retrieves the list of concrete audited entity classes.
+	 *
+	 * @return audited entity classes that are not abstract
+	 */
+	public List<Class<?>> getAuditedEntityClasses() {
+		return getNonAbstractAuditedClasses();
+	}
+	
+	/**
+	 * Retrieves the list of audited entity classes, leaving out those whose audit tables
+	 * {@link AuditTableProbe} found missing.
 	 *
-	 * @return list of class names that are audited and not abstract
+	 * @return list of classes that are audited and not abstract
 	 */
 	private List<Class<?>> getNonAbstractAuditedClasses() {
-		return UtilClass.findClassesWithAnnotation().stream().map(className -> {
+		return getNonAbstractAuditedClasses(null);
+	}
+	
+	/**
+	 * @param entityType optional simple class name to restrict the classes to, in any case
+	 * @return the queryable audited classes of that simple name, or all of them if it is empty
+	 */
+	private List<Class<?>> getNonAbstractAuditedClasses(String entityType) {
+		List<Class<?>> classes = entityType == null || entityType.isEmpty()
+		        ? auditedEntityRegistry.getAuditedEntityClasses()
+		        : auditedEntityRegistry.findBySimpleName(entityType);
+		return classes.stream().filter(auditTableProbe::isQueryable).collect(Collectors.toList());
+	}
+	
+	// NEW overload for count with entityType
+	public long countRevisionsAcrossEntities(Integer userId, Date startDate, Date endDate, String entityType) {
+		return countRevisionsAcrossEntitiesByUsers(userIdsOf(userId), startDate, endDate, entityType);
+	}
+	
+	private long countAcrossEntities(List<Class<?>> classes, Collection<Integer> userIds, Date startDate,
+	        Date endDate) {
+		if (classes.isEmpty() || userIds != null && userIds.isEmpty()) {
+			return 0L;
+		}
+		List<Object> key = AuditRevisionCountCache.key("across",
+		    classes.stream().map(Class::getName).collect(Collectors.joining(",")), userIds, startDate, endDate);
+		return countCached(key, (revisionAbove, revisionUpTo) -> {
+			AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().userIds(userIds).startDate(startDate)
+			        .endDate(endDate).revisionAbove(revisionAbove).revisionUpTo(revisionUpTo).build();
+			return countAcrossEntities(classes, criteria);
+		});
+	}
+	
+	private long countAcrossEntities(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		if (auditRevisionIndexDao.isReady()) {
+			try {
+				List<Class<?>> unindexedClasses = crossEntityRevisionQuery.findUnsupported(classes);
+				long count = auditRevisionIndexDao.countRevisions(without(classes, unindexedClasses), criteria);
+				List<Class<?>> changedClasses = narrowClasses(unindexedClasses, criteria);
+				return changedClasses.isEmpty() ? count : count + countEachEntity(changedClasses, criteria);
+			}
+			catch (Exception ex) {
+				logIndexQueryFailure(ex);
+			}
+		}
+		List<Class<?>> changedClasses = narrowClasses(classes, criteria);
+		if (changedClasses.isEmpty()) {
+			return 0L;
+		}
+		if (crossEntityRevisionQuery.supports(changedClasses)) {
 			try {
-				return Class.forName(className);
+				return crossEntityRevisionQuery.countRevisions(changedClasses, criteria);
+			}
+			catch (Exception ex) {
+				logUnionQueryFailure(ex);
 			}
-			catch (ClassNotFoundException e) {
-				log.warn("Could not load class: {}", className, e);
+		}
+		return countEachEntity(changedClasses, criteria);
+	}
+	
+	private long countEachEntity(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		if (classes.size() > 1 && parallelQueryExecutor.isEnabled()) {
+			List<Function<Session, Long>> tasks = new ArrayList<>();
+			for (Class<?> clazz : classes) {
+				tasks.add(session -> countEntity(AuditReaderFactory.get(session), clazz, criteria));
+			}
+			return sumCounts(parallelQueryExecutor.invokeAll(tasks));
+		}
+		
+		AuditReader reader = AuditReaderFactory.get(sessionFactory.getCurrentSession());
+		return sumCounts(classes.stream().map(clazz -> countEntity(reader, clazz, criteria)).collect(Collectors.toList()));
+	}
+	
+	/**
+	 * Sums per-class counts. A class whose count failed is left out and the request is marked as
+	 * partial, so the total is flagged instead of silently coming up short.
+	 */
+	private static long sumCounts(List<Long> counts) {
+		if (counts.contains(null)) {
+			AuditQueryContext.markPartialResult();
+		}
+		return counts.stream().filter(Objects::nonNull).mapToLong(Long::longValue).sum();
+	}
+	
+	/**
+	 * @return the number of revisions of the class, or {@code null} if counting failed
+	 */
+	private Long countEntity(AuditReader reader, Class<?> clazz, AuditRevisionCriteria criteria) {
+		try {
+			AuditQuery query = EnversUtils.buildCountQueryForUsers(reader, clazz, criteria.getUserIds(),
+			    criteria.getStartDate(), criteria.getEndDate());
+			addRevisionRange(query, criteria.getRevisionAbove(), criteria.getRevisionUpTo());
+			Number count = (Number) query.getSingleResult();
+			return count != null ? count.longValue() : 0L;
+		}
+		catch (NotAuditedException e) {
+			log.warn("Class not audited, skipping: {}", clazz.getName());
+			return 0L;
+		}
+		catch (Exception ex) {
+			if (isMissingAuditTableException(ex)) {
+				log.warn("Skipping count for class {} due to missing audit table: {}", clazz.getName(), ex.getMessage());
+				return 0L;
+			} else {
+				log.error("Unexpected error while counting audit logs for class {}: {}", clazz.getName(), ex.getMessage(),
+				    ex);
 				return null;
 			}
-		}).filter(clazz -> clazz != null && !Modifier.isAbstract(clazz.getModifiers())).collect(Collectors.toList());
+		}
 	}
 	
-	// NEW overload for count with entityType
-	public long countRevisionsAcrossEntities(Integer userId, Date startDate, Date endDate, String entityType) {
-		List<Class<?>> classes = getNonAbstractAuditedClasses().stream()
-		        .filter(c -> entityType == null || entityType.isEmpty() || c.getSimpleName().equalsIgnoreCase(entityType))
-		        .collect(Collectors.toList());
-		return countAcrossEntities(classes, userId, startDate, endDate);
+	private void logIndexQueryFailure(Exception ex) {
+		log.error("Audit revision index query failed, querying the audit tables instead: {}", ex.getMessage(), ex);
+	}
+	
+	private void logUnionQueryFailure(Exception ex) {
+		if (isMissingAuditTableException(ex)) {
+			log.warn("Cross-entity audit query hit a missing audit table, querying each entity instead: {}",
+			    ex.getMessage());
+		} else {
+			log.error("Cross-entity audit query failed, querying each entity instead: {}", ex.getMessage(), ex);
+		}
+	}
+	
+	/**
+	 * Loads the Envers entities behind the given revision keys, issuing one query per entity class
+	 * that matches exactly the (id, revision) pairs of the page.
+	 *
+	 * @param keys the keys of the audit rows to load, in display order
+	 * @param size the requested page size; a full page of keys means more rows may follow
+	 * @return the hydrated audit entries, in the same order as the keys, with the cursor of the last key
+	 */
+	private AuditEntityPage hydrateRevisionKeys(List<AuditRevisionKey> keys, int size) {
+		if (keys.isEmpty()) {
+			return AuditEntityPage.empty();
+		}
+		
+		Map<AuditRevisionKey, AuditEntity<?>> hydrated = hydrateRevisionKeysByKey(keys);
+		AuditRevisionCursor nextCursor = keys.size() >= size ? toCursor(keys.get(keys.size() - 1)) : null;
+		return new AuditEntityPage(
+		        keys.stream().map(hydrated::get).filter(Objects::nonNull).collect(Collectors.toList()), nextCursor);
+	}
+	
+	/**
+	 * Loads the Envers entities behind the given revision keys, issuing one query per entity class.
+	 *
+	 * @param keys the keys of the audit rows to load
+	 * @return the hydrated audit entries by key, without the keys whose audit rows do not exist
+	 */
+	public Map<AuditRevisionKey, AuditEntity<?>> hydrateRevisionKeysByKey(Collection<AuditRevisionKey> keys) {
+		Map<Class<?>, List<AuditRevisionKey>> keysByClass = keys.stream().collect(
+		    Collectors.groupingBy(AuditRevisionKey::getEntityClass, LinkedHashMap::new, Collectors.toList()));
+		AuditReader auditReader = AuditReaderFactory.get(sessionFactory.getCurrentSession());
+		Map<AuditRevisionKey, AuditEntity<?>> hydrated = new HashMap<>();
+		
+		for (Map.Entry<Class<?>, List<AuditRevisionKey>> entry : keysByClass.entrySet()) {
+			Class<?> entityClass = entry.getKey();
+			AuditDisjunction matchingRows = org.hibernate.envers.query.AuditEntity.disjunction();
+			for (AuditRevisionKey key : entry.getValue()) {
+				matchingRows.add(org.hibernate.envers.query.AuditEntity.conjunction()
+				        .add(org.hibernate.envers.query.AuditEntity.id()
+				                .eq(crossEntityRevisionQuery.toIdentifier(entityClass, key.getEntityId())))
+				        .add(org.hibernate.envers.query.AuditEntity.revisionNumber().eq(key.getRevision())));
+			}
+			
+			List<Object[]> results = auditReader.createQuery().forRevisionsOfEntity(entityClass, false, true)
+			        .add(matchingRows).getResultList();
+			for (Object[] result : results) {
+				AuditEntity<?> auditEntity = mapToAuditEntity(entityClass, result);
+				hydrated.put(new AuditRevisionKey(auditEntity.getRevisionEntity().getId(), entityClass,
+				        crossEntityRevisionQuery.identifierOf(auditEntity.getEntity())),
+				    auditEntity);
+			}
+		}
+		return hydrated;
 	}
 	
-	private List<AuditEntity<?>> fetchAcrossEntities(List<Class<?>> classes, Integer userId, Date startDate, Date endDate,
-	        String sortOrder, int page, int size) {
+	/**
+	 * Loads the state each audited entity had before the given revision of it, which is the
+	 * entity's own previous revision rather than the previous revision of the database. Previous
+	 * revisions are found with one query per entity class and loaded with one more, so the cost does
+	 * not grow with the number of rows.
+	 *
+	 * @param auditEntities audit rows, for example one page of a listing
+	 * @return the previous state of each row in the same order, {@code null} where the row is the
+	 *         first revision of its entity or the entity was deleted before it
+	 */
+	public List<Object> getPreviousRevisions(List<AuditEntity<?>> auditEntities) {
+		List<AuditRevisionKey> keys = auditEntities.stream()
+		        .map(auditEntity -> auditEntity.getEntity() != null ? revisionKeyOf(auditEntity) : null)
+		        .collect(Collectors.toList());
+		Map<Class<?>, List<AuditRevisionKey>> keysByClass = keys.stream().filter(Objects::nonNull).collect(
+		    Collectors.groupingBy(AuditRevisionKey::getEntityClass, LinkedHashMap::new, Collectors.toList()));
 		
-		// NOTE: We fetch (page * size) revisions from each audited entity type here.
-		// This results in potentially thousands of records being loaded into memory, if many entity types exist. Sorting and pagination are applied
-		// in-memory after combining all results, which can be inefficient.
-		// TODO: Optimize by performing sorting and pagination at the database level across all entity types,
-		// possibly by writing a native SQL union query or adding an audit summary table.
+		Map<AuditRevisionKey, AuditRevisionKey> previousKeys = new HashMap<>();
+		for (Map.Entry<Class<?>, List<AuditRevisionKey>> entry : keysByClass.entrySet()) {
+			previousKeys.putAll(findPreviousRevisionKeys(entry.getKey(), entry.getValue()));
+		}
+		Map<AuditRevisionKey, AuditEntity<?>> previousRevisions = previousKeys.isEmpty() ? Collections.emptyMap()
+		        : hydrateRevisionKeysByKey(new HashSet<>(previousKeys.values()));
 		
-		List<AuditEntity<?>> combined = new ArrayList<>();
-		for (Class<?> clazz : classes) {
+		List<Object> previousEntities = new ArrayList<>(keys.size());
+		for (AuditRevisionKey key : keys) {
+			AuditEntity<?> previous = key != null ? previousRevisions.get(previousKeys.get(key)) : null;
+			previousEntities.add(
+			    previous != null && previous.getRevisionType() != RevisionType.DEL ? previous.getEntity() : null);
+		}
+		return previousEntities;
+	}
+	
+	/**
+	 * Loads the element identifiers of the audited collections of the given rows and of their
+	 * previous states, which Envers would otherwise load with one query per collection, so the
+	 * collections can be diffed. See {@link AuditCollectionLoader}.
+	 *
+	 * @param auditEntities audit rows, for example one page of a listing
+	 * @param previousEntities the previous state of each row, as returned by
+	 *            {@link #getPreviousRevisions(List)}
+	 * @return the loaded element identifiers
+	 */
+	public CollectionElements loadCollectionElements(List<AuditEntity<?>> auditEntities, List<Object> previousEntities) {
+		return auditCollectionLoader.load(auditEntities, previousEntities);
+	}
+	
+	/**
+	 * Looks up the changed fields recorded for the given audit rows, if field changes are recorded.
+	 *
+	 * @param auditEntities audit rows, for example one page of a listing
+	 * @return the recorded changed fields of each row in the same order, {@code null} where the row
+	 *         has not been recorded
+	 */
+	public List<List<AuditFieldDiff>> getRecordedFieldChanges(List<AuditEntity<?>> auditEntities) {
+		List<AuditRevisionKey> keys = auditEntities.stream()
+		        .map(auditEntity -> auditEntity.getEntity() != null ? revisionKeyOf(auditEntity) : null)
+		        .collect(Collectors.toList());
+		Map<AuditRevisionKey, List<AuditFieldDiff>> recorded = Collections.emptyMap();
+		if (auditFieldChangeDao.isEnabled()) {
 			try {
-				List<? extends AuditEntity<?>> revisions = getRevisionsWithFilters(clazz, page, size, userId, startDate,
-				    endDate, sortOrder);
-				combined.addAll(revisions);
+				recorded = auditFieldChangeDao
+				        .findFieldChanges(keys.stream().filter(Objects::nonNull).collect(Collectors.toSet()));
 			}
 			catch (Exception ex) {
-				if (isMissingAuditTableException(ex)) {
-					log.warn("Skipping class {} due to missing audit table or SQL error: {}", clazz.getName(),
-					    ex.getMessage());
-				} else {
-					log.error("Unexpected error while fetching audit logs for class {}: {}", clazz.getName(),
-					    ex.getMessage(), ex);
-				}
+				log.warn("Could not read recorded field changes, computing them instead: {}", ex.getMessage());
 			}
 		}
-		return combined;
+		
+		List<List<AuditFieldDiff>> changes = new ArrayList<>(keys.size());
+		for (AuditRevisionKey key : keys) {
+			changes.add(key != null ? recorded.get(key) : null);
+		}
+		return changes;
 	}
 	
-	private long countAcrossEntities(List<Class<?>> classes, Integer userId, Date startDate, Date endDate) {
-		return classes.stream().mapToLong(clazz -> {
+	private Map<AuditRevisionKey, AuditRevisionKey> findPreviousRevisionKeys(Class<?> entityClass,
+	        List<AuditRevisionKey> keys) {
+		if (crossEntityRevisionQuery.supports(Collections.singletonList(entityClass))) {
 			try {
-				return countRevisionsWithFilters(clazz, userId, startDate, endDate);
-			}
-			catch (NotAuditedException e) {
-				log.warn("Class not audited, skipping: {}", clazz.getName());
-				return 0L;
+				return crossEntityRevisionQuery.findPreviousRevisionKeys(entityClass, keys);
 			}
 			catch (Exception ex) {
-				if (isMissingAuditTableException(ex)) {
-					log.warn("Skipping count for class {} due to missing audit table: {}", clazz.getName(), ex.getMessage());
-					return 0L;
-				} else {
-					log.error("Unexpected error while counting audit logs for class {}: {}", clazz.getName(),
-					    ex.getMessage(), ex);
-					return 0L;
+				log.warn("Could not find previous revisions of {} in one query, querying each row instead: {}",
+				    entityClass.getSimpleName(), ex.getMessage());
+			}
+		}
+		
+		AuditReader auditReader = AuditReaderFactory.get(sessionFactory.getCurrentSession());
+		Map<AuditRevisionKey, AuditRevisionKey> previousKeys = new HashMap<>();
+		for (AuditRevisionKey key : keys) {
+			try {
+				Number previousRevision = (Number) auditReader.createQuery()
+				        .forRevisionsOfEntity(entityClass, false, true)
+				        .addProjection(org.hibernate.envers.query.AuditEntity.revisionNumber().max())
+				        .add(org.hibernate.envers.query.AuditEntity.id()
+				                .eq(crossEntityRevisionQuery.toIdentifier(entityClass, key.getEntityId())))
+				        .add(org.hibernate.envers.query.AuditEntity.revisionNumber().lt(key.getRevision()))
+				        .getSingleResult();
+				if (previousRevision != null) {
+					previousKeys.put(key,
+					    new AuditRevisionKey(previousRevision.intValue(), entityClass, key.getEntityId()));
 				}
 			}
-		}).sum();
+			catch (RuntimeException ex) {
+				log.warn("Previous revision not supported for entity [{}] with ID [{}]", entityClass.getSimpleName(),
+				    key.getEntityId());
+			}
+		}
+		return previousKeys;
+	}
+	
+	private AuditRevisionKey revisionKeyOf(AuditEntity<?> auditEntity) {
+		return new AuditRevisionKey(auditEntity.getRevisionEntity().getId(), Hibernate.getClass(auditEntity.getEntity()),
+		        crossEntityRevisionQuery.identifierOf(auditEntity.getEntity()));
 	}
 	
 	/**
@@ -408,28 +728,380 @@ public class AuditDao {
 	 */
 	public List<AuditEntity<?>> getAllRevisionsAcrossEntitiesWithEntityType(int page, int size, Integer userId,
 	        Date startDate, Date endDate, String entityType, String sortOrder) {
+		return getRevisionsAcrossEntitiesByUsers(page, size, userIdsOf(userId), startDate, endDate, entityType,
+		    sortOrder).getEntries();
+	}
+	
+	/**
+	 * Retrieves the same listing as {@link #getAllRevisionsAcrossEntitiesWithEntityType}, restricted
+	 * to the changes of any of several users. The users are matched by a single {@code in} predicate
+	 * on the revision author, so the listing costs the same queries whatever the number of users.
+	 *
+	 * @param page zero-based page index
+	 * @param size number of records per page
+	 * @param userIds optional IDs of the users who made the changes; can be null, while an empty
+	 *            collection matches no entry
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type name (e.g., "Patient"); can be null
+	 * @param sortOrder sort order by revision date ("asc" or "desc"); can be null
+	 * @return the matching {@link AuditEntity} entries, with the cursor of the page that follows
+	 */
+	public AuditEntityPage getRevisionsAcrossEntitiesByUsers(int page, int size, Collection<Integer> userIds,
+	        Date startDate, Date endDate, String entityType, String sortOrder) {
+		List<Class<?>> classes = getNonAbstractAuditedClasses(entityType);
 		
-		List<Class<?>> classes = getNonAbstractAuditedClasses();
+		return getAuditEntities(page, size, distinctUserIds(userIds), startDate, endDate, sortOrder, classes);
+	}
+	
+	/**
+	 * Retrieves the page of audit entries across entities that follows the given cursor, with the
+	 * same filters as {@link #getAllRevisionsAcrossEntitiesWithEntityType}. The page is located with a
+	 * seek on the revision number rather than an offset, so its cost does not grow with depth.
+	 *
+	 * @param cursor position of the last entry of the previous page
+	 * @param size number of records per page
+	 * @param userId optional user ID filter; can be null
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type name (e.g., "Patient"); can be null
+	 * @param sortOrder sort order by revision ("asc" or "desc"); can be null
+	 * @return the matching {@link AuditEntity} entries after the cursor, with the cursor of the page
+	 *         that follows
+	 */
+	public AuditEntityPage getRevisionsAcrossEntitiesAfterCursor(AuditRevisionCursor cursor, int size,
+	        Integer userId, Date startDate, Date endDate, String entityType, String sortOrder) {
+		return getRevisionsAcrossEntitiesByUsersAfterCursor(cursor, size, userIdsOf(userId), startDate, endDate,
+		    entityType, sortOrder);
+	}
+	
+	/**
+	 * Retrieves the page that follows the given cursor in the listing of
+	 * {@link #getRevisionsAcrossEntitiesByUsers}.
+	 *
+	 * @param cursor position of the last entry of the previous page
+	 * @param size number of records per page
+	 * @param userIds optional IDs of the users who made the changes; can be null, while an empty
+	 *            collection matches no entry
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type name (e.g., "Patient"); can be null
+	 * @param sortOrder sort order by revision ("asc" or "desc"); can be null
+	 * @return the matching {@link AuditEntity} entries after the cursor, with the cursor of the page
+	 *         that follows
+	 */
+	public AuditEntityPage getRevisionsAcrossEntitiesByUsersAfterCursor(AuditRevisionCursor cursor, int size,
+	        Collection<Integer> userIds, Date startDate, Date endDate, String entityType, String sortOrder) {
+		List<Class<?>> classes = getNonAbstractAuditedClasses(entityType);
 		
-		// Filter classes by entityType if provided
-		if (entityType != null && !entityType.isEmpty()) {
-			classes = classes.stream().filter(c -> c.getSimpleName().equalsIgnoreCase(entityType))
-			        .collect(Collectors.toList());
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().userIds(distinctUserIds(userIds))
+		        .startDate(startDate).endDate(endDate).sortOrder(sortOrder).cursor(cursor).build();
+		return getAuditEntities(0, size, criteria, classes);
+	}
+	
+	/**
+	 * @return the cursor positioned on the given audit entry
+	 */
+	private AuditRevisionCursor cursorOf(AuditEntity<?> auditEntity) {
+		return new AuditRevisionCursor(auditEntity.getRevisionEntity().getId(),
+		        Hibernate.getClass(auditEntity.getEntity()).getName(),
+		        crossEntityRevisionQuery.identifierOf(auditEntity.getEntity()));
+	}
+	
+	private AuditEntityPage getAuditEntities(int page, int size, Collection<Integer> userIds, Date startDate,
+	        Date endDate, String sortOrder, List<Class<?>> classes) {
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().userIds(userIds).startDate(startDate)
+		        .endDate(endDate).sortOrder(sortOrder).build();
+		return getAuditEntities(page, size, criteria, classes);
+	}
+	
+	private AuditEntityPage getAuditEntities(int page, int size, AuditRevisionCriteria criteria,
+	        List<Class<?>> classes) {
+		if (classes.isEmpty() || criteria.matchesNoUser()) {
+			return AuditEntityPage.empty();
+		}
+		if (auditRevisionIndexDao.isReady()) {
+			try {
+				return hydrateRevisionKeys(findIndexedRevisionKeys(classes, criteria, page, size), size);
+			}
+			catch (Exception ex) {
+				logIndexQueryFailure(ex);
+			}
+		}
+		List<Class<?>> changedClasses = narrowClasses(classes, criteria);
+		if (changedClasses.isEmpty()) {
+			return AuditEntityPage.empty();
+		}
+		if (crossEntityRevisionQuery.supports(changedClasses)) {
+			try {
+				return hydrateRevisionKeys(
+				    crossEntityRevisionQuery.findRevisionKeys(changedClasses, criteria, page, size), size);
+			}
+			catch (Exception ex) {
+				logUnionQueryFailure(ex);
+			}
 		}
 		
-		return getAuditEntities(page, size, userId, startDate, endDate, sortOrder, classes);
+		return mergeAcrossEntities(changedClasses, criteria, page, size);
 	}
 	
-	private List<AuditEntity<?>> getAuditEntities(int page, int size, Integer userId, Date startDate, Date endDate,
-	        String sortOrder, List<Class<?>> classes) {
-		List<AuditEntity<?>> combined = fetchAcrossEntities(classes, userId, startDate, endDate, sortOrder, page, size);
+	/**
+	 * Reads a page of keys from the revision index. Classes the index cannot hold, such as those with
+	 * composite ids, are read from their audit tables and merged in display order, the same way
+	 * {@link #mergeAcrossEntities} merges per-class streams.
+	 */
+	private List<AuditRevisionKey> findIndexedRevisionKeys(List<Class<?>> classes, AuditRevisionCriteria criteria,
+	        int page, int size) {
+		List<Class<?>> unindexedClasses = crossEntityRevisionQuery.findUnsupported(classes);
+		List<Class<?>> indexedClasses = without(classes, unindexedClasses);
+		List<Class<?>> changedClasses = narrowClasses(unindexedClasses, criteria);
+		if (changedClasses.isEmpty()) {
+			return auditRevisionIndexDao.findRevisionKeys(indexedClasses, criteria, page, size);
+		}
+		if (size <= 0) {
+			return Collections.emptyList();
+		}
 		
-		combined.sort((a, b) -> {
-			int compare = b.getRevisionEntity().getRevisionDate().compareTo(a.getRevisionEntity().getRevisionDate());
-			return "asc".equalsIgnoreCase(sortOrder) ? -compare : compare;
-		});
+		int limit = (int) Math.min((long) (page + 1) * size, Integer.MAX_VALUE);
+		List<Iterator<AuditRevisionKey>> streams = new ArrayList<>();
+		streams.add(auditRevisionIndexDao.findRevisionKeys(indexedClasses, criteria, 0, limit).iterator());
+		AuditReader reader = AuditReaderFactory.get(sessionFactory.getCurrentSession());
+		for (Class<?> clazz : changedClasses) {
+			streams.add(fetchRevisionKeys(reader, clazz, criteria, limit).iterator());
+		}
+		Comparator<AuditRevisionCursor> order = revisionOrder(criteria.isAscending());
+		return SortedStreamMerge.merge(streams, (a, b) -> order.compare(toCursor(a), toCursor(b)), page * size, size);
+	}
+	
+	private static List<Class<?>> without(List<Class<?>> classes, List<Class<?>> excluded) {
+		if (excluded.isEmpty()) {
+			return classes;
+		}
+		List<Class<?>> remaining = new ArrayList<>(classes);
+		remaining.removeAll(excluded);
+		return remaining;
+	}
+	
+	/**
+	 * Drops the classes that cannot hold revisions matching the criteria, first those whose audit
+	 * tables hold no revision inside the requested range and then those the revisions matching the
+	 * filters did not change.
+	 */
+	private List<Class<?>> narrowClasses(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		if (classes.isEmpty()) {
+			return classes;
+		}
+		List<Class<?>> classesInRange = revisionRangeCache.narrowToClassesInRange(classes, criteria);
+		if (classesInRange.isEmpty()) {
+			return classesInRange;
+		}
+		return revisionQueryPlanner.narrowToChangedClasses(classesInRange, criteria);
+	}
+	
+	/**
+	 * Fallback for audit tables the union query cannot cover: a k-way merge of per-class revision
+	 * streams. Each class is read in chunks of {@code size} rows ordered by revision and never past
+	 * {@code (page + 1) * size} rows, and a priority queue holding one head row per class produces the
+	 * requested window, so memory stays bounded by the number of classes and the window no matter how
+	 * unevenly revisions are spread across classes. Rows are ordered like the union query: by
+	 * revision, then entity name, then id.
+	 */
+	private AuditEntityPage mergeAcrossEntities(List<Class<?>> classes, AuditRevisionCriteria criteria, int page,
+	        int size) {
+		if (size <= 0) {
+			return AuditEntityPage.empty();
+		}
+		int limit = (int) Math.min((long) (page + 1) * size, Integer.MAX_VALUE);
+		Comparator<AuditRevisionCursor> order = revisionOrder(criteria.isAscending());
+		if (classes.size() > 1 && parallelQueryExecutor.isEnabled()) {
+			return hydrateRevisionKeys(mergeRevisionKeysInParallel(classes, criteria, page, size, limit, order), size);
+		}
+		
+		AuditReader reader = AuditReaderFactory.get(sessionFactory.getCurrentSession());
+		List<Iterator<AuditEntity<?>>> streams = new ArrayList<>();
+		for (Class<?> clazz : classes) {
+			streams.add(new ClassRevisionStream(reader, clazz, criteria, size, limit));
+		}
+		List<AuditEntity<?>> auditEntities = SortedStreamMerge.merge(streams,
+		    (a, b) -> order.compare(cursorOf(a), cursorOf(b)), page * size, size);
+		AuditRevisionCursor nextCursor = auditEntities.size() >= size
+		        ? cursorOf(auditEntities.get(auditEntities.size() - 1))
+		        : null;
+		return new AuditEntityPage(auditEntities, nextCursor);
+	}
+	
+	/**
+	 * Parallel variant of the merge: every class is queried for the keys of its first {@code limit}
+	 * rows in its own session, and only the rows of the merged window are hydrated afterwards in the
+	 * request session. Classes that miss the deadline are left out of the window.
+	 */
+	private List<AuditRevisionKey> mergeRevisionKeysInParallel(List<Class<?>> classes, AuditRevisionCriteria criteria,
+	        int page, int size, int limit, Comparator<AuditRevisionCursor> order) {
+		List<Function<Session, List<AuditRevisionKey>>> tasks = new ArrayList<>();
+		for (Class<?> clazz : classes) {
+			tasks.add(session -> fetchRevisionKeys(AuditReaderFactory.get(session), clazz, criteria, limit));
+		}
+		
+		List<Iterator<AuditRevisionKey>> streams = new ArrayList<>();
+		for (List<AuditRevisionKey> keys : parallelQueryExecutor.invokeAll(tasks)) {
+			if (keys != null) {
+				streams.add(keys.iterator());
+			}
+		}
+		return SortedStreamMerge.merge(streams, (a, b) -> order.compare(toCursor(a), toCursor(b)), page * size, size);
+	}
+	
+	private List<AuditRevisionKey> fetchRevisionKeys(AuditReader reader, Class<?> entityClass,
+	        AuditRevisionCriteria criteria, int limit) {
+		try {
+			AuditQuery query = EnversUtils.buildFilteredAuditQueryForUsers(reader, entityClass, criteria.getUserIds(),
+			    criteria.getStartDate(), criteria.getEndDate(), 0, limit, criteria.getSortOrder());
+			query.addOrder(criteria.isAscending() ? org.hibernate.envers.query.AuditEntity.id().asc()
+			        : org.hibernate.envers.query.AuditEntity.id().desc());
+			if (criteria.getCursor() != null) {
+				query.add(buildCursorCriterion(entityClass, criteria.getCursor(), criteria.isAscending()));
+			}
+			query.addProjection(org.hibernate.envers.query.AuditEntity.revisionNumber());
+			query.addProjection(org.hibernate.envers.query.AuditEntity.id());
+			
+			List<Object[]> rows = query.getResultList();
+			List<AuditRevisionKey> keys = new ArrayList<>(rows.size());
+			for (Object[] row : rows) {
+				keys.add(new AuditRevisionKey(((Number) row[0]).intValue(), entityClass, String.valueOf(row[1])));
+			}
+			return keys;
+		}
+		catch (Exception ex) {
+			if (isMissingAuditTableException(ex)) {
+				log.warn("Skipping class {} due to missing audit table or SQL error: {}", entityClass.getName(),
+				    ex.getMessage());
+			} else {
+				log.error("Unexpected error while fetching audit logs for class {}: {}", entityClass.getName(),
+				    ex.getMessage(), ex);
+			}
+			return Collections.emptyList();
+		}
+	}
+	
+	/**
+	 * Display order of cross-entity listings, the same as the union query's and the index's: revision,
+	 * then entity key, then numeric id, then id.
+	 */
+	private static Comparator<AuditRevisionCursor> revisionOrder(boolean ascending) {
+		Comparator<AuditRevisionCursor> order = Comparator.comparingInt(AuditRevisionCursor::getRevision)
+		        .thenComparingLong(AuditRevisionCursor::getEntityKey).thenComparingLong(AuditRevisionCursor::getEntityOrder)
+		        .thenComparing(AuditRevisionCursor::getEntityId, Comparator.nullsFirst(Comparator.naturalOrder()));
+		return ascending ? order : order.reversed();
+	}
+	
+	private static AuditRevisionCursor toCursor(AuditRevisionKey key) {
+		return new AuditRevisionCursor(key.getRevision(), key.getEntityClass().getName(), key.getEntityId());
+	}
+	
+	/**
+	 * Revisions of one audited class in display order, fetched lazily one chunk at a time. A class
+	 * whose audit table cannot be read is logged and treated as empty.
+	 */
+	private class ClassRevisionStream implements Iterator<AuditEntity<?>> {
+		
+		private final AuditReader reader;
+		
+		private final Class<?> entityClass;
 		
-		return UtilClass.paginate(combined, page, size);
+		private final AuditRevisionCriteria criteria;
+		
+		private final int chunkSize;
+		
+		private final int limit;
+		
+		private Iterator<AuditEntity<?>> chunk = Collections.emptyIterator();
+		
+		private int chunkIndex;
+		
+		private int read;
+		
+		private boolean exhausted;
+		
+		ClassRevisionStream(AuditReader reader, Class<?> entityClass, AuditRevisionCriteria criteria, int chunkSize,
+		    int limit) {
+			this.reader = reader;
+			this.entityClass = entityClass;
+			this.criteria = criteria;
+			this.chunkSize = chunkSize;
+			this.limit = limit;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (read >= limit) {
+				return false;
+			}
+			if (!chunk.hasNext() && !exhausted) {
+				List<AuditEntity<?>> rows = fetchChunk();
+				exhausted = rows.size() < chunkSize;
+				chunk = rows.iterator();
+			}
+			return chunk.hasNext();
+		}
+		
+		@Override
+		public AuditEntity<?> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			read++;
+			return chunk.next();
+		}
+		
+		private List<AuditEntity<?>> fetchChunk() {
+			try {
+				AuditQuery query = EnversUtils.buildFilteredAuditQueryForUsers(reader, entityClass, criteria.getUserIds(),
+				    criteria.getStartDate(), criteria.getEndDate(), chunkIndex++, chunkSize, criteria.getSortOrder());
+				query.addOrder(criteria.isAscending() ? org.hibernate.envers.query.AuditEntity.id().asc()
+				        : org.hibernate.envers.query.AuditEntity.id().desc());
+				if (criteria.getCursor() != null) {
+					query.add(buildCursorCriterion(entityClass, criteria.getCursor(), criteria.isAscending()));
+				}
+				List<Object[]> results = query.getResultList();
+				List<AuditEntity<?>> rows = new ArrayList<>(results.size());
+				results.forEach(result -> rows.add(mapToAuditEntity(entityClass, result)));
+				return rows;
+			}
+			catch (Exception ex) {
+				if (isMissingAuditTableException(ex)) {
+					log.warn("Skipping class {} due to missing audit table or SQL error: {}", entityClass.getName(),
+					    ex.getMessage());
+				} else {
+					log.error("Unexpected error while fetching audit logs for class {}: {}", entityClass.getName(),
+					    ex.getMessage(), ex);
+				}
+				return Collections.emptyList();
+			}
+		}
+	}
+	
+	/**
+	 * Restricts an Envers query on one class to the rows that come after the cursor: rows of later
+	 * revisions, plus rows of the cursor revision that sort after the cursor by entity key and id.
+	 */
+	private AuditCriterion buildCursorCriterion(Class<?> entityClass, AuditRevisionCursor cursor, boolean ascending) {
+		int revision = cursor.getRevision();
+		AuditCriterion laterRevision = ascending ? org.hibernate.envers.query.AuditEntity.revisionNumber().gt(revision)
+		        : org.hibernate.envers.query.AuditEntity.revisionNumber().lt(revision);
+		int nameOrder = entityClass.getName().equals(cursor.getEntityName()) ? 0
+		        : Long.compare(AuditRevisionCursor.entityKey(entityClass.getName()), cursor.getEntityKey());
+		if (nameOrder == 0) {
+			Object id = crossEntityRevisionQuery.toIdentifier(entityClass, cursor.getEntityId());
+			AuditCriterion laterId = ascending ? org.hibernate.envers.query.AuditEntity.id().gt(id)
+			        : org.hibernate.envers.query.AuditEntity.id().lt(id);
+			return org.hibernate.envers.query.AuditEntity.or(laterRevision, org.hibernate.envers.query.AuditEntity
+			        .and(org.hibernate.envers.query.AuditEntity.revisionNumber().eq(revision), laterId));
+		}
+		if (ascending ? nameOrder > 0 : nameOrder < 0) {
+			return ascending ? org.hibernate.envers.query.AuditEntity.revisionNumber().ge(revision)
+			        : org.hibernate.envers.query.AuditEntity.revisionNumber().le(revision);
+		}
+		return laterRevision;
 	}
 	
 	/**
@@ -443,15 +1115,85 @@ public class AuditDao {
 	 * @return total count of matching audit entries
 	 */
 	public long countRevisionsAcrossEntitiesWithEntityType(Integer userId, Date startDate, Date endDate, String entityType) {
-		List<Class<?>> classes = getNonAbstractAuditedClasses();
+		return countRevisionsAcrossEntitiesByUsers(userIdsOf(userId), startDate, endDate, entityType);
+	}
+	
+	/**
+	 * Counts the entries of the listing of {@link #getRevisionsAcrossEntitiesByUsers}.
+	 *
+	 * @param userIds optional IDs of the users who made the changes; can be null, while an empty
+	 *            collection matches no entry
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type name (e.g., "Order"); can be null
+	 * @return total count of matching audit entries
+	 */
+	public long countRevisionsAcrossEntitiesByUsers(Collection<Integer> userIds, Date startDate, Date endDate,
+	        String entityType) {
+		List<Class<?>> classes = getNonAbstractAuditedClasses(entityType);
 		
-		// Filter classes by entityType if provided
-		if (entityType != null && !entityType.isEmpty()) {
-			classes = classes.stream().filter(c -> c.getSimpleName().equalsIgnoreCase(entityType))
-			        .collect(Collectors.toList());
+		return countAcrossEntities(classes, distinctUserIds(userIds), startDate, endDate);
+	}
+	
+	/**
+	 * Estimates the number of audit entries across entities from database statistics instead of
+	 * counting them, with the same filters as
+	 * {@link #countRevisionsAcrossEntitiesWithEntityType(Integer, Date, Date, String)}.
+	 *
+	 * @param userId optional user ID filter; can be null
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type name (e.g., "Order"); can be null
+	 * @return the estimated count, or {@code null} if it cannot be estimated
+	 */
+	public Long estimateRevisionsAcrossEntitiesWithEntityType(Integer userId, Date startDate, Date endDate,
+	        String entityType) {
+		return estimateRevisionsAcrossEntitiesByUsers(userIdsOf(userId), startDate, endDate, entityType);
+	}
+	
+	/**
+	 * Estimates the number of entries of the listing of {@link #getRevisionsAcrossEntitiesByUsers}
+	 * from database statistics instead of counting them.
+	 *
+	 * @param userIds optional IDs of the users who made the changes; can be null, while an empty
+	 *            collection matches no entry
+	 * @param startDate optional start date filter; can be null
+	 * @param endDate optional end date filter; can be null
+	 * @param entityType optional entity type name (e.g., "Order"); can be null
+	 * @return the estimated count, or {@code null} if it cannot be estimated
+	 */
+	public Long estimateRevisionsAcrossEntitiesByUsers(Collection<Integer> userIds, Date startDate, Date endDate,
+	        String entityType) {
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().userIds(distinctUserIds(userIds))
+		        .startDate(startDate).endDate(endDate).build();
+		if (criteria.matchesNoUser()) {
+			return 0L;
 		}
-		
-		return countAcrossEntities(classes, userId, startDate, endDate);
+		List<Class<?>> classes = getNonAbstractAuditedClasses(entityType);
+		try {
+			return auditCountEstimator.estimateRevisions(classes, criteria);
+		}
+		catch (Exception ex) {
+			log.warn("Could not estimate the number of audit logs, counting them instead: {}", ex.getMessage());
+			return null;
+		}
+	}
+	
+	private static Collection<Integer> userIdsOf(Integer userId) {
+		return userId != null ? Collections.singletonList(userId) : null;
+	}
+	
+	/**
+	 * Drops repeated and {@code null} user IDs, and sorts the rest so that equal filters share their
+	 * cached counts.
+	 */
+	private static Collection<Integer> distinctUserIds(Collection<Integer> userIds) {
+		if (userIds == null) {
+			return null;
+		}
+		Set<Integer> distinct = new TreeSet<>();
+		userIds.stream().filter(Objects::nonNull).forEach(distinct::add);
+		return new ArrayList<>(distinct);
 	}
 	
 	/**
@@ -594,6 +1336,36 @@ public class AuditDao {
 		sessionFactory.getCurrentSession().save(event);
 	}
 	
+	/**
+	 * Inserts several security events into the {@code audit_security_event} table with one JDBC batch.
+	 * Must be called within a transaction.
+	 *
+	 * @param events the fully populated security events to save
+	 */
+	public void saveSecurityEvents(List<AuditSecurityEvent> events) {
+		if (events == null || events.isEmpty()) {
+			return;
+		}
+		sessionFactory.getCurrentSession().doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(INSERT_SECURITY_EVENT)) {
+				for (AuditSecurityEvent event : events) {
+					statement.setString(1, event.getUuid());
+					statement.setString(2, event.getEventType().name());
+					statement.setString(3, event.getUsername());
+					statement.setString(4, event.getUsernameLower());
+					statement.setString(5, event.getUserUuid());
+					statement.setTimestamp(6, new Timestamp(event.getEventTime().getTime()));
+					statement.setString(7, event.getIpAddress());
+					statement.setString(8, event.getUserAgent());
+					statement.setString(9, event.getSessionId());
+					statement.setString(10, event.getDetails());
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		});
+	}
+	
 	/**
 	 * Flushes the current Hibernate session.
 	 */
@@ -605,7 +1377,7 @@ public class AuditDao {
 	 * Retrieves paginated security events using optional filter criteria.
 	 *
 	 * @param eventType the security event type (for example, LOGIN_SUCCESS)
-	 * @param username the username linked with the events
+	 * @param username the start of the username linked with the events, in any case
 	 * @param startDate the start date for filtering events
 	 * @param endDate the end date for filtering events
 	 * @param page the zero based page index
@@ -614,27 +1386,36 @@ public class AuditDao {
 	 */
 	public List<AuditSecurityEvent> getSecurityEvents(String eventType, String username, Date startDate, Date endDate,
 	        int page, int size) {
+		return getSecurityEvents(eventType, username, null, startDate, endDate, page, size);
+	}
+	
+	/**
+	 * Retrieves paginated security events using optional filter criteria, including the users the
+	 * events belong to, which are matched by a single {@code in} predicate.
+	 *
+	 * @param eventType the security event type (for example, LOGIN_SUCCESS)
+	 * @param username the start of the username linked with the events, in any case
+	 * @param userIds the IDs of the users linked with the events; an empty collection matches no event
+	 * @param startDate the start date for filtering events
+	 * @param endDate the end date for filtering events
+	 * @param page the zero based page index
+	 * @param size the number of records per page
+	 * @return a list of matching {@link AuditSecurityEvent} records
+	 */
+	public List<AuditSecurityEvent> getSecurityEvents(String eventType, String username, Collection<Integer> userIds,
+	        Date startDate, Date endDate, int page, int size) {
+		if (userIds != null && userIds.isEmpty()) {
+			return Collections.emptyList();
+		}
 		StringBuilder hql = new StringBuilder("from AuditSecurityEvent e where 1=1");
 		AuditSecurityEventType eventTypeEnum = AuditSecurityEventType.fromName(eventType);
+		appendSecurityEventFilters(hql, eventTypeEnum, username, userIds, startDate, endDate);
 		
-		if (eventTypeEnum != null) {
-			hql.append(" and e.eventType = :eventType");
-		}
-		if (username != null && !username.trim().isEmpty()) {
-			hql.append(" and lower(e.username) like :username");
-		}
-		if (startDate != null) {
-			hql.append(" and e.eventTime >= :startDate");
-		}
-		if (endDate != null) {
-			hql.append(" and e.eventTime <= :endDate");
-		}
-		
-		hql.append(" order by e.eventTime desc");
+		hql.append(" order by e.eventTime desc, e.id desc");
 		
 		Query<AuditSecurityEvent> query = sessionFactory.getCurrentSession().createQuery(hql.toString(),
 		    AuditSecurityEvent.class);
-		bindSecurityEventFilters(query, eventTypeEnum, username, startDate, endDate);
+		bindSecurityEventFilters(query, eventTypeEnum, username, userIds, startDate, endDate);
 		
 		return query.setFirstResult(page * size).setMaxResults(size).getResultList();
 	}
@@ -643,20 +1424,58 @@ public class AuditDao {
 	 * Counts security events with optional filters.
 	 *
 	 * @param eventType the security event type (for example, LOGIN_SUCCESS)
-	 * @param username the username linked with the events
+	 * @param username the start of the username linked with the events, in any case
 	 * @param startDate the start date for filtering events
 	 * @param endDate the end date for filtering events
 	 * @return the count of security events from the given filters
 	 */
 	public long countSecurityEvents(String eventType, String username, Date startDate, Date endDate) {
+		return countSecurityEvents(eventType, username, null, startDate, endDate);
+	}
+	
+	/**
+	 * Counts security events with optional filters, including the users the events belong to.
+	 *
+	 * @param eventType the security event type (for example, LOGIN_SUCCESS)
+	 * @param username the start of the username linked with the events, in any case
+	 * @param userIds the IDs of the users linked with the events; an empty collection matches no event
+	 * @param startDate the start date for filtering events
+	 * @param endDate the end date for filtering events
+	 * @return the count of security events from the given filters
+	 */
+	public long countSecurityEvents(String eventType, String username, Collection<Integer> userIds, Date startDate,
+	        Date endDate) {
+		if (userIds != null && userIds.isEmpty()) {
+			return 0L;
+		}
 		StringBuilder hql = new StringBuilder("select count(e.id) from AuditSecurityEvent e where 1=1");
 		AuditSecurityEventType eventTypeEnum = AuditSecurityEventType.fromName(eventType);
+		appendSecurityEventFilters(hql, eventTypeEnum, username, userIds, startDate, endDate);
 		
-		if (eventTypeEnum != null) {
+		Query<Long> query = sessionFactory.getCurrentSession().createQuery(hql.toString(), Long.class);
+		bindSecurityEventFilters(query, eventTypeEnum, username, userIds, startDate, endDate);
+		
+		Long count = query.getSingleResult();
+		return count != null ? count : 0L;
+	}
+	
+	/**
+	 * Helper method to add the filter conditions to the query. Every condition can be answered from an
+	 * index on {@code audit_security_event}, leading with the filtered column and followed by
+	 * {@code event_time}: the username is matched as a prefix of its stored lower-case copy, and events
+	 * are linked to users by uuid, so the user IDs are matched through a subquery on the users rather
+	 * than one query per user.
+	 */
+	private void appendSecurityEventFilters(StringBuilder hql, AuditSecurityEventType eventType, String username,
+	        Collection<Integer> userIds, Date startDate, Date endDate) {
+		if (eventType != null) {
 			hql.append(" and e.eventType = :eventType");
 		}
 		if (username != null && !username.trim().isEmpty()) {
-			hql.append(" and lower(e.username) like :username");
+			hql.append(" and e.usernameLower like :username");
+		}
+		if (userIds != null) {
+			hql.append(" and e.userUuid in (select u.uuid from User u where u.userId in (:userIds))");
 		}
 		if (startDate != null) {
 			hql.append(" and e.eventTime >= :startDate");
@@ -664,12 +1483,6 @@ public class AuditDao {
 		if (endDate != null) {
 			hql.append(" and e.eventTime <= :endDate");
 		}
-		
-		Query<Long> query = sessionFactory.getCurrentSession().createQuery(hql.toString(), Long.class);
-		bindSecurityEventFilters(query, eventTypeEnum, username, startDate, endDate);
-		
-		Long count = query.getSingleResult();
-		return count != null ? count : 0L;
 	}
 	
 	/**
@@ -677,17 +1490,21 @@ public class AuditDao {
 	 *
 	 * @param query original query for adding the params
 	 * @param eventType filter by audit event type
-	 * @param username filter by username
+	 * @param username filter by the start of the username, in any case
+	 * @param userIds filter by the IDs of the users
 	 * @param startDate filter by the start date of audits
 	 * @param endDate filter by end date of audits
 	 */
-	private void bindSecurityEventFilters(Query<?> query, AuditSecurityEventType eventType, String username, Date startDate,
-	        Date endDate) {
+	private void bindSecurityEventFilters(Query<?> query, AuditSecurityEventType eventType, String username,
+	        Collection<Integer> userIds, Date startDate, Date endDate) {
 		if (eventType != null) {
 			query.setParameter("eventType", eventType);
 		}
 		if (username != null && !username.trim().isEmpty()) {
-			query.setParameter("username", "%" + username.trim().toLowerCase() + "%");
+			query.setParameter("username", username.trim().toLowerCase(Locale.ROOT) + "%");
+		}
+		if (userIds != null) {
+			query.setParameterList("userIds", userIds);
 		}
 		if (startDate != null) {
 			query.setParameter("startDate", startDate);
@@ -719,7 +1536,8 @@ public class AuditDao {
 	 */
 	public List<AuditSecurityEvent> getRelatedSecurityEvents(String sessionId, int limit) {
 		Query<AuditSecurityEvent> query = sessionFactory.getCurrentSession().createQuery(
-		    "from AuditSecurityEvent e where e.sessionId = :sessionId order by e.eventTime desc", AuditSecurityEvent.class);
+		    "from AuditSecurityEvent e where e.sessionId = :sessionId order by e.eventTime desc, e.id desc",
+		    AuditSecurityEvent.class);
 		query.setParameter("sessionId", sessionId);
 		query.setMaxResults(limit);
 		return query.getResultList();
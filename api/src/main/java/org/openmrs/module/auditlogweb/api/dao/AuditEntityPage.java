@@ -0,0 +1,46 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.Getter;
+import org.openmrs.module.auditlogweb.AuditEntity;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of audit entries together with the position the next page starts from. Entries whose audit
+ * rows could not be loaded are left out of the page, so the page can be shorter than requested
+ * while more rows follow; the next page must then start after the last scanned row rather than
+ * after the last entry, which only the query that read the page knows.
+ */
+@Getter
+public class AuditEntityPage {
+	
+	private final List<AuditEntity<?>> entries;
+	
+	private final AuditRevisionCursor nextCursor;
+	
+	/**
+	 * @param entries the loaded entries, in display order
+	 * @param nextCursor the position of the last scanned row, or {@code null} if no rows follow
+	 */
+	public AuditEntityPage(List<AuditEntity<?>> entries, AuditRevisionCursor nextCursor) {
+		this.entries = Collections.unmodifiableList(entries);
+		this.nextCursor = nextCursor;
+	}
+	
+	/**
+	 * @return a page without entries that no rows follow
+	 */
+	public static AuditEntityPage empty() {
+		return new AuditEntityPage(Collections.emptyList(), null);
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Data access object for the {@code audit_field_change} table, which holds the changed fields of
+ * audit rows so they are read with one indexed lookup instead of being recomputed from two
+ * snapshots. Each audit row has one table row per changed field, or a single row without a field
+ * name if nothing changed, so a missing audit row can be told apart from an audit row without
+ * changes. Rows are written by {@link org.openmrs.module.auditlogweb.api.task.AuditFieldChangeWriter}
+ * and, for history, by {@link org.openmrs.module.auditlogweb.api.task.AuditFieldChangeBackfill}.
+ */
+@Repository("auditlogweb.AuditFieldChangeDao")
+@RequiredArgsConstructor
+public class AuditFieldChangeDao {
+	
+	static final String CHANGE_TABLE = "audit_field_change";
+	
+	static final String PROGRESS_TABLE = "audit_field_change_progress";
+	
+	private static final String INSERT_CHANGE_ROW = "insert into " + CHANGE_TABLE
+	        + " (rev, entity_name, entity_id, field_name, old_value, new_value) values (?, ?, ?, ?, ?, ?)";
+	
+	private final SessionFactory sessionFactory;
+	
+	private volatile boolean enabled;
+	
+	/**
+	 * @return true if field changes are being recorded and should be looked up on read
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Marks whether field changes are being recorded. Set by the writer when it starts and stops.
+	 *
+	 * @param enabled true if field changes are being recorded
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Looks up the recorded changes of the given audit rows.
+	 *
+	 * @param keys the keys of the audit rows
+	 * @return the changed fields of each audit row that has been recorded, empty for recorded rows
+	 *         without changes; rows that were not recorded yet are missing from the map
+	 */
+	public Map<AuditRevisionKey, List<AuditFieldDiff>> findFieldChanges(Collection<AuditRevisionKey> keys) {
+		if (keys.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Set<Integer> revisions = keys.stream().map(AuditRevisionKey::getRevision).collect(Collectors.toSet());
+		Set<String> entityIds = keys.stream().map(AuditRevisionKey::getEntityId).collect(Collectors.toSet());
+		List<?> rows = sessionFactory.getCurrentSession()
+		        .createNativeQuery("select c.rev, c.entity_name, c.entity_id, c.field_name, c.old_value, c.new_value from "
+		                + CHANGE_TABLE + " c where c.rev in (:revisions) and c.entity_id in (:entityIds) order by c.id")
+		        .setParameterList("revisions", revisions).setParameterList("entityIds", entityIds).getResultList();
+		return groupFieldChanges(rows, keys);
+	}
+	
+	/**
+	 * Records the changed fields of audit rows, on the connection of the current session.
+	 *
+	 * @param changes the changed fields of each audit row, empty for rows without changes
+	 */
+	public void saveFieldChanges(Map<AuditRevisionKey, List<AuditFieldDiff>> changes) {
+		if (changes.isEmpty()) {
+			return;
+		}
+		sessionFactory.getCurrentSession().doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(INSERT_CHANGE_ROW)) {
+				for (Map.Entry<AuditRevisionKey, List<AuditFieldDiff>> entry : changes.entrySet()) {
+					AuditRevisionKey key = entry.getKey();
+					if (entry.getValue().isEmpty()) {
+						addChangeRow(statement, key, null, null, null);
+					}
+					for (AuditFieldDiff diff : entry.getValue()) {
+						addChangeRow(statement, key, diff.getFieldName(), diff.getOldValue(), diff.getCurrentValue());
+					}
+				}
+				statement.executeBatch();
+			}
+		});
+	}
+	
+	/**
+	 * Lists the audit rows of one table within a revision window.
+	 *
+	 * @param table the audit table
+	 * @param fromRevision lower revision bound (exclusive)
+	 * @param toRevision upper revision bound (inclusive)
+	 * @return the keys of the audit rows in the window
+	 */
+	public List<AuditRevisionKey> findRevisionKeys(AuditTableMetadata table, int fromRevision, int toRevision) {
+		List<?> rows = sessionFactory.getCurrentSession()
+		        .createNativeQuery("select a." + table.getIdColumn() + ", a." + table.getRevisionColumn() + " from "
+		                + table.getTableName() + " a where a." + table.getRevisionColumn() + " > :fromRevision and a."
+		                + table.getRevisionColumn() + " <= :toRevision" + table.getRowRestriction())
+		        .setParameter("fromRevision", fromRevision).setParameter("toRevision", toRevision).getResultList();
+		
+		List<AuditRevisionKey> keys = new ArrayList<>(rows.size());
+		for (Object row : rows) {
+			Object[] columns = (Object[]) row;
+			keys.add(new AuditRevisionKey(((Number) columns[1]).intValue(), table.getEntityClass(),
+			        String.valueOf(columns[0])));
+		}
+		return keys;
+	}
+	
+	/**
+	 * @param entityName the audited entity name
+	 * @return the revision up to which the entity has been backfilled, or 0 if it has not started
+	 */
+	public int getBackfillPosition(String entityName) {
+		Number position = (Number) sessionFactory.getCurrentSession()
+		        .createNativeQuery("select p.last_revision from " + PROGRESS_TABLE + " p where p.entity_name = :entityName")
+		        .setParameter("entityName", entityName).uniqueResult();
+		return position != null ? position.intValue() : 0;
+	}
+	
+	/**
+	 * Records the revision up to which an entity has been backfilled.
+	 *
+	 * @param entityName the audited entity name
+	 * @param revision the last backfilled revision
+	 */
+	public void saveBackfillPosition(String entityName, int revision) {
+		int updated = sessionFactory.getCurrentSession()
+		        .createNativeQuery(
+		            "update " + PROGRESS_TABLE + " set last_revision = :revision where entity_name = :entityName")
+		        .setParameter("revision", revision).setParameter("entityName", entityName).executeUpdate();
+		if (updated == 0) {
+			sessionFactory.getCurrentSession()
+			        .createNativeQuery("insert into " + PROGRESS_TABLE
+			                + " (entity_name, last_revision) values (:entityName, :revision)")
+			        .setParameter("entityName", entityName).setParameter("revision", revision).executeUpdate();
+		}
+	}
+	
+	/**
+	 * Groups change rows by the audit row they belong to, keeping only the requested audit rows. A
+	 * field recorded twice, by the live writer and the backfill racing each other, is kept once.
+	 */
+	static Map<AuditRevisionKey, List<AuditFieldDiff>> groupFieldChanges(List<?> rows, Collection<AuditRevisionKey> keys) {
+		Map<String, Class<?>> classesByName = new HashMap<>();
+		keys.forEach(key -> classesByName.put(key.getEntityClass().getName(), key.getEntityClass()));
+		
+		Map<AuditRevisionKey, Map<String, AuditFieldDiff>> fieldsByKey = new HashMap<>();
+		for (Object row : rows) {
+			Object[] columns = (Object[]) row;
+			Class<?> entityClass = classesByName.get(String.valueOf(columns[1]));
+			if (entityClass == null) {
+				continue;
+			}
+			AuditRevisionKey key = new AuditRevisionKey(((Number) columns[0]).intValue(), entityClass,
+			        String.valueOf(columns[2]));
+			if (!keys.contains(key)) {
+				continue;
+			}
+			Map<String, AuditFieldDiff> fields = fieldsByKey.computeIfAbsent(key, k -> new LinkedHashMap<>());
+			String fieldName = (String) columns[3];
+			if (fieldName != null) {
+				fields.putIfAbsent(fieldName,
+				    new AuditFieldDiff(fieldName, columnText(columns[4]), columnText(columns[5]), true));
+			}
+		}
+		
+		Map<AuditRevisionKey, List<AuditFieldDiff>> changes = new HashMap<>();
+		fieldsByKey.forEach((key, fields) -> changes.put(key, new ArrayList<>(fields.values())));
+		return changes;
+	}
+	
+	private static void addChangeRow(PreparedStatement statement, AuditRevisionKey key, String fieldName,
+	        String oldValue, String newValue) throws SQLException {
+		statement.setInt(1, key.getRevision());
+		statement.setString(2, key.getEntityClass().getName());
+		statement.setString(3, key.getEntityId());
+		statement.setString(4, fieldName);
+		statement.setString(5, oldValue);
+		statement.setString(6, newValue);
+		statement.addBatch();
+	}
+	
+	/**
+	 * Reads a text column, which some databases return as a {@link Clob}.
+	 */
+	private static String columnText(Object value) {
+		if (value instanceof Clob) {
+			try {
+				Clob clob = (Clob) value;
+				return clob.getSubString(1, (int) clob.length());
+			}
+			catch (SQLException e) {
+				throw new IllegalStateException("Could not read a recorded field change", e);
+			}
+		}
+		return value != null ? value.toString() : null;
+	}
+}
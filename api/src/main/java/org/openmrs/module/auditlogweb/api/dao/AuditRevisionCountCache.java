@@ -0,0 +1,126 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches audit row counts together with the highest revision number each count covers, its
+ * watermark. A later lookup counts only the revisions above the watermark and adds them to the
+ * cached total, so repeated counts cost as much as the revisions created in between rather than the
+ * whole audit history.
+ * <p>
+ * Revision numbers are assigned before commit, so a revision can become visible after a higher one
+ * was already counted. Entries are therefore recounted from scratch every
+ * {@link #FULL_RECOUNT_INTERVAL_MILLIS}, which also picks up rows purged from the audit tables.
+ * The least recently used entries are dropped once {@link #MAX_ENTRIES} is reached.
+ * </p>
+ */
+final class AuditRevisionCountCache {
+	
+	static final long FULL_RECOUNT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	static final int MAX_ENTRIES = 1000;
+	
+	private final BoundedLruCache<List<Object>, Entry> entries = new BoundedLruCache<>(MAX_ENTRIES);
+	
+	private final LongSupplier clock;
+	
+	AuditRevisionCountCache() {
+		this(System::currentTimeMillis);
+	}
+	
+	AuditRevisionCountCache(LongSupplier clock) {
+		this.clock = clock;
+	}
+	
+	/**
+	 * Counts the audit rows in a range of revision numbers.
+	 */
+	interface RangeCounter {
+		
+		/**
+		 * @param revisionAbove exclusive lower bound, or {@code null} to count from the first revision
+		 * @param revisionUpTo inclusive upper bound, or {@code null} for no bound
+		 * @return the number of matching audit rows
+		 */
+		long count(Integer revisionAbove, Integer revisionUpTo);
+	}
+	
+	/**
+	 * Builds a cache key from the filters of a count. Dates are keyed by their time, so the UI's
+	 * day-aligned date filters share entries.
+	 *
+	 * @param parts the filters, any of which may be {@code null}
+	 * @return the key
+	 */
+	static List<Object> key(Object... parts) {
+		Object[] values = parts.clone();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] instanceof Date) {
+				values[i] = ((Date) values[i]).getTime();
+			}
+		}
+		return Arrays.asList(values);
+	}
+	
+	/**
+	 * Returns the count for a key, counting only the revisions created since the cached count.
+	 *
+	 * @param key the key of the count, see {@link #key(Object...)}
+	 * @param currentRevision the highest revision number in the database, or {@code null} if unknown,
+	 *            in which case the cache is bypassed
+	 * @param counter counts the audit rows of a revision range
+	 * @return the number of audit rows up to {@code currentRevision}
+	 */
+	long count(List<Object> key, Integer currentRevision, RangeCounter counter) {
+		if (currentRevision == null) {
+			return counter.count(null, null);
+		}
+		
+		long now = clock.getAsLong();
+		Entry entry = entries.get(key);
+		if (entry == null || entry.watermark > currentRevision || now - entry.countedAt >= FULL_RECOUNT_INTERVAL_MILLIS) {
+			long count = counter.count(null, currentRevision);
+			entries.put(key, new Entry(count, currentRevision, now));
+			return count;
+		}
+		if (entry.watermark == currentRevision) {
+			return entry.count;
+		}
+		
+		long count = entry.count + counter.count(entry.watermark, currentRevision);
+		entries.put(key, new Entry(count, currentRevision, entry.countedAt));
+		return count;
+	}
+	
+	void invalidate(List<Object> key) {
+		entries.remove(key);
+	}
+	
+	private static class Entry {
+		
+		private final long count;
+		
+		private final int watermark;
+		
+		private final long countedAt;
+		
+		Entry(long count, int watermark, long countedAt) {
+			this.count = count;
+			this.watermark = watermark;
+			this.countedAt = countedAt;
+		}
+	}
+}
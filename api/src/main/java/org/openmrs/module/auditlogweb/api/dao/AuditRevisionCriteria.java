@@ -0,0 +1,95 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Filters applied to revision listings that span several audited entity classes.
+ */
+@Getter
+@Builder
+public class AuditRevisionCriteria {
+	
+	/**
+	 * Optional ids of the users who may have made the change. An empty collection matches no
+	 * revision.
+	 */
+	private final Collection<Integer> userIds;
+	
+	/**
+	 * Optional lower bound (inclusive) of the revision date.
+	 */
+	private final Date startDate;
+	
+	/**
+	 * Optional upper bound (inclusive) of the revision date.
+	 */
+	private final Date endDate;
+	
+	/**
+	 * Sort order by revision, "asc" or "desc"; anything else is treated as "desc".
+	 */
+	private final String sortOrder;
+	
+	/**
+	 * Optional position of the last row of the previous page. When set, only rows after it in the
+	 * sort order are returned and the page number is ignored.
+	 */
+	private final AuditRevisionCursor cursor;
+	
+	/**
+	 * Optional exclusive lower bound of the revision number, used to count only revisions created
+	 * since a previous count.
+	 */
+	private final Integer revisionAbove;
+	
+	/**
+	 * Optional inclusive upper bound of the revision number.
+	 */
+	private final Integer revisionUpTo;
+	
+	public boolean isAscending() {
+		return "asc".equalsIgnoreCase(sortOrder);
+	}
+	
+	public boolean hasRevisionFilters() {
+		return userIds != null || startDate != null || endDate != null;
+	}
+	
+	/**
+	 * @return whether the user filter leaves no user, in which case no revision can match
+	 */
+	public boolean matchesNoUser() {
+		return userIds != null && userIds.isEmpty();
+	}
+	
+	public boolean hasRevisionRange() {
+		return revisionAbove != null || revisionUpTo != null;
+	}
+	
+	public static class AuditRevisionCriteriaBuilder {
+		
+		/**
+		 * Restricts the criteria to the changes of a single user.
+		 *
+		 * @param userId the id of the user, or {@code null} not to filter by user
+		 */
+		public AuditRevisionCriteriaBuilder userId(Integer userId) {
+			this.userIds = userId != null ? Collections.singletonList(userId) : null;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last audit row of a page in a cross-entity listing: its revision number, entity
+ * class name and entity id. The next page is read with a seek predicate on these values instead of
+ * an offset, so deep pages cost the same as the first one. Clients receive it as an opaque string.
+ * <p>
+ * Within a revision, rows are ordered by {@link #entityKey(String)} of their entity name rather than
+ * by the name itself, because the database compares names with its own collation, which is often
+ * case-insensitive, while Java compares them by code point. The key is a number, so every query and
+ * every in-memory merge orders rows the same way.
+ * </p>
+ */
+@Data
+@AllArgsConstructor
+public class AuditRevisionCursor {
+	
+	private static final String SEPARATOR = "|";
+	
+	private int revision;
+	
+	private String entityName;
+	
+	private String entityId;
+	
+	/**
+	 * @return the entity id as a number, or 0 if the entity has a textual id
+	 */
+	public long getEntityOrder() {
+		try {
+			return Long.parseLong(entityId);
+		}
+		catch (NumberFormatException e) {
+			return 0L;
+		}
+	}
+	
+	/**
+	 * @return the sort key of the entity name, see {@link #entityKey(String)}
+	 */
+	public long getEntityKey() {
+		return entityKey(entityName);
+	}
+	
+	/**
+	 * Computes the sort key that orders the rows of different entities within one revision: a
+	 * non-negative 64-bit FNV-1a hash of the entity name. It is stable across restarts and needs no
+	 * registry of entity names.
+	 *
+	 * @param entityName the audited entity name
+	 * @return the sort key of the entity name
+	 */
+	public static long entityKey(String entityName) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : entityName.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash & Long.MAX_VALUE;
+	}
+	
+	/**
+	 * @return the cursor as an opaque, URL-safe string
+	 */
+	public String encode() {
+		String value = revision + SEPARATOR + entityName + SEPARATOR + entityId;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Reads a cursor previously produced by {@link #encode()}.
+	 *
+	 * @param cursor the opaque cursor string
+	 * @return the decoded cursor
+	 * @throws IllegalArgumentException if the string is not a valid cursor
+	 */
+	public static AuditRevisionCursor decode(String cursor) {
+		try {
+			String value = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+			String[] parts = value.split("\\" + SEPARATOR, 3);
+			if (parts.length != 3 || parts[1].isEmpty() || parts[2].isEmpty()) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			}
+			return new AuditRevisionCursor(Integer.parseInt(parts[0]), parts[1], parts[2]);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery.RevisionTableMetadata;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Data access object for the {@code audit_revision_index} table, a narrow summary of every audit row
+ * (revision, entity name, entity id, revision type, author and date). Numeric ids are also kept in
+ * {@code entity_order} so rows sort like the union query and the per-class merge. Live rows are written by
+ * {@link org.openmrs.module.auditlogweb.api.listener.AuditRevisionIndexListener}, history is copied
+ * by {@link org.openmrs.module.auditlogweb.api.task.AuditRevisionIndexBackfill}. Cross-entity
+ * listings are answered from this table once the backfill has caught up.
+ */
+@Repository("auditlogweb.AuditRevisionIndexDao")
+@RequiredArgsConstructor
+public class AuditRevisionIndexDao {
+	
+	static final String INDEX_TABLE = "audit_revision_index";
+	
+	static final String PROGRESS_TABLE = "audit_revision_index_progress";
+	
+	private static final String INSERT_INDEX_ROW = "insert into " + INDEX_TABLE
+	        + " (rev, entity_name, entity_key, entity_id, entity_order, revision_type, changed_by, changed_on)"
+	        + " values (?, ?, ?, ?, ?, ?, ?, ?)";
+	
+	private final SessionFactory sessionFactory;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private volatile boolean ready;
+	
+	/**
+	 * @return true once the index covers the full audit history and can answer listings
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+	
+	/**
+	 * Marks whether the index is complete. Set by the backfill once it has caught up with history.
+	 *
+	 * @param ready true if the index covers the full audit history
+	 */
+	public void setReady(boolean ready) {
+		this.ready = ready;
+	}
+	
+	/**
+	 * Fetches the keys of one page of audit rows from the index, ordered by revision. When the
+	 * criteria carry a cursor, the page starts right after it and the page number is ignored.
+	 *
+	 * @param classes the audited entity classes to return rows of
+	 * @param criteria the revision filters, sort order and optional cursor
+	 * @param page the page number (0-based)
+	 * @param size the number of rows per page
+	 * @return the keys of the matching audit rows, in display order
+	 */
+	public List<AuditRevisionKey> findRevisionKeys(List<Class<?>> classes, AuditRevisionCriteria criteria, int page,
+	        int size) {
+		if (classes.isEmpty() || size <= 0) {
+			return Collections.emptyList();
+		}
+		
+		String direction = criteria.isAscending() ? "asc" : "desc";
+		StringBuilder sql = new StringBuilder("select i.rev, i.entity_name, i.entity_id from ").append(INDEX_TABLE)
+		        .append(" i where 1=1");
+		appendIndexFilters(sql, true, criteria);
+		if (criteria.getCursor() != null) {
+			page = 0;
+			sql.append(" and ").append(CrossEntityRevisionQuery.buildSeekPredicate(criteria.isAscending(),
+			    new String[] { "i.rev", "i.entity_key", "i.entity_order", "i.entity_id" },
+			    new String[] { ":cursorRevision", ":cursorEntityKey", ":cursorEntityOrder", ":cursorEntityId" }));
+		}
+		sql.append(" order by i.rev ").append(direction).append(", i.entity_key ").append(direction)
+		        .append(", i.entity_order ").append(direction).append(", i.entity_id ").append(direction);
+		
+		NativeQuery<?> query = sessionFactory.getCurrentSession().createNativeQuery(sql.toString());
+		bindIndexFilters(query, classes, true, criteria);
+		if (criteria.getCursor() != null) {
+			CrossEntityRevisionQuery.bindCursor(query, criteria.getCursor());
+			query.setParameter("cursorEntityOrder", criteria.getCursor().getEntityOrder());
+		}
+		query.setFirstResult(page * size);
+		query.setMaxResults(size);
+		
+		Map<String, Class<?>> classesByName = new HashMap<>();
+		classes.forEach(clazz -> classesByName.put(clazz.getName(), clazz));
+		
+		List<AuditRevisionKey> keys = new ArrayList<>();
+		for (Object row : query.getResultList()) {
+			Object[] columns = (Object[]) row;
+			keys.add(new AuditRevisionKey(((Number) columns[0]).intValue(), classesByName.get(String.valueOf(columns[1])),
+			        String.valueOf(columns[2])));
+		}
+		return keys;
+	}
+	
+	/**
+	 * Counts the audit rows in the index that match the criteria.
+	 *
+	 * @param classes the audited entity classes to count
+	 * @param criteria the revision filters
+	 * @return the number of matching audit rows
+	 */
+	public long countRevisions(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		if (classes.isEmpty()) {
+			return 0L;
+		}
+		StringBuilder sql = new StringBuilder("select count(*) from ").append(INDEX_TABLE).append(" i where 1=1");
+		appendIndexFilters(sql, true, criteria);
+		
+		NativeQuery<?> query = sessionFactory.getCurrentSession().createNativeQuery(sql.toString());
+		bindIndexFilters(query, classes, true, criteria);
+		Number count = (Number) query.getSingleResult();
+		return count != null ? count.longValue() : 0L;
+	}
+	
+	/**
+	 * Lists the entity names changed in the revisions matching the user and date filters.
+	 *
+	 * @param criteria the revision filters
+	 * @return the distinct entity names
+	 */
+	public List<String> findChangedEntityNames(AuditRevisionCriteria criteria) {
+		StringBuilder sql = new StringBuilder("select distinct i.entity_name from ").append(INDEX_TABLE)
+		        .append(" i where 1=1");
+		appendIndexFilters(sql, false, criteria);
+		
+		NativeQuery<?> query = sessionFactory.getCurrentSession().createNativeQuery(sql.toString());
+		CrossEntityRevisionQuery.bindRevisionFilters(query, criteria);
+		return query.getResultList().stream().map(String::valueOf).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Writes one index row on the given connection. Used from the Envers listener, which runs while
+	 * Hibernate is flushing and therefore must not go through the session.
+	 */
+	public static void insertIndexRow(Connection connection, int revision, String entityName, String entityId,
+	        long entityOrder, byte revisionType, Integer changedBy, Date changedOn) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(INSERT_INDEX_ROW)) {
+			statement.setInt(1, revision);
+			statement.setString(2, entityName);
+			statement.setLong(3, AuditRevisionCursor.entityKey(entityName));
+			statement.setString(4, entityId);
+			statement.setLong(5, entityOrder);
+			statement.setShort(6, revisionType);
+			if (changedBy != null) {
+				statement.setInt(7, changedBy);
+			} else {
+				statement.setNull(7, Types.INTEGER);
+			}
+			statement.setTimestamp(8, changedOn != null ? new Timestamp(changedOn.getTime()) : null);
+			statement.executeUpdate();
+		}
+	}
+	
+	/**
+	 * @param table the audit table
+	 * @return the highest revision currently present in the audit table, or null if it is empty
+	 */
+	public Integer getMaxRevision(AuditTableMetadata table) {
+		Number max = (Number) sessionFactory.getCurrentSession()
+		        .createNativeQuery("select max(a." + table.getRevisionColumn() + ") from " + table.getTableName() + " a")
+		        .getSingleResult();
+		return max != null ? max.intValue() : null;
+	}
+	
+	/**
+	 * @param entityName the audited entity name
+	 * @return the revision up to which the entity has been backfilled, or 0 if it has not started
+	 */
+	public int getBackfillPosition(String entityName) {
+		Number position = (Number) sessionFactory.getCurrentSession()
+		        .createNativeQuery("select p.last_revision from " + PROGRESS_TABLE + " p where p.entity_name = :entityName")
+		        .setParameter("entityName", entityName).uniqueResult();
+		return position != null ? position.intValue() : 0;
+	}
+	
+	/**
+	 * Records the revision up to which an entity has been backfilled.
+	 *
+	 * @param entityName the audited entity name
+	 * @param revision the last backfilled revision
+	 */
+	public void saveBackfillPosition(String entityName, int revision) {
+		int updated = sessionFactory.getCurrentSession()
+		        .createNativeQuery(
+		            "update " + PROGRESS_TABLE + " set last_revision = :revision where entity_name = :entityName")
+		        .setParameter("revision", revision).setParameter("entityName", entityName).executeUpdate();
+		if (updated == 0) {
+			sessionFactory.getCurrentSession()
+			        .createNativeQuery("insert into " + PROGRESS_TABLE
+			                + " (entity_name, last_revision) values (:entityName, :revision)")
+			        .setParameter("entityName", entityName).setParameter("revision", revision).executeUpdate();
+		}
+	}
+	
+	/**
+	 * Copies the audit rows of one table within a revision window into the index, skipping rows that
+	 * are already indexed so the copy can be repeated safely.
+	 *
+	 * @param table the audit table to copy from
+	 * @param fromRevision lower revision bound (exclusive)
+	 * @param toRevision upper revision bound (inclusive)
+	 * @return the number of rows inserted
+	 */
+	public int backfillRevisions(AuditTableMetadata table, int fromRevision, int toRevision) {
+		String sql = buildBackfillSql(table, crossEntityRevisionQuery.getRevisionTableMetadata(),
+		    crossEntityRevisionQuery.getCastTypeName());
+		return sessionFactory.getCurrentSession().createNativeQuery(sql).setParameter("fromRevision", fromRevision)
+		        .setParameter("toRevision", toRevision).executeUpdate();
+	}
+	
+	static String buildBackfillSql(AuditTableMetadata table, RevisionTableMetadata revisions, String castTypeName) {
+		String entityId = "cast(a." + table.getIdColumn() + " as " + castTypeName + ")";
+		String entityName = "'" + table.getEntityClass().getName() + "'";
+		String entityOrder = table.hasNumericId() ? "a." + table.getIdColumn() : "0";
+		String revisionTypeAlias = table.isJoinedSubclass() ? "root" : "a";
+		
+		StringBuilder sql = new StringBuilder("insert into ").append(INDEX_TABLE)
+		        .append(" (rev, entity_name, entity_key, entity_id, entity_order, revision_type, changed_by, changed_on)")
+		        .append(" select a.").append(table.getRevisionColumn()).append(", ").append(entityName).append(", ")
+		        .append(CrossEntityRevisionQuery.entityKeyOf(table)).append(", ").append(entityId)
+		        .append(", ").append(entityOrder).append(", ").append(revisionTypeAlias).append('.')
+		        .append(table.getRevisionTypeColumn()).append(", r.").append(revisions.getChangedByColumn())
+		        .append(", r.").append(revisions.getChangedOnColumn())
+		        .append(" from ").append(table.getTableName()).append(" a");
+		if (table.isJoinedSubclass()) {
+			sql.append(" join ").append(table.getRootTableName()).append(" root on root.").append(table.getRootIdColumn())
+			        .append(" = a.").append(table.getIdColumn()).append(" and root.").append(table.getRootRevisionColumn())
+			        .append(" = a.").append(table.getRevisionColumn());
+		}
+		sql.append(" join ").append(revisions.getTableName()).append(" r on r.").append(revisions.getIdColumn())
+		        .append(" = a.").append(table.getRevisionColumn()).append(" where a.").append(table.getRevisionColumn())
+		        .append(" > :fromRevision and a.").append(table.getRevisionColumn()).append(" <= :toRevision")
+		        .append(table.getRowRestriction()).append(" and not exists (select 1 from ").append(INDEX_TABLE)
+		        .append(" i where i.rev = a.").append(table.getRevisionColumn()).append(" and i.entity_name = ")
+		        .append(entityName).append(" and i.entity_id = ").append(entityId).append(')');
+		return sql.toString();
+	}
+	
+	private static void appendIndexFilters(StringBuilder sql, boolean restrictToClasses, AuditRevisionCriteria criteria) {
+		if (restrictToClasses) {
+			sql.append(" and i.entity_name in (:entityNames)");
+		}
+		CrossEntityRevisionQuery.appendRevisionRange(sql, "i.rev", criteria);
+		CrossEntityRevisionQuery.appendChangedBy(sql, "i.changed_by", criteria);
+		if (criteria.getStartDate() != null) {
+			sql.append(" and i.changed_on >= :startDate");
+		}
+		if (criteria.getEndDate() != null) {
+			sql.append(" and i.changed_on <= :endDate");
+		}
+	}
+	
+	private static void bindIndexFilters(NativeQuery<?> query, List<Class<?>> classes, boolean restrictToClasses,
+	        AuditRevisionCriteria criteria) {
+		if (restrictToClasses) {
+			query.setParameterList("entityNames", classes.stream().map(Class::getName).collect(Collectors.toList()));
+		}
+		CrossEntityRevisionQuery.bindRevisionFilters(query, criteria);
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Identifies a single audit row: one revision of one entity instance. Keys are cheap to fetch in
+ * bulk and are hydrated into full {@link org.openmrs.module.auditlogweb.AuditEntity} objects only
+ * for the rows that are actually returned to the caller.
+ */
+@Data
+@AllArgsConstructor
+public class AuditRevisionKey {
+	
+	private int revision;
+	
+	private Class<?> entityClass;
+	
+	/**
+	 * The entity identifier rendered as a string, so keys of entities with numeric and textual ids
+	 * can be compared and stored together.
+	 */
+	private String entityId;
+}
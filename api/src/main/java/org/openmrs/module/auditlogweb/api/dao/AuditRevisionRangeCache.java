@@ -0,0 +1,360 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.SessionFactory;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery.RevisionTableMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers the lowest and highest revision present in each audit table, so that cross-entity
+ * queries bounded by a revision or date range skip the classes that hold no revision inside it.
+ * Many audited classes have few or no revisions at all, and without this every bounded page still
+ * queries them.
+ * <p>
+ * Ranges are refreshed on a background thread, so requests never wait for the per-table queries:
+ * a request narrows with the ranges known so far and keeps every class whose range is not known yet.
+ * Refreshes are incremental, reading only the revisions created since the previous refresh, and run
+ * at most once every {@link #REFRESH_INTERVAL_MILLIS}. Revisions newer than the last refresh are
+ * unknown, so a range reaching past it never excludes a class. Date bounds are checked against the
+ * dates of the lowest and highest revision, which relies on revision dates increasing with revision
+ * numbers. As with {@link AuditRevisionCountCache}, a revision committed after a higher one was read
+ * is missed by the incremental refresh, so all ranges are rebuilt every
+ * {@link #FULL_REFRESH_INTERVAL_MILLIS}.
+ * </p>
+ */
+@Component("auditlogweb.AuditRevisionRangeCache")
+public class AuditRevisionRangeCache {
+	
+	static final long REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	
+	static final long FULL_REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	private final Logger log = LoggerFactory.getLogger(AuditRevisionRangeCache.class);
+	
+	private final SessionFactory sessionFactory;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final TransactionTemplate transactionTemplate;
+	
+	private final Map<String, RevisionRange> ranges = new ConcurrentHashMap<>();
+	
+	private final Map<String, Class<?>> trackedClasses = new ConcurrentHashMap<>();
+	
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	
+	private Executor refreshExecutor;
+	
+	private ExecutorService ownedExecutor;
+	
+	private volatile long refreshedAt;
+	
+	private volatile long fullyRefreshedAt;
+	
+	@Autowired
+	public AuditRevisionRangeCache(SessionFactory sessionFactory, CrossEntityRevisionQuery crossEntityRevisionQuery,
+	    @Qualifier("transactionManager") PlatformTransactionManager transactionManager) {
+		this(sessionFactory, crossEntityRevisionQuery, transactionManager, null);
+	}
+	
+	AuditRevisionRangeCache(SessionFactory sessionFactory, CrossEntityRevisionQuery crossEntityRevisionQuery,
+	    PlatformTransactionManager transactionManager, Executor refreshExecutor) {
+		this.sessionFactory = sessionFactory;
+		this.crossEntityRevisionQuery = crossEntityRevisionQuery;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setReadOnly(true);
+		this.refreshExecutor = refreshExecutor;
+	}
+	
+	/**
+	 * Keeps only the classes that may hold revisions inside the revision and date bounds of the
+	 * criteria. Never waits for a refresh; stale or missing ranges are refreshed in the background.
+	 *
+	 * @param classes the candidate audited entity classes
+	 * @param criteria the revision filters, revision range and cursor
+	 * @return the classes worth querying, or {@code classes} unchanged if the criteria are unbounded
+	 */
+	public List<Class<?>> narrowToClassesInRange(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		Integer lowest = lowestRevision(criteria);
+		Integer highest = highestRevision(criteria);
+		if (lowest == null && highest == null && criteria.getStartDate() == null && criteria.getEndDate() == null) {
+			return classes;
+		}
+		
+		classes.forEach(clazz -> trackedClasses.putIfAbsent(clazz.getName(), clazz));
+		boolean allKnown = classes.stream().allMatch(clazz -> ranges.containsKey(clazz.getName()));
+		if (!allKnown || System.currentTimeMillis() - refreshedAt >= REFRESH_INTERVAL_MILLIS) {
+			requestRefresh();
+		}
+		return classes.stream().filter(clazz -> {
+			RevisionRange range = ranges.get(clazz.getName());
+			return range == null || range.mayHaveRevisions(lowest, highest, criteria.getStartDate(), criteria.getEndDate());
+		}).collect(Collectors.toList());
+	}
+	
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdownNow();
+			ownedExecutor = null;
+			refreshExecutor = null;
+		}
+	}
+	
+	private void requestRefresh() {
+		if (!refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			getRefreshExecutor().execute(this::refresh);
+		}
+		catch (RejectedExecutionException e) {
+			refreshing.set(false);
+		}
+	}
+	
+	private synchronized Executor getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			ownedExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "auditlogweb-revision-range-refresh");
+				thread.setDaemon(true);
+				return thread;
+			});
+			refreshExecutor = ownedExecutor;
+		}
+		return refreshExecutor;
+	}
+	
+	/**
+	 * Extends the ranges of all classes seen so far with the revisions created since they were last
+	 * checked, or rebuilds them all once the full refresh interval has passed. Revision dates are read
+	 * with a single query for all classes.
+	 */
+	void refresh() {
+		try {
+			long now = System.currentTimeMillis();
+			boolean full = now - fullyRefreshedAt >= FULL_REFRESH_INTERVAL_MILLIS;
+			RevisionTableMetadata revisions = crossEntityRevisionQuery.getRevisionTableMetadata();
+			Object[] current = transactionTemplate.execute(status -> findLatestRevision(revisions));
+			if (current == null) {
+				return;
+			}
+			int currentRevision = ((Number) current[0]).intValue();
+			Date currentDate = (Date) current[1];
+			
+			Map<String, RevisionRange> previousRanges = new HashMap<>();
+			Map<String, Integer[]> addedRevisions = new LinkedHashMap<>();
+			for (Class<?> clazz : new ArrayList<>(trackedClasses.values())) {
+				RevisionRange previous = full ? null : ranges.get(clazz.getName());
+				int checkedUpTo = previous != null ? previous.checkedUpTo : 0;
+				if (checkedUpTo >= currentRevision) {
+					continue;
+				}
+				try {
+					Integer[] added = transactionTemplate
+					        .execute(status -> findAddedRevisions(clazz, checkedUpTo, currentRevision));
+					if (added != null) {
+						previousRanges.put(clazz.getName(), previous);
+						addedRevisions.put(clazz.getName(), added);
+					}
+				}
+				catch (Exception e) {
+					ranges.remove(clazz.getName());
+					log.debug("Could not refresh the audit revision range of {}: {}", clazz.getName(), e.getMessage());
+				}
+			}
+			
+			Set<Integer> datedRevisions = new HashSet<>();
+			addedRevisions.values().forEach(added -> {
+				if (added[0] != null) {
+					datedRevisions.add(added[0]);
+					datedRevisions.add(added[1]);
+				}
+			});
+			Map<Integer, Date> dates = datedRevisions.isEmpty() ? new HashMap<>()
+			        : transactionTemplate.execute(status -> findRevisionDates(revisions, datedRevisions));
+			
+			addedRevisions.forEach((entityName, added) -> {
+				RevisionRange previous = previousRanges.get(entityName);
+				RevisionRange range = previous != null ? previous : new RevisionRange();
+				ranges.put(entityName, range.extend(added[0], added[1], currentRevision, currentDate, dates::get));
+			});
+			refreshedAt = now;
+			if (full) {
+				fullyRefreshedAt = now;
+			}
+		}
+		catch (Exception e) {
+			log.debug("Could not refresh the audit revision ranges: {}", e.getMessage());
+		}
+		finally {
+			refreshing.set(false);
+		}
+	}
+	
+	/**
+	 * @return the lowest and highest revision of the class after {@code fromRevision}, each
+	 *         {@code null} if there is none, or {@code null} if the class has no audit table
+	 */
+	private Integer[] findAddedRevisions(Class<?> clazz, int fromRevision, int toRevision) {
+		Optional<AuditTableMetadata> table = crossEntityRevisionQuery.getTableMetadata(clazz);
+		if (!table.isPresent()) {
+			return null;
+		}
+		
+		String revisionColumn = "a." + table.get().getRevisionColumn();
+		Object[] added = (Object[]) sessionFactory.getCurrentSession()
+		        .createNativeQuery("select min(" + revisionColumn + "), max(" + revisionColumn + ") from "
+		                + table.get().getTableName() + " a where " + revisionColumn + " > :fromRevision and "
+		                + revisionColumn + " <= :toRevision" + table.get().getRowRestriction())
+		        .setParameter("fromRevision", fromRevision).setParameter("toRevision", toRevision).getSingleResult();
+		return new Integer[] { added[0] != null ? ((Number) added[0]).intValue() : null,
+		        added[1] != null ? ((Number) added[1]).intValue() : null };
+	}
+	
+	private Object[] findLatestRevision(RevisionTableMetadata revisions) {
+		List<?> rows = sessionFactory.getCurrentSession()
+		        .createNativeQuery("select r." + revisions.getIdColumn() + ", r." + revisions.getChangedOnColumn()
+		                + " from " + revisions.getTableName() + " r order by r." + revisions.getIdColumn() + " desc")
+		        .setMaxResults(1).getResultList();
+		return rows.isEmpty() ? null : (Object[]) rows.get(0);
+	}
+	
+	private Map<Integer, Date> findRevisionDates(RevisionTableMetadata revisions, Set<Integer> revisionNumbers) {
+		List<?> rows = sessionFactory.getCurrentSession()
+		        .createNativeQuery("select r." + revisions.getIdColumn() + ", r." + revisions.getChangedOnColumn()
+		                + " from " + revisions.getTableName() + " r where r." + revisions.getIdColumn()
+		                + " in (:revisions)")
+		        .setParameterList("revisions", revisionNumbers).getResultList();
+		Map<Integer, Date> dates = new HashMap<>();
+		for (Object row : rows) {
+			Object[] columns = (Object[]) row;
+			dates.put(((Number) columns[0]).intValue(), (Date) columns[1]);
+		}
+		return dates;
+	}
+	
+	/**
+	 * @return the lowest revision number the criteria can match, or {@code null} if unbounded
+	 */
+	static Integer lowestRevision(AuditRevisionCriteria criteria) {
+		Integer lowest = criteria.getRevisionAbove() != null ? criteria.getRevisionAbove() + 1 : null;
+		if (criteria.getCursor() != null && criteria.isAscending()) {
+			lowest = lowest != null ? Math.max(lowest, criteria.getCursor().getRevision())
+			        : criteria.getCursor().getRevision();
+		}
+		return lowest;
+	}
+	
+	/**
+	 * @return the highest revision number the criteria can match, or {@code null} if unbounded
+	 */
+	static Integer highestRevision(AuditRevisionCriteria criteria) {
+		Integer highest = criteria.getRevisionUpTo();
+		if (criteria.getCursor() != null && !criteria.isAscending()) {
+			highest = highest != null ? Math.min(highest, criteria.getCursor().getRevision())
+			        : criteria.getCursor().getRevision();
+		}
+		return highest;
+	}
+	
+	/**
+	 * Revisions known to be present in one audit table, up to the revision of the last refresh.
+	 */
+	static class RevisionRange {
+		
+		private final Integer minRevision;
+		
+		private final Integer maxRevision;
+		
+		private final Date minDate;
+		
+		private final Date maxDate;
+		
+		private final int checkedUpTo;
+		
+		private final Date checkedUpToDate;
+		
+		RevisionRange() {
+			this(null, null, null, null, 0, null);
+		}
+		
+		RevisionRange(Integer minRevision, Integer maxRevision, Date minDate, Date maxDate, int checkedUpTo,
+		    Date checkedUpToDate) {
+			this.minRevision = minRevision;
+			this.maxRevision = maxRevision;
+			this.minDate = minDate;
+			this.maxDate = maxDate;
+			this.checkedUpTo = checkedUpTo;
+			this.checkedUpToDate = checkedUpToDate;
+		}
+		
+		RevisionRange extend(Integer addedMin, Integer addedMax, int checkedUpTo, Date checkedUpToDate,
+		        IntFunction<Date> revisionDate) {
+			if (addedMin == null) {
+				return new RevisionRange(minRevision, maxRevision, minDate, maxDate, checkedUpTo, checkedUpToDate);
+			}
+			boolean wasEmpty = minRevision == null;
+			return new RevisionRange(wasEmpty ? addedMin : minRevision, addedMax,
+			        wasEmpty ? revisionDate.apply(addedMin) : minDate, revisionDate.apply(addedMax), checkedUpTo,
+			        checkedUpToDate);
+		}
+		
+		/**
+		 * @param lowest the lowest revision wanted, or {@code null}
+		 * @param highest the highest revision wanted, or {@code null}
+		 * @param startDate the earliest revision date wanted, or {@code null}
+		 * @param endDate the latest revision date wanted, or {@code null}
+		 * @return false only if the table is known to hold no revision inside the bounds
+		 */
+		boolean mayHaveRevisions(Integer lowest, Integer highest, Date startDate, Date endDate) {
+			boolean reachesUnchecked = (highest == null || highest > checkedUpTo)
+			        && (endDate == null || checkedUpToDate == null || !endDate.before(checkedUpToDate));
+			if (reachesUnchecked) {
+				return true;
+			}
+			if (minRevision == null) {
+				return false;
+			}
+			boolean revisionsOverlap = (lowest == null || lowest <= maxRevision)
+			        && (highest == null || highest >= minRevision);
+			boolean datesOverlap = (startDate == null || maxDate == null || !startDate.after(maxDate))
+			        && (endDate == null || minDate == null || !endDate.before(minDate));
+			return revisionsOverlap && datesOverlap;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Physical layout of the Envers audit table of a single audited entity class, as resolved from the
+ * Hibernate metamodel. For joined subclasses the own table only holds the subclass columns, while
+ * the revision type lives in the table of the hierarchy root.
+ */
+@Getter
+@Builder
+public class AuditTableMetadata {
+	
+	private final Class<?> entityClass;
+	
+	private final String auditEntityName;
+	
+	private final String tableName;
+	
+	private final String idColumn;
+	
+	private final String revisionColumn;
+	
+	private final Class<?> idType;
+	
+	private final String rootTableName;
+	
+	private final String rootIdColumn;
+	
+	private final String rootRevisionColumn;
+	
+	private final String revisionTypeColumn;
+	
+	/**
+	 * Extra SQL conditions on the audit table alias {@code a} that keep only the rows of this exact
+	 * entity class, for example excluding rows that belong to a joined subclass. Empty when the
+	 * table holds no other entity's rows.
+	 */
+	@Builder.Default
+	private final String rowRestriction = "";
+	
+	/**
+	 * @return true if the entity identifier is numeric and can be ordered as a number
+	 */
+	public boolean hasNumericId() {
+		return Number.class.isAssignableFrom(idType) || (idType.isPrimitive() && idType != boolean.class);
+	}
+	
+	/**
+	 * @return true if the revision type column is stored in the hierarchy root table
+	 */
+	public boolean isJoinedSubclass() {
+		return rootTableName != null && !rootTableName.equalsIgnoreCase(tableName);
+	}
+}
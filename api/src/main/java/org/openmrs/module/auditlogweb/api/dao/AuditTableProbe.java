@@ -0,0 +1,120 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Finds the audited classes whose audit tables are missing from the database, for example because
+ * the audit schema was never generated for them. The check reads JDBC {@link DatabaseMetaData} once
+ * when the module starts or its context is refreshed, so listings skip those classes instead of
+ * running queries that are known to fail.
+ */
+@Component("auditlogweb.AuditTableProbe")
+@RequiredArgsConstructor
+public class AuditTableProbe {
+	
+	private final Logger log = LoggerFactory.getLogger(AuditTableProbe.class);
+	
+	private final SessionFactory sessionFactory;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final AuditedEntityRegistry auditedEntityRegistry;
+	
+	private volatile Set<String> classesWithoutAuditTables = Collections.emptySet();
+	
+	/**
+	 * @param entityClass an audited entity class
+	 * @return false if the last probe found the audit table of the class missing; classes not probed
+	 *         yet are assumed to be queryable
+	 */
+	public boolean isQueryable(Class<?> entityClass) {
+		return !classesWithoutAuditTables.contains(entityClass.getName());
+	}
+	
+	/**
+	 * Checks the audit tables of every audited class against the database metadata and caches the
+	 * classes whose tables are missing.
+	 */
+	public void probe() {
+		Set<String> missing = new LinkedHashSet<>();
+		try (Session session = sessionFactory.openSession()) {
+			session.doWork(connection -> {
+				DatabaseMetaData metaData = connection.getMetaData();
+				for (Class<?> entityClass : auditedEntityRegistry.getAuditedEntityClasses()) {
+					if (!hasAuditTables(connection, metaData, entityClass)) {
+						missing.add(entityClass.getName());
+					}
+				}
+			});
+		}
+		catch (Exception e) {
+			log.warn("Could not probe the audit tables, all audited classes will be queried: {}", e.getMessage());
+			return;
+		}
+		
+		classesWithoutAuditTables = Collections.unmodifiableSet(missing);
+		if (!missing.isEmpty()) {
+			log.warn("Audit tables are missing for {} audited classes, which are skipped in audit listings: {}",
+			    missing.size(), missing);
+		}
+	}
+	
+	private boolean hasAuditTables(Connection connection, DatabaseMetaData metaData, Class<?> entityClass)
+	        throws SQLException {
+		Optional<AuditTableMetadata> table = crossEntityRevisionQuery.getTableMetadata(entityClass);
+		if (!table.isPresent()) {
+			return true;
+		}
+		
+		String catalog = connection.getCatalog();
+		String schema = connection.getSchema();
+		if (!tableExists(metaData, catalog, schema, table.get().getTableName())) {
+			return false;
+		}
+		return !table.get().isJoinedSubclass()
+		        || tableExists(metaData, catalog, schema, table.get().getRootTableName());
+	}
+	
+	/**
+	 * Looks a table up under its mapped name and in upper and lower case, since databases differ in
+	 * how they store unquoted identifiers.
+	 */
+	static boolean tableExists(DatabaseMetaData metaData, String catalog, String schema, String tableName)
+	        throws SQLException {
+		String name = tableName.substring(tableName.lastIndexOf('.') + 1);
+		for (String candidate : new LinkedHashSet<>(
+		        Arrays.asList(name, name.toUpperCase(Locale.ROOT), name.toLowerCase(Locale.ROOT)))) {
+			try (ResultSet tables = metaData.getTables(catalog, schema, candidate, new String[] { "TABLE" })) {
+				if (tables.next()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Holds the concrete entity classes audited by Envers, read from the Hibernate metamodel as soon as
+ * the bean is created, and again when the module starts or its context is refreshed. Unlike a
+ * classpath scan for {@code @Audited}, this includes the entities of other modules and leaves out
+ * annotated classes that are not mapped. The classes are also indexed by their names, ignoring case,
+ * so entity types given in requests resolve without loading classes. The lists and indexes are
+ * replaced as a whole and never modified, so they can be read from any thread.
+ */
+@Component("auditlogweb.AuditedEntityRegistry")
+@RequiredArgsConstructor
+public class AuditedEntityRegistry {
+	
+	private static final Logger log = LoggerFactory.getLogger(AuditedEntityRegistry.class);
+	
+	private final SessionFactory sessionFactory;
+	
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+	
+	/**
+	 * @return the audited entity classes sorted by name; the same list instance is returned until the
+	 *         registry is refreshed
+	 */
+	public List<Class<?>> getAuditedEntityClasses() {
+		return snapshot.classes;
+	}
+	
+	/**
+	 * @return the fully qualified names of the audited entity classes, sorted
+	 */
+	public List<String> getAuditedEntityNames() {
+		return snapshot.names;
+	}
+	
+	/**
+	 * @param className the fully qualified or simple name of an entity class, in any case
+	 * @return the audited entity class of that fully qualified name, or else the first one of that
+	 *         simple name; {@code null} if there is none or the name is blank
+	 */
+	public Class<?> findByName(String className) {
+		if (StringUtils.isBlank(className)) {
+			return null;
+		}
+		Snapshot current = snapshot;
+		String key = className.trim().toLowerCase(Locale.ROOT);
+		Class<?> clazz = current.byName.get(key);
+		if (clazz != null) {
+			return clazz;
+		}
+		List<Class<?>> matches = current.bySimpleName.get(key);
+		return matches != null ? matches.get(0) : null;
+	}
+	
+	/**
+	 * @param simpleName the simple name of an entity class, in any case
+	 * @return the audited entity classes of that simple name, sorted by fully qualified name
+	 */
+	public List<Class<?>> findBySimpleName(String simpleName) {
+		if (simpleName == null) {
+			return Collections.emptyList();
+		}
+		return snapshot.bySimpleName.getOrDefault(simpleName.trim().toLowerCase(Locale.ROOT), Collections.emptyList());
+	}
+	
+	/**
+	 * Reads the audited entities from the metamodel of the session factory. If that fails, the
+	 * entities read last are kept.
+	 */
+	@PostConstruct
+	public void refresh() {
+		try {
+			SessionFactoryImplementor factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+			EnversService enversService = factory.getServiceRegistry().getService(EnversService.class);
+			if (enversService == null || !enversService.isEnabled()) {
+				log.warn("Envers is not enabled, no entities are audited");
+				snapshot = new Snapshot(Collections.emptyList());
+				return;
+			}
+			
+			Map<String, EntityPersister> persisters = factory.getMetamodel().entityPersisters();
+			List<Class<?>> classes = findAuditedEntityClasses(persisters.values(),
+			    enversService.getEntitiesConfigurations()::isVersioned);
+			snapshot = new Snapshot(classes);
+			log.info("Found {} audited entities", classes.size());
+		}
+		catch (RuntimeException e) {
+			log.warn("Could not read the audited entities, keeping the {} found before: {}", snapshot.classes.size(),
+			    e.getMessage());
+		}
+	}
+	
+	/**
+	 * @param persisters the entity persisters of the session factory
+	 * @param isAudited tells whether Envers audits the entity of the given name
+	 * @return the concrete mapped classes of the audited entities, sorted by name
+	 */
+	static List<Class<?>> findAuditedEntityClasses(Collection<EntityPersister> persisters, Predicate<String> isAudited) {
+		return persisters.stream().filter(persister -> isAudited.test(persister.getEntityName()))
+		        .map(EntityPersister::getMappedClass).filter(Objects::nonNull)
+		        .filter(mappedClass -> !Modifier.isAbstract(mappedClass.getModifiers())).distinct()
+		        .sorted(Comparator.comparing(Class::getName)).collect(Collectors.toList());
+	}
+	
+	private static final class Snapshot {
+		
+		private final List<Class<?>> classes;
+		
+		private final List<String> names;
+		
+		private final Map<String, Class<?>> byName = new HashMap<>();
+		
+		private final Map<String, List<Class<?>>> bySimpleName = new HashMap<>();
+		
+		private Snapshot(List<Class<?>> classes) {
+			this.classes = Collections.unmodifiableList(classes);
+			this.names = Collections.unmodifiableList(classes.stream().map(Class::getName).collect(Collectors.toList()));
+			Map<String, List<Class<?>>> simpleNames = new HashMap<>();
+			for (Class<?> clazz : classes) {
+				byName.putIfAbsent(clazz.getName().toLowerCase(Locale.ROOT), clazz);
+				simpleNames.computeIfAbsent(clazz.getSimpleName().toLowerCase(Locale.ROOT), name -> new ArrayList<>())
+				        .add(clazz);
+			}
+			simpleNames.forEach((name, matches) -> bySimpleName.put(name, Collections.unmodifiableList(matches)));
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A thread-safe map that drops its least recently used entries once their total weight exceeds a
+ * bound, and optionally treats entries as missing once they are older than a time to live. By
+ * default every entry weighs one, so the bound is a number of entries.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class BoundedLruCache<K, V> {
+	
+	/**
+	 * Time to live of caches whose entries never expire.
+	 */
+	public static final long NO_EXPIRY = Long.MAX_VALUE;
+	
+	private final Map<K, Entry<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+	
+	private final long maxWeight;
+	
+	private final ToLongBiFunction<? super K, ? super V> weigher;
+	
+	private final long timeToLiveMillis;
+	
+	private final LongSupplier clock;
+	
+	private long weight;
+	
+	private long evictions;
+	
+	/**
+	 * @param maxEntries the number of entries above which the least recently used are dropped
+	 */
+	public BoundedLruCache(int maxEntries) {
+		this(maxEntries, NO_EXPIRY, System::currentTimeMillis);
+	}
+	
+	/**
+	 * @param maxEntries the number of entries above which the least recently used are dropped
+	 * @param timeToLiveMillis how long an entry is served after it was put
+	 * @param clock the current time in milliseconds
+	 */
+	public BoundedLruCache(int maxEntries, long timeToLiveMillis, LongSupplier clock) {
+		this(maxEntries, (key, value) -> 1L, timeToLiveMillis, clock);
+	}
+	
+	/**
+	 * @param maxWeight the total weight above which the least recently used entries are dropped
+	 * @param weigher the weight of an entry, such as its estimated size in bytes
+	 */
+	public BoundedLruCache(long maxWeight, ToLongBiFunction<? super K, ? super V> weigher) {
+		this(maxWeight, weigher, NO_EXPIRY, System::currentTimeMillis);
+	}
+	
+	private BoundedLruCache(long maxWeight, ToLongBiFunction<? super K, ? super V> weigher, long timeToLiveMillis,
+	        LongSupplier clock) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.clock = clock;
+	}
+	
+	/**
+	 * @param key the key
+	 * @return the value of the key, or {@code null} if it is not cached or has expired
+	 */
+	public synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (timeToLiveMillis != NO_EXPIRY && clock.getAsLong() - entry.cachedAt >= timeToLiveMillis) {
+			remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+	
+	/**
+	 * Caches a value, dropping the least recently used entries if the cache grows past its bound. A
+	 * value that weighs more than the whole cache is not cached.
+	 *
+	 * @param key the key
+	 * @param value the value, not {@code null}
+	 */
+	public synchronized void put(K key, V value) {
+		long entryWeight = weigher.applyAsLong(key, value);
+		if (entryWeight > maxWeight) {
+			remove(key);
+			return;
+		}
+		
+		Entry<V> previous = entries.put(key, new Entry<>(value, entryWeight, clock.getAsLong()));
+		weight += entryWeight - (previous != null ? previous.weight : 0);
+		Iterator<Entry<V>> eldest = entries.values().iterator();
+		while (weight > maxWeight && eldest.hasNext()) {
+			weight -= eldest.next().weight;
+			eldest.remove();
+			evictions++;
+		}
+	}
+	
+	public synchronized void remove(K key) {
+		Entry<V> removed = entries.remove(key);
+		if (removed != null) {
+			weight -= removed.weight;
+		}
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return the total weight of the cached entries
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+	
+	/**
+	 * @return the number of entries dropped so far to stay within the bound
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+	
+	private static class Entry<V> {
+		
+		private final V value;
+		
+		private final long weight;
+		
+		private final long cachedAt;
+		
+		Entry(V value, long weight, long cachedAt) {
+			this.value = value;
+			this.weight = weight;
+			this.cachedAt = cachedAt;
+		}
+	}
+}
@@ -0,0 +1,556 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Runs revision listings that span several audited entity classes as a single native
+ * {@code UNION ALL} query over their audit tables. Filtering, ordering and pagination happen in the
+ * database, and each branch only projects the revision number, the entity name and the entity id,
+ * so callers hydrate full Envers entities for the returned page only.
+ */
+@Component("auditlogweb.CrossEntityRevisionQuery")
+@RequiredArgsConstructor
+public class CrossEntityRevisionQuery {
+	
+	private final SessionFactory sessionFactory;
+	
+	private final Logger log = LoggerFactory.getLogger(CrossEntityRevisionQuery.class);
+	
+	private final Map<Class<?>, Optional<AuditTableMetadata>> tableMetadata = new ConcurrentHashMap<>();
+	
+	private volatile RevisionTableMetadata revisionTableMetadata;
+	
+	/**
+	 * Checks whether the audit tables of all given classes can be queried by this engine. Classes
+	 * with composite identifiers or without a resolvable audit table are not supported.
+	 *
+	 * @param classes the audited entity classes
+	 * @return true if a single union query can cover all classes
+	 */
+	public boolean supports(Collection<Class<?>> classes) {
+		return classes.stream().allMatch(clazz -> getTableMetadata(clazz).isPresent());
+	}
+	
+	/**
+	 * @param classes the audited entity classes
+	 * @return the classes among them whose audit tables this engine cannot query
+	 */
+	public List<Class<?>> findUnsupported(Collection<Class<?>> classes) {
+		return classes.stream().filter(clazz -> !getTableMetadata(clazz).isPresent()).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Fetches the keys of one page of audit rows across the given classes, ordered by revision. When
+	 * the criteria carry a cursor, the page starts right after it and the page number is ignored.
+	 *
+	 * @param classes the audited entity classes to include
+	 * @param criteria the revision filters, sort order and optional cursor
+	 * @param page the page number (0-based)
+	 * @param size the number of rows per page
+	 * @return the keys of the matching audit rows, in display order
+	 */
+	public List<AuditRevisionKey> findRevisionKeys(List<Class<?>> classes, AuditRevisionCriteria criteria, int page,
+	        int size) {
+		List<AuditTableMetadata> tables = describe(classes);
+		if (tables.isEmpty() || size <= 0) {
+			return Collections.emptyList();
+		}
+		
+		if (criteria.getCursor() != null) {
+			page = 0;
+		}
+		
+		String sql = buildRevisionKeysSql(tables, getRevisionTableMetadata(), criteria, getCastTypeName(), page, size);
+		NativeQuery<?> query = sessionFactory.getCurrentSession().createNativeQuery(sql);
+		bindRevisionFilters(query, criteria);
+		if (criteria.getCursor() != null) {
+			AuditRevisionCursor cursor = criteria.getCursor();
+			bindCursor(query, cursor);
+			query.setParameter("cursorEntityOrder", cursor.getEntityOrder());
+		}
+		query.setFirstResult(page * size);
+		query.setMaxResults(size);
+		
+		Map<String, Class<?>> classesByName = new HashMap<>();
+		tables.forEach(table -> classesByName.put(table.getEntityClass().getName(), table.getEntityClass()));
+		
+		List<AuditRevisionKey> keys = new ArrayList<>();
+		for (Object row : query.getResultList()) {
+			Object[] columns = (Object[]) row;
+			keys.add(new AuditRevisionKey(((Number) columns[0]).intValue(), classesByName.get(String.valueOf(columns[1])),
+			        String.valueOf(columns[2])));
+		}
+		return keys;
+	}
+	
+	/**
+	 * Counts the audit rows across the given classes that match the criteria.
+	 *
+	 * @param classes the audited entity classes to include
+	 * @param criteria the revision filters
+	 * @return the number of matching audit rows
+	 */
+	public long countRevisions(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		List<AuditTableMetadata> tables = describe(classes);
+		if (tables.isEmpty()) {
+			return 0L;
+		}
+		
+		NativeQuery<?> query = sessionFactory.getCurrentSession()
+		        .createNativeQuery(buildCountSql(tables, getRevisionTableMetadata(), criteria));
+		bindRevisionFilters(query, criteria);
+		Number count = (Number) query.getSingleResult();
+		return count != null ? count.longValue() : 0L;
+	}
+	
+	/**
+	 * Finds the audit row that precedes each given audit row of the same entity, that is the highest
+	 * revision of the entity below the given one, in a single query.
+	 *
+	 * @param entityClass the audited entity class, which must be {@link #supports supported}
+	 * @param keys audit rows of that class
+	 * @return the key of the preceding audit row for each given key that has one
+	 */
+	public Map<AuditRevisionKey, AuditRevisionKey> findPreviousRevisionKeys(Class<?> entityClass,
+	        Collection<AuditRevisionKey> keys) {
+		Optional<AuditTableMetadata> table = getTableMetadata(entityClass);
+		if (!table.isPresent() || keys.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		
+		Set<Object> entityIds = new LinkedHashSet<>();
+		Set<Integer> revisions = new LinkedHashSet<>();
+		for (AuditRevisionKey key : keys) {
+			entityIds.add(toIdentifier(entityClass, key.getEntityId()));
+			revisions.add(key.getRevision());
+		}
+		NativeQuery<?> query = sessionFactory.getCurrentSession().createNativeQuery(buildPreviousRevisionsSql(table.get()));
+		query.setParameterList("entityIds", entityIds);
+		query.setParameterList("revisions", revisions);
+		
+		Set<AuditRevisionKey> requested = new HashSet<>(keys);
+		Map<AuditRevisionKey, AuditRevisionKey> previousKeys = new HashMap<>();
+		for (Object row : query.getResultList()) {
+			Object[] columns = (Object[]) row;
+			if (columns[2] == null) {
+				continue;
+			}
+			String entityId = String.valueOf(toIdentifier(entityClass, String.valueOf(columns[0])));
+			AuditRevisionKey key = new AuditRevisionKey(((Number) columns[1]).intValue(), entityClass, entityId);
+			if (requested.contains(key)) {
+				previousKeys.put(key, new AuditRevisionKey(((Number) columns[2]).intValue(), entityClass, entityId));
+			}
+		}
+		return previousKeys;
+	}
+	
+	/**
+	 * Converts an entity id returned by a union query back to the identifier type of the entity.
+	 *
+	 * @param entityClass the audited entity class
+	 * @param entityId the id rendered as a string
+	 * @return the identifier in the type expected by Envers
+	 */
+	public Object toIdentifier(Class<?> entityClass, String entityId) {
+		Class<?> idType = getTableMetadata(entityClass).map(AuditTableMetadata::getIdType)
+		        .orElseGet(() -> resolveIdType(entityClass));
+		if (Integer.class.equals(idType) || int.class.equals(idType)) {
+			return Integer.valueOf(entityId);
+		}
+		if (Long.class.equals(idType) || long.class.equals(idType)) {
+			return Long.valueOf(entityId);
+		}
+		return entityId;
+	}
+	
+	private Class<?> resolveIdType(Class<?> entityClass) {
+		try {
+			return sessionFactory.unwrap(SessionFactoryImplementor.class).getMetamodel()
+			        .entityPersister(entityClass.getName()).getIdentifierType().getReturnedClass();
+		}
+		catch (Exception e) {
+			return String.class;
+		}
+	}
+	
+	/**
+	 * Renders the identifier of a hydrated entity the same way the union query does.
+	 *
+	 * @param entity an audited entity instance
+	 * @return the identifier as a string
+	 */
+	public String identifierOf(Object entity) {
+		return String.valueOf(sessionFactory.getPersistenceUnitUtil().getIdentifier(entity));
+	}
+	
+	/**
+	 * Resolves the audit table layout of an audited entity class from the Hibernate metamodel.
+	 *
+	 * @param entityClass the audited entity class
+	 * @return the table metadata, or empty if the class cannot be queried natively
+	 */
+	public Optional<AuditTableMetadata> getTableMetadata(Class<?> entityClass) {
+		return tableMetadata.computeIfAbsent(entityClass, clazz -> Optional.ofNullable(resolveTableMetadata(clazz)));
+	}
+	
+	private List<AuditTableMetadata> describe(List<Class<?>> classes) {
+		List<AuditTableMetadata> tables = new ArrayList<>();
+		for (Class<?> clazz : classes) {
+			getTableMetadata(clazz).ifPresent(tables::add);
+		}
+		return tables;
+	}
+	
+	private AuditTableMetadata resolveTableMetadata(Class<?> entityClass) {
+		try {
+			SessionFactoryImplementor factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+			EnversService enversService = factory.getServiceRegistry().getService(EnversService.class);
+			String entityName = entityClass.getName();
+			if (enversService == null || !enversService.getEntitiesConfigurations().isVersioned(entityName)) {
+				return null;
+			}
+			
+			AuditEntitiesConfiguration configuration = enversService.getAuditEntitiesConfiguration();
+			String auditEntityName = configuration.getAuditEntityName(entityName);
+			EntityPersister persister = factory.getMetamodel().entityPersister(auditEntityName);
+			EntityPersister rootPersister = factory.getMetamodel().entityPersister(persister.getRootEntityName());
+			if (!(persister instanceof AbstractEntityPersister) || !(rootPersister instanceof AbstractEntityPersister)) {
+				return null;
+			}
+			
+			AbstractEntityPersister audit = (AbstractEntityPersister) persister;
+			AbstractEntityPersister root = (AbstractEntityPersister) rootPersister;
+			String[] keyColumns = splitKeyColumns(getOwnTableKeyColumns(audit), configuration.getRevisionFieldName());
+			String[] rootKeyColumns = splitKeyColumns(getOwnTableKeyColumns(root), configuration.getRevisionFieldName());
+			if (keyColumns == null || rootKeyColumns == null) {
+				log.debug("Audit table of {} has a composite identifier, it is not supported by union queries",
+				    entityName);
+				return null;
+			}
+			
+			Class<?> idType = factory.getMetamodel().entityPersister(entityName).getIdentifierType().getReturnedClass();
+			return AuditTableMetadata.builder().entityClass(entityClass).auditEntityName(auditEntityName)
+			        .tableName(audit.getTableName()).idColumn(keyColumns[0]).revisionColumn(keyColumns[1]).idType(idType)
+			        .rootTableName(root.getTableName()).rootIdColumn(rootKeyColumns[0])
+			        .rootRevisionColumn(rootKeyColumns[1])
+			        .revisionTypeColumn(audit.getPropertyColumnNames(configuration.getRevisionTypePropName())[0])
+			        .rowRestriction(buildRowRestriction(factory, audit, keyColumns, configuration.getRevisionFieldName()))
+			        .build();
+		}
+		catch (Exception e) {
+			log.warn("Could not resolve the audit table of {}: {}", entityClass.getName(), e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Keeps the rows of an audit table that belong to the entity itself rather than to one of its
+	 * subclasses: single-table hierarchies are narrowed by discriminator, and rows that also exist in
+	 * the table of a joined subclass are left to that subclass.
+	 */
+	private String buildRowRestriction(SessionFactoryImplementor factory, AbstractEntityPersister audit,
+	        String[] keyColumns, String revisionFieldName) {
+		StringBuilder restriction = new StringBuilder();
+		if (audit instanceof SingleTableEntityPersister && audit.getEntityMetamodel().isPolymorphic()
+		        && audit.getDiscriminatorColumnName() != null) {
+			restriction.append(" and a.").append(audit.getDiscriminatorColumnName()).append(" = ")
+			        .append(audit.getDiscriminatorSQLValue());
+		}
+		for (String subclassName : audit.getEntityMetamodel().getSubclassEntityNames()) {
+			EntityPersister subclass = factory.getMetamodel().entityPersister(subclassName);
+			if (subclassName.equals(audit.getEntityName()) || !(subclass instanceof AbstractEntityPersister)
+			        || ((AbstractEntityPersister) subclass).getTableName().equalsIgnoreCase(audit.getTableName())) {
+				continue;
+			}
+			AbstractEntityPersister joined = (AbstractEntityPersister) subclass;
+			String[] subclassKeyColumns = splitKeyColumns(getOwnTableKeyColumns(joined), revisionFieldName);
+			if (subclassKeyColumns == null) {
+				continue;
+			}
+			restriction.append(" and not exists (select 1 from ").append(joined.getTableName()).append(" s where s.")
+			        .append(subclassKeyColumns[0]).append(" = a.").append(keyColumns[0]).append(" and s.")
+			        .append(subclassKeyColumns[1]).append(" = a.").append(keyColumns[1]).append(')');
+		}
+		return restriction.toString();
+	}
+	
+	/**
+	 * Returns the key columns of the table that holds the persister's own properties. For joined
+	 * subclasses these differ from the identifier columns, which name the columns of the root table.
+	 */
+	private static String[] getOwnTableKeyColumns(AbstractEntityPersister persister) {
+		String[] tableNames = persister.getConstraintOrderedTableNameClosure();
+		String[][] keyColumns = persister.getContraintOrderedTableKeyColumnClosure();
+		for (int i = 0; i < tableNames.length; i++) {
+			if (tableNames[i].equalsIgnoreCase(persister.getTableName())) {
+				return keyColumns[i];
+			}
+		}
+		return persister.getIdentifierColumnNames();
+	}
+	
+	/**
+	 * Splits the key columns of an audit table, which are the original identifier columns followed
+	 * by the revision column.
+	 *
+	 * @return the entity id column and the revision column, or null for composite identifiers
+	 */
+	static String[] splitKeyColumns(String[] keyColumns, String revisionFieldName) {
+		if (keyColumns == null || keyColumns.length != 2) {
+			return null;
+		}
+		if (keyColumns[0].equalsIgnoreCase(revisionFieldName)) {
+			return new String[] { keyColumns[1], keyColumns[0] };
+		}
+		return new String[] { keyColumns[0], keyColumns[1] };
+	}
+	
+	RevisionTableMetadata getRevisionTableMetadata() {
+		if (revisionTableMetadata == null) {
+			AbstractEntityPersister persister = (AbstractEntityPersister) sessionFactory
+			        .unwrap(SessionFactoryImplementor.class).getMetamodel()
+			        .entityPersister(OpenmrsRevisionEntity.class.getName());
+			revisionTableMetadata = new RevisionTableMetadata(persister.getTableName(),
+			        persister.getIdentifierColumnNames()[0], persister.getPropertyColumnNames("changedBy")[0],
+			        persister.getPropertyColumnNames("changedOn")[0]);
+		}
+		return revisionTableMetadata;
+	}
+	
+	String getCastTypeName() {
+		Dialect dialect = sessionFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+		return dialect.getCastTypeName(Types.VARCHAR);
+	}
+	
+	/**
+	 * Builds the page query. Each branch is pre-sorted and capped at the number of rows needed to
+	 * reach the end of the requested page, so the database never has to sort more than
+	 * {@code (page + 1) * size} rows per table; the outer query applies the final offset. With a
+	 * cursor, every branch seeks past it on the same (revision, entity key, id) order as the outer
+	 * query, so the revision index is used instead of an offset.
+	 */
+	static String buildRevisionKeysSql(List<AuditTableMetadata> tables, RevisionTableMetadata revisions,
+	        AuditRevisionCriteria criteria, String castTypeName, int page, int size) {
+		String direction = criteria.isAscending() ? "asc" : "desc";
+		long branchLimit = Math.min((long) (page + 1) * size, Integer.MAX_VALUE);
+		
+		// Union members carrying their own order by and limit must be parenthesized
+		boolean parenthesize = tables.size() > 1;
+		
+		StringBuilder sql = new StringBuilder("select u.rev_id, u.entity_name, u.entity_id from (");
+		for (int i = 0; i < tables.size(); i++) {
+			AuditTableMetadata table = tables.get(i);
+			if (i > 0) {
+				sql.append(" union all ");
+			}
+			sql.append(parenthesize ? "(" : "").append("select a.").append(table.getRevisionColumn()).append(" as rev_id, '")
+			        .append(table.getEntityClass().getName()).append("' as entity_name, ").append(entityKeyOf(table))
+			        .append(" as entity_key, cast(a.").append(table.getIdColumn()).append(" as ").append(castTypeName)
+			        .append(") as entity_id, ").append(table.hasNumericId() ? "a." + table.getIdColumn() : "0")
+			        .append(" as entity_order");
+			appendFromAndFilters(sql, table, revisions, criteria, buildCursorPredicate(table, criteria, castTypeName));
+			sql.append(" order by a.").append(table.getRevisionColumn()).append(' ').append(direction).append(", a.")
+			        .append(table.getIdColumn()).append(' ').append(direction).append(" limit ").append(branchLimit)
+			        .append(parenthesize ? ")" : "");
+		}
+		sql.append(") u order by u.rev_id ").append(direction).append(", u.entity_key ").append(direction)
+		        .append(", u.entity_order ").append(direction).append(", u.entity_id ").append(direction);
+		return sql.toString();
+	}
+	
+	/**
+	 * Selects the id and revision of the requested audit rows with the highest lower revision of the
+	 * same entity, which the primary key of the audit table answers per row.
+	 */
+	static String buildPreviousRevisionsSql(AuditTableMetadata table) {
+		String idColumn = table.getIdColumn();
+		String revisionColumn = table.getRevisionColumn();
+		return "select a." + idColumn + ", a." + revisionColumn + ", (select max(p." + revisionColumn + ") from "
+		        + table.getTableName() + " p where p." + idColumn + " = a." + idColumn + " and p." + revisionColumn
+		        + " < a." + revisionColumn + ") from " + table.getTableName() + " a where a." + idColumn
+		        + " in (:entityIds) and a." + revisionColumn + " in (:revisions)";
+	}
+	
+	static String buildCountSql(List<AuditTableMetadata> tables, RevisionTableMetadata revisions,
+	        AuditRevisionCriteria criteria) {
+		StringBuilder sql = new StringBuilder("select sum(u.row_count) from (");
+		for (int i = 0; i < tables.size(); i++) {
+			if (i > 0) {
+				sql.append(" union all ");
+			}
+			sql.append("select count(*) as row_count");
+			appendFromAndFilters(sql, tables.get(i), revisions, criteria, "");
+		}
+		return sql.append(") u").toString();
+	}
+	
+	private static void appendFromAndFilters(StringBuilder sql, AuditTableMetadata table, RevisionTableMetadata revisions,
+	        AuditRevisionCriteria criteria, String cursorPredicate) {
+		sql.append(" from ").append(table.getTableName()).append(" a");
+		if (criteria.hasRevisionFilters()) {
+			sql.append(" join ").append(revisions.getTableName()).append(" r on r.").append(revisions.getIdColumn())
+			        .append(" = a.").append(table.getRevisionColumn());
+		}
+		if (!criteria.hasRevisionFilters() && !criteria.hasRevisionRange() && table.getRowRestriction().isEmpty()
+		        && cursorPredicate.isEmpty()) {
+			return;
+		}
+		sql.append(" where 1=1").append(table.getRowRestriction()).append(cursorPredicate);
+		appendRevisionRange(sql, "a." + table.getRevisionColumn(), criteria);
+		appendRevisionFilters(sql, revisions, criteria);
+	}
+	
+	private static String buildCursorPredicate(AuditTableMetadata table, AuditRevisionCriteria criteria,
+	        String castTypeName) {
+		if (criteria.getCursor() == null) {
+			return "";
+		}
+		String entityOrder = table.hasNumericId() ? "a." + table.getIdColumn() : "0";
+		String entityId = "cast(a." + table.getIdColumn() + " as " + castTypeName + ")";
+		return " and " + buildSeekPredicate(criteria.isAscending(),
+		    new String[] { "a." + table.getRevisionColumn(), entityKeyOf(table), entityOrder, entityId },
+		    new String[] { ":cursorRevision", ":cursorEntityKey", ":cursorEntityOrder", ":cursorEntityId" });
+	}
+	
+	/**
+	 * @return the {@link AuditRevisionCursor#entityKey(String) sort key} of the table's entity as a SQL
+	 *         literal
+	 */
+	static String entityKeyOf(AuditTableMetadata table) {
+		return String.valueOf(AuditRevisionCursor.entityKey(table.getEntityClass().getName()));
+	}
+	
+	/**
+	 * Builds a predicate that keeps the rows strictly after a position in a multi-column sort order,
+	 * for example {@code (a < :a or (a = :a and b < :b))} for a descending order on (a, b).
+	 *
+	 * @param ascending true for an ascending sort order
+	 * @param columns the sort columns, most significant first
+	 * @param parameters the positions of the last row, one per column
+	 * @return the seek predicate
+	 */
+	static String buildSeekPredicate(boolean ascending, String[] columns, String[] parameters) {
+		String operator = ascending ? " > " : " < ";
+		String predicate = columns[columns.length - 1] + operator + parameters[parameters.length - 1];
+		for (int i = columns.length - 2; i >= 0; i--) {
+			predicate = columns[i] + operator + parameters[i] + " or (" + columns[i] + " = " + parameters[i] + " and "
+			        + predicate + ")";
+			predicate = "(" + predicate + ")";
+		}
+		return predicate;
+	}
+	
+	static void bindCursor(NativeQuery<?> query, AuditRevisionCursor cursor) {
+		query.setParameter("cursorRevision", cursor.getRevision());
+		query.setParameter("cursorEntityKey", cursor.getEntityKey());
+		query.setParameter("cursorEntityId", cursor.getEntityId());
+	}
+	
+	static void appendRevisionFilters(StringBuilder sql, RevisionTableMetadata revisions, AuditRevisionCriteria criteria) {
+		appendChangedBy(sql, "r." + revisions.getChangedByColumn(), criteria);
+		if (criteria.getStartDate() != null) {
+			sql.append(" and r.").append(revisions.getChangedOnColumn()).append(" >= :startDate");
+		}
+		if (criteria.getEndDate() != null) {
+			sql.append(" and r.").append(revisions.getChangedOnColumn()).append(" <= :endDate");
+		}
+	}
+	
+	/**
+	 * Restricts the rows to the changes of the users of the criteria, with a single {@code in}
+	 * predicate when there are several of them. The criteria must leave at least one user, as an
+	 * empty {@code in} list is not valid SQL.
+	 */
+	static void appendChangedBy(StringBuilder sql, String changedByColumn, AuditRevisionCriteria criteria) {
+		if (criteria.getUserIds() == null) {
+			return;
+		}
+		sql.append(" and ").append(changedByColumn);
+		sql.append(criteria.getUserIds().size() == 1 ? " = :userId" : " in (:userIds)");
+	}
+	
+	static void appendRevisionRange(StringBuilder sql, String revisionColumn, AuditRevisionCriteria criteria) {
+		if (criteria.getRevisionAbove() != null) {
+			sql.append(" and ").append(revisionColumn).append(" > :revisionAbove");
+		}
+		if (criteria.getRevisionUpTo() != null) {
+			sql.append(" and ").append(revisionColumn).append(" <= :revisionUpTo");
+		}
+	}
+	
+	static void bindRevisionFilters(NativeQuery<?> query, AuditRevisionCriteria criteria) {
+		if (criteria.getRevisionAbove() != null) {
+			query.setParameter("revisionAbove", criteria.getRevisionAbove());
+		}
+		if (criteria.getRevisionUpTo() != null) {
+			query.setParameter("revisionUpTo", criteria.getRevisionUpTo());
+		}
+		if (criteria.getUserIds() != null) {
+			if (criteria.getUserIds().size() == 1) {
+				query.setParameter("userId", criteria.getUserIds().iterator().next());
+			} else {
+				query.setParameterList("userIds", criteria.getUserIds());
+			}
+		}
+		if (criteria.getStartDate() != null) {
+			query.setParameter("startDate", criteria.getStartDate());
+		}
+		if (criteria.getEndDate() != null) {
+			query.setParameter("endDate", criteria.getEndDate());
+		}
+	}
+	
+	/**
+	 * Physical layout of the Envers revision table.
+	 */
+	@Getter
+	@AllArgsConstructor
+	static class RevisionTableMetadata {
+		
+		private final String tableName;
+		
+		private final String idColumn;
+		
+		private final String changedByColumn;
+		
+		private final String changedOnColumn;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
+import org.openmrs.module.auditlogweb.api.utils.AuditLogConstants;
+import org.openmrs.util.PrivilegeConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs independent per-entity audit queries on a bounded, module-owned thread pool. Every task gets
+ * its own read-only Hibernate session, since sessions are not thread safe, so tasks must return plain
+ * values rather than entities bound to that session. A request waits for its tasks up to a deadline;
+ * tasks still running then are cancelled and the request is marked as partial in
+ * {@link AuditQueryContext}.
+ * <p>
+ * Controlled by the {@link AuditLogConstants#GP_PARALLEL_QUERIES_ENABLED},
+ * {@link AuditLogConstants#GP_PARALLEL_QUERIES_THREADS} and
+ * {@link AuditLogConstants#GP_PARALLEL_QUERIES_TIMEOUT_MILLIS} global properties.
+ * </p>
+ */
+@Component("auditlogweb.ParallelAuditQueryExecutor")
+@RequiredArgsConstructor
+public class ParallelAuditQueryExecutor {
+	
+	private static final int DEFAULT_THREADS = 4;
+	
+	private static final long DEFAULT_TIMEOUT_MILLIS = 10000L;
+	
+	private static final int QUEUE_CAPACITY = 512;
+	
+	private final Logger log = LoggerFactory.getLogger(ParallelAuditQueryExecutor.class);
+	
+	private final SessionFactory sessionFactory;
+	
+	private ThreadPoolExecutor executor;
+	
+	/**
+	 * @return true if per-entity queries should run in parallel
+	 */
+	public boolean isEnabled() {
+		return Boolean.parseBoolean(getGlobalProperty(AuditLogConstants.GP_PARALLEL_QUERIES_ENABLED, "false"));
+	}
+	
+	/**
+	 * Runs the tasks in parallel and waits for them until the configured deadline.
+	 *
+	 * @param tasks the tasks, each given its own read-only session
+	 * @param <R> the result type
+	 * @return the results in task order, with {@code null} for tasks that failed or missed the deadline
+	 */
+	public <R> List<R> invokeAll(List<Function<Session, R>> tasks) {
+		long deadline = System.nanoTime()
+		        + TimeUnit.MILLISECONDS.toNanos(parseLong(getGlobalProperty(
+		            AuditLogConstants.GP_PARALLEL_QUERIES_TIMEOUT_MILLIS, null), DEFAULT_TIMEOUT_MILLIS));
+		
+		List<Future<R>> futures = new ArrayList<>(tasks.size());
+		for (Function<Session, R> task : tasks) {
+			try {
+				futures.add(getExecutor().submit(() -> runInReadOnlySession(task)));
+			}
+			catch (RejectedExecutionException e) {
+				futures.add(null);
+			}
+		}
+		
+		List<R> results = new ArrayList<>(tasks.size());
+		boolean partial = false;
+		for (Future<R> future : futures) {
+			if (future == null) {
+				partial = true;
+				results.add(null);
+				continue;
+			}
+			try {
+				results.add(future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+			}
+			catch (TimeoutException e) {
+				future.cancel(true);
+				partial = true;
+				results.add(null);
+			}
+			catch (ExecutionException e) {
+				log.error("Parallel audit query failed: {}", e.getCause().getMessage(), e.getCause());
+				partial = true;
+				results.add(null);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				futures.forEach(f -> {
+					if (f != null) {
+						f.cancel(true);
+					}
+				});
+				partial = true;
+				results.add(null);
+				break;
+			}
+		}
+		while (results.size() < tasks.size()) {
+			results.add(null);
+		}
+		
+		if (partial) {
+			log.warn("Some parallel audit queries did not complete in time, returning partial results");
+			AuditQueryContext.markPartialResult();
+		}
+		return results;
+	}
+	
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	private <R> R runInReadOnlySession(Function<Session, R> task) {
+		try (Session session = sessionFactory.openSession()) {
+			session.setDefaultReadOnly(true);
+			session.setHibernateFlushMode(FlushMode.MANUAL);
+			session.beginTransaction();
+			try {
+				return task.apply(session);
+			}
+			finally {
+				session.getTransaction().rollback();
+			}
+		}
+	}
+	
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			int threads = (int) Math.max(1L,
+			    parseLong(getGlobalProperty(AuditLogConstants.GP_PARALLEL_QUERIES_THREADS, null), DEFAULT_THREADS));
+			AtomicInteger threadNumber = new AtomicInteger();
+			executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+			        new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+				        Thread thread = new Thread(runnable, "auditlogweb-query-" + threadNumber.incrementAndGet());
+				        thread.setDaemon(true);
+				        return thread;
+			        });
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+	
+	private String getGlobalProperty(String name, String defaultValue) {
+		try {
+			Context.addProxyPrivilege(PrivilegeConstants.GET_GLOBAL_PROPERTIES);
+			return Context.getAdministrationService().getGlobalProperty(name, defaultValue);
+		}
+		catch (Exception e) {
+			log.debug("Could not read global property {}: {}", name, e.getMessage());
+			return defaultValue;
+		}
+		finally {
+			try {
+				Context.removeProxyPrivilege(PrivilegeConstants.GET_GLOBAL_PROPERTIES);
+			}
+			catch (Exception ignored) {
+				// no user context on this thread
+			}
+		}
+	}
+	
+	private static long parseLong(String value, long defaultValue) {
+		try {
+			return value != null ? Long.parseLong(value.trim()) : defaultValue;
+		}
+		catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.query.NativeQuery;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery.RevisionTableMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Plans filtered cross-entity queries from the revision side. Most audited classes have no rows
+ * for a given user or date range, so the entity names touched by the matching revisions are looked
+ * up first and only those classes' audit tables are queried.
+ * <p>
+ * Entity names come from the Envers {@code REVCHANGES} table when
+ * {@code org.hibernate.envers.track_entities_changed_in_revision} is enabled. Otherwise the
+ * module's own revision index, maintained by
+ * {@link org.openmrs.module.auditlogweb.api.listener.AuditRevisionIndexListener}, is used once it
+ * covers the full history. The index cannot hold the classes whose audit tables the union query
+ * cannot read, so those are always kept. With neither available the classes are left as they are.
+ * </p>
+ */
+@Component("auditlogweb.RevisionFirstQueryPlanner")
+@RequiredArgsConstructor
+public class RevisionFirstQueryPlanner {
+	
+	static final String REVCHANGES_TABLE = "REVCHANGES";
+	
+	static final String REVCHANGES_REVISION_COLUMN = "REV";
+	
+	static final String REVCHANGES_ENTITY_NAME_COLUMN = "ENTITYNAME";
+	
+	private final Logger log = LoggerFactory.getLogger(RevisionFirstQueryPlanner.class);
+	
+	private final SessionFactory sessionFactory;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final AuditRevisionIndexDao auditRevisionIndexDao;
+	
+	private Boolean trackingEntityNames;
+	
+	/**
+	 * Keeps only the classes changed in at least one revision matching the user and date filters.
+	 *
+	 * @param classes the candidate audited entity classes
+	 * @param criteria the revision filters
+	 * @return the classes worth querying, or {@code classes} unchanged if there are no revision
+	 *         filters or the changed entity names are not known
+	 */
+	public List<Class<?>> narrowToChangedClasses(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		if (classes.size() <= 1 || !criteria.hasRevisionFilters()) {
+			return classes;
+		}
+		Set<String> entityNames = findChangedEntityNames(classes, criteria);
+		if (entityNames == null) {
+			return classes;
+		}
+		return classes.stream().filter(c -> entityNames.contains(c.getName())).collect(Collectors.toList());
+	}
+	
+	private Set<String> findChangedEntityNames(List<Class<?>> classes, AuditRevisionCriteria criteria) {
+		try {
+			if (isTrackingEntityNames()) {
+				NativeQuery<?> query = sessionFactory.getCurrentSession()
+				        .createNativeQuery(buildChangedEntityNamesSql(crossEntityRevisionQuery.getRevisionTableMetadata(),
+				            criteria));
+				CrossEntityRevisionQuery.bindRevisionFilters(query, criteria);
+				return toNames(query.getResultList());
+			}
+			if (auditRevisionIndexDao.isReady()) {
+				Set<String> entityNames = new HashSet<>(auditRevisionIndexDao.findChangedEntityNames(criteria));
+				for (Class<?> unindexedClass : crossEntityRevisionQuery.findUnsupported(classes)) {
+					entityNames.add(unindexedClass.getName());
+				}
+				return entityNames;
+			}
+		}
+		catch (Exception ex) {
+			log.warn("Could not look up the entities changed in matching revisions, querying all of them: {}",
+			    ex.getMessage());
+		}
+		return null;
+	}
+	
+	private synchronized boolean isTrackingEntityNames() {
+		if (trackingEntityNames == null) {
+			EnversService enversService = sessionFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+			        .getService(EnversService.class);
+			trackingEntityNames = enversService != null
+			        && enversService.getGlobalConfiguration().isTrackEntitiesChangedInRevision();
+		}
+		return trackingEntityNames;
+	}
+	
+	private static Set<String> toNames(List<?> rows) {
+		Set<String> names = new HashSet<>();
+		for (Object row : rows) {
+			names.add(String.valueOf(row));
+		}
+		return names;
+	}
+	
+	static String buildChangedEntityNamesSql(RevisionTableMetadata revisions, AuditRevisionCriteria criteria) {
+		StringBuilder sql = new StringBuilder("select distinct c.").append(REVCHANGES_ENTITY_NAME_COLUMN)
+		        .append(" from ").append(REVCHANGES_TABLE).append(" c join ").append(revisions.getTableName())
+		        .append(" r on r.").append(revisions.getIdColumn()).append(" = c.").append(REVCHANGES_REVISION_COLUMN)
+		        .append(" where 1=1");
+		CrossEntityRevisionQuery.appendRevisionFilters(sql, revisions, criteria);
+		return sql.toString();
+	}
+}
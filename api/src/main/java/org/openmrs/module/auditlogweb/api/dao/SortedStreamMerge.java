@@ -0,0 +1,79 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of streams that are each already sorted. A priority queue holds only the current head
+ * of every stream, and streams are advanced one element at a time, so merging stops reading as soon
+ * as the requested window has been produced.
+ */
+final class SortedStreamMerge {
+	
+	private SortedStreamMerge() {
+	}
+	
+	/**
+	 * Merges sorted streams and returns one window of the merged order.
+	 *
+	 * @param streams the streams, each sorted by {@code order}
+	 * @param order the order shared by all streams
+	 * @param skip the number of merged elements to skip before the window
+	 * @param limit the maximum number of elements in the window
+	 * @param <T> the element type
+	 * @return the elements of the window, in merged order
+	 */
+	static <T> List<T> merge(List<? extends Iterator<? extends T>> streams, Comparator<? super T> order, int skip,
+	        int limit) {
+		List<T> window = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+		if (limit <= 0) {
+			return window;
+		}
+		
+		PriorityQueue<Head<T>> heads = new PriorityQueue<>(Math.max(1, streams.size()),
+		        (a, b) -> order.compare(a.value, b.value));
+		for (Iterator<? extends T> stream : streams) {
+			if (stream.hasNext()) {
+				heads.add(new Head<>(stream.next(), stream));
+			}
+		}
+		
+		int skipped = 0;
+		while (!heads.isEmpty() && window.size() < limit) {
+			Head<T> head = heads.poll();
+			if (skipped < skip) {
+				skipped++;
+			} else {
+				window.add(head.value);
+			}
+			if (window.size() < limit && head.stream.hasNext()) {
+				heads.add(new Head<>(head.stream.next(), head.stream));
+			}
+		}
+		return window;
+	}
+	
+	private static class Head<T> {
+		
+		private final T value;
+		
+		private final Iterator<? extends T> stream;
+		
+		Head(T value, Iterator<? extends T> stream) {
+			this.value = value;
+			this.stream = stream;
+		}
+	}
+}
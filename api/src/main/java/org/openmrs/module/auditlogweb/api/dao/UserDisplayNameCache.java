@@ -0,0 +1,56 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the display names of users by user id, for the "changed by" column of audit listings.
+ * Entries expire after {@link #TIME_TO_LIVE_MILLIS}, so renames made outside
+ * {@code UserService.saveUser} show up eventually, and the least recently used entries are dropped
+ * once {@link #MAX_ENTRIES} is reached.
+ */
+final class UserDisplayNameCache {
+	
+	static final long TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	static final int MAX_ENTRIES = 2000;
+	
+	private final BoundedLruCache<Integer, String> entries;
+	
+	UserDisplayNameCache() {
+		this(System::currentTimeMillis);
+	}
+	
+	UserDisplayNameCache(LongSupplier clock) {
+		this.entries = new BoundedLruCache<>(MAX_ENTRIES, TIME_TO_LIVE_MILLIS, clock);
+	}
+	
+	/**
+	 * @param userId the id of the user
+	 * @return the cached display name, or {@code null} if it is not cached or has expired
+	 */
+	String get(int userId) {
+		return entries.get(userId);
+	}
+	
+	void put(int userId, String displayName) {
+		entries.put(userId, displayName);
+	}
+	
+	void invalidate(int userId) {
+		entries.remove(userId);
+	}
+	
+	int size() {
+		return entries.size();
+	}
+}
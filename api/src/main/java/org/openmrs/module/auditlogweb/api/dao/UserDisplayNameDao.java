@@ -0,0 +1,162 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SessionFactory;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.User;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves user ids to the display names shown as "changed by" in audit listings. The names of all
+ * users of a page are read with one query that selects only the username, system id and person
+ * names, rather than loading each {@link User} through the {@code UserService}, and are kept in a
+ * {@link UserDisplayNameCache} shared by all requests.
+ */
+@Repository("auditlogweb.UserDisplayNameDao")
+@RequiredArgsConstructor
+public class UserDisplayNameDao {
+	
+	public static final String UNKNOWN_USER = "Unknown";
+	
+	private static final int MAX_IDS_PER_QUERY = 500;
+	
+	private static final String DISPLAY_NAME_QUERY = "select u.userId, u.username, u.systemId, n.prefix, n.givenName,"
+	        + " n.middleName, n.familyNamePrefix, n.familyName, n.familyName2, n.familyNameSuffix, n.degree,"
+	        + " n.preferred, n.voided from User u left join u.person p left join p.names n"
+	        + " where u.userId in (:userIds)";
+	
+	private final SessionFactory sessionFactory;
+	
+	private final UserDisplayNameCache cache = new UserDisplayNameCache();
+	
+	/**
+	 * @param userIds the ids of users, which may repeat or contain {@code null}
+	 * @return the display name of each distinct id, {@link #UNKNOWN_USER} for users that do not exist
+	 */
+	public Map<Integer, String> getDisplayNames(Collection<Integer> userIds) {
+		Map<Integer, String> displayNames = new HashMap<>();
+		Set<Integer> missing = new LinkedHashSet<>();
+		for (Integer userId : userIds) {
+			if (userId == null || displayNames.containsKey(userId)) {
+				continue;
+			}
+			String cached = cache.get(userId);
+			if (cached != null) {
+				displayNames.put(userId, cached);
+			} else {
+				missing.add(userId);
+			}
+		}
+		if (missing.isEmpty()) {
+			return displayNames;
+		}
+		
+		Map<Integer, String> loaded = loadDisplayNames(missing);
+		for (Integer userId : missing) {
+			String displayName = loaded.getOrDefault(userId, UNKNOWN_USER);
+			cache.put(userId, displayName);
+			displayNames.put(userId, displayName);
+		}
+		return displayNames;
+	}
+	
+	/**
+	 * Drops the cached display name of a user, so the next lookup reads it again.
+	 *
+	 * @param userId the id of the user
+	 */
+	public void evict(Integer userId) {
+		if (userId != null) {
+			cache.invalidate(userId);
+		}
+	}
+	
+	private Map<Integer, String> loadDisplayNames(Set<Integer> userIds) {
+		List<Integer> ids = new ArrayList<>(userIds);
+		List<Object[]> rows = new ArrayList<>();
+		for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+			rows.addAll(sessionFactory.getCurrentSession().createQuery(DISPLAY_NAME_QUERY, Object[].class)
+			        .setParameterList("userIds", ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size())))
+			        .list());
+		}
+		return toDisplayNames(rows);
+	}
+	
+	/**
+	 * Rebuilds each user from the selected columns, so the display name is formatted exactly as
+	 * {@link User#getDisplayString()} formats it.
+	 *
+	 * @param rows rows of user id, username, system id, the name parts of one person name, and its
+	 *            preferred and voided flags, with {@code null} name parts for users without names
+	 * @return the display name of each user in the rows
+	 */
+	static Map<Integer, String> toDisplayNames(List<Object[]> rows) {
+		Map<Integer, User> users = new HashMap<>();
+		for (Object[] row : rows) {
+			Integer userId = (Integer) row[0];
+			User user = users.computeIfAbsent(userId, id -> {
+				User rebuilt = new User(id);
+				rebuilt.setUsername((String) row[1]);
+				rebuilt.setSystemId((String) row[2]);
+				rebuilt.setPerson(new Person());
+				return rebuilt;
+			});
+			if (row[11] != null) {
+				user.getPerson().addName(toPersonName(row));
+			}
+		}
+		return users.entrySet().stream()
+		        .collect(Collectors.toMap(Map.Entry::getKey, entry -> displayNameOf(entry.getValue())));
+	}
+	
+	/**
+	 * @param user a user
+	 * @return the display string of the user, its system id if that is blank, or
+	 *         {@link #UNKNOWN_USER}
+	 */
+	public static String displayNameOf(User user) {
+		if (user == null) {
+			return UNKNOWN_USER;
+		}
+		String displayName = user.getDisplayString();
+		if (StringUtils.isBlank(displayName)) {
+			return StringUtils.defaultIfBlank(user.getSystemId(), UNKNOWN_USER);
+		}
+		return displayName;
+	}
+	
+	private static PersonName toPersonName(Object[] row) {
+		PersonName name = new PersonName();
+		name.setPrefix((String) row[3]);
+		name.setGivenName((String) row[4]);
+		name.setMiddleName((String) row[5]);
+		name.setFamilyNamePrefix((String) row[6]);
+		name.setFamilyName((String) row[7]);
+		name.setFamilyName2((String) row[8]);
+		name.setFamilyNameSuffix((String) row[9]);
+		name.setDegree((String) row[10]);
+		name.setPreferred(Boolean.TRUE.equals(row[11]));
+		name.setVoided(Boolean.TRUE.equals(row[12]));
+		return name;
+	}
+}
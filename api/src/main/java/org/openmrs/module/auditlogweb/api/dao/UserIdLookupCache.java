@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches which user id a username filter resolved to, including filters that matched no user, so
+ * paging through a filtered listing looks the user up once. Entries expire after
+ * {@link #TIME_TO_LIVE_MILLIS} and the least recently used are dropped once {@link #MAX_ENTRIES} is
+ * reached.
+ */
+final class UserIdLookupCache {
+	
+	static final long TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	
+	static final int MAX_ENTRIES = 1000;
+	
+	/**
+	 * Cached for names that matched no user, since the map cannot hold {@code null} as a hit.
+	 */
+	private static final Integer NO_USER = -1;
+	
+	private final BoundedLruCache<String, Integer> entries;
+	
+	UserIdLookupCache() {
+		this(System::currentTimeMillis);
+	}
+	
+	UserIdLookupCache(LongSupplier clock) {
+		this.entries = new BoundedLruCache<>(MAX_ENTRIES, TIME_TO_LIVE_MILLIS, clock);
+	}
+	
+	/**
+	 * @param name a username or system id
+	 * @return the entry of the name, or {@code null} if it is not cached or has expired
+	 */
+	Lookup get(String name) {
+		Integer userId = entries.get(name);
+		if (userId == null) {
+			return null;
+		}
+		return new Lookup(NO_USER.equals(userId) ? null : userId);
+	}
+	
+	/**
+	 * @param name a username or system id
+	 * @param userId the id of the user it matched, or {@code null} if it matched none
+	 */
+	void put(String name, Integer userId) {
+		entries.put(name, userId != null ? userId : NO_USER);
+	}
+	
+	/**
+	 * Drops all entries, for example because a user was renamed.
+	 */
+	void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * The cached outcome of a lookup.
+	 */
+	static final class Lookup {
+		
+		private final Integer userId;
+		
+		private Lookup(Integer userId) {
+			this.userId = userId;
+		}
+		
+		/**
+		 * @return the id of the matched user, or {@code null} if the name matched none
+		 */
+		Integer getUserId() {
+			return userId;
+		}
+	}
+}
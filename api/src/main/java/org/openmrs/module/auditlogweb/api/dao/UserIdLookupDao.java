@@ -0,0 +1,91 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SessionFactory;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resolves the username filter of audit listings to a user id by an exact match on the username,
+ * then on the system id. Both columns are indexed and only the id is selected, unlike the person
+ * name search of {@code UserService.getUsers}. Results, including names that matched no user, are
+ * cached in a {@link UserIdLookupCache}.
+ */
+@Repository("auditlogweb.UserIdLookupDao")
+@RequiredArgsConstructor
+public class UserIdLookupDao {
+	
+	private static final String BY_USERNAME = "select u.userId from User u where u.username = :name order by u.userId";
+	
+	private static final String BY_SYSTEM_ID = "select u.userId from User u where u.systemId = :name order by u.userId";
+	
+	private static final String BY_ROLE = "select distinct u.userId from User u join u.roles r where r.role = :role"
+	        + " order by u.userId";
+	
+	private final SessionFactory sessionFactory;
+	
+	private final UserIdLookupCache cache = new UserIdLookupCache();
+	
+	/**
+	 * @param name the exact username or system id of a user
+	 * @return the id of the user, or {@code null} if no user has that username or system id
+	 */
+	public Integer findUserId(String name) {
+		if (StringUtils.isBlank(name)) {
+			return null;
+		}
+		String trimmed = name.trim();
+		UserIdLookupCache.Lookup cached = cache.get(trimmed);
+		if (cached != null) {
+			return cached.getUserId();
+		}
+		
+		Integer userId = findFirst(BY_USERNAME, trimmed);
+		if (userId == null) {
+			userId = findFirst(BY_SYSTEM_ID, trimmed);
+		}
+		cache.put(trimmed, userId);
+		return userId;
+	}
+	
+	/**
+	 * Resolves a role to the users it is directly assigned to, with one query, so that the changes of
+	 * all of them can be filtered by a single {@code in} predicate. Users holding the role only
+	 * through the inheritance of another role are not included.
+	 *
+	 * @param role the exact name of the role
+	 * @return the ids of the users assigned the role, in ascending order, empty if there are none
+	 */
+	public List<Integer> findUserIdsByRole(String role) {
+		if (StringUtils.isBlank(role)) {
+			return Collections.emptyList();
+		}
+		return sessionFactory.getCurrentSession().createQuery(BY_ROLE, Integer.class).setParameter("role", role.trim())
+		        .list();
+	}
+	
+	/**
+	 * Drops all cached lookups, so renamed users are found under their new names.
+	 */
+	public void evictAll() {
+		cache.clear();
+	}
+	
+	private Integer findFirst(String query, String name) {
+		List<Integer> userIds = sessionFactory.getCurrentSession().createQuery(query, Integer.class)
+		        .setParameter("name", name).setMaxResults(1).list();
+		return userIds.isEmpty() ? null : userIds.get(0);
+	}
+}
@@ -20,8 +20,14 @@ public class AuditFieldDiff {
 	
 	private String fieldName;
 	
+	/**
+	 * The previous value; for a collection field, the elements that were removed.
+	 */
 	private String oldValue;
 	
+	/**
+	 * The current value; for a collection field, the elements that were added.
+	 */
 	private String currentValue;
 	
 	private boolean changed;
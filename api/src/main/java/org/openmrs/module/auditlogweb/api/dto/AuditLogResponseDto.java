@@ -25,4 +25,30 @@ public class AuditLogResponseDto {
 	private int totalPages;
 	
 	private List<AuditLogDetailDTO> logs;
+	
+	/**
+	 * Opaque cursor of the next page, or {@code null} if there is none or the listing does not
+	 * support cursors.
+	 */
+	private String nextCursor;
+	
+	/**
+	 * True if some audited entities could not be queried in time, so totals and logs may be
+	 * incomplete.
+	 */
+	private boolean partial;
+	
+	/**
+	 * True if {@code totalLogs} is an estimate from database statistics rather than an exact count.
+	 */
+	private boolean estimated;
+	
+	public AuditLogResponseDto(int totalLogs, int currentPage, int totalPages, List<AuditLogDetailDTO> logs) {
+		this(totalLogs, currentPage, totalPages, logs, null);
+	}
+	
+	public AuditLogResponseDto(int totalLogs, int currentPage, int totalPages, List<AuditLogDetailDTO> logs,
+	    String nextCursor) {
+		this(totalLogs, currentPage, totalPages, logs, nextCursor, false, false);
+	}
 }
@@ -0,0 +1,143 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.impl;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.openmrs.module.auditlogweb.api.dao.BoundedLruCache;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Caches the changed fields of audit rows. A revision never changes once written, and neither does
+ * the revision before it, so the diff of a row is computed once and served from memory on every
+ * later view of it. Entries are evicted least recently used first when their estimated size exceeds
+ * {@link #DEFAULT_MAX_BYTES}.
+ * <p>
+ * Cached diffs are shared by every request that views the row, so they are copied when cached and
+ * the {@link AuditFieldDiff} elements handed out must not be modified.
+ * </p>
+ */
+final class AuditFieldDiffCache {
+	
+	static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+	
+	/**
+	 * Rough heap cost of an entry without its strings: the map entry, key list and value list.
+	 */
+	private static final long ENTRY_OVERHEAD_BYTES = 160;
+	
+	/**
+	 * Rough heap cost of an {@link AuditFieldDiff} without its strings.
+	 */
+	private static final long DIFF_OVERHEAD_BYTES = 32;
+	
+	/**
+	 * Rough heap cost of a string without its characters.
+	 */
+	private static final long STRING_OVERHEAD_BYTES = 40;
+	
+	private final BoundedLruCache<List<Object>, List<AuditFieldDiff>> entries;
+	
+	private long hits;
+	
+	private long misses;
+	
+	AuditFieldDiffCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+	
+	AuditFieldDiffCache(long maxBytes) {
+		this.entries = new BoundedLruCache<>(maxBytes, AuditFieldDiffCache::estimateBytes);
+	}
+	
+	/**
+	 * @param entityClass the class of the audited entity
+	 * @param entityId the id of the entity, as a string
+	 * @param revision the revision of the audit row
+	 * @return the key of the audit row
+	 */
+	static List<Object> key(Class<?> entityClass, String entityId, int revision) {
+		return Arrays.asList(entityClass.getName(), entityId, revision);
+	}
+	
+	/**
+	 * @param key the key of an audit row, see {@link #key(Class, String, int)}
+	 * @return the cached changed fields, or {@code null} if they were not cached
+	 */
+	synchronized List<AuditFieldDiff> get(List<Object> key) {
+		List<AuditFieldDiff> diffs = entries.get(key);
+		if (diffs == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return diffs;
+	}
+	
+	/**
+	 * Caches a copy of the changed fields of an audit row, evicting the least recently used rows if
+	 * needed.
+	 *
+	 * @param key the key of the audit row
+	 * @param diffs the changed fields
+	 * @return the cached, unmodifiable copy of the changed fields
+	 */
+	synchronized List<AuditFieldDiff> put(List<Object> key, List<AuditFieldDiff> diffs) {
+		List<AuditFieldDiff> copy = new ArrayList<>(diffs.size());
+		for (AuditFieldDiff diff : diffs) {
+			copy.add(new AuditFieldDiff(diff.getFieldName(), diff.getOldValue(), diff.getCurrentValue(), diff.isChanged()));
+		}
+		List<AuditFieldDiff> cached = Collections.unmodifiableList(copy);
+		entries.put(key, cached);
+		return cached;
+	}
+	
+	synchronized Stats stats() {
+		return new Stats(entries.size(), entries.weight(), hits, misses, entries.evictions());
+	}
+	
+	static long estimateBytes(List<Object> key, List<AuditFieldDiff> diffs) {
+		long size = ENTRY_OVERHEAD_BYTES + stringBytes(String.valueOf(key.get(0))) + stringBytes(String.valueOf(key.get(1)));
+		for (AuditFieldDiff diff : diffs) {
+			size += DIFF_OVERHEAD_BYTES + stringBytes(diff.getFieldName()) + stringBytes(diff.getOldValue())
+			        + stringBytes(diff.getCurrentValue());
+		}
+		return size;
+	}
+	
+	private static long stringBytes(String value) {
+		return value != null ? STRING_OVERHEAD_BYTES + 2L * value.length() : 0;
+	}
+	
+	/**
+	 * A snapshot of the size and effectiveness of the cache.
+	 */
+	@Getter
+	@ToString
+	@AllArgsConstructor
+	static class Stats {
+		
+		private final int entries;
+		
+		private final long bytes;
+		
+		private final long hits;
+		
+		private final long misses;
+		
+		private final long evictions;
+	}
+}
@@ -19,12 +19,19 @@ import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.auditlogweb.AuditEntity;
 import org.openmrs.module.auditlogweb.AuditSecurityEvent;
 import org.openmrs.module.auditlogweb.api.utils.AuditSecurityEventType;
+import org.openmrs.module.auditlogweb.api.utils.CollectionElements;
 import org.openmrs.module.auditlogweb.api.AuditService;
 import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditEntityPage;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionCursor;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.dao.UserDisplayNameDao;
+import org.openmrs.module.auditlogweb.api.dao.UserIdLookupDao;
 import org.openmrs.module.auditlogweb.api.dto.AuditEntityTypesResponseDto;
 import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
 import org.openmrs.module.auditlogweb.api.dto.AuditLogDetailDTO;
 import org.openmrs.module.auditlogweb.api.dto.RelatedEntityDto;
+import org.openmrs.module.auditlogweb.api.task.SecurityEventWriter;
 import org.openmrs.module.auditlogweb.api.utils.UtilClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,10 +41,13 @@ import org.springframework.transaction.annotation.Transactional;
 import java.util.List;
 import java.util.Date;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Objects;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -53,6 +63,16 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	
 	private final AuditDao auditDao;
 	
+	private final UserDisplayNameDao userDisplayNameDao;
+	
+	private final UserIdLookupDao userIdLookupDao;
+	
+	private final SecurityEventWriter securityEventWriter;
+	
+	private final AuditedEntityRegistry auditedEntityRegistry;
+	
+	private final AuditFieldDiffCache fieldDiffCache = new AuditFieldDiffCache();
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -66,14 +86,12 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	 */
 	@Override
 	public <T> List<AuditEntity<T>> getAllRevisions(String entityClassName, int page, int size, String sortOrder) {
-		try {
-			Class<T> clazz = (Class<T>) Class.forName(entityClassName);
-			return getAllRevisions(clazz, page, size, sortOrder);
-		}
-		catch (ClassNotFoundException e) {
-			log.error("Entity class not found: {}", entityClassName, e);
+		Class<T> clazz = (Class<T>) auditedEntityRegistry.findByName(entityClassName);
+		if (clazz == null) {
+			log.error("Entity class not found: {}", entityClassName);
 			return new ArrayList<>();
 		}
+		return getAllRevisions(clazz, page, size, sortOrder);
 	}
 	
 	/**
@@ -129,21 +147,19 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	}
 	
 	/**
-	 * Counts all revisions for a given class name. If the class cannot be loaded, logs the error and
-	 * returns 0.
+	 * Counts all revisions for a given class name. If the class is not an audited entity, logs the
+	 * error and returns 0.
 	 *
 	 * @param entityClassName fully qualified name of the entity class
 	 * @return the total number of revisions, or 0 if the class is not found
 	 */
 	public long countAllRevisions(String entityClassName) {
-		try {
-			Class<?> clazz = Class.forName(entityClassName);
-			return countAllRevisions(clazz);
-		}
-		catch (ClassNotFoundException e) {
-			log.error("Entity class not found: {}", entityClassName, e);
+		Class<?> clazz = auditedEntityRegistry.findByName(entityClassName);
+		if (clazz == null) {
+			log.error("Entity class not found: {}", entityClassName);
 			return 0L;
 		}
+		return countAllRevisions(clazz);
 	}
 	
 	/**
@@ -156,19 +172,17 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	@Override
 	public String resolveUsername(Integer userId) {
 		if (userId == null) {
-			return "Unknown";
-		}
-		
-		User user = Context.getUserService().getUser(userId);
-		if (user == null) {
-			return "Unknown";
-		}
-		
-		String username = user.getDisplayString();
-		if (StringUtils.isBlank(username)) {
-			return StringUtils.defaultIfBlank(user.getSystemId(), "Unknown");
+			return UserDisplayNameDao.UNKNOWN_USER;
 		}
-		return username;
+		return resolveUsernames(Collections.singleton(userId)).getOrDefault(userId, UserDisplayNameDao.UNKNOWN_USER);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Integer, String> resolveUsernames(Collection<Integer> userIds) {
+		return userDisplayNameDao.getDisplayNames(userIds);
 	}
 	
 	/**
@@ -189,18 +203,31 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	}
 	
 	/**
-	 * Resolves a user's ID based on their username or full name using OpenMRS's partial match
-	 * functionality. Returns {@code null} if no match is found.
+	 * Resolves a user's ID by an exact, cached match on the username or system ID. Returns
+	 * {@code null} if no user matches.
 	 *
-	 * @param input the username or full name of the user
+	 * @param input the username or system ID of the user
 	 * @return the user's ID, or {@code null} if not found
 	 */
 	@Override
 	public Integer resolveUserId(String input) {
+		return resolveUserId(input, false);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Integer resolveUserId(String input, boolean fuzzy) {
 		if (StringUtils.isBlank(input)) {
 			return null;
 		}
 		
+		Integer userId = userIdLookupDao.findUserId(input);
+		if (userId != null || !fuzzy) {
+			return userId;
+		}
+		
 		List<User> matchedUsers = Context.getUserService().getUsers(input, null, false);
 		if (!matchedUsers.isEmpty()) {
 			return matchedUsers.get(0).getUserId();
@@ -209,6 +236,14 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 		return null;
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Integer> resolveUserIdsByRole(String role) {
+		return userIdLookupDao.findUserIdsByRole(role);
+	}
+	
 	/**
 	 * Retrieves a paginated list of audit entries across all Envers-audited entity types.
 	 *
@@ -284,54 +319,98 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	@Override
 	public List<AuditLogDetailDTO> mapAuditEntitiesToDetails(List<AuditEntity<?>> auditEntities) {
 		List<AuditLogDetailDTO> dtoList = new ArrayList<>();
-		
-		for (AuditEntity<?> entity : auditEntities) {
-			Object currentEntity = entity.getEntity();
-			Object oldEntity = fetchPreviousRevision(entity, currentEntity);
-			
-			List<AuditFieldDiff> changedFields = extractChangedFields(currentEntity, oldEntity);
-			
-			AuditLogDetailDTO dto = buildAuditLogDetailDTO(entity, currentEntity, changedFields);
-			dtoList.add(dto);
-		}
-		
+		forEachAuditLogDetail(auditEntities, true, dtoList::add);
 		return dtoList;
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachAuditLogDetail(List<AuditEntity<?>> auditEntities, boolean includeChanges,
+	        Consumer<AuditLogDetailDTO> action) {
+		Map<Integer, String> usernames = resolveUsernames(changedByOf(auditEntities));
+		if (!includeChanges) {
+			auditEntities.forEach(entity -> action
+			        .accept(buildAuditLogDetailDTO(entity, entity.getEntity(), Collections.emptyList(), usernames)));
+			return;
+		}
+		forEachChangedFields(auditEntities, (entity, changedFields) -> action
+		        .accept(buildAuditLogDetailDTO(entity, entity.getEntity(), changedFields, usernames)));
+	}
+	
 	/**
 	 * Fetches paginated audit logs across entities with filtering.
 	 */
 	@Override
 	public List<AuditEntity<?>> getAllRevisionsAcrossEntitiesWithEntityType(int page, int size, Integer userId,
 	        Date startDate, Date endDate, String entityType, String sortOrder) {
+		validateEntityType(entityType);
+		return auditDao.getAllRevisionsAcrossEntitiesWithEntityType(page, size, userId, startDate, endDate, entityType,
+		    sortOrder);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AuditEntityPage getRevisionsAcrossEntitiesByUsers(int page, int size, Collection<Integer> userIds,
+	        Date startDate, Date endDate, String entityType, String sortOrder) {
+		validateEntityType(entityType);
+		return auditDao.getRevisionsAcrossEntitiesByUsers(page, size, userIds, startDate, endDate, entityType, sortOrder);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AuditEntityPage getRevisionsAcrossEntitiesAfterCursor(String cursor, int size, Integer userId,
+	        Date startDate, Date endDate, String entityType, String sortOrder) {
+		AuditRevisionCursor position = AuditRevisionCursor.decode(cursor);
+		validateEntityType(entityType);
+		return auditDao.getRevisionsAcrossEntitiesAfterCursor(position, size, userId, startDate, endDate, entityType,
+		    sortOrder);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public AuditEntityPage getRevisionsAcrossEntitiesByUsersAfterCursor(String cursor, int size,
+	        Collection<Integer> userIds, Date startDate, Date endDate, String entityType, String sortOrder) {
+		AuditRevisionCursor position = AuditRevisionCursor.decode(cursor);
+		validateEntityType(entityType);
+		return auditDao.getRevisionsAcrossEntitiesByUsersAfterCursor(position, size, userIds, startDate, endDate,
+		    entityType, sortOrder);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getNextCursor(AuditEntityPage page) {
+		return page.getNextCursor() != null ? page.getNextCursor().encode() : null;
+	}
+	
+	private void validateEntityType(String entityType) {
 		if (entityType != null && !entityType.trim().isEmpty()) {
-			boolean isValid = UtilClass.findClassesWithAnnotation().stream().map(className -> {
-				try {
-					return Class.forName(className);
-				}
-				catch (ClassNotFoundException e) {
-					return null;
-				}
-			}).filter(Objects::nonNull).anyMatch(clazz -> clazz.getSimpleName().equalsIgnoreCase(entityType));
-			
-			if (!isValid) {
+			if (auditedEntityRegistry.findBySimpleName(entityType).isEmpty()) {
 				throw new IllegalArgumentException("Invalid entityType: " + entityType);
 			}
 		}
-		
-		return auditDao.getAllRevisionsAcrossEntitiesWithEntityType(page, size, userId, startDate, endDate, entityType,
-		    sortOrder);
 	}
 	
 	/**
 	 * Counts audit logs across entities with filtering.
 	 */
 	/**
-	 * Builds an {@link AuditSecurityEvent}, stamps the current timestamp, and delegates persistence to
-	 * the DAO. Null-safe: all optional parameters are accepted without any non-null constraint here.
+	 * Builds an {@link AuditSecurityEvent}, stamps the current timestamp, and hands it to the
+	 * {@link SecurityEventWriter}, which writes it in a transaction of its own or queues it for a
+	 * batched write. Null-safe: all optional parameters are accepted without any non-null constraint
+	 * here.
 	 */
 	@Override
-	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
 	public void logSecurityEvent(AuditSecurityEventType eventType, String username, String userUuid, String ipAddress,
 	        String userAgent, String sessionId, String detailsJson) {
 		
@@ -339,8 +418,7 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 		        .username(StringUtils.substring(username, 0, 50)).userUuid(userUuid).eventTime(new Date())
 		        .ipAddress(StringUtils.substring(ipAddress, 0, 100)).userAgent(StringUtils.substring(userAgent, 0, 1000))
 		        .sessionId(StringUtils.substring(sessionId, 0, 256)).details(detailsJson).build();
-		auditDao.saveSecurityEvent(event);
-		auditDao.flush();
+		securityEventWriter.write(event);
 	}
 	
 	@Override
@@ -348,6 +426,24 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 		return auditDao.countRevisionsAcrossEntitiesWithEntityType(userId, startDate, endDate, entityType);
 	}
 	
+	@Override
+	public Long estimateRevisionsAcrossEntitiesWithEntityType(Integer userId, Date startDate, Date endDate,
+	        String entityType) {
+		return auditDao.estimateRevisionsAcrossEntitiesWithEntityType(userId, startDate, endDate, entityType);
+	}
+	
+	@Override
+	public long countRevisionsAcrossEntitiesByUsers(Collection<Integer> userIds, Date startDate, Date endDate,
+	        String entityType) {
+		return auditDao.countRevisionsAcrossEntitiesByUsers(userIds, startDate, endDate, entityType);
+	}
+	
+	@Override
+	public Long estimateRevisionsAcrossEntitiesByUsers(Collection<Integer> userIds, Date startDate, Date endDate,
+	        String entityType) {
+		return auditDao.estimateRevisionsAcrossEntitiesByUsers(userIds, startDate, endDate, entityType);
+	}
+	
 	@Override
 	public List<AuditEntity<?>> getRelatedEntitiesInRevision(Class<?> entityClass, Object entityId, int revisionId) {
 		Map<String, Class<?>> fieldTypes = UtilClass.getFieldTypes(entityClass);
@@ -368,6 +464,18 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 		return auditDao.countSecurityEvents(eventType, username, startDate, endDate);
 	}
 	
+	@Override
+	public List<AuditSecurityEvent> getSecurityEvents(String eventType, String username, Collection<Integer> userIds,
+	        Date startDate, Date endDate, int page, int size) {
+		return auditDao.getSecurityEvents(eventType, username, userIds, startDate, endDate, page, size);
+	}
+	
+	@Override
+	public long countSecurityEvents(String eventType, String username, Collection<Integer> userIds, Date startDate,
+	        Date endDate) {
+		return auditDao.countSecurityEvents(eventType, username, userIds, startDate, endDate);
+	}
+	
 	@Override
 	public AuditSecurityEvent getSecurityEventById(Integer eventId) {
 		return auditDao.getSecurityEventById(eventId);
@@ -378,51 +486,93 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 		return auditDao.getRelatedSecurityEvents(sessionId, limit);
 	}
 	
-	private Object fetchPreviousRevision(AuditEntity<?> entity, Object currentEntity) {
-		if (entity.getRevisionEntity().getId() <= 1) {
-			return null;
+	/**
+	 * Gets the changed fields of each audit row, from the diff cache where possible.
+	 */
+	private List<List<AuditFieldDiff>> getChangedFields(List<AuditEntity<?>> auditEntities) {
+		List<List<AuditFieldDiff>> changes = new ArrayList<>(auditEntities.size());
+		forEachChangedFields(auditEntities, (entity, changedFields) -> changes.add(changedFields));
+		return changes;
+	}
+	
+	/**
+	 * Hands the changed fields of each audit row to the action, in order. Cached diffs are used where
+	 * possible, then the changes recorded when the rows were written. Previous revisions are loaded
+	 * only for the remaining rows, and each of their diffs is computed right before it is handed over.
+	 */
+	private void forEachChangedFields(List<AuditEntity<?>> auditEntities,
+	        BiConsumer<AuditEntity<?>, List<AuditFieldDiff>> action) {
+		List<List<AuditFieldDiff>> knownChanges = new ArrayList<>(auditEntities.size());
+		List<AuditEntity<?>> uncached = new ArrayList<>();
+		for (AuditEntity<?> entity : auditEntities) {
+			List<AuditFieldDiff> cached = fieldDiffCache.get(diffKey(entity));
+			knownChanges.add(cached);
+			if (cached == null) {
+				uncached.add(entity);
+			}
 		}
 		
-		Object entityId = UtilClass.getEntityIdAsString(currentEntity);
-		
-		if (!(Role.class.isAssignableFrom(currentEntity.getClass())
-		        || GlobalProperty.class.isAssignableFrom(currentEntity.getClass()))) {
-			try {
-				//Here if this condition becomes true then most probably, this is id or uuid
-				entityId = Integer.parseInt(entityId.toString());
-			}
-			catch (NumberFormatException e) {
-				//If this exception occurred then it may be the uuid, which we're trying to convert to int, so leave it as string
+		List<AuditEntity<?>> toDiff = new ArrayList<>();
+		if (!uncached.isEmpty()) {
+			List<List<AuditFieldDiff>> recorded = auditDao.getRecordedFieldChanges(uncached);
+			int next = 0;
+			for (int i = 0; i < auditEntities.size(); i++) {
+				if (knownChanges.get(i) == null) {
+					AuditEntity<?> entity = auditEntities.get(i);
+					List<AuditFieldDiff> recordedFields = recorded.get(next++);
+					if (recordedFields != null) {
+						knownChanges.set(i, fieldDiffCache.put(diffKey(entity), recordedFields));
+					} else {
+						toDiff.add(entity);
+					}
+				}
 			}
 		}
 		
-		try {
-			return getRevisionById(currentEntity.getClass(), entityId, entity.getRevisionEntity().getId() - 1);
+		List<Object> previousEntities = Collections.emptyList();
+		CollectionElements collectionElements = CollectionElements.NONE;
+		if (!toDiff.isEmpty()) {
+			previousEntities = auditDao.getPreviousRevisions(toDiff);
+			collectionElements = auditDao.loadCollectionElements(toDiff, previousEntities);
 		}
-		catch (IllegalArgumentException e) {
-			log.warn("Previous revision not supported for entity [{}] with ID [{}]",
-			    currentEntity.getClass().getSimpleName(), entityId);
-			return null;
+		int next = 0;
+		for (int i = 0; i < auditEntities.size(); i++) {
+			AuditEntity<?> entity = auditEntities.get(i);
+			List<AuditFieldDiff> changedFields = knownChanges.get(i);
+			if (changedFields == null) {
+				changedFields = fieldDiffCache.put(diffKey(entity),
+				    extractChangedFields(entity.getEntity(), previousEntities.get(next++), collectionElements));
+			}
+			action.accept(entity, changedFields);
+		}
+		if (!uncached.isEmpty()) {
+			log.debug("Audit field diff cache: {}", fieldDiffCache.stats());
 		}
 	}
 	
-	private List<AuditFieldDiff> extractChangedFields(Object currentEntity, Object oldEntity) {
-		List<AuditFieldDiff> diffs = UtilClass.computeFieldDiffs(currentEntity.getClass(), oldEntity, currentEntity);
-		
-		return diffs.stream().filter(AuditFieldDiff::isChanged).map(previousDiff -> {
-			AuditFieldDiff updatedDiff = new AuditFieldDiff();
-			updatedDiff.setFieldName(previousDiff.getFieldName());
-			updatedDiff.setOldValue(previousDiff.getOldValue());
-			updatedDiff.setCurrentValue(previousDiff.getCurrentValue());
-			updatedDiff.setChanged(true);
-			return updatedDiff;
-		}).collect(Collectors.toList());
+	private static List<Object> diffKey(AuditEntity<?> entity) {
+		Object currentEntity = entity.getEntity();
+		return AuditFieldDiffCache.key(currentEntity.getClass(), UtilClass.getEntityIdAsString(currentEntity),
+		    entity.getRevisionEntity().getId());
+	}
+	
+	private List<AuditFieldDiff> extractChangedFields(Object currentEntity, Object oldEntity,
+	        CollectionElements collectionElements) {
+		return UtilClass.computeChangedFields(currentEntity.getClass(), oldEntity, currentEntity, collectionElements);
+	}
+	
+	private static List<Integer> changedByOf(List<AuditEntity<?>> auditEntities) {
+		return auditEntities.stream().map(AuditEntity::getChangedBy).collect(Collectors.toList());
+	}
+	
+	private static String usernameOf(AuditEntity<?> entity, Map<Integer, String> usernames) {
+		return usernames.getOrDefault(entity.getChangedBy(), UserDisplayNameDao.UNKNOWN_USER);
 	}
 	
 	private AuditLogDetailDTO buildAuditLogDetailDTO(AuditEntity<?> entity, Object currentEntity,
-	        List<AuditFieldDiff> changedFields) {
+	        List<AuditFieldDiff> changedFields, Map<Integer, String> usernames) {
 		
-		String username = resolveUsername(entity.getChangedBy());
+		String username = usernameOf(entity, usernames);
 		
 		AuditLogDetailDTO dto = new AuditLogDetailDTO();
 		dto.setRevisionID(entity.getRevisionEntity().getId());
@@ -436,8 +586,8 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	}
 	
 	private AuditLogDetailDTO buildEntityAuditDetailsDTO(AuditEntity<?> entity, Object currentEntity,
-	        List<AuditFieldDiff> changedFields, List<RelatedEntityDto> relatedEntities) {
-		String username = resolveUsername(entity.getChangedBy());
+	        List<AuditFieldDiff> changedFields, List<RelatedEntityDto> relatedEntities, Map<Integer, String> usernames) {
+		String username = usernameOf(entity, usernames);
 		
 		AuditLogDetailDTO dto = new AuditLogDetailDTO();
 		dto.setRevisionID(entity.getRevisionEntity().getId());
@@ -458,12 +608,13 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	
 	public List<AuditLogDetailDTO> getEntityDetailedAudit(List<AuditEntity<?>> auditEntities, Class<?> entityClass) {
 		List<AuditLogDetailDTO> entityAudList = new ArrayList<>();
+		List<List<AuditFieldDiff>> changes = getChangedFields(auditEntities);
+		Map<Integer, String> usernames = resolveUsernames(changedByOf(auditEntities));
 		
-		for (AuditEntity<?> entity : auditEntities) {
+		for (int i = 0; i < auditEntities.size(); i++) {
+			AuditEntity<?> entity = auditEntities.get(i);
 			Object currentEntity = entity.getEntity();
-			Object oldEntity = fetchPreviousRevision(entity, currentEntity);
-			
-			List<AuditFieldDiff> changedFields = extractChangedFields(currentEntity, oldEntity);
+			List<AuditFieldDiff> changedFields = changes.get(i);
 			
 			String entityId = UtilClass.getEntityIdAsString(currentEntity);
 			
@@ -482,7 +633,8 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 				}
 			}
 			
-			AuditLogDetailDTO dto = buildEntityAuditDetailsDTO(entity, currentEntity, changedFields, relatedEntities);
+			AuditLogDetailDTO dto = buildEntityAuditDetailsDTO(entity, currentEntity, changedFields, relatedEntities,
+			    usernames);
 			
 			entityAudList.add(dto);
 		}
@@ -495,7 +647,7 @@ public class AuditServiceImpl extends BaseOpenmrsService implements AuditService
 	}
 	
 	public AuditEntityTypesResponseDto getAuditedEntitiesNames() {
-		List<String> entityTypes = UtilClass.findClassesWithAnnotation().stream()
+		List<String> entityTypes = auditedEntityRegistry.getAuditedEntityNames().stream()
 		        .map((entity) -> entity.substring(entity.lastIndexOf(".") + 1)).collect(Collectors.toList());
 		return new AuditEntityTypesResponseDto(entityTypes);
 	}
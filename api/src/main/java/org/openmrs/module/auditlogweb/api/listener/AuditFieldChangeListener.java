@@ -0,0 +1,53 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.listener;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionKey;
+import org.openmrs.module.auditlogweb.api.dao.AuditTableMetadata;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery;
+import org.openmrs.module.auditlogweb.api.task.AuditFieldChangeWriter;
+
+/**
+ * Hibernate post-insert listener that hands every audit row Envers inserts to the
+ * {@link AuditFieldChangeWriter}, once the transaction that wrote it has committed. The changed
+ * fields are then computed and stored in the background, outside of the transaction being audited.
+ * Does nothing unless the writer is running.
+ */
+public class AuditFieldChangeListener extends AuditRowInsertListener {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final transient AuditFieldChangeWriter fieldChangeWriter;
+	
+	public AuditFieldChangeListener(SessionFactory sessionFactory, CrossEntityRevisionQuery crossEntityRevisionQuery,
+	    AuditedEntityRegistry auditedEntityRegistry, AuditFieldChangeWriter fieldChangeWriter) {
+		super(sessionFactory, crossEntityRevisionQuery, auditedEntityRegistry);
+		this.fieldChangeWriter = fieldChangeWriter;
+	}
+	
+	@Override
+	protected void onAuditRowInserted(PostInsertEvent event, AuditTableMetadata table, OpenmrsRevisionEntity revision,
+	        String entityId, RevisionType revisionType) {
+		if (!fieldChangeWriter.isEnabled()) {
+			return;
+		}
+		AuditRevisionKey key = new AuditRevisionKey(revision.getId(), table.getEntityClass(), entityId);
+		event.getSession().getActionQueue().registerProcess((success, session) -> {
+			if (success) {
+				fieldChangeWriter.submit(key);
+			}
+		});
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.listener;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionIndexDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditTableMetadata;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery;
+import org.openmrs.module.auditlogweb.api.task.AuditRevisionIndexBackfill;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Savepoint;
+
+/**
+ * Hibernate post-insert listener that writes one {@code audit_revision_index} row for every audit
+ * row Envers inserts. The row is written on the same JDBC connection, so it commits or rolls back
+ * together with the audit row. A failed write is rolled back to a savepoint and never fails the
+ * audited transaction: the index is marked not ready and the {@link AuditRevisionIndexBackfill}
+ * copies the missing row once the transaction has completed.
+ */
+public class AuditRevisionIndexListener extends AuditRowInsertListener {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final Logger log = LoggerFactory.getLogger(AuditRevisionIndexListener.class);
+	
+	private final transient AuditRevisionIndexBackfill backfill;
+	
+	public AuditRevisionIndexListener(SessionFactory sessionFactory, CrossEntityRevisionQuery crossEntityRevisionQuery,
+	    AuditedEntityRegistry auditedEntityRegistry, AuditRevisionIndexBackfill backfill) {
+		super(sessionFactory, crossEntityRevisionQuery, auditedEntityRegistry);
+		this.backfill = backfill;
+	}
+	
+	@Override
+	protected void onAuditRowInserted(PostInsertEvent event, AuditTableMetadata table, OpenmrsRevisionEntity revision,
+	        String entityId, RevisionType revisionType) {
+		String entityName = table.getEntityClass().getName();
+		try {
+			long entityOrder = table.hasNumericId() ? Long.parseLong(entityId) : 0L;
+			event.getSession().doWork(connection -> {
+				Savepoint savepoint = connection.setSavepoint();
+				try {
+					AuditRevisionIndexDao.insertIndexRow(connection, revision.getId(), entityName, entityId, entityOrder,
+					    revisionType.getRepresentation(), revision.getChangedBy(),
+					    revision.getChangedOn() != null ? revision.getChangedOn() : revision.getRevisionDate());
+				}
+				catch (Exception e) {
+					connection.rollback(savepoint);
+					throw e;
+				}
+				connection.releaseSavepoint(savepoint);
+			});
+		}
+		catch (Exception e) {
+			log.error("Could not index audit row of {} {} in revision {}, listings use the audit tables until it is"
+			        + " copied again: {}", entityName, entityId, revision.getId(), e.getMessage(), e);
+			backfill.markWriteFailed();
+			event.getSession().getActionQueue()
+			        .registerProcess((success, session) -> backfill.reindex(entityName, revision.getId()));
+		}
+	}
+}
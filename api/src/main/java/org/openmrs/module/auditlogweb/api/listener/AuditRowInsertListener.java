@@ -0,0 +1,200 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.listener;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.hibernate.event.service.spi.DuplicationStrategy;
+import org.hibernate.event.service.spi.EventListenerGroup;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
+import org.openmrs.module.auditlogweb.api.dao.AuditTableMetadata;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of the Hibernate post-insert listeners that react to the audit rows Envers inserts. It picks
+ * the audit rows of known audit tables out of all inserts and hands over their revision, entity id
+ * and revision type. Collection changes are covered as well, since Envers records them as a
+ * modification of the owning entity.
+ */
+public abstract class AuditRowInsertListener implements PostInsertEventListener {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final Logger log = LoggerFactory.getLogger(AuditRowInsertListener.class);
+	
+	private final transient SessionFactory sessionFactory;
+	
+	private final transient CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final transient AuditedEntityRegistry auditedEntityRegistry;
+	
+	private transient volatile AuditTables auditTables;
+	
+	private transient volatile AuditEntitiesConfiguration auditEntitiesConfiguration;
+	
+	private volatile boolean enabled;
+	
+	protected AuditRowInsertListener(SessionFactory sessionFactory, CrossEntityRevisionQuery crossEntityRevisionQuery,
+	    AuditedEntityRegistry auditedEntityRegistry) {
+		this.sessionFactory = sessionFactory;
+		this.crossEntityRevisionQuery = crossEntityRevisionQuery;
+		this.auditedEntityRegistry = auditedEntityRegistry;
+	}
+	
+	/**
+	 * Registers this listener with the Hibernate event system. An instance left behind by a previous
+	 * start of the module is replaced rather than duplicated.
+	 */
+	public void register() {
+		SessionFactoryImplementor factory = sessionFactory.unwrap(SessionFactoryImplementor.class);
+		auditEntitiesConfiguration = factory.getServiceRegistry().getService(EnversService.class)
+		        .getAuditEntitiesConfiguration();
+		
+		EventListenerGroup<PostInsertEventListener> group = factory.getServiceRegistry()
+		        .getService(EventListenerRegistry.class).getEventListenerGroup(EventType.POST_INSERT);
+		group.addDuplicationStrategy(new ReplacePreviousInstance());
+		group.appendListener(this);
+		enabled = true;
+		log.info("Registered the {}", getClass().getSimpleName());
+	}
+	
+	/**
+	 * Stops reacting to audit rows. Hibernate offers no way to remove a single listener, so the
+	 * instance stays registered but inactive until the module starts again and replaces it.
+	 */
+	public void unregister() {
+		enabled = false;
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		if (!enabled) {
+			return;
+		}
+		AuditTableMetadata table = getTablesByAuditEntityName().get(event.getPersister().getEntityName());
+		if (table == null || !(event.getEntity() instanceof Map)) {
+			return;
+		}
+		
+		Map<?, ?> data = (Map<?, ?>) event.getEntity();
+		Object originalId = data.get(auditEntitiesConfiguration.getOriginalIdPropName());
+		if (!(originalId instanceof Map)) {
+			return;
+		}
+		
+		Object revision = null;
+		Object entityId = null;
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) originalId).entrySet()) {
+			if (auditEntitiesConfiguration.getRevisionFieldName().equals(entry.getKey())) {
+				revision = entry.getValue();
+			} else {
+				entityId = entry.getValue();
+			}
+		}
+		if (!(revision instanceof OpenmrsRevisionEntity) || entityId == null) {
+			return;
+		}
+		
+		RevisionType revisionType = (RevisionType) data.get(auditEntitiesConfiguration.getRevisionTypePropName());
+		onAuditRowInserted(event, table, (OpenmrsRevisionEntity) revision, String.valueOf(entityId),
+		    revisionType != null ? revisionType : RevisionType.MOD);
+	}
+	
+	/**
+	 * Called for every audit row Envers inserts into a known audit table, while Hibernate is flushing.
+	 *
+	 * @param event the insert event of the audit row
+	 * @param table the audit table the row was inserted into
+	 * @param revision the revision the row belongs to
+	 * @param entityId the id of the audited entity, as a string
+	 * @param revisionType the kind of change the row records
+	 */
+	protected abstract void onAuditRowInserted(PostInsertEvent event, AuditTableMetadata table,
+	        OpenmrsRevisionEntity revision, String entityId, RevisionType revisionType);
+	
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return false;
+	}
+	
+	/**
+	 * Maps the audit entity names of the audited classes to their audit tables. The map is kept until
+	 * the registry is refreshed, and never kept while it is empty, so inserts flushed before the
+	 * audited entities are known are not missed for good.
+	 */
+	private Map<String, AuditTableMetadata> getTablesByAuditEntityName() {
+		List<Class<?>> classes = auditedEntityRegistry.getAuditedEntityClasses();
+		AuditTables current = auditTables;
+		if (current != null && current.classes == classes) {
+			return current.byAuditEntityName;
+		}
+		Map<String, AuditTableMetadata> tables = new HashMap<>();
+		for (Class<?> clazz : classes) {
+			crossEntityRevisionQuery.getTableMetadata(clazz)
+			        .ifPresent(table -> tables.put(table.getAuditEntityName(), table));
+		}
+		if (!tables.isEmpty()) {
+			auditTables = new AuditTables(classes, Collections.unmodifiableMap(tables));
+		}
+		return tables;
+	}
+	
+	/**
+	 * The audit tables of the audited classes, together with the registry list they were read from.
+	 */
+	private static final class AuditTables {
+		
+		private final List<Class<?>> classes;
+		
+		private final Map<String, AuditTableMetadata> byAuditEntityName;
+		
+		private AuditTables(List<Class<?>> classes, Map<String, AuditTableMetadata> byAuditEntityName) {
+			this.classes = classes;
+			this.byAuditEntityName = byAuditEntityName;
+		}
+	}
+	
+	/**
+	 * Treats listeners of the same class as duplicates even when they were loaded by the class loader
+	 * of an earlier module start, and keeps the newest one.
+	 */
+	private static class ReplacePreviousInstance implements DuplicationStrategy {
+		
+		@Override
+		public boolean areMatch(Object listener, Object original) {
+			return listener.getClass().getName().equals(original.getClass().getName());
+		}
+		
+		@Override
+		public Action getAction() {
+			return Action.REPLACE_ORIGINAL;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.task;
+
+import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditFieldChangeDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionIndexDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionKey;
+import org.openmrs.module.auditlogweb.api.dao.AuditTableMetadata;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records the changed fields of existing audit history in the {@code audit_field_change} table.
+ * Each audit table is processed in windows of {@link #BATCH_SIZE} revisions, one transaction per
+ * window, and the last processed revision is stored in {@code audit_field_change_progress} so an
+ * interrupted backfill resumes where it stopped. Rows the backfill has not reached yet are diffed on
+ * read as before.
+ */
+@Component("auditlogweb.AuditFieldChangeBackfill")
+public class AuditFieldChangeBackfill {
+	
+	static final int BATCH_SIZE = 500;
+	
+	private static final Logger log = LoggerFactory.getLogger(AuditFieldChangeBackfill.class);
+	
+	private final AuditFieldChangeWriter fieldChangeWriter;
+	
+	private final AuditFieldChangeDao fieldChangeDao;
+	
+	private final AuditRevisionIndexDao indexDao;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final AuditDao auditDao;
+	
+	private final TransactionTemplate transactionTemplate;
+	
+	private ExecutorService executor;
+	
+	private volatile boolean stopRequested;
+	
+	@Autowired
+	public AuditFieldChangeBackfill(AuditFieldChangeWriter fieldChangeWriter, AuditFieldChangeDao fieldChangeDao,
+	    AuditRevisionIndexDao indexDao, CrossEntityRevisionQuery crossEntityRevisionQuery, AuditDao auditDao,
+	    @Qualifier("transactionManager") PlatformTransactionManager transactionManager) {
+		this.fieldChangeWriter = fieldChangeWriter;
+		this.fieldChangeDao = fieldChangeDao;
+		this.indexDao = indexDao;
+		this.crossEntityRevisionQuery = crossEntityRevisionQuery;
+		this.auditDao = auditDao;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+	
+	/**
+	 * Starts the backfill on a background thread. Does nothing if it is already running.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		stopRequested = false;
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "auditlogweb-field-change-backfill");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.submit(this::run);
+	}
+	
+	/**
+	 * Asks the backfill to stop after the current window. Progress made so far is kept.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		stopRequested = true;
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	void run() {
+		try {
+			for (Class<?> clazz : auditDao.getAuditedEntityClasses()) {
+				if (stopRequested) {
+					return;
+				}
+				Optional<AuditTableMetadata> table = crossEntityRevisionQuery.getTableMetadata(clazz);
+				if (table.isPresent()) {
+					backfill(table.get());
+				}
+			}
+			if (!stopRequested) {
+				log.info("Audit field changes are up to date");
+			}
+		}
+		catch (Exception e) {
+			log.error("Audit field change backfill failed, older audit rows keep being diffed on read: {}",
+			    e.getMessage(), e);
+		}
+	}
+	
+	private void backfill(AuditTableMetadata table) {
+		String entityName = table.getEntityClass().getName();
+		Integer maxRevision = transactionTemplate.execute(status -> indexDao.getMaxRevision(table));
+		if (maxRevision == null) {
+			return;
+		}
+		
+		int position = transactionTemplate.execute(status -> fieldChangeDao.getBackfillPosition(entityName));
+		int recorded = 0;
+		while (position < maxRevision && !stopRequested) {
+			int from = position;
+			int to = Math.min(maxRevision, position + BATCH_SIZE);
+			recorded += transactionTemplate.execute(status -> {
+				List<AuditRevisionKey> keys = fieldChangeDao.findRevisionKeys(table, from, to);
+				int written = keys.isEmpty() ? 0 : fieldChangeWriter.write(keys);
+				fieldChangeDao.saveBackfillPosition(entityName, to);
+				return written;
+			});
+			position = to;
+		}
+		if (recorded > 0) {
+			log.info("Recorded the field changes of {} audit rows of {}", recorded, entityName);
+		}
+	}
+}
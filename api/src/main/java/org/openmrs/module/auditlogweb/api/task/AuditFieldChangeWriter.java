@@ -0,0 +1,189 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.task;
+
+import org.openmrs.module.auditlogweb.AuditEntity;
+import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditFieldChangeDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionKey;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
+import org.openmrs.module.auditlogweb.api.utils.CollectionElements;
+import org.openmrs.module.auditlogweb.api.utils.UtilClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Records the changed fields of audit rows in the {@code audit_field_change} table. Audit rows
+ * written while the module runs are submitted by
+ * {@link org.openmrs.module.auditlogweb.api.listener.AuditFieldChangeListener} and recorded on a
+ * background thread in batches of up to {@link #BATCH_SIZE} rows, one transaction per batch. Diffs
+ * are computed with {@link UtilClass#computeFieldDiffs(Class, Object, Object, CollectionElements)},
+ * exactly as they are on read. Rows with a collection that could not be loaded are not recorded,
+ * so they are diffed on read instead of being stored as unchanged.
+ */
+@Component("auditlogweb.AuditFieldChangeWriter")
+public class AuditFieldChangeWriter {
+	
+	static final int BATCH_SIZE = 200;
+	
+	private static final Logger log = LoggerFactory.getLogger(AuditFieldChangeWriter.class);
+	
+	private final AuditDao auditDao;
+	
+	private final AuditFieldChangeDao fieldChangeDao;
+	
+	private final TransactionTemplate transactionTemplate;
+	
+	private final BlockingQueue<AuditRevisionKey> pending = new LinkedBlockingQueue<>();
+	
+	private ExecutorService executor;
+	
+	@Autowired
+	public AuditFieldChangeWriter(AuditDao auditDao, AuditFieldChangeDao fieldChangeDao,
+	    @Qualifier("transactionManager") PlatformTransactionManager transactionManager) {
+		this.auditDao = auditDao;
+		this.fieldChangeDao = fieldChangeDao;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+	
+	/**
+	 * Starts recording field changes on a background thread, and looking them up on read. Does
+	 * nothing if it is already running.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "auditlogweb-field-change-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.submit(this::run);
+		fieldChangeDao.setEnabled(true);
+	}
+	
+	/**
+	 * Stops recording field changes. Audit rows still waiting are dropped and diffed on read instead.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		fieldChangeDao.setEnabled(false);
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		pending.clear();
+	}
+	
+	public boolean isEnabled() {
+		return fieldChangeDao.isEnabled();
+	}
+	
+	/**
+	 * Queues an audit row whose transaction has committed, to be recorded in the background.
+	 *
+	 * @param key the key of the audit row
+	 */
+	public void submit(AuditRevisionKey key) {
+		if (isEnabled()) {
+			pending.offer(key);
+		}
+	}
+	
+	/**
+	 * Computes and records the changed fields of the given audit rows, skipping rows that are already
+	 * recorded. Must be called within a transaction.
+	 *
+	 * @param keys the keys of the audit rows
+	 * @return the number of audit rows recorded
+	 */
+	public int write(List<AuditRevisionKey> keys) {
+		Set<AuditRevisionKey> recorded = fieldChangeDao.findFieldChanges(keys).keySet();
+		List<AuditRevisionKey> missing = new ArrayList<>();
+		for (AuditRevisionKey key : keys) {
+			if (!recorded.contains(key)) {
+				missing.add(key);
+			}
+		}
+		if (missing.isEmpty()) {
+			return 0;
+		}
+		
+		List<AuditRevisionKey> hydratedKeys = new ArrayList<>(missing.size());
+		List<AuditEntity<?>> auditEntities = new ArrayList<>(missing.size());
+		for (Map.Entry<AuditRevisionKey, AuditEntity<?>> entry : auditDao.hydrateRevisionKeysByKey(missing).entrySet()) {
+			if (entry.getValue().getEntity() != null) {
+				hydratedKeys.add(entry.getKey());
+				auditEntities.add(entry.getValue());
+			}
+		}
+		List<Object> previousEntities = auditDao.getPreviousRevisions(auditEntities);
+		CollectionElements collectionElements = auditDao.loadCollectionElements(auditEntities, previousEntities);
+		
+		Map<AuditRevisionKey, List<AuditFieldDiff>> changes = new LinkedHashMap<>();
+		for (int i = 0; i < auditEntities.size(); i++) {
+			Object currentEntity = auditEntities.get(i).getEntity();
+			List<AuditFieldDiff> diffs = UtilClass.computeFieldDiffs(currentEntity.getClass(), previousEntities.get(i),
+			    currentEntity, collectionElements);
+			if (UtilClass.hasUnloadedFields(diffs)) {
+				log.debug("Not recording the field changes of {}, a collection of it could not be loaded",
+				    hydratedKeys.get(i));
+				continue;
+			}
+			changes.put(hydratedKeys.get(i),
+			    diffs.stream().filter(AuditFieldDiff::isChanged).collect(Collectors.toList()));
+		}
+		if (changes.isEmpty()) {
+			return 0;
+		}
+		fieldChangeDao.saveFieldChanges(changes);
+		return changes.size();
+	}
+	
+	void run() {
+		List<AuditRevisionKey> batch = new ArrayList<>(BATCH_SIZE);
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				batch.add(pending.take());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			pending.drainTo(batch, BATCH_SIZE - 1);
+			try {
+				transactionTemplate.execute(status -> write(batch));
+			}
+			catch (Exception e) {
+				log.warn("Could not record the field changes of {} audit rows, they are diffed on read instead: {}",
+				    batch.size(), e.getMessage());
+			}
+			batch.clear();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.task;
+
+import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionIndexDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditTableMetadata;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies existing audit history into the {@code audit_revision_index} table. Each audit table is
+ * copied in windows of {@link #BATCH_SIZE} revisions, one transaction per window, and the last copied
+ * revision is stored in {@code audit_revision_index_progress} so an interrupted backfill resumes
+ * where it stopped. Once every table has caught up the index is marked ready and starts answering
+ * cross-entity listings. When the live index write of an audit row fails, the index is marked not
+ * ready and the backfill copies that table again from the failed revision on.
+ */
+@Component("auditlogweb.AuditRevisionIndexBackfill")
+public class AuditRevisionIndexBackfill {
+	
+	static final int BATCH_SIZE = 5000;
+	
+	private static final Logger log = LoggerFactory.getLogger(AuditRevisionIndexBackfill.class);
+	
+	private final AuditRevisionIndexDao indexDao;
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	private final AuditDao auditDao;
+	
+	private final TransactionTemplate transactionTemplate;
+	
+	private ExecutorService executor;
+	
+	private volatile boolean stopRequested;
+	
+	private final Map<String, Integer> reindexFrom = new HashMap<>();
+	
+	private int failedWrites;
+	
+	@Autowired
+	public AuditRevisionIndexBackfill(AuditRevisionIndexDao indexDao, CrossEntityRevisionQuery crossEntityRevisionQuery,
+	    AuditDao auditDao, @Qualifier("transactionManager") PlatformTransactionManager transactionManager) {
+		this.indexDao = indexDao;
+		this.crossEntityRevisionQuery = crossEntityRevisionQuery;
+		this.auditDao = auditDao;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+	
+	/**
+	 * Starts the backfill on a background thread. Does nothing if it is already running.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		stopRequested = false;
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "auditlogweb-revision-index-backfill");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.submit(this::run);
+	}
+	
+	/**
+	 * Asks the backfill to stop after the current window. Progress made so far is kept.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		stopRequested = true;
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Marks the index not ready because the live index write of an audit row failed. The index stays
+	 * not ready until the row has been copied by {@link #reindex}, which must follow once the
+	 * transaction that wrote the audit row has completed.
+	 */
+	public synchronized void markWriteFailed() {
+		failedWrites++;
+		indexDao.setReady(false);
+	}
+	
+	/**
+	 * Copies the audit rows of an entity again from the given revision on, after a failed live index
+	 * write. The request is kept until the next run if the backfill is not running.
+	 *
+	 * @param entityName the audited entity name
+	 * @param revision the revision whose index row could not be written
+	 */
+	public synchronized void reindex(String entityName, int revision) {
+		failedWrites = Math.max(0, failedWrites - 1);
+		reindexFrom.merge(entityName, revision, Math::min);
+		indexDao.setReady(false);
+		if (executor != null) {
+			executor.submit(this::run);
+		}
+	}
+	
+	void run() {
+		try {
+			rewindProgress();
+			for (Class<?> clazz : auditDao.getAuditedEntityClasses()) {
+				if (stopRequested) {
+					return;
+				}
+				Optional<AuditTableMetadata> table = crossEntityRevisionQuery.getTableMetadata(clazz);
+				if (table.isPresent()) {
+					backfill(table.get());
+				}
+			}
+			if (!stopRequested) {
+				markReadyIfComplete();
+			}
+		}
+		catch (Exception e) {
+			log.error("Audit revision index backfill failed, listings keep using the audit tables: {}", e.getMessage(),
+			    e);
+		}
+	}
+	
+	private void rewindProgress() {
+		Map<String, Integer> requests;
+		synchronized (this) {
+			requests = new HashMap<>(reindexFrom);
+		}
+		requests.forEach((entityName, revision) -> {
+			transactionTemplate.execute(status -> {
+				if (indexDao.getBackfillPosition(entityName) >= revision) {
+					indexDao.saveBackfillPosition(entityName, revision - 1);
+				}
+				return null;
+			});
+			synchronized (this) {
+				reindexFrom.remove(entityName, revision);
+			}
+		});
+	}
+	
+	private synchronized void markReadyIfComplete() {
+		if (reindexFrom.isEmpty() && failedWrites == 0) {
+			indexDao.setReady(true);
+			log.info("Audit revision index is up to date");
+		}
+	}
+	
+	private void backfill(AuditTableMetadata table) {
+		String entityName = table.getEntityClass().getName();
+		Integer maxRevision = transactionTemplate.execute(status -> indexDao.getMaxRevision(table));
+		if (maxRevision == null) {
+			return;
+		}
+		
+		int position = transactionTemplate.execute(status -> indexDao.getBackfillPosition(entityName));
+		int copied = 0;
+		while (position < maxRevision && !stopRequested) {
+			int from = position;
+			int to = Math.min(maxRevision, position + BATCH_SIZE);
+			copied += transactionTemplate.execute(status -> {
+				int inserted = indexDao.backfillRevisions(table, from, to);
+				indexDao.saveBackfillPosition(entityName, to);
+				return inserted;
+			});
+			position = to;
+		}
+		if (copied > 0) {
+			log.info("Copied {} audit rows of {} into the revision index", copied, entityName);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.task;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.auditlogweb.AuditSecurityEvent;
+import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.utils.AuditLogConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes security events to the {@code audit_security_event} table. While it is running, events are
+ * put on a bounded queue and inserted on a background thread in JDBC batches of up to the configured
+ * batch size, at least once per flush interval, one transaction per batch. When it is not running,
+ * or the queue is full, an event is written by the caller in a transaction of its own, so a burst of
+ * logins slows down instead of losing events. Events still queued when it stops are written before
+ * {@link #stop()} returns. Queueing an event and detaching the queue on stop are guarded by a
+ * read-write lock, so an event is never offered to a queue after its final drain.
+ */
+@Component("auditlogweb.SecurityEventWriter")
+public class SecurityEventWriter {
+	
+	static final int DEFAULT_BATCH_SIZE = 100;
+	
+	static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000L;
+	
+	static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	
+	private static final long STOP_TIMEOUT_MILLIS = 30000L;
+	
+	private static final Logger log = LoggerFactory.getLogger(SecurityEventWriter.class);
+	
+	private final AuditDao auditDao;
+	
+	private final TransactionTemplate batchTransactionTemplate;
+	
+	private final TransactionTemplate eventTransactionTemplate;
+	
+	private final ReadWriteLock queueLock = new ReentrantReadWriteLock();
+	
+	private volatile BlockingQueue<AuditSecurityEvent> pending;
+	
+	private volatile boolean running;
+	
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	
+	private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+	
+	private ExecutorService executor;
+	
+	@Autowired
+	public SecurityEventWriter(AuditDao auditDao,
+	    @Qualifier("transactionManager") PlatformTransactionManager transactionManager) {
+		this.auditDao = auditDao;
+		this.batchTransactionTemplate = new TransactionTemplate(transactionManager);
+		this.eventTransactionTemplate = new TransactionTemplate(transactionManager);
+		this.eventTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+	}
+	
+	/**
+	 * Starts writing security events on a background thread, with the batch size, flush interval and
+	 * queue capacity read from the global properties. Does nothing if it is already running.
+	 */
+	public void start() {
+		start(NumberUtils.toInt(getGlobalProperty(AuditLogConstants.GP_SECURITY_EVENTS_BATCH_SIZE), DEFAULT_BATCH_SIZE),
+		    NumberUtils.toLong(getGlobalProperty(AuditLogConstants.GP_SECURITY_EVENTS_FLUSH_INTERVAL_MILLIS),
+		        DEFAULT_FLUSH_INTERVAL_MILLIS),
+		    NumberUtils.toInt(getGlobalProperty(AuditLogConstants.GP_SECURITY_EVENTS_QUEUE_CAPACITY),
+		        DEFAULT_QUEUE_CAPACITY));
+	}
+	
+	synchronized void start(int batchSize, long flushIntervalMillis, int queueCapacity) {
+		if (executor != null) {
+			return;
+		}
+		this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+		this.flushIntervalMillis = flushIntervalMillis > 0 ? flushIntervalMillis : DEFAULT_FLUSH_INTERVAL_MILLIS;
+		BlockingQueue<AuditSecurityEvent> queue = new ArrayBlockingQueue<>(
+		        queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY);
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "auditlogweb-security-event-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		running = true;
+		pending = queue;
+		executor.submit(() -> run(queue));
+	}
+	
+	/**
+	 * Stops writing security events in the background. Waits for the batch being written, then
+	 * writes the events still queued, so none are lost on shutdown.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		BlockingQueue<AuditSecurityEvent> queue;
+		queueLock.writeLock().lock();
+		try {
+			queue = pending;
+			pending = null;
+			running = false;
+		}
+		finally {
+			queueLock.writeLock().unlock();
+		}
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(flushIntervalMillis + STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					log.warn("The security event writer did not stop in time");
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			executor = null;
+		}
+		if (queue != null) {
+			List<AuditSecurityEvent> batch = new ArrayList<>(batchSize);
+			while (queue.drainTo(batch, batchSize) > 0) {
+				writeBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Queues a security event to be written in the background, or writes it right away in a
+	 * transaction of its own if the writer is not running or its queue is full.
+	 *
+	 * @param event the fully populated security event
+	 */
+	public void write(AuditSecurityEvent event) {
+		queueLock.readLock().lock();
+		try {
+			BlockingQueue<AuditSecurityEvent> queue = pending;
+			if (queue != null && queue.offer(event)) {
+				return;
+			}
+		}
+		finally {
+			queueLock.readLock().unlock();
+		}
+		writeNow(event);
+	}
+	
+	void run(BlockingQueue<AuditSecurityEvent> queue) {
+		List<AuditSecurityEvent> batch = new ArrayList<>(batchSize);
+		while (running) {
+			try {
+				AuditSecurityEvent first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+				while (batch.size() < batchSize && running) {
+					if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+						continue;
+					}
+					long remaining = deadline - System.nanoTime();
+					AuditSecurityEvent next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+			writeBatch(batch);
+			batch.clear();
+		}
+	}
+	
+	private void writeBatch(List<AuditSecurityEvent> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			batchTransactionTemplate.execute(status -> {
+				auditDao.saveSecurityEvents(batch);
+				return null;
+			});
+		}
+		catch (Exception e) {
+			log.warn("Could not write a batch of {} security events, writing them one by one: {}", batch.size(),
+			    e.getMessage());
+			for (AuditSecurityEvent event : batch) {
+				try {
+					writeNow(event);
+				}
+				catch (Exception eventException) {
+					log.error("Could not write the {} security event of user {}", event.getEventType(),
+					    event.getUsername(), eventException);
+				}
+			}
+		}
+	}
+	
+	private void writeNow(AuditSecurityEvent event) {
+		eventTransactionTemplate.execute(status -> {
+			auditDao.saveSecurityEvent(event);
+			auditDao.flush();
+			return null;
+		});
+	}
+	
+	private String getGlobalProperty(String name) {
+		try {
+			return Context.getAdministrationService().getGlobalProperty(name);
+		}
+		catch (Exception e) {
+			log.debug("Could not read global property {}: {}", name, e.getMessage());
+			return null;
+		}
+	}
+}
@@ -15,4 +15,23 @@ public final class AuditLogConstants {
 	public static final String VIEW_AUDIT_LOGS = "View Audit Logs";
 	
 	public static final String VIEW_SECURITY_AUDIT_LOGS = "View Security Audit Logs";
+	
+	/* MODULE GLOBAL PROPERTIES */
+	public static final String GP_PARALLEL_QUERIES_ENABLED = "auditlogweb.parallelQueries.enabled";
+	
+	public static final String GP_PARALLEL_QUERIES_THREADS = "auditlogweb.parallelQueries.threads";
+	
+	public static final String GP_PARALLEL_QUERIES_TIMEOUT_MILLIS = "auditlogweb.parallelQueries.timeoutMillis";
+	
+	public static final String GP_ESTIMATED_COUNTS_ENABLED = "auditlogweb.estimatedCounts.enabled";
+	
+	public static final String GP_FIELD_CHANGES_ENABLED = "auditlogweb.fieldChanges.enabled";
+	
+	public static final String GP_ASYNC_SECURITY_EVENTS_ENABLED = "auditlogweb.securityEvents.asyncWrites.enabled";
+	
+	public static final String GP_SECURITY_EVENTS_BATCH_SIZE = "auditlogweb.securityEvents.batchSize";
+	
+	public static final String GP_SECURITY_EVENTS_FLUSH_INTERVAL_MILLIS = "auditlogweb.securityEvents.flushIntervalMillis";
+	
+	public static final String GP_SECURITY_EVENTS_QUEUE_CAPACITY = "auditlogweb.securityEvents.queueCapacity";
 }
@@ -0,0 +1,33 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.utils;
+
+import java.util.Collection;
+
+/**
+ * Element identifiers of audited collections that were loaded ahead of a diff, for collections the
+ * audited entities themselves hold as proxies that were not loaded. Elements are serialized like
+ * {@link UtilClass#serializeFieldValue(Object)} serializes them, for example {@code PersonName#5}.
+ */
+public interface CollectionElements {
+	
+	/**
+	 * No collection was loaded ahead.
+	 */
+	CollectionElements NONE = (entity, fieldName) -> null;
+	
+	/**
+	 * @param entity an audited entity
+	 * @param fieldName the name of one of its collection fields
+	 * @return the serialized element identifiers of the collection, or {@code null} if they were not
+	 *         loaded
+	 */
+	Collection<String> get(Object entity, String fieldName);
+}
@@ -0,0 +1,116 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * How to read the {@code getId()} and {@code getUuid()} of the instances of a class. The getters are
+ * looked up once per class and kept in a {@link ClassValue}, so that serializing references to other
+ * objects neither searches for the methods nor relies on exceptions for classes that lack them.
+ */
+final class EntityIdentityStrategy {
+	
+	private static final Logger log = LoggerFactory.getLogger(EntityIdentityStrategy.class);
+	
+	private static final ClassValue<EntityIdentityStrategy> STRATEGIES = new ClassValue<EntityIdentityStrategy>() {
+		
+		@Override
+		protected EntityIdentityStrategy computeValue(Class<?> type) {
+			return new EntityIdentityStrategy(type);
+		}
+	};
+	
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	
+	private final MethodHandle idGetter;
+	
+	private final MethodHandle uuidGetter;
+	
+	private EntityIdentityStrategy(Class<?> clazz) {
+		this.idGetter = findGetter(clazz, "getId");
+		this.uuidGetter = findGetter(clazz, "getUuid");
+	}
+	
+	/**
+	 * @param clazz the runtime class of the objects to identify
+	 * @return the strategy of the class, resolved on first use
+	 */
+	static EntityIdentityStrategy forClass(Class<?> clazz) {
+		return STRATEGIES.get(clazz);
+	}
+	
+	boolean hasId() {
+		return idGetter != null;
+	}
+	
+	boolean hasUuid() {
+		return uuidGetter != null;
+	}
+	
+	/**
+	 * @param target an instance of the class of this strategy
+	 * @return the result of {@code getId()}
+	 * @throws IllegalStateException if the class has no {@code getId()}
+	 * @throws RuntimeException if {@code getId()} fails
+	 */
+	Object readId(Object target) {
+		return invoke(idGetter, target, "getId");
+	}
+	
+	/**
+	 * @param target an instance of the class of this strategy
+	 * @return the result of {@code getUuid()}
+	 * @throws IllegalStateException if the class has no {@code getUuid()}
+	 * @throws RuntimeException if {@code getUuid()} fails
+	 */
+	Object readUuid(Object target) {
+		return invoke(uuidGetter, target, "getUuid");
+	}
+	
+	private static Object invoke(MethodHandle getter, Object target, String methodName) {
+		if (getter == null) {
+			throw new IllegalStateException(target.getClass().getName() + " has no " + methodName + "()");
+		}
+		try {
+			return (Object) getter.invokeExact(target);
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+	
+	private static MethodHandle findGetter(Class<?> clazz, String name) {
+		for (Method method : clazz.getMethods()) {
+			if (method.getName().equals(name) && method.getParameterCount() == 0 && !method.isBridge()
+			        && !Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class) {
+				try {
+					method.setAccessible(true);
+					return MethodHandles.lookup().unreflect(method).asType(GETTER_TYPE);
+				}
+				catch (IllegalAccessException | RuntimeException e) {
+					log.debug("Cannot use {}.{}(): {}", clazz.getName(), name, e.getMessage());
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -14,6 +14,8 @@ import org.hibernate.envers.query.AuditEntity;
 import org.hibernate.envers.query.AuditQuery;
 import org.openmrs.api.context.Context;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 
 /**
@@ -59,6 +61,26 @@ public class EnversUtils {
 	 */
 	public static <T> AuditQuery buildFilteredAuditQuery(AuditReader auditReader, Class<T> entityClass, Integer userId,
 	        Date startDate, Date endDate, int page, int size, String sortOrder) {
+		return buildFilteredAuditQueryForUsers(auditReader, entityClass, userIdsOf(userId), startDate, endDate, page, size,
+		    sortOrder);
+	}
+	
+	/**
+	 * Builds the same query as {@link #buildFilteredAuditQuery}, restricted to the changes of any of
+	 * several users with a single {@code in} predicate.
+	 *
+	 * @param auditReader the {@link AuditReader} instance for querying Envers data
+	 * @param entityClass the audited entity class
+	 * @param userIds optional, non-empty IDs of the users who may have changed the entity
+	 * @param startDate optional start date for changes (inclusive)
+	 * @param endDate optional end date for changes (inclusive)
+	 * @param page the page number (zero-based)
+	 * @param size the number of results per page
+	 * @param <T> the type of the audited entity
+	 * @return an {@link AuditQuery} configured with filters and pagination
+	 */
+	public static <T> AuditQuery buildFilteredAuditQueryForUsers(AuditReader auditReader, Class<T> entityClass,
+	        Collection<Integer> userIds, Date startDate, Date endDate, int page, int size, String sortOrder) {
 		AuditQuery query = auditReader.createQuery().forRevisionsOfEntity(entityClass, false, true);
 		
 		if ("asc".equalsIgnoreCase(sortOrder)) {
@@ -67,7 +89,7 @@ public class EnversUtils {
 			query.addOrder(AuditEntity.revisionNumber().desc());
 		}
 		
-		applyCommonFilters(query, userId, startDate, endDate);
+		applyCommonFilters(query, userIds, startDate, endDate);
 		query.setFirstResult(page * size);
 		query.setMaxResults(size);
 		
@@ -88,10 +110,27 @@ public class EnversUtils {
 	 */
 	public static <T> AuditQuery buildCountQueryWithFilters(AuditReader auditReader, Class<T> entityClass, Integer userId,
 	        Date startDate, Date endDate) {
+		return buildCountQueryForUsers(auditReader, entityClass, userIdsOf(userId), startDate, endDate);
+	}
+	
+	/**
+	 * Builds the same count query as {@link #buildCountQueryWithFilters}, restricted to the changes of
+	 * any of several users with a single {@code in} predicate.
+	 *
+	 * @param auditReader the {@link AuditReader} instance for querying Envers data
+	 * @param entityClass the audited entity class
+	 * @param userIds optional, non-empty IDs of the users who may have changed the entity
+	 * @param startDate optional start date for revisions (inclusive)
+	 * @param endDate optional end date for revisions (inclusive)
+	 * @param <T> the type of the audited entity
+	 * @return an {@link AuditQuery} that projects the count of filtered revisions
+	 */
+	public static <T> AuditQuery buildCountQueryForUsers(AuditReader auditReader, Class<T> entityClass,
+	        Collection<Integer> userIds, Date startDate, Date endDate) {
 		AuditQuery query = auditReader.createQuery().forRevisionsOfEntity(entityClass, false, true)
 		        .addProjection(AuditEntity.revisionNumber().count());
 		
-		applyCommonFilters(query, userId, startDate, endDate);
+		applyCommonFilters(query, userIds, startDate, endDate);
 		return query;
 	}
 	
@@ -100,13 +139,14 @@ public class EnversUtils {
 	 * reused by both query-building methods.
 	 *
 	 * @param query the audit query to which filters will be applied
-	 * @param userId optional user ID to filter by
+	 * @param userIds optional IDs of the users to filter by
 	 * @param startDate optional start date (inclusive)
 	 * @param endDate optional end date (inclusive)
 	 */
-	private static void applyCommonFilters(AuditQuery query, Integer userId, Date startDate, Date endDate) {
-		if (userId != null) {
-			query.add(AuditEntity.revisionProperty("changedBy").eq(userId));
+	private static void applyCommonFilters(AuditQuery query, Collection<Integer> userIds, Date startDate, Date endDate) {
+		if (userIds != null) {
+			query.add(userIds.size() == 1 ? AuditEntity.revisionProperty("changedBy").eq(userIds.iterator().next())
+			        : AuditEntity.revisionProperty("changedBy").in(userIds));
 		}
 		if (startDate != null) {
 			query.add(AuditEntity.revisionProperty("changedOn").ge(startDate));
@@ -115,4 +155,8 @@ public class EnversUtils {
 			query.add(AuditEntity.revisionProperty("changedOn").le(endDate));
 		}
 	}
+	
+	private static Collection<Integer> userIdsOf(Integer userId) {
+		return userId != null ? Collections.singletonList(userId) : null;
+	}
 }
@@ -0,0 +1,168 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The instance fields of a class and its superclasses, each with a getter resolved once, so that
+ * diffing audit rows does not walk the class hierarchy and check field access for every row. Plans
+ * are built on first use and kept per class in a {@link ClassValue}, which lets classes of
+ * redeployed modules be unloaded.
+ */
+final class FieldAccessorPlan {
+	
+	private static final ClassValue<FieldAccessorPlan> PLANS = new ClassValue<FieldAccessorPlan>() {
+		
+		@Override
+		protected FieldAccessorPlan computeValue(Class<?> type) {
+			return new FieldAccessorPlan(type);
+		}
+	};
+	
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	
+	private final FieldAccessor[] accessors;
+	
+	private FieldAccessorPlan(Class<?> clazz) {
+		List<FieldAccessor> fields = new ArrayList<>();
+		for (Field field : getAllFields(clazz)) {
+			if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+				fields.add(new FieldAccessor(field));
+			}
+		}
+		this.accessors = fields.toArray(new FieldAccessor[0]);
+	}
+	
+	/**
+	 * @param clazz the class to read fields of
+	 * @return the plan of the class, built on first use
+	 */
+	static FieldAccessorPlan forClass(Class<?> clazz) {
+		return PLANS.get(clazz);
+	}
+	
+	/**
+	 * @return the accessors of the non-static, non-synthetic fields, starting with those declared by
+	 *         the class itself
+	 */
+	FieldAccessor[] getAccessors() {
+		return accessors;
+	}
+	
+	/**
+	 * Collects all fields from the entire class hierarchy, from the given class up to Object. In case
+	 * of field name collisions, fields from child classes override fields from parent classes.
+	 */
+	private static Field[] getAllFields(Class<?> clazz) {
+		Map<String, Field> fieldMap = new LinkedHashMap<>();
+		
+		Class<?> current = clazz;
+		while (current != null && current != Object.class) {
+			for (Field field : current.getDeclaredFields()) {
+				fieldMap.putIfAbsent(field.getName(), field);
+			}
+			current = current.getSuperclass();
+		}
+		
+		return fieldMap.values().toArray(new Field[0]);
+	}
+	
+	/**
+	 * Reads one field through a method handle adapted to {@code (Object)Object}, so every read is a
+	 * single exact invocation without the access checks of {@link Field#get(Object)}.
+	 */
+	static final class FieldAccessor {
+		
+		private final String name;
+		
+		private final Class<?> type;
+		
+		private final Class<?> elementType;
+		
+		private final MethodHandle getter;
+		
+		private final RuntimeException accessFailure;
+		
+		private FieldAccessor(Field field) {
+			this.name = field.getName();
+			this.type = field.getType();
+			this.elementType = resolveElementType(field);
+			
+			MethodHandle handle = null;
+			RuntimeException failure = null;
+			try {
+				field.setAccessible(true);
+				handle = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+			}
+			catch (IllegalAccessException | RuntimeException e) {
+				failure = new IllegalStateException("Field '" + name + "' is not accessible", e);
+			}
+			this.getter = handle;
+			this.accessFailure = failure;
+		}
+		
+		String getName() {
+			return name;
+		}
+		
+		Class<?> getType() {
+			return type;
+		}
+		
+		/**
+		 * @return the element class of a collection field, or {@code null} if the field is not a
+		 *         collection or its element type is not a class
+		 */
+		Class<?> getElementType() {
+			return elementType;
+		}
+		
+		/**
+		 * @param target the object to read the field of
+		 * @return the value of the field
+		 * @throws RuntimeException if the field cannot be read from the target
+		 */
+		Object get(Object target) {
+			if (getter == null) {
+				throw accessFailure;
+			}
+			try {
+				return (Object) getter.invokeExact(target);
+			}
+			catch (RuntimeException | Error e) {
+				throw e;
+			}
+			catch (Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+		
+		private static Class<?> resolveElementType(Field field) {
+			if (!Collection.class.isAssignableFrom(field.getType())
+			        || !(field.getGenericType() instanceof ParameterizedType)) {
+				return null;
+			}
+			Type[] typeArguments = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+			return typeArguments.length > 0 && typeArguments[0] instanceof Class ? (Class<?>) typeArguments[0] : null;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.utils;
+
+import org.hibernate.Hibernate;
+import org.hibernate.envers.internal.entities.mapper.relation.lazy.proxy.CollectionProxy;
+import org.hibernate.envers.internal.entities.mapper.relation.lazy.proxy.MapProxy;
+import org.hibernate.proxy.HibernateProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+
+/**
+ * Tells whether a field value is still waiting to be loaded. Besides Hibernate proxies and
+ * persistent collections, this covers the collection proxies Envers puts into audited entities,
+ * which run one audit query each the first time they are touched, even by {@code toString()}.
+ */
+final class LazyValues {
+	
+	private static final Logger log = LoggerFactory.getLogger(LazyValues.class);
+	
+	private static final Field COLLECTION_DELEGATE = findDelegate(CollectionProxy.class);
+	
+	private static final Field MAP_DELEGATE = findDelegate(MapProxy.class);
+	
+	private LazyValues() {
+	}
+	
+	/**
+	 * @param value a field value
+	 * @return true if reading the value would load it from the database
+	 */
+	static boolean isUninitialized(Object value) {
+		if (!Hibernate.isInitialized(value)) {
+			return true;
+		}
+		if (value instanceof CollectionProxy) {
+			return isDelegateMissing(COLLECTION_DELEGATE, value);
+		}
+		if (value instanceof MapProxy) {
+			return isDelegateMissing(MAP_DELEGATE, value);
+		}
+		return false;
+	}
+	
+	/**
+	 * @param proxy an uninitialized proxy
+	 * @return the identifier of the proxied entity, which the proxy holds without loading it
+	 */
+	static Object getProxyIdentifier(HibernateProxy proxy) {
+		return proxy.getHibernateLazyInitializer().getIdentifier();
+	}
+	
+	/**
+	 * Envers proxies load their delegate on first use, so a missing delegate means not loaded. If the
+	 * delegate cannot be read, the value is treated as not loaded, to be safe.
+	 */
+	private static boolean isDelegateMissing(Field delegate, Object value) {
+		if (delegate == null) {
+			return true;
+		}
+		try {
+			return delegate.get(value) == null;
+		}
+		catch (IllegalAccessException e) {
+			return true;
+		}
+	}
+	
+	private static Field findDelegate(Class<?> proxyClass) {
+		try {
+			Field delegate = proxyClass.getDeclaredField("delegate");
+			delegate.setAccessible(true);
+			return delegate;
+		}
+		catch (NoSuchFieldException | RuntimeException e) {
+			log.debug("Cannot tell whether {} instances are loaded: {}", proxyClass.getSimpleName(), e.getMessage());
+			return null;
+		}
+	}
+}
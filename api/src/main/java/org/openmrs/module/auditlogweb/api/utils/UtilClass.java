@@ -14,19 +14,10 @@ import org.hibernate.envers.Audited;
 import org.hibernate.proxy.HibernateProxy;
 import org.openmrs.BaseOpenmrsObject;
 import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
-import org.reflections.Reflections;
-import org.reflections.scanners.Scanners;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
+import org.openmrs.module.auditlogweb.api.utils.FieldAccessorPlan.FieldAccessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.persistence.MappedSuperclass;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
@@ -36,6 +27,7 @@ import java.time.format.ResolverStyle;
 import java.time.temporal.Temporal;
 import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.Objects;
@@ -43,6 +35,7 @@ import java.util.Date;
 import java.util.stream.Collectors;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 
 /**
@@ -53,63 +46,15 @@ public class UtilClass {
 	
 	private static final Logger log = LoggerFactory.getLogger(UtilClass.class);
 	
-	private static List<String> classesWithAuditAnnotation;
-	
 	/**
-	 * Scans the {@code org.openmrs} package for all classes annotated with {@link Audited} using
-	 * Reflections and caches the result.
-	 *
-	 * @return a sorted list of fully qualified class names that are annotated with {@link Audited}
+	 * Shown in place of a lazy collection that was not loaded, which is not compared in diffs.
 	 */
-	public static List<String> findClassesWithAnnotation() {
-		if (classesWithAuditAnnotation != null) {
-			return classesWithAuditAnnotation;
-		}
-		
-		Reflections reflections = new Reflections(new ConfigurationBuilder()
-		        .setUrls(ClasspathHelper.forPackage("org.openmrs")).setScanners(Scanners.TypesAnnotated));
-		
-		Set<Class<?>> auditedClasses = reflections.getTypesAnnotatedWith(Audited.class);
-		classesWithAuditAnnotation = auditedClasses.stream().filter(UtilClass::isConcreteAuditedEntity).map(Class::getName)
-		        .sorted().collect(Collectors.toList());
-		
-		return classesWithAuditAnnotation;
-	}
+	public static final String NOT_LOADED = "(not loaded)";
 	
 	/**
-	 * It gets an audited entity class from either a fully qualified name or a simple class name.
-	 *
-	 * @param className the fully qualified class name or simple class name
-	 * @return the matching class, or {@code null} if no match is found
+	 * Stands for a field value that could not be read.
 	 */
-	public static Class<?> resolveAuditedEntityClass(String className) {
-		if (StringUtils.isBlank(className)) {
-			return null;
-		}
-		
-		try {
-			return Class.forName(className);
-		}
-		catch (ClassNotFoundException ignored) {
-			// Fall through to simple-name lookup.
-		}
-		
-		List<Class<?>> matches = findClassesWithAnnotation().stream().map(auditedClassName -> {
-			try {
-				return Class.forName(auditedClassName);
-			}
-			catch (ClassNotFoundException e) {
-				return null;
-			}
-		}).filter(Objects::nonNull).filter(clazz -> clazz.getSimpleName().equalsIgnoreCase(className))
-		        .collect(Collectors.toList());
-		
-		if (matches.isEmpty()) {
-			return null;
-		}
-		
-		return matches.get(0);
-	}
+	private static final Object UNREADABLE = new Object();
 	
 	/**
 	 * Checks if a given class is annotated with {@link Audited}.
@@ -122,88 +67,204 @@ public class UtilClass {
 	}
 	
 	/**
-	 * Collects all fields from the entire class hierarchy (from Object to the given class). In case of
-	 * field name collisions, fields from child classes override fields from parent classes. The fields
-	 * are returned in order from parent to child.
+	 * Compares two instances of the same class and returns a list of field-level differences. Fields
+	 * that are static or synthetic are ignored. Values that cannot be accessed are marked as "Unable to
+	 * read". Lazy values are never loaded: proxies are shown by their identifier, and collections that
+	 * were not loaded are shown as {@link #NOT_LOADED} and reported as unchanged. Loaded collections
+	 * are compared element by element, see {@link #diffCollections(String, Collection, Collection)}.
 	 *
-	 * @param clazz the class to collect fields from
-	 * @return an array of fields from the entire hierarchy (child fields override parent fields)
+	 * @param clazz the class of the compared objects
+	 * @param oldEntity the previous version of the object
+	 * @param currentEntity the current version of the object
+	 * @return a list of {@link AuditFieldDiff} showing name, old value, new value, and change flag
 	 */
-	private static Field[] getAllFields(Class<?> clazz) {
-		Map<String, Field> fieldMap = new LinkedHashMap<>();
-		
-		Class<?> current = clazz;
-		while (current != null && current != Object.class) {
-			Field[] declaredFields = current.getDeclaredFields();
-			for (Field field : declaredFields) {
-				fieldMap.putIfAbsent(field.getName(), field);
-			}
-			current = current.getSuperclass();
-		}
-		
-		return fieldMap.values().toArray(new Field[0]);
+	public static List<AuditFieldDiff> computeFieldDiffs(Class<?> clazz, Object oldEntity, Object currentEntity) {
+		return computeFieldDiffs(clazz, oldEntity, currentEntity, CollectionElements.NONE);
 	}
 	
 	/**
-	 * Compares two instances of the same class and returns a list of field-level differences. Fields
-	 * that are static or synthetic are ignored. Values that cannot be accessed are marked as "Unable to
-	 * read".
+	 * Like {@link #computeFieldDiffs(Class, Object, Object)}, but collections that were not loaded are
+	 * compared by the element identifiers loaded ahead for them, where there are any.
 	 *
 	 * @param clazz the class of the compared objects
 	 * @param oldEntity the previous version of the object
 	 * @param currentEntity the current version of the object
+	 * @param collectionElements the element identifiers loaded ahead for collections of both versions
 	 * @return a list of {@link AuditFieldDiff} showing name, old value, new value, and change flag
 	 */
-	public static List<AuditFieldDiff> computeFieldDiffs(Class<?> clazz, Object oldEntity, Object currentEntity) {
+	public static List<AuditFieldDiff> computeFieldDiffs(Class<?> clazz, Object oldEntity, Object currentEntity,
+	        CollectionElements collectionElements) {
 		List<AuditFieldDiff> diffs = new ArrayList<>();
 		if (currentEntity == null) {
 			return diffs;
 		}
 		
-		Field[] fields = getAllFields(clazz);
-		for (Field field : fields) {
-			if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
-				continue;
-			}
-			
-			field.setAccessible(true);
-			
-			String oldVal;
-			String currVal;
-			boolean failedOld = false;
-			boolean failedCurr = false;
+		for (FieldAccessor field : FieldAccessorPlan.forClass(clazz).getAccessors()) {
+			Object currFieldValue = withLoadedElements(readFieldValue(field, currentEntity, "current"), currentEntity,
+			    field.getName(), collectionElements);
+			Object oldFieldValue = oldEntity != null ? withLoadedElements(readFieldValue(field, oldEntity, "old"),
+			    oldEntity, field.getName(), collectionElements) : null;
 			
-			try {
-				Object currFieldValue = field.get(currentEntity);
-				currVal = serializeFieldValue(currFieldValue);
-			}
-			catch (Exception e) {
-				log.warn("Failed to read current value of field '{}': {}", field.getName(), e.getMessage());
-				failedCurr = true;
-				currVal = "";
+			if (isComparableByElements(oldFieldValue, currFieldValue)) {
+				diffs.add(diffCollections(field.getName(), (Collection<?>) oldFieldValue, (Collection<?>) currFieldValue));
+				continue;
 			}
 			
-			try {
-				Object oldFieldValue = oldEntity != null ? field.get(oldEntity) : null;
-				oldVal = serializeFieldValue(oldFieldValue);
-			}
-			catch (Exception e) {
-				log.warn("Failed to read old value of field '{}': {}", field.getName(), e.getMessage());
-				failedOld = true;
-				oldVal = "";
-			}
+			boolean failedOld = oldFieldValue == UNREADABLE;
+			boolean failedCurr = currFieldValue == UNREADABLE;
+			String currVal = failedCurr ? "" : serializeFieldValue(currFieldValue);
+			String oldVal = failedOld ? "" : serializeFieldValue(oldFieldValue);
 			
 			if (failedOld && failedCurr) {
 				log.debug("Setting field '{}' values to empty string due to access failure", field.getName());
-				oldVal = currVal = "";
 			}
 			
-			boolean isDifferent = !Objects.equals(oldVal, currVal);
+			boolean notLoaded = NOT_LOADED.equals(oldVal) || NOT_LOADED.equals(currVal);
+			boolean isDifferent = !notLoaded && !Objects.equals(oldVal, currVal);
 			diffs.add(new AuditFieldDiff(field.getName(), oldVal, currVal, isDifferent));
 		}
 		return diffs;
 	}
 	
+	/**
+	 * Like {@link #computeFieldDiffs(Class, Object, Object)}, but keeps only the fields that changed.
+	 *
+	 * @param clazz the class of the compared objects
+	 * @param oldEntity the previous version of the object
+	 * @param currentEntity the current version of the object
+	 * @return the changed fields
+	 */
+	public static List<AuditFieldDiff> computeChangedFields(Class<?> clazz, Object oldEntity, Object currentEntity) {
+		return computeChangedFields(clazz, oldEntity, currentEntity, CollectionElements.NONE);
+	}
+	
+	/**
+	 * Like {@link #computeFieldDiffs(Class, Object, Object, CollectionElements)}, but keeps only the
+	 * fields that changed.
+	 *
+	 * @param clazz the class of the compared objects
+	 * @param oldEntity the previous version of the object
+	 * @param currentEntity the current version of the object
+	 * @param collectionElements the element identifiers loaded ahead for collections of both versions
+	 * @return the changed fields
+	 */
+	public static List<AuditFieldDiff> computeChangedFields(Class<?> clazz, Object oldEntity, Object currentEntity,
+	        CollectionElements collectionElements) {
+		return computeFieldDiffs(clazz, oldEntity, currentEntity, collectionElements).stream()
+		        .filter(AuditFieldDiff::isChanged).collect(Collectors.toList());
+	}
+	
+	/**
+	 * @param diffs field diffs of an audit row
+	 * @return true if a field could not be compared because its collection was not loaded
+	 */
+	public static boolean hasUnloadedFields(List<AuditFieldDiff> diffs) {
+		return diffs.stream().anyMatch(
+		    diff -> NOT_LOADED.equals(diff.getOldValue()) || NOT_LOADED.equals(diff.getCurrentValue()));
+	}
+	
+	/**
+	 * @param entity an audited entity
+	 * @return the names of its collection fields that hold collections that were not loaded
+	 */
+	public static List<String> findUnloadedCollectionFields(Object entity) {
+		List<String> fieldNames = new ArrayList<>();
+		for (FieldAccessor field : FieldAccessorPlan.forClass(entity.getClass()).getAccessors()) {
+			if (Collection.class.isAssignableFrom(field.getType())
+			        && LazyValues.isUninitialized(readFieldValue(field, entity, "collection"))) {
+				fieldNames.add(field.getName());
+			}
+		}
+		return fieldNames;
+	}
+	
+	/**
+	 * Compares two versions of a collection field by the identifiers of their elements, as serialized
+	 * by {@link #serializeFieldValue(Object)}, so the diff holds only what changed rather than both
+	 * whole collections. The old value lists the removed elements and the current value the added
+	 * ones, each empty if there are none. Order and duplicates are not compared.
+	 *
+	 * @param fieldName the name of the collection field
+	 * @param oldCollection the previous elements, {@code null} if there were none
+	 * @param currentCollection the current elements, {@code null} if there are none
+	 * @return the diff of the field, changed if any element was added or removed
+	 */
+	private static AuditFieldDiff diffCollections(String fieldName, Collection<?> oldCollection,
+	        Collection<?> currentCollection) {
+		Set<String> oldElements = serializeElements(oldCollection);
+		Set<String> currentElements = serializeElements(currentCollection);
+		
+		List<String> removed = new ArrayList<>();
+		for (String element : oldElements) {
+			if (!currentElements.contains(element)) {
+				removed.add(element);
+			}
+		}
+		List<String> added = new ArrayList<>();
+		for (String element : currentElements) {
+			if (!oldElements.contains(element)) {
+				added.add(element);
+			}
+		}
+		return new AuditFieldDiff(fieldName, formatElements(removed), formatElements(added),
+		        !removed.isEmpty() || !added.isEmpty());
+	}
+	
+	/**
+	 * @return the value of the field, or {@link #UNREADABLE} if it cannot be read
+	 */
+	private static Object readFieldValue(FieldAccessor field, Object entity, String version) {
+		try {
+			return field.get(entity);
+		}
+		catch (Exception e) {
+			log.warn("Failed to read {} value of field '{}': {}", version, field.getName(), e.getMessage());
+			return UNREADABLE;
+		}
+	}
+	
+	/**
+	 * Replaces a collection that was not loaded by the element identifiers loaded ahead for it, if any.
+	 */
+	private static Object withLoadedElements(Object value, Object entity, String fieldName,
+	        CollectionElements collectionElements) {
+		if (!(value instanceof Collection) || !LazyValues.isUninitialized(value)) {
+			return value;
+		}
+		Collection<String> elements = collectionElements.get(entity, fieldName);
+		return elements != null ? elements : value;
+	}
+	
+	/**
+	 * Both values must be loaded collections, or {@code null}, to be compared by their elements.
+	 */
+	private static boolean isComparableByElements(Object oldValue, Object currentValue) {
+		if (oldValue == null && currentValue == null) {
+			return false;
+		}
+		return (oldValue == null || isLoadedCollection(oldValue))
+		        && (currentValue == null || isLoadedCollection(currentValue));
+	}
+	
+	private static boolean isLoadedCollection(Object value) {
+		return value instanceof Collection && !LazyValues.isUninitialized(value);
+	}
+	
+	private static Set<String> serializeElements(Collection<?> collection) {
+		if (collection == null || collection.isEmpty()) {
+			return Collections.emptySet();
+		}
+		Set<String> elements = new LinkedHashSet<>(collection.size() * 2);
+		for (Object element : collection) {
+			elements.add(serializeFieldValue(element));
+		}
+		return elements;
+	}
+	
+	private static String formatElements(List<String> elements) {
+		return elements.isEmpty() ? "" : "[" + String.join(", ", elements) + "]";
+	}
+	
 	/**
 	 * Computes the total number of pages for a paginated dataset.
 	 *
@@ -215,6 +276,27 @@ public class UtilClass {
 		return (int) Math.ceil((double) total / size);
 	}
 	
+	/**
+	 * Formats a count for display as an approximation, for example 12400000 as "12.4M".
+	 *
+	 * @param count the count to format
+	 * @return the count rounded to one decimal of thousands, millions or billions
+	 */
+	public static String formatApproximateCount(long count) {
+		String[] suffixes = { "K", "M", "B" };
+		double value = count;
+		String suffix = "";
+		for (int i = 0; i < suffixes.length && Math.abs(value) >= 999.95; i++) {
+			value /= 1000;
+			suffix = suffixes[i];
+		}
+		if (suffix.isEmpty()) {
+			return String.valueOf(count);
+		}
+		String formatted = String.format(Locale.ROOT, "%.1f", value);
+		return (formatted.endsWith(".0") ? formatted.substring(0, formatted.length() - 2) : formatted) + suffix;
+	}
+	
 	/**
 	 * Parses a date string into a {@link LocalDate}. Supports ISO format and "dd/MM/yyyy".
 	 *
@@ -310,23 +392,53 @@ public class UtilClass {
 	 * @return entity ID as String
 	 */
 	public static String getEntityIdAsString(Object entity) {
-		try {
-			return String.valueOf(entity.getClass().getMethod("getId").invoke(entity));
+		EntityIdentityStrategy identity = EntityIdentityStrategy.forClass(entity.getClass());
+		if (identity.hasId()) {
+			try {
+				return String.valueOf(identity.readId(entity));
+			}
+			catch (RuntimeException e) {
+				log.debug("Failed to get ID from object: {}", e.getMessage());
+			}
 		}
-		catch (Exception e) {
+		if (identity.hasUuid()) {
 			try {
-				return String.valueOf(entity.getClass().getMethod("getUuid").invoke(entity));
+				return String.valueOf(identity.readUuid(entity));
 			}
-			catch (Exception ex) {
-				return "unknown";
+			catch (RuntimeException e) {
+				log.debug("Failed to get UUID from object: {}", e.getMessage());
 			}
 		}
+		return "unknown";
+	}
+	
+	/**
+	 * Gets the result of {@code getId()} of an entity.
+	 *
+	 * @param entity the entity object
+	 * @return the ID, or {@code null} if the entity has no {@code getId()} or it failed
+	 */
+	public static Object getEntityId(Object entity) {
+		EntityIdentityStrategy identity = EntityIdentityStrategy.forClass(entity.getClass());
+		if (!identity.hasId()) {
+			return null;
+		}
+		try {
+			return identity.readId(entity);
+		}
+		catch (RuntimeException e) {
+			log.debug("Failed to get ID from object: {}", e.getMessage());
+			return null;
+		}
 	}
 	
 	public static String serializeFieldValue(Object value) {
 		if (value == null) {
 			return "";
 		}
+		if (LazyValues.isUninitialized(value)) {
+			return serializeUnloadedValue(value);
+		}
 		
 		String actualClassName = getActualClassName(value);
 		if (isPrimitiveOrWrapper(value.getClass())) {
@@ -337,9 +449,35 @@ public class UtilClass {
 			return serializeBaseOpenmrsObject((BaseOpenmrsObject) value, actualClassName);
 		}
 		
+		if (value instanceof Collection) {
+			return serializeCollection((Collection<?>) value);
+		}
+		
 		return serializeGenericObject(value, actualClassName);
 	}
 	
+	/**
+	 * Serializes a lazy value without loading it: a proxy by the identifier it holds, anything else as
+	 * {@link #NOT_LOADED}.
+	 */
+	private static String serializeUnloadedValue(Object value) {
+		if (value instanceof HibernateProxy) {
+			return getActualClassName(value) + "#" + LazyValues.getProxyIdentifier((HibernateProxy) value);
+		}
+		return NOT_LOADED;
+	}
+	
+	/**
+	 * Serializes each element like a field value, so elements that are proxies are not loaded by their
+	 * {@code toString()}.
+	 */
+	private static String serializeCollection(Collection<?> collection) {
+		if (collection.isEmpty()) {
+			return "";
+		}
+		return collection.stream().map(UtilClass::serializeFieldValue).collect(Collectors.joining(", ", "[", "]"));
+	}
+	
 	public static String getActualClassName(Object obj) {
 		if (obj instanceof HibernateProxy) {
 			HibernateProxy proxy = (HibernateProxy) obj;
@@ -349,11 +487,6 @@ public class UtilClass {
 		return obj.getClass().getSimpleName();
 	}
 	
-	private static boolean isConcreteAuditedEntity(Class<?> clazz) {
-		int modifiers = clazz.getModifiers();
-		return !Modifier.isAbstract(modifiers) && !clazz.isAnnotationPresent(MappedSuperclass.class);
-	}
-	
 	private static boolean isPrimitiveOrWrapper(Class<?> clazz) {
 		return clazz.isPrimitive() || clazz == Boolean.class || clazz == Character.class || clazz == Byte.class
 		        || clazz == Short.class || clazz == Integer.class || clazz == Long.class || clazz == Float.class
@@ -376,33 +509,23 @@ public class UtilClass {
 	}
 	
 	private static Integer getIdFromObject(Object obj) {
-		try {
-			Method method = obj.getClass().getMethod("getId");
-			Object result = method.invoke(obj);
-			if (result instanceof Integer) {
-				return (Integer) result;
-			}
-		}
-		catch (Exception e) {
-			log.debug("Failed to get ID from object: {}", e.getMessage());
-		}
-		
-		return null;
+		Object result = getEntityId(obj);
+		return result instanceof Integer ? (Integer) result : null;
 	}
 	
 	private static String getUuidFromObject(Object obj) {
+		EntityIdentityStrategy identity = EntityIdentityStrategy.forClass(obj.getClass());
+		if (!identity.hasUuid()) {
+			return null;
+		}
 		try {
-			Method method = obj.getClass().getMethod("getUuid");
-			Object result = method.invoke(obj);
-			if (result instanceof String) {
-				return (String) result;
-			}
+			Object result = identity.readUuid(obj);
+			return result instanceof String ? (String) result : null;
 		}
-		catch (Exception e) {
+		catch (RuntimeException e) {
 			log.debug("Failed to get UUID from object: {}", e.getMessage());
+			return null;
 		}
-		
-		return null;
 	}
 	
 	private static String serializeGenericObject(Object value, String actualClassName) {
@@ -434,24 +557,11 @@ public class UtilClass {
 	
 	public static Map<String, Class<?>> getFieldTypes(Class<?> clazz) {
 		Map<String, Class<?>> fieldTypes = new LinkedHashMap<>();
-		Field[] fields = getAllFields(clazz);
-		
-		for (Field field : fields) {
-			if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
-				continue;
-			}
-			
-			Class<?> fieldType = field.getType();
-			if (Collection.class.isAssignableFrom(fieldType)) {
-				ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
-				if (parameterizedType.getActualTypeArguments().length > 0) {
-					Type actualType = parameterizedType.getActualTypeArguments()[0];
-					if (actualType instanceof Class) {
-						fieldTypes.put(field.getName(), (Class<?>) actualType);
-					}
-				}
-			} else {
-				fieldTypes.put(field.getName(), fieldType);
+		for (FieldAccessor field : FieldAccessorPlan.forClass(clazz).getAccessors()) {
+			if (!Collection.class.isAssignableFrom(field.getType())) {
+				fieldTypes.put(field.getName(), field.getType());
+			} else if (field.getElementType() != null) {
+				fieldTypes.put(field.getName(), field.getElementType());
 			}
 		}
 		
@@ -0,0 +1,56 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.PersonName;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+class AuditCollectionLoaderTest {
+	
+	private final List<Object[]> rows = Arrays.asList(new Object[] { 1, 7, 10, 0 }, new Object[] { 2, 7, 10, 0 },
+	    new Object[] { 3, 8, 11, 0 }, new Object[] { 2, null, 12, 2 }, new Object[] { 1, 9, 13, 1 });
+	
+	@Test
+	void shouldReplayElementRowsUpToTheRevision() {
+		assertThat(AuditCollectionLoader.elementsAt(rows, "7", 10, "PersonName"),
+		    contains("PersonName#1", "PersonName#2"));
+		assertThat(AuditCollectionLoader.elementsAt(rows, "7", 12, "PersonName"), contains("PersonName#1"));
+		assertThat(AuditCollectionLoader.elementsAt(rows, "7", 9, "PersonName"), is(empty()));
+	}
+	
+	@Test
+	void shouldDropElementsMovedToAnotherOwner() {
+		assertThat(AuditCollectionLoader.elementsAt(rows, "7", 13, "PersonName"), is(empty()));
+		assertThat(AuditCollectionLoader.elementsAt(rows, "9", 13, "PersonName"), contains("PersonName#1"));
+	}
+	
+	@Test
+	void shouldSelectEveryRowOfElementsThatBelongedToTheOwners() {
+		AuditTableMetadata names = AuditTableMetadata.builder().entityClass(PersonName.class)
+		        .auditEntityName("org.openmrs.PersonName_AUD").tableName("person_name_audit").idColumn("person_name_id")
+		        .revisionColumn("REV").idType(Integer.class).rootTableName("person_name_audit")
+		        .rootIdColumn("person_name_id").rootRevisionColumn("REV").revisionTypeColumn("REVTYPE").build();
+		
+		String sql = AuditCollectionLoader
+		        .buildElementsSql(new AuditCollectionLoader.CollectionTable(names, "person_id", "PersonName"));
+		
+		assertThat(sql, is("select a.person_name_id, a.person_id, a.REV, a.REVTYPE from person_name_audit a"
+		        + " where a.REV <= :maxRevision and a.person_name_id in (select o.person_name_id from"
+		        + " person_name_audit o where o.person_id in (:ownerIds)) order by a.REV"));
+	}
+}
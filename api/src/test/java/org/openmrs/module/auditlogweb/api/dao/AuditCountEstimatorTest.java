@@ -0,0 +1,80 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQL57Dialect;
+import org.hibernate.dialect.PostgreSQL95Dialect;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery.RevisionTableMetadata;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class AuditCountEstimatorTest {
+	
+	@Test
+	void shouldReadTableStatistics_OnlyForDatabasesThatKeepThem() {
+		assertThat(AuditCountEstimator.buildTableStatisticsSql(new MySQL57Dialect()),
+		    containsString("information_schema.tables"));
+		assertThat(AuditCountEstimator.buildTableStatisticsSql(new PostgreSQL95Dialect()), containsString("pg_class"));
+		assertThat(AuditCountEstimator.buildTableStatisticsSql(new H2Dialect()), nullValue());
+	}
+	
+	@Test
+	void shouldSampleWholeRevisionTable_WhenItIsSmall() {
+		List<long[]> blocks = AuditCountEstimator.sampleBlocks(1, 5000);
+		
+		assertThat(blocks, hasSize(1));
+		assertThat(blocks.get(0)[0], is(1L));
+		assertThat(blocks.get(0)[1], is(5000L));
+	}
+	
+	@Test
+	void shouldSampleEvenlySpacedBlocks_WhenRevisionTableIsLarge() {
+		List<long[]> blocks = AuditCountEstimator.sampleBlocks(1, 1_000_000);
+		
+		assertThat(blocks, hasSize(AuditCountEstimator.SAMPLE_BLOCKS));
+		assertThat(blocks.get(1)[0], is(10_001L));
+		assertThat(blocks.get(1)[1], is(10_000L + AuditCountEstimator.SAMPLE_BLOCK_SIZE));
+	}
+	
+	@Test
+	void shouldCountMatchingAuditRowsWrittenInSampledBlocks() {
+		RevisionTableMetadata revisions = new RevisionTableMetadata("revision_entity", "id", "changed_by", "changed_on");
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().userId(3).startDate(new Date()).build();
+		List<AuditTableMetadata> tables = Arrays.asList(auditTable(Patient.class, "patient_audit"),
+		    auditTable(Person.class, "person_audit"));
+		
+		String sql = AuditCountEstimator.buildSampleSql(tables, revisions, criteria, 2);
+		
+		assertThat(sql,
+		    is("select count(*), coalesce(sum(case when 1=1 and r.changed_by = :userId and r.changed_on >= :startDate"
+		            + " then 1 else 0 end), 0) from (select a.REV as rev_id from patient_audit a"
+		            + " where (a.REV between :blockStart0 and :blockEnd0 or a.REV between :blockStart1 and :blockEnd1)"
+		            + " union all select a.REV as rev_id from person_audit a"
+		            + " where (a.REV between :blockStart0 and :blockEnd0 or a.REV between :blockStart1 and :blockEnd1))"
+		            + " s join revision_entity r on r.id = s.rev_id"));
+	}
+	
+	private static AuditTableMetadata auditTable(Class<?> entityClass, String tableName) {
+		return AuditTableMetadata.builder().entityClass(entityClass).tableName(tableName).idColumn("id")
+		        .revisionColumn("REV").idType(Integer.class).build();
+	}
+}
@@ -29,10 +29,11 @@ import org.mockito.MockitoAnnotations;
 import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
 import org.openmrs.module.auditlogweb.AuditEntity;
 import org.openmrs.module.auditlogweb.AuditSecurityEvent;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
 import org.openmrs.module.auditlogweb.api.utils.AuditSecurityEventType;
 import org.openmrs.module.auditlogweb.api.exception.AuditLogUnavailableException;
 import org.openmrs.module.auditlogweb.api.utils.EnversUtils;
-import org.openmrs.module.auditlogweb.api.utils.UtilClass;
 
 import java.sql.SQLException;
 import java.util.Collections;
@@ -40,6 +41,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Arrays;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
@@ -49,12 +51,15 @@ import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
 
 import static org.mockito.ArgumentMatchers.anyString;
 
@@ -81,6 +86,36 @@ class AuditDaoTest {
 	@Mock
 	private Query<Long> countQuery;
 	
+	@Mock
+	private Query<Integer> revisionNumberQuery;
+	
+	@Mock
+	private CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	@Mock
+	private AuditRevisionIndexDao auditRevisionIndexDao;
+	
+	@Mock
+	private ParallelAuditQueryExecutor parallelQueryExecutor;
+	
+	@Mock
+	private RevisionFirstQueryPlanner revisionQueryPlanner;
+	
+	@Mock
+	private AuditTableProbe auditTableProbe;
+	
+	@Mock
+	private AuditedEntityRegistry auditedEntityRegistry;
+	
+	@Mock
+	private AuditRevisionRangeCache revisionRangeCache;
+	
+	@Mock
+	private AuditFieldChangeDao auditFieldChangeDao;
+	
+	@Mock
+	private AuditCollectionLoader auditCollectionLoader;
+	
 	@InjectMocks
 	private AuditDao auditDao;
 	
@@ -95,12 +130,16 @@ class AuditDaoTest {
 		readerFactoryMockedStatic = mockStatic(AuditReaderFactory.class);
 		readerFactoryMockedStatic.when(() -> AuditReaderFactory.get(session)).thenReturn(auditReader);
 		when(auditReader.createQuery()).thenReturn(queryCreator);
+		when(revisionQueryPlanner.narrowToChangedClasses(any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(auditTableProbe.isQueryable(any())).thenReturn(true);
+		when(revisionRangeCache.narrowToClassesInRange(any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
 		
 		enversUtilsMockedStatic = mockStatic(EnversUtils.class);
 	}
 	
 	@AfterEach
 	void tearDown() {
+		AuditQueryContext.clear();
 		if (readerFactoryMockedStatic != null) {
 			readerFactoryMockedStatic.close();
 		}
@@ -112,6 +151,9 @@ class AuditDaoTest {
 	@Audited
 	static class TestAuditedEntity {}
 	
+	@Audited
+	static class OtherAuditedEntity {}
+	
 	@Test
 	void shouldReturnAuditEntities_GivenEntityClassAndPagination() {
 		TestAuditedEntity entity = new TestAuditedEntity();
@@ -141,6 +183,20 @@ class AuditDaoTest {
 		assertThat(count, is(5L));
 	}
 	
+	@Test
+	void shouldAddOnlyNewRevisionsToCachedCount() {
+		when(session.createQuery(anyString(), eq(Integer.class))).thenReturn(revisionNumberQuery);
+		when(revisionNumberQuery.uniqueResult()).thenReturn(10, 10, 12);
+		when(queryCreator.forRevisionsOfEntity(TestAuditedEntity.class, false, true)).thenReturn(auditQuery);
+		when(auditQuery.addProjection(any())).thenReturn(auditQuery);
+		when(auditQuery.getSingleResult()).thenReturn(5L, 2L);
+		
+		assertThat(auditDao.countAllRevisions(TestAuditedEntity.class), is(5L));
+		assertThat(auditDao.countAllRevisions(TestAuditedEntity.class), is(5L));
+		assertThat(auditDao.countAllRevisions(TestAuditedEntity.class), is(7L));
+		verify(auditQuery, times(2)).getSingleResult();
+	}
+	
 	@Test
 	void shouldReturnEntityAtSpecificRevision_GivenEntityIdAndRevisionId() {
 		TestAuditedEntity entity = new TestAuditedEntity();
@@ -228,115 +284,475 @@ class AuditDaoTest {
 	
 	@Test
 	void shouldReturnAuditEntitiesAcrossAllEntities_WithPagination() {
-		try (MockedStatic<UtilClass> utilClassMockedStatic = mockStatic(UtilClass.class)) {
-			utilClassMockedStatic.when(UtilClass::findClassesWithAnnotation)
-			        .thenReturn(Arrays.asList(TestAuditedEntity.class.getName()));
-			
-			TestAuditedEntity entity = new TestAuditedEntity();
-			OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
-			when(revEntity.getChangedBy()).thenReturn(42);
-			when(revEntity.getRevisionDate()).thenReturn(new Date());
-			Object[] mockResult = new Object[] { entity, revEntity, RevisionType.ADD };
-			
-			enversUtilsMockedStatic.when(() -> EnversUtils.buildFilteredAuditQuery(auditReader, TestAuditedEntity.class,
-			    null, null, null, 0, Integer.MAX_VALUE, "desc")).thenReturn(auditQuery);
-			
-			when(auditQuery.getResultList()).thenReturn(Collections.singletonList(mockResult));
-			
-			AuditEntity<TestAuditedEntity> auditEntity = new AuditEntity<>(entity, revEntity, RevisionType.ADD, 42);
-			utilClassMockedStatic.when(() -> UtilClass.paginate(any(), eq(0), eq(10)))
-			        .thenReturn(Collections.singletonList(auditEntity));
-			
-			List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(0, 10, null, null, null, "desc");
-			
-			assertNotNull(result);
-			assertThat(result, hasSize(1));
-		}
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		
+		TestAuditedEntity entity = new TestAuditedEntity();
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		when(revEntity.getChangedBy()).thenReturn(42);
+		when(revEntity.getRevisionDate()).thenReturn(new Date());
+		Object[] mockResult = new Object[] { entity, revEntity, RevisionType.ADD };
+		
+		enversUtilsMockedStatic.when(() -> EnversUtils.buildFilteredAuditQueryForUsers(auditReader,
+		    TestAuditedEntity.class, null, null, null, 0, 10, "desc")).thenReturn(auditQuery);
+		
+		when(auditQuery.getResultList()).thenReturn(Collections.singletonList(mockResult));
+		
+		List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(0, 10, null, null, null, "desc");
+		
+		assertNotNull(result);
+		assertThat(result, hasSize(1));
+	}
+	
+	@Test
+	void shouldMergePerClassRevisionStreamsByRevision_WhenUnionQueryIsNotSupported() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		
+		Object[] testRev5 = revisionRow(new TestAuditedEntity(), 5);
+		Object[] testRev3 = revisionRow(new TestAuditedEntity(), 3);
+		Object[] otherRev4 = revisionRow(new OtherAuditedEntity(), 4);
+		stubRevisionChunk(TestAuditedEntity.class, 0, testRev5);
+		stubRevisionChunk(TestAuditedEntity.class, 1, testRev3);
+		stubRevisionChunk(OtherAuditedEntity.class, 0, otherRev4);
+		stubRevisionChunk(OtherAuditedEntity.class, 1);
+		
+		List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(1, 1, null, null, null, "desc");
+		
+		assertThat(result, hasSize(1));
+		assertSame(otherRev4[0], result.get(0).getEntity());
+	}
+	
+	private Object[] revisionRow(Object entity, int revision) {
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		when(revEntity.getId()).thenReturn(revision);
+		return new Object[] { entity, revEntity, RevisionType.MOD };
+	}
+	
+	private void stubRevisionChunk(Class<?> entityClass, int chunk, Object[]... rows) {
+		AuditQuery query = mock(AuditQuery.class);
+		when(query.getResultList()).thenReturn(Arrays.asList(rows));
+		enversUtilsMockedStatic.when(
+		    () -> EnversUtils.buildFilteredAuditQueryForUsers(auditReader, entityClass, null, null, null, chunk, 1, "desc"))
+		        .thenReturn(query);
 	}
 	
 	@Test
 	void shouldReturnCountAcrossAllEntities() {
-		try (MockedStatic<UtilClass> utilClassMockedStatic = mockStatic(UtilClass.class)) {
-			utilClassMockedStatic.when(UtilClass::findClassesWithAnnotation)
-			        .thenReturn(Arrays.asList(TestAuditedEntity.class.getName()));
-			when(auditQuery.getSingleResult()).thenReturn(5L);
-			enversUtilsMockedStatic
-			        .when(
-			            () -> EnversUtils.buildCountQueryWithFilters(auditReader, TestAuditedEntity.class, null, null, null))
-			        .thenReturn(auditQuery);
-			
-			long result = auditDao.countRevisionsAcrossEntities(null, null, null);
-			assertThat(result, is(5L));
-		}
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		when(auditQuery.getSingleResult()).thenReturn(5L);
+		enversUtilsMockedStatic
+		        .when(
+		            () -> EnversUtils.buildCountQueryForUsers(auditReader, TestAuditedEntity.class, null, null, null))
+		        .thenReturn(auditQuery);
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, null, null);
+		assertThat(result, is(5L));
 	}
 	
 	@Test
 	void shouldReturnEmptyList_WhenNoAuditedClassesFound() {
-		try (MockedStatic<UtilClass> utilClassMockedStatic = mockStatic(UtilClass.class)) {
-			utilClassMockedStatic.when(UtilClass::findClassesWithAnnotation).thenReturn(Collections.emptyList());
-			
-			List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(0, 10, null, null, null, "desc");
-			
-			assertNotNull(result);
-			assertThat(result, empty());
-		}
+		when(auditedEntityRegistry.getAuditedEntityClasses()).thenReturn(Collections.emptyList());
+		
+		List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(0, 10, null, null, null, "desc");
+		
+		assertNotNull(result);
+		assertThat(result, empty());
 	}
 	
 	@Test
 	void shouldReturnZeroCount_WhenNoAuditedClassesFound() {
-		try (MockedStatic<UtilClass> utilClassMockedStatic = mockStatic(UtilClass.class)) {
-			utilClassMockedStatic.when(UtilClass::findClassesWithAnnotation).thenReturn(Collections.emptyList());
-			
-			long result = auditDao.countRevisionsAcrossEntities(null, null, null);
-			assertThat(result, is(0L));
-		}
+		when(auditedEntityRegistry.getAuditedEntityClasses()).thenReturn(Collections.emptyList());
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, null, null);
+		assertThat(result, is(0L));
 	}
 	
 	@Test
 	void shouldReturnFilteredAuditEntitiesByEntityType() {
-		try (MockedStatic<UtilClass> utilClassMockedStatic = mockStatic(UtilClass.class)) {
-			utilClassMockedStatic.when(UtilClass::findClassesWithAnnotation)
-			        .thenReturn(Arrays.asList(TestAuditedEntity.class.getName()));
-			
-			TestAuditedEntity entity = new TestAuditedEntity();
-			OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
-			when(revEntity.getChangedBy()).thenReturn(99);
-			when(revEntity.getRevisionDate()).thenReturn(new Date());
-			Object[] mockResult = new Object[] { entity, revEntity, RevisionType.ADD };
-			
-			enversUtilsMockedStatic.when(() -> EnversUtils.buildFilteredAuditQuery(auditReader, TestAuditedEntity.class,
-			    null, null, null, 0, Integer.MAX_VALUE, "desc")).thenReturn(auditQuery);
-			when(auditQuery.getResultList()).thenReturn(Collections.singletonList(mockResult));
-			
-			AuditEntity<?> auditEntity = new AuditEntity<>(entity, revEntity, RevisionType.ADD, 99);
-			utilClassMockedStatic.when(() -> UtilClass.paginate(any(), eq(0), eq(5)))
-			        .thenReturn(Collections.singletonList(auditEntity));
-			
-			List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntitiesWithEntityType(0, 5, null, null, null,
-			    "TestAuditedEntity", "desc");
-			
-			assertNotNull(result);
-			assertThat(result, hasSize(1));
-			assertThat(result.get(0).getChangedBy(), is(99));
-		}
+		when(auditedEntityRegistry.findBySimpleName("TestAuditedEntity"))
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		
+		TestAuditedEntity entity = new TestAuditedEntity();
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		when(revEntity.getChangedBy()).thenReturn(99);
+		when(revEntity.getRevisionDate()).thenReturn(new Date());
+		Object[] mockResult = new Object[] { entity, revEntity, RevisionType.ADD };
+		
+		enversUtilsMockedStatic.when(() -> EnversUtils.buildFilteredAuditQueryForUsers(auditReader,
+		    TestAuditedEntity.class, null, null, null, 0, 5, "desc")).thenReturn(auditQuery);
+		when(auditQuery.getResultList()).thenReturn(Collections.singletonList(mockResult));
+		
+		List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntitiesWithEntityType(0, 5, null, null, null,
+		    "TestAuditedEntity", "desc");
+		
+		assertNotNull(result);
+		assertThat(result, hasSize(1));
+		assertThat(result.get(0).getChangedBy(), is(99));
 	}
 	
 	@Test
 	void shouldReturnCountOfAuditEntitiesByEntityType() {
-		try (MockedStatic<UtilClass> utilClassMockedStatic = mockStatic(UtilClass.class)) {
-			utilClassMockedStatic.when(UtilClass::findClassesWithAnnotation)
-			        .thenReturn(Arrays.asList(TestAuditedEntity.class.getName()));
-			
-			when(auditQuery.getSingleResult()).thenReturn(2L);
-			enversUtilsMockedStatic
-			        .when(
-			            () -> EnversUtils.buildCountQueryWithFilters(auditReader, TestAuditedEntity.class, null, null, null))
-			        .thenReturn(auditQuery);
-			
-			long result = auditDao.countRevisionsAcrossEntitiesWithEntityType(null, null, null, "TestAuditedEntity");
-			
-			assertThat(result, is(2L));
-		}
+		when(auditedEntityRegistry.findBySimpleName("TestAuditedEntity"))
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		
+		when(auditQuery.getSingleResult()).thenReturn(2L);
+		enversUtilsMockedStatic
+		        .when(
+		            () -> EnversUtils.buildCountQueryForUsers(auditReader, TestAuditedEntity.class, null, null, null))
+		        .thenReturn(auditQuery);
+		
+		long result = auditDao.countRevisionsAcrossEntitiesWithEntityType(null, null, null, "TestAuditedEntity");
+		
+		assertThat(result, is(2L));
+	}
+	
+	@Test
+	void shouldHydrateOnlyPageRows_WhenUnionQueryIsSupported() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		
+		TestAuditedEntity entity = new TestAuditedEntity();
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		when(revEntity.getId()).thenReturn(12);
+		when(revEntity.getChangedBy()).thenReturn(42);
+		
+		AuditRevisionKey key = new AuditRevisionKey(12, TestAuditedEntity.class, "3");
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.findRevisionKeys(any(), any(), eq(1), eq(10)))
+		        .thenReturn(Collections.singletonList(key));
+		when(crossEntityRevisionQuery.toIdentifier(TestAuditedEntity.class, "3")).thenReturn(3);
+		when(crossEntityRevisionQuery.identifierOf(entity)).thenReturn("3");
+		
+		when(queryCreator.forRevisionsOfEntity(TestAuditedEntity.class, false, true)).thenReturn(auditQuery);
+		when(auditQuery.add(any())).thenReturn(auditQuery);
+		when(auditQuery.getResultList())
+		        .thenReturn(Collections.singletonList(new Object[] { entity, revEntity, RevisionType.MOD }));
+		
+		List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(1, 10, null, null, null, "desc");
+		
+		assertThat(result, hasSize(1));
+		assertSame(entity, result.get(0).getEntity());
+		assertThat(result.get(0).getChangedBy(), is(42));
+		verify(auditQuery, times(1)).getResultList();
+	}
+	
+	@Test
+	void shouldPointNextCursorAtLastScannedKey_WhenSomeRowsCannotBeLoaded() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		
+		TestAuditedEntity entity = new TestAuditedEntity();
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		when(revEntity.getId()).thenReturn(12);
+		
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.findRevisionKeys(any(), any(), eq(0), eq(2)))
+		        .thenReturn(Arrays.asList(new AuditRevisionKey(12, TestAuditedEntity.class, "3"),
+		            new AuditRevisionKey(11, TestAuditedEntity.class, "5")));
+		when(crossEntityRevisionQuery.toIdentifier(eq(TestAuditedEntity.class), anyString()))
+		        .thenAnswer(invocation -> Integer.valueOf(invocation.getArgument(1)));
+		when(crossEntityRevisionQuery.identifierOf(entity)).thenReturn("3");
+		
+		when(queryCreator.forRevisionsOfEntity(TestAuditedEntity.class, false, true)).thenReturn(auditQuery);
+		when(auditQuery.add(any())).thenReturn(auditQuery);
+		when(auditQuery.getResultList())
+		        .thenReturn(Collections.singletonList(new Object[] { entity, revEntity, RevisionType.MOD }));
+		
+		AuditEntityPage result = auditDao.getRevisionsAcrossEntitiesByUsers(0, 2, null, null, null, null, "desc");
+		
+		assertThat(result.getEntries(), hasSize(1));
+		assertThat(result.getNextCursor(),
+		    is(new AuditRevisionCursor(11, TestAuditedEntity.class.getName(), "5")));
+	}
+	
+	@Test
+	void shouldLoadEachEntitysOwnPreviousRevision_WithOneQueryPerClass() {
+		TestAuditedEntity first = new TestAuditedEntity();
+		TestAuditedEntity second = new TestAuditedEntity();
+		TestAuditedEntity previous = new TestAuditedEntity();
+		OpenmrsRevisionEntity revision12 = mock(OpenmrsRevisionEntity.class);
+		when(revision12.getId()).thenReturn(12);
+		OpenmrsRevisionEntity revision15 = mock(OpenmrsRevisionEntity.class);
+		when(revision15.getId()).thenReturn(15);
+		OpenmrsRevisionEntity revision9 = mock(OpenmrsRevisionEntity.class);
+		when(revision9.getId()).thenReturn(9);
+		when(crossEntityRevisionQuery.identifierOf(first)).thenReturn("3");
+		when(crossEntityRevisionQuery.identifierOf(second)).thenReturn("4");
+		when(crossEntityRevisionQuery.identifierOf(previous)).thenReturn("3");
+		when(crossEntityRevisionQuery.toIdentifier(TestAuditedEntity.class, "3")).thenReturn(3);
+		
+		AuditRevisionKey firstKey = new AuditRevisionKey(12, TestAuditedEntity.class, "3");
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.findPreviousRevisionKeys(eq(TestAuditedEntity.class), any())).thenReturn(
+		    Collections.singletonMap(firstKey, new AuditRevisionKey(9, TestAuditedEntity.class, "3")));
+		when(queryCreator.forRevisionsOfEntity(TestAuditedEntity.class, false, true)).thenReturn(auditQuery);
+		when(auditQuery.add(any())).thenReturn(auditQuery);
+		when(auditQuery.getResultList())
+		        .thenReturn(Collections.singletonList(new Object[] { previous, revision9, RevisionType.MOD }));
+		
+		List<Object> result = auditDao.getPreviousRevisions(
+		    Arrays.asList(new AuditEntity<>(first, revision12, RevisionType.MOD, 1),
+		        new AuditEntity<>(second, revision15, RevisionType.ADD, 1)));
+		
+		assertThat(result, hasSize(2));
+		assertSame(previous, result.get(0));
+		assertNull(result.get(1));
+		verify(crossEntityRevisionQuery, times(1)).findPreviousRevisionKeys(eq(TestAuditedEntity.class), any());
+		verify(auditQuery, times(1)).getResultList();
+	}
+	
+	@Test
+	void shouldReturnRecordedFieldChanges_OnlyForRecordedRows() {
+		TestAuditedEntity recorded = new TestAuditedEntity();
+		TestAuditedEntity notRecorded = new TestAuditedEntity();
+		OpenmrsRevisionEntity revision12 = mock(OpenmrsRevisionEntity.class);
+		when(revision12.getId()).thenReturn(12);
+		when(crossEntityRevisionQuery.identifierOf(recorded)).thenReturn("3");
+		when(crossEntityRevisionQuery.identifierOf(notRecorded)).thenReturn("4");
+		List<AuditFieldDiff> changes = Collections.singletonList(new AuditFieldDiff("name", "a", "b", true));
+		when(auditFieldChangeDao.isEnabled()).thenReturn(true);
+		when(auditFieldChangeDao.findFieldChanges(any()))
+		        .thenReturn(Collections.singletonMap(new AuditRevisionKey(12, TestAuditedEntity.class, "3"), changes));
+		
+		List<List<AuditFieldDiff>> result = auditDao.getRecordedFieldChanges(
+		    Arrays.asList(new AuditEntity<>(recorded, revision12, RevisionType.MOD, 1),
+		        new AuditEntity<>(notRecorded, revision12, RevisionType.MOD, 1)));
+		
+		assertThat(result, hasSize(2));
+		assertSame(changes, result.get(0));
+		assertNull(result.get(1));
+	}
+	
+	@Test
+	void shouldNotLookUpFieldChanges_WhenRecordingIsDisabled() {
+		OpenmrsRevisionEntity revision12 = mock(OpenmrsRevisionEntity.class);
+		when(revision12.getId()).thenReturn(12);
+		
+		List<List<AuditFieldDiff>> result = auditDao.getRecordedFieldChanges(
+		    Collections.singletonList(new AuditEntity<>(new TestAuditedEntity(), revision12, RevisionType.MOD, 1)));
+		
+		assertThat(result, hasSize(1));
+		assertNull(result.get(0));
+		verify(auditFieldChangeDao, never()).findFieldChanges(any());
+	}
+	
+	@Test
+	void shouldCountWithUnionQuery_WhenUnionQueryIsSupported() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.countRevisions(any(), any())).thenReturn(11L);
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, null, null);
+		
+		assertThat(result, is(11L));
+		enversUtilsMockedStatic.verifyNoInteractions();
+	}
+	
+	@Test
+	void shouldCountFromRevisionIndex_WhenIndexIsReady() {
+		when(auditedEntityRegistry.findBySimpleName("TestAuditedEntity"))
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		when(auditRevisionIndexDao.isReady()).thenReturn(true);
+		when(auditRevisionIndexDao.countRevisions(any(), any())).thenReturn(7L);
+		
+		long result = auditDao.countRevisionsAcrossEntitiesWithEntityType(null, null, null, "TestAuditedEntity");
+		
+		assertThat(result, is(7L));
+		verify(crossEntityRevisionQuery, never()).countRevisions(any(), any());
+		enversUtilsMockedStatic.verifyNoInteractions();
+	}
+	
+	@Test
+	void shouldCountClassesTheIndexCannotHoldFromTheirAuditTables_WhenIndexIsReady() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(auditRevisionIndexDao.isReady()).thenReturn(true);
+		when(crossEntityRevisionQuery.findUnsupported(any()))
+		        .thenReturn(Collections.singletonList(OtherAuditedEntity.class));
+		when(auditRevisionIndexDao.countRevisions(any(), any())).thenReturn(7L);
+		when(auditQuery.getSingleResult()).thenReturn(5L);
+		enversUtilsMockedStatic
+		        .when(() -> EnversUtils.buildCountQueryForUsers(auditReader, OtherAuditedEntity.class, null, null, null))
+		        .thenReturn(auditQuery);
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, null, null);
+		
+		assertThat(result, is(12L));
+		verify(auditRevisionIndexDao).countRevisions(eq(Collections.singletonList(TestAuditedEntity.class)), any());
+		verify(crossEntityRevisionQuery, never()).countRevisions(any(), any());
+	}
+	
+	@Test
+	void shouldMergeClassesTheIndexCannotHoldIntoIndexPages_WhenIndexIsReady() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(auditRevisionIndexDao.isReady()).thenReturn(true);
+		when(crossEntityRevisionQuery.findUnsupported(any()))
+		        .thenReturn(Collections.singletonList(OtherAuditedEntity.class));
+		when(auditRevisionIndexDao.findRevisionKeys(any(), any(), eq(0), eq(2)))
+		        .thenReturn(Arrays.asList(new AuditRevisionKey(9, TestAuditedEntity.class, "1"),
+		            new AuditRevisionKey(7, TestAuditedEntity.class, "1")));
+		when(auditQuery.getResultList()).thenReturn(Collections.singletonList(new Object[] { 8, 3 }));
+		enversUtilsMockedStatic.when(() -> EnversUtils.buildFilteredAuditQueryForUsers(auditReader,
+		    OtherAuditedEntity.class, null, null, null, 0, 2, "desc")).thenReturn(auditQuery);
+		OtherAuditedEntity other = new OtherAuditedEntity();
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		AuditQuery hydration = mock(AuditQuery.class);
+		when(queryCreator.forRevisionsOfEntity(OtherAuditedEntity.class, false, true)).thenReturn(hydration);
+		when(hydration.add(any())).thenReturn(hydration);
+		when(hydration.getResultList())
+		        .thenReturn(Collections.singletonList(new Object[] { other, revEntity, RevisionType.MOD }));
+		when(crossEntityRevisionQuery.toIdentifier(OtherAuditedEntity.class, "3")).thenReturn(3);
+		when(crossEntityRevisionQuery.identifierOf(other)).thenReturn("3");
+		when(revEntity.getId()).thenReturn(8);
+		
+		List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(1, 1, null, null, null, "desc");
+		
+		assertThat(result, hasSize(1));
+		assertSame(other, result.get(0).getEntity());
+		verify(queryCreator, never()).forRevisionsOfEntity(TestAuditedEntity.class, false, true);
+		verify(auditRevisionIndexDao).findRevisionKeys(eq(Collections.singletonList(TestAuditedEntity.class)), any(),
+		    eq(0), eq(2));
+		verify(crossEntityRevisionQuery, never()).findRevisionKeys(any(), any(), anyInt(), anyInt());
+	}
+	
+	@Test
+	void shouldQueryOnlyClassesChangedInMatchingRevisions_WhenUserFilterIsSet() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(revisionQueryPlanner.narrowToChangedClasses(any(), any()))
+		        .thenReturn(Collections.singletonList(OtherAuditedEntity.class));
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.countRevisions(any(), any())).thenReturn(2L);
+		
+		long result = auditDao.countRevisionsAcrossEntities(7, null, null);
+		
+		assertThat(result, is(2L));
+		verify(crossEntityRevisionQuery).countRevisions(eq(Collections.singletonList(OtherAuditedEntity.class)),
+		    any());
+	}
+	
+	@Test
+	void shouldPassDistinctUsersToOneQuery_WhenFilteringBySeveralUsers() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.countRevisions(any(), any())).thenReturn(6L);
+		
+		long result = auditDao.countRevisionsAcrossEntitiesByUsers(Arrays.asList(9, 4, null, 9), null, null, null);
+		
+		assertThat(result, is(6L));
+		verify(crossEntityRevisionQuery, times(1)).countRevisions(any(),
+		    argThat(criteria -> criteria.getUserIds().equals(Arrays.asList(4, 9))));
+	}
+	
+	@Test
+	void shouldNotQuery_WhenNoUserIsLeftToMatch() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		
+		assertThat(auditDao.getRevisionsAcrossEntitiesByUsers(0, 10, Collections.emptyList(), null, null, null,
+		    "desc").getEntries(), hasSize(0));
+		assertThat(auditDao.countRevisionsAcrossEntitiesByUsers(Collections.emptyList(), null, null, null), is(0L));
+		verify(crossEntityRevisionQuery, never()).countRevisions(any(), any());
+		verify(crossEntityRevisionQuery, never()).findRevisionKeys(any(), any(), anyInt(), anyInt());
+		enversUtilsMockedStatic.verifyNoInteractions();
+	}
+	
+	@Test
+	void shouldSkipClassesWithoutAuditTables() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(auditTableProbe.isQueryable(OtherAuditedEntity.class)).thenReturn(false);
+		
+		assertThat(auditDao.getAuditedEntityClasses(), contains(TestAuditedEntity.class));
+	}
+	
+	@Test
+	void shouldSkipAuditTables_WhenNoRevisionMatchesFilters() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(revisionQueryPlanner.narrowToChangedClasses(any(), any())).thenReturn(Collections.emptyList());
+		
+		List<AuditEntity<?>> result = auditDao.getAllRevisionsAcrossEntities(0, 10, 7, null, null, "desc");
+		
+		assertThat(result, hasSize(0));
+		verify(crossEntityRevisionQuery, never()).findRevisionKeys(any(), any(), anyInt(), anyInt());
+		enversUtilsMockedStatic.verifyNoInteractions();
+	}
+	
+	@Test
+	void shouldSkipAuditTablesWithoutRevisionsInRange() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(revisionRangeCache.narrowToClassesInRange(any(), any()))
+		        .thenReturn(Collections.singletonList(TestAuditedEntity.class));
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.countRevisions(any(), any())).thenReturn(4L);
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, new Date(0L), null);
+		
+		assertThat(result, is(4L));
+		verify(revisionQueryPlanner).narrowToChangedClasses(eq(Collections.singletonList(TestAuditedEntity.class)),
+		    any());
+		verify(crossEntityRevisionQuery).countRevisions(eq(Collections.singletonList(TestAuditedEntity.class)),
+		    any());
+	}
+	
+	@Test
+	void shouldSumCompletedParallelCounts_WhenParallelQueriesAreEnabled() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		when(parallelQueryExecutor.isEnabled()).thenReturn(true);
+		doReturn(Arrays.asList(3L, null)).when(parallelQueryExecutor).invokeAll(any());
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, null, null);
+		
+		assertThat(result, is(3L));
+		enversUtilsMockedStatic.verifyNoInteractions();
+	}
+	
+	@Test
+	void shouldMarkCountAsPartial_WhenCountingAClassFails() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class, OtherAuditedEntity.class));
+		AuditQuery failingQuery = mock(AuditQuery.class);
+		when(failingQuery.getSingleResult()).thenThrow(new IllegalStateException("connection reset"));
+		when(auditQuery.getSingleResult()).thenReturn(6L);
+		enversUtilsMockedStatic
+		        .when(
+		            () -> EnversUtils.buildCountQueryForUsers(auditReader, TestAuditedEntity.class, null, null, null))
+		        .thenReturn(auditQuery);
+		enversUtilsMockedStatic
+		        .when(
+		            () -> EnversUtils.buildCountQueryForUsers(auditReader, OtherAuditedEntity.class, null, null, null))
+		        .thenReturn(failingQuery);
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, null, null);
+		
+		assertThat(result, is(6L));
+		assertThat(AuditQueryContext.isPartialResult(), is(true));
+	}
+	
+	@Test
+	void shouldFallBackToPerEntityCount_WhenUnionQueryHitsMissingTable() {
+		when(auditedEntityRegistry.getAuditedEntityClasses())
+		        .thenReturn(Arrays.<Class<?>> asList(TestAuditedEntity.class));
+		when(crossEntityRevisionQuery.supports(any())).thenReturn(true);
+		when(crossEntityRevisionQuery.countRevisions(any(), any())).thenThrow(
+		    new SQLGrammarException("Table TestAuditedEntity_AUD doesn't exist", new SQLException("missing table")));
+		when(auditQuery.getSingleResult()).thenReturn(4L);
+		enversUtilsMockedStatic
+		        .when(
+		            () -> EnversUtils.buildCountQueryForUsers(auditReader, TestAuditedEntity.class, null, null, null))
+		        .thenReturn(auditQuery);
+		
+		long result = auditDao.countRevisionsAcrossEntities(null, null, null);
+		
+		assertThat(result, is(4L));
 	}
 	
 	@Test
@@ -493,7 +909,21 @@ class AuditDaoTest {
 		assertThat(result.get(0).getUsername(), is("admin"));
 		
 		verify(securityEventQuery).setParameter(eq("eventType"), eq(AuditSecurityEventType.LOGIN_FAILURE));
-		verify(securityEventQuery).setParameter(eq("username"), eq("%admin%"));
+		verify(securityEventQuery).setParameter(eq("username"), eq("admin%"));
+	}
+	
+	@Test
+	void shouldMatchSecurityEventUsernamesByPrefixInAnyCaseWithoutFunctions() {
+		when(session.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
+		when(countQuery.getSingleResult()).thenReturn(2L);
+		
+		long count = auditDao.countSecurityEvents(null, " Admin ", null, null);
+		
+		assertThat(count, is(2L));
+		verify(session).createQuery(
+		    argThat((String hql) -> hql.contains("e.usernameLower like :username") && !hql.contains("lower(")),
+		    eq(Long.class));
+		verify(countQuery).setParameter("username", "admin%");
 	}
 	
 	@Test
@@ -508,6 +938,21 @@ class AuditDaoTest {
 		assertNotNull(result);assertThat(result,empty());verify(securityEventQuery).setParameter("startDate",start);verify(securityEventQuery).setParameter("endDate",end);
 	}
 	
+	@Test
+	void shouldMatchSecurityEventsOfSeveralUsersWithOneSubquery() {
+		List<Integer> userIds = Arrays.asList(3, 8);
+		when(session.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
+		when(countQuery.getSingleResult()).thenReturn(4L);
+		
+		long count = auditDao.countSecurityEvents(null, null, userIds, null, null);
+		
+		assertThat(count, is(4L));
+		verify(session).createQuery(
+		    argThat((String hql) -> hql.contains("e.userUuid in (select u.uuid from User u where u.userId in (:userIds))")),
+		    eq(Long.class));
+		verify(countQuery).setParameterList("userIds", userIds);
+	}
+	
 	@Test
 	void shouldReturnSecurityEventCount_WhenNoFiltersProvided() {
 		when(session.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
@@ -0,0 +1,59 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.Patient;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+class AuditFieldChangeDaoTest {
+	
+	private final AuditRevisionKey recordedKey = new AuditRevisionKey(12, Patient.class, "3");
+	
+	private final AuditRevisionKey unchangedKey = new AuditRevisionKey(12, Patient.class, "4");
+	
+	@Test
+	void shouldGroupChangesByAuditRow_KeepingEachFieldOnce() {
+		List<Object[]> rows = Arrays.asList(new Object[] { 12, "org.openmrs.Patient", "3", "gender", "M", "F" },
+		    new Object[] { 12, "org.openmrs.Patient", "3", "birthdate", null, "2000-01-01" },
+		    new Object[] { 12, "org.openmrs.Patient", "3", "gender", "M", "F" });
+		
+		Map<AuditRevisionKey, List<AuditFieldDiff>> changes = AuditFieldChangeDao.groupFieldChanges(rows,
+		    Arrays.asList(recordedKey, unchangedKey));
+		
+		assertThat(changes.get(recordedKey), hasSize(2));
+		assertThat(changes.get(recordedKey).get(0), is(new AuditFieldDiff("gender", "M", "F", true)));
+		assertThat(changes, not(hasKey(unchangedKey)));
+	}
+	
+	@Test
+	void shouldReturnNoChanges_GivenRowWithoutFieldName() {
+		List<Object[]> rows = Arrays.asList(new Object[] { 12, "org.openmrs.Patient", "4", null, null, null },
+		    new Object[] { 12, "org.openmrs.Person", "4", "gender", "M", "F" },
+		    new Object[] { 12, "org.openmrs.Patient", "5", "gender", "M", "F" });
+		
+		Map<AuditRevisionKey, List<AuditFieldDiff>> changes = AuditFieldChangeDao.groupFieldChanges(rows,
+		    Arrays.asList(recordedKey, unchangedKey));
+		
+		assertThat(changes.get(unchangedKey), is(empty()));
+		assertThat(changes.size(), is(1));
+	}
+}
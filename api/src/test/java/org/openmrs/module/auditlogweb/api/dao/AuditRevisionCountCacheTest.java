@@ -0,0 +1,100 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class AuditRevisionCountCacheTest {
+	
+	private final AtomicLong now = new AtomicLong(1000L);
+	
+	private final AuditRevisionCountCache cache = new AuditRevisionCountCache(now::get);
+	
+	private final List<String> ranges = new ArrayList<>();
+	
+	private long count(Integer currentRevision, long rowsInRange) {
+		return cache.count(AuditRevisionCountCache.key("all", "Patient"), currentRevision,
+		    (revisionAbove, revisionUpTo) -> {
+			    ranges.add(revisionAbove + ".." + revisionUpTo);
+			    return rowsInRange;
+		    });
+	}
+	
+	private long count(List<Object> key, Integer currentRevision) {
+		return cache.count(key, currentRevision, (revisionAbove, revisionUpTo) -> {
+			ranges.add(revisionAbove + ".." + revisionUpTo);
+			return 1L;
+		});
+	}
+	
+	@Test
+	void shouldCountOnlyRevisionsAboveWatermark() {
+		assertThat(count(10, 40L), is(40L));
+		assertThat(count(15, 3L), is(43L));
+		
+		assertThat(ranges, contains("null..10", "10..15"));
+	}
+	
+	@Test
+	void shouldNotQueryAgain_WhenNoNewRevisions() {
+		count(10, 40L);
+		
+		assertThat(count(10, 99L), is(40L));
+		assertThat(ranges, contains("null..10"));
+	}
+	
+	@Test
+	void shouldRecountFromScratch_AfterRecountInterval() {
+		count(10, 40L);
+		now.addAndGet(AuditRevisionCountCache.FULL_RECOUNT_INTERVAL_MILLIS);
+		
+		assertThat(count(12, 41L), is(41L));
+		assertThat(ranges, contains("null..10", "null..12"));
+	}
+	
+	@Test
+	void shouldKeepRecentlyUsedCounts_WhenCacheIsFull() {
+		count(10, 40L);
+		for (int i = 0; i < AuditRevisionCountCache.MAX_ENTRIES; i++) {
+			count(AuditRevisionCountCache.key("all", "Patient"), 10);
+			count(AuditRevisionCountCache.key("user", i), 10);
+		}
+		ranges.clear();
+		
+		assertThat(count(10, 99L), is(40L));
+		assertThat(count(AuditRevisionCountCache.key("user", 0), 10), is(1L));
+		assertThat(ranges, contains("null..10"));
+	}
+	
+	@Test
+	void shouldBypassCache_WhenCurrentRevisionIsUnknown() {
+		count(10, 40L);
+		
+		assertThat(count(null, 7L), is(7L));
+		assertThat(ranges, contains("null..10", "null..null"));
+	}
+	
+	@Test
+	void shouldKeyDatesByTime() {
+		assertThat(AuditRevisionCountCache.key("entity", new Date(5L), null),
+		    is(AuditRevisionCountCache.key("entity", new Date(5L), null)));
+		assertThat(AuditRevisionCountCache.key("entity", new Date(5L)), is(Arrays.<Object> asList("entity", 5L)));
+	}
+}
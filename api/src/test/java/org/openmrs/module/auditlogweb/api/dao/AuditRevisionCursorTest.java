@@ -0,0 +1,52 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AuditRevisionCursorTest {
+	
+	@Test
+	void shouldDecodeEncodedCursor() {
+		AuditRevisionCursor cursor = new AuditRevisionCursor(1532, "org.openmrs.GlobalProperty", "locale|allowed");
+		
+		AuditRevisionCursor decoded = AuditRevisionCursor.decode(cursor.encode());
+		
+		assertThat(decoded, is(cursor));
+		assertThat(decoded.getEntityOrder(), is(0L));
+	}
+	
+	@Test
+	void shouldExposeNumericEntityOrder_GivenNumericId() {
+		assertThat(new AuditRevisionCursor(5, "org.openmrs.Patient", "42").getEntityOrder(), is(42L));
+	}
+	
+	@Test
+	void shouldDeriveStableNonNegativeEntityKey_FromEntityName() {
+		assertThat(AuditRevisionCursor.entityKey("a"), is(0x2f63dc4c8601ec8cL));
+		assertThat(new AuditRevisionCursor(5, "org.openmrs.Obs", "1").getEntityKey(),
+		    is(AuditRevisionCursor.entityKey("org.openmrs.Obs")));
+		assertThat(AuditRevisionCursor.entityKey("org.openmrs.Obs"), greaterThanOrEqualTo(0L));
+		assertThat(AuditRevisionCursor.entityKey("org.openmrs.Obs"),
+		    not(AuditRevisionCursor.entityKey("org.openmrs.obs")));
+	}
+	
+	@Test
+	void shouldThrowIllegalArgument_GivenMalformedCursor() {
+		assertThrows(IllegalArgumentException.class, () -> AuditRevisionCursor.decode("not a cursor"));
+		assertThrows(IllegalArgumentException.class, () -> AuditRevisionCursor.decode("MTIz"));
+	}
+}
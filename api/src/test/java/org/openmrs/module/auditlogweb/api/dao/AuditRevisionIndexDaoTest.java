@@ -0,0 +1,97 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Patient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuditRevisionIndexDaoTest {
+	
+	private final CrossEntityRevisionQuery.RevisionTableMetadata revisions = new CrossEntityRevisionQuery.RevisionTableMetadata(
+	        "revision_entity", "id", "changed_by", "changed_on");
+	
+	@Test
+	void shouldCopyRevisionWindowSkippingIndexedRows_GivenRootTable() {
+		AuditTableMetadata globalProperties = AuditTableMetadata.builder().entityClass(GlobalProperty.class)
+		        .auditEntityName("org.openmrs.GlobalProperty_AUD").tableName("global_property_audit")
+		        .idColumn("property").revisionColumn("REV").idType(String.class).rootTableName("global_property_audit")
+		        .rootIdColumn("property").rootRevisionColumn("REV").revisionTypeColumn("REVTYPE").build();
+		
+		String sql = AuditRevisionIndexDao.buildBackfillSql(globalProperties, revisions, "char");
+		
+		assertThat(sql, is("insert into audit_revision_index"
+		        + " (rev, entity_name, entity_key, entity_id, entity_order, revision_type, changed_by, changed_on)"
+		        + " select a.REV, 'org.openmrs.GlobalProperty', "
+		        + AuditRevisionCursor.entityKey("org.openmrs.GlobalProperty")
+		        + ", cast(a.property as char), 0, a.REVTYPE, r.changed_by, r.changed_on"
+		        + " from global_property_audit a join revision_entity r on r.id = a.REV"
+		        + " where a.REV > :fromRevision and a.REV <= :toRevision and not exists (select 1 from"
+		        + " audit_revision_index i where i.rev = a.REV and i.entity_name = 'org.openmrs.GlobalProperty'"
+		        + " and i.entity_id = cast(a.property as char))"));
+	}
+	
+	@Test
+	void shouldReadRevisionTypeFromRootTable_GivenJoinedSubclass() {
+		AuditTableMetadata patients = AuditTableMetadata.builder().entityClass(Patient.class)
+		        .auditEntityName("org.openmrs.Patient_AUD").tableName("patient_audit").idColumn("patient_id")
+		        .revisionColumn("REV").idType(Integer.class).rootTableName("person_audit").rootIdColumn("person_id")
+		        .rootRevisionColumn("REV").revisionTypeColumn("REVTYPE").build();
+		
+		String sql = AuditRevisionIndexDao.buildBackfillSql(patients, revisions, "char");
+		
+		assertThat(sql, containsString("cast(a.patient_id as char), a.patient_id, root.REVTYPE"));
+		assertThat(sql, containsString("join person_audit root on root.person_id = a.patient_id and root.REV = a.REV"));
+		assertThat(sql, not(containsString("a.REVTYPE")));
+	}
+	
+	@Test
+	void shouldReadOnlyRequestedClassesInNumericIdOrder_GivenCursor() {
+		SessionFactory sessionFactory = mock(SessionFactory.class);
+		Session session = mock(Session.class);
+		NativeQuery query = mock(NativeQuery.class);
+		when(sessionFactory.getCurrentSession()).thenReturn(session);
+		when(session.createNativeQuery(anyString())).thenReturn(query);
+		when(query.getResultList()).thenReturn(Collections.singletonList(new Object[] { 5, "org.openmrs.Patient", "10" }));
+		AuditRevisionIndexDao dao = new AuditRevisionIndexDao(sessionFactory, mock(CrossEntityRevisionQuery.class));
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().sortOrder("asc")
+		        .cursor(new AuditRevisionCursor(5, "org.openmrs.Patient", "9")).build();
+		
+		List<AuditRevisionKey> keys = dao.findRevisionKeys(Arrays.<Class<?>> asList(Patient.class), criteria, 3, 20);
+		
+		ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+		verify(session).createNativeQuery(sql.capture());
+		assertThat(sql.getValue(), containsString("i.entity_name in (:entityNames)"));
+		assertThat(sql.getValue(),
+		    containsString("order by i.rev asc, i.entity_key asc, i.entity_order asc, i.entity_id asc"));
+		verify(query).setParameterList("entityNames", Collections.singletonList("org.openmrs.Patient"));
+		verify(query).setParameter("cursorEntityKey", AuditRevisionCursor.entityKey("org.openmrs.Patient"));
+		verify(query).setParameter("cursorEntityOrder", 9L);
+		verify(query).setFirstResult(0);
+		assertThat(keys, is(Collections.singletonList(new AuditRevisionKey(5, Patient.class, "10"))));
+	}
+}
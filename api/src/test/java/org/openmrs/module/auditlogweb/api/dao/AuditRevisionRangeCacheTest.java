@@ -0,0 +1,146 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionRangeCache.RevisionRange;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery.RevisionTableMetadata;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuditRevisionRangeCacheTest {
+	
+	private final RevisionRange range = new RevisionRange(20, 30, new Date(2000L), new Date(3000L), 100,
+	        new Date(10000L));
+	
+	@Test
+	void shouldSkipTable_WhenRevisionRangeLiesOutsideIt() {
+		assertThat(range.mayHaveRevisions(31, 50, null, null), is(false));
+		assertThat(range.mayHaveRevisions(1, 19, null, null), is(false));
+		assertThat(range.mayHaveRevisions(25, 50, null, null), is(true));
+	}
+	
+	@Test
+	void shouldSkipTable_WhenDateRangeLiesOutsideIt() {
+		assertThat(range.mayHaveRevisions(null, 100, new Date(3001L), new Date(5000L)), is(false));
+		assertThat(range.mayHaveRevisions(null, null, new Date(0L), new Date(1999L)), is(false));
+		assertThat(range.mayHaveRevisions(null, null, new Date(2500L), new Date(5000L)), is(true));
+	}
+	
+	@Test
+	void shouldKeepTable_WhenRangeReachesRevisionsNotCheckedYet() {
+		assertThat(range.mayHaveRevisions(101, null, null, null), is(true));
+		assertThat(range.mayHaveRevisions(null, null, new Date(20000L), null), is(true));
+	}
+	
+	@Test
+	void shouldSkipEmptyTable_WithinCheckedRevisions() {
+		RevisionRange empty = new RevisionRange().extend(null, null, 100, new Date(10000L), revision -> null);
+		
+		assertThat(empty.mayHaveRevisions(null, 100, null, null), is(false));
+		assertThat(empty.mayHaveRevisions(null, null, null, null), is(true));
+	}
+	
+	@Test
+	void shouldExtendRangeWithNewRevisions() {
+		RevisionRange extended = range.extend(120, 140, 150, new Date(15000L), revision -> new Date(revision * 100L));
+		
+		assertThat(extended.mayHaveRevisions(141, 150, null, null), is(false));
+		assertThat(extended.mayHaveRevisions(null, null, new Date(14001L), new Date(14500L)), is(false));
+		assertThat(extended.mayHaveRevisions(135, 150, null, null), is(true));
+	}
+	
+	@Test
+	void shouldBoundRevisionsByCursorInSortDirection() {
+		AuditRevisionCursor cursor = new AuditRevisionCursor(40, "Patient", "1");
+		
+		AuditRevisionCriteria descending = AuditRevisionCriteria.builder().cursor(cursor).sortOrder("desc").build();
+		assertThat(AuditRevisionRangeCache.highestRevision(descending), is(40));
+		assertThat(AuditRevisionRangeCache.lowestRevision(descending), is(nullValue()));
+		
+		AuditRevisionCriteria ascending = AuditRevisionCriteria.builder().cursor(cursor).sortOrder("asc").revisionAbove(50)
+		        .build();
+		assertThat(AuditRevisionRangeCache.lowestRevision(ascending), is(51));
+	}
+	
+	@Test
+	void shouldNarrowWithoutWaitingForTheBackgroundRefresh() {
+		SessionFactory sessionFactory = mock(SessionFactory.class);
+		Session session = mock(Session.class);
+		CrossEntityRevisionQuery crossEntityRevisionQuery = mock(CrossEntityRevisionQuery.class);
+		when(sessionFactory.getCurrentSession()).thenReturn(session);
+		when(crossEntityRevisionQuery.getRevisionTableMetadata())
+		        .thenReturn(new RevisionTableMetadata("revision_entity", "id", "changed_by", "changed_on"));
+		when(crossEntityRevisionQuery.getTableMetadata(ChangedEntity.class)).thenReturn(tableOf(ChangedEntity.class));
+		when(crossEntityRevisionQuery.getTableMetadata(EmptyEntity.class)).thenReturn(tableOf(EmptyEntity.class));
+		
+		NativeQuery<?> latestQuery = mockQuery(session, "desc");
+		doReturn(Collections.singletonList(new Object[] { 100, new Date(10000L) })).when(latestQuery).getResultList();
+		doReturn(new Object[] { 20, 30 }).when(mockQuery(session, "ChangedEntity_AUD")).getSingleResult();
+		doReturn(new Object[] { null, null }).when(mockQuery(session, "EmptyEntity_AUD")).getSingleResult();
+		doReturn(Arrays.asList(new Object[] { 20, new Date(2000L) }, new Object[] { 30, new Date(3000L) }))
+		        .when(mockQuery(session, "in (:revisions)")).getResultList();
+		
+		List<Runnable> refreshes = new ArrayList<>();
+		AuditRevisionRangeCache cache = new AuditRevisionRangeCache(sessionFactory, crossEntityRevisionQuery,
+		        mock(PlatformTransactionManager.class), refreshes::add);
+		List<Class<?>> classes = Arrays.asList(ChangedEntity.class, EmptyEntity.class);
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().revisionUpTo(50).build();
+		
+		assertThat(cache.narrowToClassesInRange(classes, criteria), is(classes));
+		assertThat(cache.narrowToClassesInRange(classes, criteria), is(classes));
+		assertThat(refreshes, hasSize(1));
+		
+		refreshes.get(0).run();
+		
+		assertThat(cache.narrowToClassesInRange(classes, criteria), contains(ChangedEntity.class));
+		assertThat(refreshes, hasSize(1));
+	}
+	
+	private static Optional<AuditTableMetadata> tableOf(Class<?> clazz) {
+		return Optional.of(AuditTableMetadata.builder().entityClass(clazz).tableName(clazz.getSimpleName() + "_AUD")
+		        .idColumn("id").revisionColumn("REV").build());
+	}
+	
+	private static NativeQuery<?> mockQuery(Session session, String sqlPart) {
+		NativeQuery<?> query = mock(NativeQuery.class);
+		when(session.createNativeQuery(org.mockito.ArgumentMatchers.contains(sqlPart))).thenReturn(query);
+		doReturn(query).when(query).setParameter(anyString(), any());
+		doReturn(query).when(query).setParameterList(anyString(), anyCollection());
+		doReturn(query).when(query).setMaxResults(anyInt());
+		return query;
+	}
+	
+	static class ChangedEntity {}
+	
+	static class EmptyEntity {}
+}
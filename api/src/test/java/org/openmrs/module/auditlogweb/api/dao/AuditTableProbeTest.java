@@ -0,0 +1,59 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuditTableProbeTest {
+	
+	@Test
+	void shouldFindTable_WhenDatabaseStoresUpperCaseIdentifiers() throws Exception {
+		DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+		ResultSet none = mock(ResultSet.class);
+		ResultSet found = mock(ResultSet.class);
+		when(found.next()).thenReturn(true);
+		when(metaData.getTables(any(), any(), anyString(), any())).thenReturn(none);
+		when(metaData.getTables(any(), any(), eq("PATIENT_AUDIT"), any())).thenReturn(found);
+		
+		assertThat(AuditTableProbe.tableExists(metaData, "openmrs", null, "patient_audit"), is(true));
+	}
+	
+	@Test
+	void shouldLookUpUnqualifiedName_GivenSchemaQualifiedTable() throws Exception {
+		DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+		ResultSet none = mock(ResultSet.class);
+		ResultSet found = mock(ResultSet.class);
+		when(found.next()).thenReturn(true);
+		when(metaData.getTables(any(), any(), anyString(), any())).thenReturn(none);
+		when(metaData.getTables(any(), any(), eq("person_audit"), any())).thenReturn(found);
+		
+		assertThat(AuditTableProbe.tableExists(metaData, null, "public", "public.person_audit"), is(true));
+	}
+	
+	@Test
+	void shouldReportMissingTable() throws Exception {
+		DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+		ResultSet none = mock(ResultSet.class);
+		when(metaData.getTables(any(), any(), anyString(), any())).thenReturn(none);
+		
+		assertThat(AuditTableProbe.tableExists(metaData, "openmrs", null, "visit_audit"), is(false));
+	}
+}
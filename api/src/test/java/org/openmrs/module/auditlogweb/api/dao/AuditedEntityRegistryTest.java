@@ -0,0 +1,123 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.internal.entities.EntitiesConfigurations;
+import org.hibernate.metamodel.spi.MetamodelImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.junit.jupiter.api.Test;
+import org.openmrs.BaseOpenmrsData;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuditedEntityRegistryTest {
+	
+	@Test
+	void shouldListConcreteAuditedEntities_SortedByName() {
+		List<EntityPersister> persisters = Arrays.asList(persister("org.openmrs.Patient", Patient.class),
+		    persister("org.openmrs.Location", Location.class), persister("org.openmrs.BaseOpenmrsData", BaseOpenmrsData.class),
+		    persister("org.openmrs.Location_AUD", Map.class), persister("org.openmrs.Unmapped", null));
+		
+		List<Class<?>> classes = AuditedEntityRegistry.findAuditedEntityClasses(persisters,
+		    new HashSet<>(Arrays.asList("org.openmrs.Patient", "org.openmrs.Location", "org.openmrs.BaseOpenmrsData",
+		        "org.openmrs.Unmapped"))::contains);
+		
+		assertThat(classes, contains(Location.class, Patient.class));
+	}
+	
+	@Test
+	void shouldResolveEntityClasses_IgnoringCase() {
+		AuditedEntityRegistry registry = new AuditedEntityRegistry(sessionFactory(
+		    persister("org.openmrs.Patient", Patient.class), persister("org.openmrs.Location", Location.class)));
+		registry.refresh();
+		
+		assertThat(registry.getAuditedEntityNames(), contains("org.openmrs.Location", "org.openmrs.Patient"));
+		assertThat(registry.findByName("org.openmrs.patient"), is(Patient.class));
+		assertThat(registry.findByName("LOCATION"), is(Location.class));
+		assertThat(registry.findBySimpleName("patient"), contains(Patient.class));
+		assertThat(registry.findByName("Visit"), is(nullValue()));
+		assertThat(registry.findByName(" "), is(nullValue()));
+		assertThat(registry.findBySimpleName("Visit"), is(empty()));
+	}
+	
+	@Test
+	void shouldReplaceClassList_WhenRefreshed() {
+		AuditedEntityRegistry registry = new AuditedEntityRegistry(
+		        sessionFactory(persister("org.openmrs.Patient", Patient.class)));
+		registry.refresh();
+		List<Class<?>> before = registry.getAuditedEntityClasses();
+		
+		registry.refresh();
+		
+		assertThat(registry.getAuditedEntityClasses(), contains(Patient.class));
+		assertThat(registry.getAuditedEntityClasses() == before, is(false));
+	}
+	
+	@Test
+	void shouldKeepEntities_WhenRefreshFails() {
+		SessionFactory sessionFactory = sessionFactory(persister("org.openmrs.Patient", Patient.class));
+		AuditedEntityRegistry registry = new AuditedEntityRegistry(sessionFactory);
+		registry.refresh();
+		when(sessionFactory.unwrap(SessionFactoryImplementor.class)).thenThrow(new IllegalStateException("closed"));
+		
+		registry.refresh();
+		
+		assertThat(registry.getAuditedEntityClasses(), contains(Patient.class));
+	}
+	
+	private static SessionFactory sessionFactory(EntityPersister... persisters) {
+		Map<String, EntityPersister> persistersByName = new LinkedHashMap<>();
+		for (EntityPersister persister : persisters) {
+			persistersByName.put(persister.getEntityName(), persister);
+		}
+		EntitiesConfigurations configurations = mock(EntitiesConfigurations.class);
+		when(configurations.isVersioned(anyString())).thenReturn(true);
+		EnversService enversService = mock(EnversService.class);
+		when(enversService.isEnabled()).thenReturn(true);
+		when(enversService.getEntitiesConfigurations()).thenReturn(configurations);
+		ServiceRegistryImplementor serviceRegistry = mock(ServiceRegistryImplementor.class);
+		when(serviceRegistry.getService(EnversService.class)).thenReturn(enversService);
+		MetamodelImplementor metamodel = mock(MetamodelImplementor.class);
+		when(metamodel.entityPersisters()).thenReturn(persistersByName);
+		SessionFactoryImplementor factory = mock(SessionFactoryImplementor.class);
+		when(factory.getServiceRegistry()).thenReturn(serviceRegistry);
+		when(factory.getMetamodel()).thenReturn(metamodel);
+		SessionFactory sessionFactory = mock(SessionFactory.class);
+		when(sessionFactory.unwrap(SessionFactoryImplementor.class)).thenReturn(factory);
+		return sessionFactory;
+	}
+	
+	private static EntityPersister persister(String entityName, Class<?> mappedClass) {
+		EntityPersister persister = mock(EntityPersister.class);
+		doReturn(entityName).when(persister).getEntityName();
+		doReturn(mappedClass).when(persister).getMappedClass();
+		return persister;
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class BoundedLruCacheTest {
+	
+	@Test
+	void shouldDropLeastRecentlyUsedEntries_WhenWeightExceedsBound() {
+		BoundedLruCache<String, String> cache = new BoundedLruCache<>(10, (key, value) -> value.length());
+		cache.put("a", "aaaa");
+		cache.put("b", "bbbb");
+		cache.get("a");
+		cache.put("c", "cccc");
+		
+		assertThat(cache.get("a"), is("aaaa"));
+		assertThat(cache.get("b"), is(nullValue()));
+		assertThat(cache.weight(), is(8L));
+		assertThat(cache.evictions(), is(1L));
+	}
+	
+	@Test
+	void shouldNotCacheValue_WhenItWeighsMoreThanTheCache() {
+		BoundedLruCache<String, String> cache = new BoundedLruCache<>(3, (key, value) -> value.length());
+		cache.put("a", "aa");
+		cache.put("a", "aaaa");
+		
+		assertThat(cache.get("a"), is(nullValue()));
+		assertThat(cache.weight(), is(0L));
+	}
+	
+	@Test
+	void shouldExpireEntries_AfterTimeToLive() {
+		AtomicLong now = new AtomicLong(1000);
+		BoundedLruCache<Integer, String> cache = new BoundedLruCache<>(10, 50, now::get);
+		cache.put(1, "one");
+		now.addAndGet(49);
+		assertThat(cache.get(1), is("one"));
+		
+		now.incrementAndGet();
+		assertThat(cache.get(1), is(nullValue()));
+		assertThat(cache.size(), is(0));
+	}
+}
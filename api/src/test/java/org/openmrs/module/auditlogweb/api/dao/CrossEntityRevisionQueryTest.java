@@ -0,0 +1,156 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+class CrossEntityRevisionQueryTest {
+	
+	private static final long PATIENT_KEY = AuditRevisionCursor.entityKey("org.openmrs.Patient");
+	
+	private final CrossEntityRevisionQuery.RevisionTableMetadata revisions = new CrossEntityRevisionQuery.RevisionTableMetadata(
+	        "revision_entity", "id", "changed_by", "changed_on");
+	
+	private final AuditTableMetadata patients = AuditTableMetadata.builder().entityClass(Patient.class)
+	        .auditEntityName("org.openmrs.Patient_AUD").tableName("patient_audit").idColumn("patient_id")
+	        .revisionColumn("REV").idType(Integer.class).rootTableName("person_audit").rootIdColumn("person_id")
+	        .rootRevisionColumn("REV").revisionTypeColumn("REVTYPE").build();
+	
+	private final AuditTableMetadata persons = AuditTableMetadata.builder().entityClass(Person.class)
+	        .auditEntityName("org.openmrs.Person_AUD").tableName("person_audit").idColumn("person_id")
+	        .revisionColumn("REV").idType(Integer.class).rootTableName("person_audit").rootIdColumn("person_id")
+	        .rootRevisionColumn("REV").revisionTypeColumn("REVTYPE")
+	        .rowRestriction(" and not exists (select 1 from patient_audit s where s.patient_id = a.person_id and s.REV = a.REV)")
+	        .build();
+	
+	private final AuditTableMetadata globalProperties = AuditTableMetadata.builder().entityClass(GlobalProperty.class)
+	        .auditEntityName("org.openmrs.GlobalProperty_AUD").tableName("global_property_audit").idColumn("property")
+	        .revisionColumn("REV").idType(String.class).rootTableName("global_property_audit").rootIdColumn("property")
+	        .rootRevisionColumn("REV").revisionTypeColumn("REVTYPE").build();
+	
+	@Test
+	void shouldBuildUnionOfLimitedBranches_GivenSeveralTables() {
+		String sql = CrossEntityRevisionQuery.buildRevisionKeysSql(Arrays.asList(patients, globalProperties), revisions,
+		    AuditRevisionCriteria.builder().sortOrder("desc").build(), "char", 2, 10);
+		
+		assertThat(sql, is("select u.rev_id, u.entity_name, u.entity_id from ("
+		        + "(select a.REV as rev_id, 'org.openmrs.Patient' as entity_name, " + PATIENT_KEY + " as entity_key,"
+		        + " cast(a.patient_id as char) as entity_id, a.patient_id as entity_order from patient_audit a"
+		        + " order by a.REV desc, a.patient_id desc limit 30)"
+		        + " union all (select a.REV as rev_id, 'org.openmrs.GlobalProperty' as entity_name, "
+		        + AuditRevisionCursor.entityKey("org.openmrs.GlobalProperty") + " as entity_key,"
+		        + " cast(a.property as char) as entity_id, 0 as entity_order from global_property_audit a"
+		        + " order by a.REV desc, a.property desc limit 30)"
+		        + ") u order by u.rev_id desc, u.entity_key desc, u.entity_order desc, u.entity_id desc"));
+	}
+	
+	@Test
+	void shouldNotParenthesizeBranch_GivenSingleTable() {
+		String sql = CrossEntityRevisionQuery.buildRevisionKeysSql(Collections.singletonList(patients), revisions,
+		    AuditRevisionCriteria.builder().sortOrder("asc").build(), "char", 0, 20);
+		
+		assertThat(sql, containsString("from (select a.REV as rev_id"));
+		assertThat(sql, containsString("order by a.REV asc, a.patient_id asc limit 20) u"));
+	}
+	
+	@Test
+	void shouldJoinRevisionTable_OnlyWhenRevisionFiltersAreGiven() {
+		List<AuditTableMetadata> tables = Collections.singletonList(patients);
+		
+		String unfiltered = CrossEntityRevisionQuery.buildCountSql(tables, revisions,
+		    AuditRevisionCriteria.builder().build());
+		String filtered = CrossEntityRevisionQuery.buildCountSql(tables, revisions,
+		    AuditRevisionCriteria.builder().userId(4).startDate(new Date()).build());
+		
+		assertThat(unfiltered, is("select sum(u.row_count) from (select count(*) as row_count from patient_audit a) u"));
+		assertThat(filtered, containsString("join revision_entity r on r.id = a.REV"));
+		assertThat(filtered, containsString("and r.changed_by = :userId"));
+		assertThat(filtered, containsString("and r.changed_on >= :startDate"));
+		assertThat(filtered, not(containsString(":endDate")));
+	}
+	
+	@Test
+	void shouldMatchSeveralUsersWithOneInPredicate() {
+		String sql = CrossEntityRevisionQuery.buildCountSql(Collections.singletonList(patients), revisions,
+		    AuditRevisionCriteria.builder().userIds(Arrays.asList(4, 9, 12)).build());
+		
+		assertThat(sql, containsString("and r.changed_by in (:userIds)"));
+		assertThat(sql, not(containsString(":userId)")));
+	}
+	
+	@Test
+	void shouldLeaveJoinedSubclassRowsToTheSubclassBranch() {
+		String sql = CrossEntityRevisionQuery.buildCountSql(Arrays.asList(persons, patients), revisions,
+		    AuditRevisionCriteria.builder().build());
+		
+		assertThat(sql, is("select sum(u.row_count) from (select count(*) as row_count from person_audit a where 1=1"
+		        + " and not exists (select 1 from patient_audit s where s.patient_id = a.person_id and s.REV = a.REV)"
+		        + " union all select count(*) as row_count from patient_audit a) u"));
+	}
+	
+	@Test
+	void shouldSelectHighestLowerRevisionOfEachRequestedRow() {
+		String sql = CrossEntityRevisionQuery.buildPreviousRevisionsSql(patients);
+		
+		assertThat(sql, is("select a.patient_id, a.REV, (select max(p.REV) from patient_audit p"
+		        + " where p.patient_id = a.patient_id and p.REV < a.REV) from patient_audit a"
+		        + " where a.patient_id in (:entityIds) and a.REV in (:revisions)"));
+	}
+	
+	@Test
+	void shouldSeekPastCursorInEveryBranch_GivenCursor() {
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().sortOrder("desc")
+		        .cursor(new AuditRevisionCursor(120, "org.openmrs.Patient", "7")).build();
+		
+		String sql = CrossEntityRevisionQuery.buildRevisionKeysSql(Arrays.asList(patients, globalProperties), revisions,
+		    criteria, "char", 0, 10);
+		
+		assertThat(sql, containsString("from patient_audit a where 1=1 and (a.REV < :cursorRevision"
+		        + " or (a.REV = :cursorRevision and (" + PATIENT_KEY + " < :cursorEntityKey"
+		        + " or (" + PATIENT_KEY + " = :cursorEntityKey and (a.patient_id < :cursorEntityOrder"
+		        + " or (a.patient_id = :cursorEntityOrder and cast(a.patient_id as char) < :cursorEntityId))))))"
+		        + " order by a.REV desc, a.patient_id desc limit 10"));
+		assertThat(sql, containsString("from global_property_audit a where 1=1 and (a.REV < :cursorRevision"));
+		assertThat(sql, containsString("(0 < :cursorEntityOrder or (0 = :cursorEntityOrder"
+		        + " and cast(a.property as char) < :cursorEntityId))"));
+	}
+	
+	@Test
+	void shouldBuildAscendingSeekPredicate() {
+		assertThat(
+		    CrossEntityRevisionQuery.buildSeekPredicate(true, new String[] { "i.rev", "i.entity_id" },
+		        new String[] { ":rev", ":id" }),
+		    is("(i.rev > :rev or (i.rev = :rev and i.entity_id > :id))"));
+	}
+	
+	@Test
+	void shouldSplitAuditKeyColumns_GivenSimpleIdentifier() {
+		assertThat(CrossEntityRevisionQuery.splitKeyColumns(new String[] { "patient_id", "REV" }, "REV"),
+		    is(new String[] { "patient_id", "REV" }));
+		assertThat(CrossEntityRevisionQuery.splitKeyColumns(new String[] { "REV", "patient_id" }, "REV"),
+		    is(new String[] { "patient_id", "REV" }));
+		assertThat(CrossEntityRevisionQuery.splitKeyColumns(new String[] { "a_id", "b_id", "REV" }, "REV"),
+		    is(nullValue()));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.User;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery.RevisionTableMetadata;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RevisionFirstQueryPlannerTest {
+	
+	@Mock
+	private SessionFactory sessionFactory;
+	
+	@Mock
+	private CrossEntityRevisionQuery crossEntityRevisionQuery;
+	
+	@Mock
+	private AuditRevisionIndexDao auditRevisionIndexDao;
+	
+	@InjectMocks
+	private RevisionFirstQueryPlanner planner;
+	
+	private final List<Class<?>> classes = Arrays.asList(Patient.class, Person.class, User.class);
+	
+	@BeforeEach
+	void setUp() {
+		MockitoAnnotations.openMocks(this);
+		SessionFactoryImplementor factory = mock(SessionFactoryImplementor.class);
+		when(sessionFactory.unwrap(SessionFactoryImplementor.class)).thenReturn(factory);
+		when(factory.getServiceRegistry()).thenReturn(mock(ServiceRegistryImplementor.class));
+	}
+	
+	@Test
+	void shouldKeepOnlyChangedClasses_WhenRevisionIndexIsReady() {
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().userId(7).build();
+		when(auditRevisionIndexDao.isReady()).thenReturn(true);
+		when(auditRevisionIndexDao.findChangedEntityNames(criteria))
+		        .thenReturn(Collections.singletonList(Person.class.getName()));
+		
+		assertThat(planner.narrowToChangedClasses(classes, criteria), contains(Person.class));
+	}
+	
+	@Test
+	void shouldKeepClassesTheRevisionIndexCannotHold_WhenRevisionIndexIsReady() {
+		AuditRevisionCriteria criteria = AuditRevisionCriteria.builder().userId(7).build();
+		when(auditRevisionIndexDao.isReady()).thenReturn(true);
+		when(auditRevisionIndexDao.findChangedEntityNames(criteria)).thenReturn(Collections.emptyList());
+		List<Class<?>> compositeIdClasses = Arrays.asList(Patient.class, User.class);
+		when(crossEntityRevisionQuery.findUnsupported(compositeIdClasses)).thenReturn(compositeIdClasses);
+		
+		assertThat(planner.narrowToChangedClasses(compositeIdClasses, criteria), contains(Patient.class, User.class));
+	}
+	
+	@Test
+	void shouldKeepAllClasses_WhenThereAreNoRevisionFilters() {
+		List<Class<?>> planned = planner.narrowToChangedClasses(classes, AuditRevisionCriteria.builder().build());
+		
+		assertThat(planned, sameInstance(classes));
+		verify(auditRevisionIndexDao, never()).findChangedEntityNames(any());
+	}
+	
+	@Test
+	void shouldKeepAllClasses_WhenChangedEntityNamesAreUnknown() {
+		List<Class<?>> planned = planner.narrowToChangedClasses(classes,
+		    AuditRevisionCriteria.builder().userId(7).build());
+		
+		assertThat(planned, sameInstance(classes));
+	}
+	
+	@Test
+	void shouldJoinRevchangesToFilteredRevisions() {
+		RevisionTableMetadata revisions = new RevisionTableMetadata("revision_entity", "id", "changed_by", "changed_on");
+		
+		String sql = RevisionFirstQueryPlanner.buildChangedEntityNamesSql(revisions,
+		    AuditRevisionCriteria.builder().userId(7).build());
+		
+		assertThat(sql, is("select distinct c.ENTITYNAME from REVCHANGES c join revision_entity r on r.id = c.REV"
+		        + " where 1=1 and r.changed_by = :userId"));
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+class SortedStreamMergeTest {
+	
+	@Test
+	void shouldReturnRequestedWindow_GivenStreamsOfDifferentVolumes() {
+		List<Iterator<Integer>> streams = Arrays.asList(Arrays.asList(100, 90, 80, 70, 60, 50, 40).iterator(),
+		    Collections.singletonList(85).iterator(), Collections.<Integer> emptyIterator());
+		
+		List<Integer> window = SortedStreamMerge.merge(streams, Comparator.<Integer> reverseOrder(), 2, 3);
+		
+		assertThat(window, contains(85, 80, 70));
+	}
+	
+	@Test
+	void shouldStopReadingOnceWindowIsProduced() {
+		AtomicInteger reads = new AtomicInteger();
+		Iterator<Integer> large = new Iterator<Integer>() {
+			
+			private int next = 1000;
+			
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+			
+			@Override
+			public Integer next() {
+				reads.incrementAndGet();
+				return next--;
+			}
+		};
+		
+		List<Integer> window = SortedStreamMerge.merge(Collections.singletonList(large),
+		    Comparator.<Integer> reverseOrder(), 0, 5);
+		
+		assertThat(window, contains(1000, 999, 998, 997, 996));
+		assertThat(reads.get(), is(5));
+	}
+	
+	@Test
+	void shouldReturnEmptyWindow_WhenSkippingPastAllElements() {
+		List<Integer> window = SortedStreamMerge.merge(Collections.singletonList(Arrays.asList(3, 2, 1).iterator()),
+		    Comparator.<Integer> reverseOrder(), 5, 10);
+		
+		assertThat(window, empty());
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class UserDisplayNameCacheTest {
+	
+	private final AtomicLong now = new AtomicLong(1000);
+	
+	private final UserDisplayNameCache cache = new UserDisplayNameCache(now::get);
+	
+	@Test
+	void shouldExpireEntries_AfterTimeToLive() {
+		cache.put(1, "Super User (admin)");
+		now.addAndGet(UserDisplayNameCache.TIME_TO_LIVE_MILLIS - 1);
+		assertThat(cache.get(1), is("Super User (admin)"));
+		
+		now.incrementAndGet();
+		assertThat(cache.get(1), is(nullValue()));
+	}
+	
+	@Test
+	void shouldDropLeastRecentlyUsedEntry_WhenFull() {
+		for (int userId = 0; userId < UserDisplayNameCache.MAX_ENTRIES; userId++) {
+			cache.put(userId, "user" + userId);
+		}
+		cache.get(0);
+		cache.put(UserDisplayNameCache.MAX_ENTRIES, "newest");
+		
+		assertThat(cache.size(), is(UserDisplayNameCache.MAX_ENTRIES));
+		assertThat(cache.get(0), is("user0"));
+		assertThat(cache.get(1), is(nullValue()));
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.User;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserDisplayNameDaoTest {
+	
+	private Session session;
+	
+	private UserDisplayNameDao dao;
+	
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() {
+		SessionFactory sessionFactory = mock(SessionFactory.class);
+		session = mock(Session.class);
+		Query<Object[]> query = mock(Query.class);
+		when(sessionFactory.getCurrentSession()).thenReturn(session);
+		when(session.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+		when(query.setParameterList(anyString(), anyCollection())).thenReturn(query);
+		when(query.list()).thenReturn(Collections.emptyList());
+		dao = new UserDisplayNameDao(sessionFactory);
+	}
+	
+	@Test
+	void shouldLoadDistinctUsersOnce_AndServeThemFromCache() {
+		Map<Integer, String> first = dao.getDisplayNames(Arrays.asList(3, 3, null, 4));
+		Map<Integer, String> second = dao.getDisplayNames(Arrays.asList(4, 3));
+		
+		assertThat(first.size(), is(2));
+		assertThat(first, hasEntry(3, UserDisplayNameDao.UNKNOWN_USER));
+		assertThat(second, hasEntry(4, UserDisplayNameDao.UNKNOWN_USER));
+		verify(session, times(1)).createQuery(anyString(), eq(Object[].class));
+	}
+	
+	@Test
+	void shouldLoadUserAgain_AfterEviction() {
+		dao.getDisplayNames(Collections.singletonList(3));
+		dao.evict(3);
+		dao.getDisplayNames(Collections.singletonList(3));
+		
+		verify(session, times(2)).createQuery(anyString(), eq(Object[].class));
+	}
+	
+	@Test
+	void shouldFallBackToSystemId_GivenBlankDisplayString() {
+		User user = mock(User.class);
+		when(user.getDisplayString()).thenReturn(" ");
+		when(user.getSystemId()).thenReturn("testadmin");
+		
+		assertThat(UserDisplayNameDao.displayNameOf(user), is("testadmin"));
+	}
+	
+	@Test
+	void shouldReturnUnknown_GivenUserWithoutDisplayStringOrSystemId() {
+		assertThat(UserDisplayNameDao.displayNameOf(mock(User.class)), is(UserDisplayNameDao.UNKNOWN_USER));
+		assertThat(UserDisplayNameDao.displayNameOf(null), is(UserDisplayNameDao.UNKNOWN_USER));
+	}
+}
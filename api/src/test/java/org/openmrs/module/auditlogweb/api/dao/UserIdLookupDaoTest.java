@@ -0,0 +1,112 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.dao;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserIdLookupDaoTest {
+	
+	private Query<Integer> byUsername;
+	
+	private Query<Integer> bySystemId;
+	
+	private Query<Integer> byRole;
+	
+	private UserIdLookupDao dao;
+	
+	@BeforeEach
+	void setUp() {
+		SessionFactory sessionFactory = mock(SessionFactory.class);
+		Session session = mock(Session.class);
+		when(sessionFactory.getCurrentSession()).thenReturn(session);
+		byUsername = query();
+		bySystemId = query();
+		byRole = query();
+		when(session.createQuery(contains("u.username"), eq(Integer.class))).thenReturn(byUsername);
+		when(session.createQuery(contains("u.systemId"), eq(Integer.class))).thenReturn(bySystemId);
+		when(session.createQuery(contains("r.role"), eq(Integer.class))).thenReturn(byRole);
+		dao = new UserIdLookupDao(sessionFactory);
+	}
+	
+	@Test
+	void shouldFindUserByUsername_WithoutLookingUpSystemId() {
+		when(byUsername.list()).thenReturn(Collections.singletonList(7));
+		
+		assertThat(dao.findUserId(" admin "), is(7));
+		verify(byUsername).setParameter("name", "admin");
+		verify(bySystemId, never()).list();
+	}
+	
+	@Test
+	void shouldFallBackToSystemId() {
+		when(byUsername.list()).thenReturn(Collections.emptyList());
+		when(bySystemId.list()).thenReturn(Collections.singletonList(3));
+		
+		assertThat(dao.findUserId("3-4"), is(3));
+	}
+	
+	@Test
+	void shouldCacheNamesThatMatchNoUser_UntilEvicted() {
+		when(byUsername.list()).thenReturn(Collections.emptyList());
+		when(bySystemId.list()).thenReturn(Collections.emptyList());
+		
+		assertThat(dao.findUserId("nobody"), is(nullValue()));
+		assertThat(dao.findUserId("nobody"), is(nullValue()));
+		verify(byUsername, times(1)).list();
+		
+		dao.evictAll();
+		dao.findUserId("nobody");
+		verify(byUsername, times(2)).list();
+	}
+	
+	@Test
+	void shouldResolveRoleToItsUsers_WithOneQuery() {
+		when(byRole.list()).thenReturn(Arrays.asList(2, 5, 9));
+		
+		assertThat(dao.findUserIdsByRole(" Provider "), is(Arrays.asList(2, 5, 9)));
+		verify(byRole).setParameter("role", "Provider");
+		verify(byRole, times(1)).list();
+	}
+	
+	@Test
+	void shouldResolveBlankRoleToNoUsers_WithoutQuerying() {
+		assertThat(dao.findUserIdsByRole(" "), is(empty()));
+		verify(byRole, never()).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Query<Integer> query() {
+		Query<Integer> query = mock(Query.class);
+		when(query.setParameter(anyString(), anyString())).thenReturn(query);
+		when(query.setMaxResults(anyInt())).thenReturn(query);
+		return query;
+	}
+}
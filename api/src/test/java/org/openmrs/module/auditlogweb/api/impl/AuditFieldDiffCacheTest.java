@@ -0,0 +1,98 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.impl;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.Patient;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AuditFieldDiffCacheTest {
+	
+	private static final List<AuditFieldDiff> DIFFS = Collections
+	        .singletonList(new AuditFieldDiff("gender", "M", "F", true));
+	
+	private static final long ENTRY_BYTES = AuditFieldDiffCache.estimateBytes(AuditFieldDiffCache.key(Patient.class, "1", 1),
+	    DIFFS);
+	
+	@Test
+	void shouldCountHitsAndMisses() {
+		AuditFieldDiffCache cache = new AuditFieldDiffCache();
+		List<Object> key = AuditFieldDiffCache.key(Patient.class, "1", 1);
+		
+		assertThat(cache.get(key), is(nullValue()));
+		cache.put(key, DIFFS);
+		assertThat(cache.get(key), is(DIFFS));
+		
+		assertThat(cache.stats().getHits(), is(1L));
+		assertThat(cache.stats().getMisses(), is(1L));
+		assertThat(cache.stats().getBytes(), is(ENTRY_BYTES));
+	}
+	
+	@Test
+	void shouldEvictLeastRecentlyUsedEntry_WhenFull() {
+		AuditFieldDiffCache cache = new AuditFieldDiffCache(2 * ENTRY_BYTES);
+		List<Object> first = AuditFieldDiffCache.key(Patient.class, "1", 1);
+		List<Object> second = AuditFieldDiffCache.key(Patient.class, "2", 1);
+		List<Object> third = AuditFieldDiffCache.key(Patient.class, "3", 1);
+		
+		cache.put(first, DIFFS);
+		cache.put(second, DIFFS);
+		cache.get(first);
+		cache.put(third, DIFFS);
+		
+		assertThat(cache.get(second), is(nullValue()));
+		assertThat(cache.get(first), is(DIFFS));
+		assertThat(cache.get(third), is(DIFFS));
+		assertThat(cache.stats().getEvictions(), is(1L));
+		assertThat(cache.stats().getBytes(), is(2 * ENTRY_BYTES));
+	}
+	
+	@Test
+	void shouldNotCacheEntryLargerThanTheCache() {
+		AuditFieldDiffCache cache = new AuditFieldDiffCache(ENTRY_BYTES - 1);
+		List<Object> key = AuditFieldDiffCache.key(Patient.class, "1", 1);
+		
+		cache.put(key, DIFFS);
+		
+		assertThat(cache.get(key), is(nullValue()));
+		assertThat(cache.stats().getEntries(), is(0));
+	}
+	
+	@Test
+	void shouldReturnUnmodifiableDiffs() {
+		List<AuditFieldDiff> cached = new AuditFieldDiffCache().put(AuditFieldDiffCache.key(Patient.class, "1", 1),
+		    DIFFS);
+		
+		assertThrows(UnsupportedOperationException.class, () -> cached.add(new AuditFieldDiff()));
+	}
+	
+	@Test
+	void shouldKeepCachedDiffs_WhenCallerChangesTheDiffsItCached() {
+		AuditFieldDiffCache cache = new AuditFieldDiffCache();
+		List<Object> key = AuditFieldDiffCache.key(Patient.class, "1", 1);
+		List<AuditFieldDiff> diffs = new ArrayList<>();
+		diffs.add(new AuditFieldDiff("gender", "M", "F", true));
+		
+		cache.put(key, diffs);
+		diffs.get(0).setCurrentValue("U");
+		diffs.add(new AuditFieldDiff("birthdate", null, "2000-01-01", true));
+		
+		assertThat(cache.get(key), is(DIFFS));
+	}
+}
@@ -16,6 +16,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
+import org.openmrs.Patient;
 import org.openmrs.User;
 import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
@@ -23,13 +24,18 @@ import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
 import org.openmrs.module.auditlogweb.AuditEntity;
 import org.openmrs.module.auditlogweb.AuditSecurityEvent;
 import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.dao.UserDisplayNameDao;
+import org.openmrs.module.auditlogweb.api.dao.UserIdLookupDao;
 import org.openmrs.module.auditlogweb.api.dto.AuditEntityTypesResponseDto;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
 import org.openmrs.module.auditlogweb.api.dto.AuditLogDetailDTO;
-import org.openmrs.module.auditlogweb.api.utils.UtilClass;
+import org.openmrs.module.auditlogweb.api.task.SecurityEventWriter;
 import org.openmrs.module.auditlogweb.api.utils.AuditSecurityEventType;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -37,8 +43,11 @@ import java.util.List;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -49,6 +58,18 @@ class AuditServiceImplTest {
 	@Mock
 	private AuditDao auditDao;
 	
+	@Mock
+	private UserDisplayNameDao userDisplayNameDao;
+	
+	@Mock
+	private UserIdLookupDao userIdLookupDao;
+	
+	@Mock
+	private SecurityEventWriter securityEventWriter;
+	
+	@Mock
+	private AuditedEntityRegistry auditedEntityRegistry;
+	
 	@InjectMocks
 	private AuditServiceImpl auditService;
 	
@@ -115,49 +136,11 @@ class AuditServiceImplTest {
 	
 	@Test
 	void shouldReturnUsername_GivenValidUserId() {
-		try (MockedStatic<Context> context = mockStatic(Context.class)) {
-			UserService userService = mock(UserService.class);
-			User user = mock(User.class);
-			
-			when(user.getDisplayString()).thenReturn("Supper User (testuser)");
-			context.when(Context::getUserService).thenReturn(userService);
-			when(userService.getUser(10)).thenReturn(user);
-			
-			String result = auditService.resolveUsername(10);
-			assertEquals("Supper User (testuser)", result);
-		}
-	}
-	
-	@Test
-	void shouldReturnSystemId_GivenEmptyUsername() {
-		try (MockedStatic<Context> context = mockStatic(Context.class)) {
-			UserService userService = mock(UserService.class);
-			User user = mock(User.class);
-			
-			when(user.getUsername()).thenReturn("");
-			when(user.getSystemId()).thenReturn("testadmin");
-			context.when(Context::getUserService).thenReturn(userService);
-			when(userService.getUser(5)).thenReturn(user);
-			
-			String result = auditService.resolveUsername(5);
-			assertEquals("testadmin", result);
-		}
-	}
-	
-	@Test
-	void shouldReturnUnknown_GivenUserWithoutUsernameOrSystemId() {
-		try (MockedStatic<Context> context = mockStatic(Context.class)) {
-			UserService userService = mock(UserService.class);
-			User user = mock(User.class);
-			
-			when(user.getUsername()).thenReturn(null);
-			when(user.getSystemId()).thenReturn(null);
-			context.when(Context::getUserService).thenReturn(userService);
-			when(userService.getUser(8)).thenReturn(user);
-			
-			String result = auditService.resolveUsername(8);
-			assertEquals("Unknown", result);
-		}
+		when(userDisplayNameDao.getDisplayNames(Collections.singleton(10)))
+		        .thenReturn(Collections.singletonMap(10, "Supper User (testuser)"));
+		
+		String result = auditService.resolveUsername(10);
+		assertEquals("Supper User (testuser)", result);
 	}
 	
 	@Test
@@ -183,20 +166,48 @@ class AuditServiceImplTest {
 	}
 	
 	@Test
-	void shouldResolveUserId_GivenMatchingUsers() {
+	void shouldResolveUserId_GivenExactUsername() {
+		try (MockedStatic<Context> context = mockStatic(Context.class)) {
+			when(userIdLookupDao.findUserId("someUser")).thenReturn(99);
+			
+			Integer userId = auditService.resolveUserId("someUser");
+			assertEquals(99, userId);
+			context.verify(Context::getUserService, never());
+		}
+	}
+	
+	@Test
+	void shouldNotSearchNames_WhenNoUserMatchesExactly() {
+		try (MockedStatic<Context> context = mockStatic(Context.class)) {
+			Integer userId = auditService.resolveUserId("unknown");
+			
+			assertEquals(null, userId);
+			context.verify(Context::getUserService, never());
+		}
+	}
+	
+	@Test
+	void shouldSearchNames_WhenFuzzyMatchIsRequested() {
 		try (MockedStatic<Context> context = mockStatic(Context.class)) {
 			UserService userService = mock(UserService.class);
 			User user1 = mock(User.class);
 			
 			when(user1.getUserId()).thenReturn(99);
 			context.when(Context::getUserService).thenReturn(userService);
-			when(userService.getUsers("someUser", null, false)).thenReturn(Arrays.asList(user1));
+			when(userService.getUsers("some", null, false)).thenReturn(Arrays.asList(user1));
 			
-			Integer userId = auditService.resolveUserId("someUser");
+			Integer userId = auditService.resolveUserId("some", true);
 			assertEquals(99, userId);
 		}
 	}
 	
+	@Test
+	void shouldResolveRoleToTheIdsOfItsUsers() {
+		when(userIdLookupDao.findUserIdsByRole("Provider")).thenReturn(Arrays.asList(2, 4));
+		
+		assertEquals(Arrays.asList(2, 4), auditService.resolveUserIdsByRole("Provider"));
+	}
+	
 	@Test
 	void shouldReturnNullWhenNoUsersFoundOnResolveUserId() {
 		try (MockedStatic<Context> context = mockStatic(Context.class)) {
@@ -204,7 +215,7 @@ class AuditServiceImplTest {
 			context.when(Context::getUserService).thenReturn(userService);
 			when(userService.getUsers("unknown", null, false)).thenReturn(Collections.emptyList());
 			
-			Integer userId = auditService.resolveUserId("unknown");
+			Integer userId = auditService.resolveUserId("unknown", true);
 			assertEquals(null, userId);
 		}
 	}
@@ -278,6 +289,9 @@ class AuditServiceImplTest {
 		when(auditDao.getAllRevisionsAcrossEntitiesWithEntityType(0, 10, 1, null, null, "Patient", "desc"))
 		        .thenReturn(Collections.singletonList(mockEntity));
 		
+		when(auditedEntityRegistry.findBySimpleName("Patient"))
+		        .thenReturn(Collections.singletonList(Patient.class));
+		
 		List<AuditEntity<?>> result = auditService.getAllRevisionsAcrossEntitiesWithEntityType(0, 10, 1, null, null,
 		    "Patient", "desc");
 		
@@ -286,6 +300,15 @@ class AuditServiceImplTest {
 		assertSame(mockEntity, result.get(0));
 	}
 	
+	@Test
+	void shouldRejectEntityType_ThatIsNotAudited() {
+		when(auditedEntityRegistry.findBySimpleName("Unknown"))
+		        .thenReturn(Collections.emptyList());
+		
+		assertThrows(IllegalArgumentException.class,
+		    () -> auditService.getAllRevisionsAcrossEntitiesWithEntityType(0, 10, 1, null, null, "Unknown", "desc"));
+	}
+	
 	@Test
 	void shouldDelegateToDao_ForCountingRevisionsAcrossEntitiesWithEntityType() {
 		when(auditDao.countRevisionsAcrossEntitiesWithEntityType(1, null, null, "Patient")).thenReturn(55L);
@@ -296,7 +319,7 @@ class AuditServiceImplTest {
 	}
 	
 	@Test
-	void shouldBuildAndSaveSecurityEvent_WhenLogSecurityEventIsCalled() {
+	void shouldBuildAndWriteSecurityEvent_WhenLogSecurityEventIsCalled() {
 		Date beforeCall = new Date();
 		
 		auditService.logSecurityEvent(AuditSecurityEventType.LOGIN_SUCCESS, "admin", "test-user-uuid", "127.0.0.1",
@@ -304,8 +327,7 @@ class AuditServiceImplTest {
 		
 		Date afterCall = new Date();
 		ArgumentCaptor<AuditSecurityEvent> eventCaptor = ArgumentCaptor.forClass(AuditSecurityEvent.class);
-		verify(auditDao).saveSecurityEvent(eventCaptor.capture());
-		verify(auditDao).flush();
+		verify(securityEventWriter).write(eventCaptor.capture());
 		
 		AuditSecurityEvent event = eventCaptor.getValue();
 		assertEquals(AuditSecurityEventType.LOGIN_SUCCESS, event.getEventType());
@@ -331,8 +353,7 @@ class AuditServiceImplTest {
 		    longUserAgent, longSessionId, "details");
 		
 		ArgumentCaptor<AuditSecurityEvent> eventCaptor = ArgumentCaptor.forClass(AuditSecurityEvent.class);
-		verify(auditDao).saveSecurityEvent(eventCaptor.capture());
-		verify(auditDao).flush();
+		verify(securityEventWriter).write(eventCaptor.capture());
 		
 		AuditSecurityEvent event = eventCaptor.getValue();
 		assertEquals(50, event.getUsername().length());
@@ -461,9 +482,6 @@ class AuditServiceImplTest {
 	@Test
 	void shouldReturnDetailedAuditDTOs_WhenGivenAuditEntities() {
 		try (MockedStatic<Context> context = mockStatic(Context.class)) {
-			UserService userService = mock(UserService.class);
-			User user = mock(User.class);
-			
 			AuditEntity<?> mockEntity = mock(AuditEntity.class);
 			OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
 			when(revEntity.getId()).thenReturn(1);
@@ -472,13 +490,14 @@ class AuditServiceImplTest {
 			when(mockEntity.getChangedBy()).thenReturn(5);
 			doReturn(new TestEntity()).when(mockEntity).getEntity();
 			
-			when(user.getDisplayString()).thenReturn("Test User");
-			context.when(Context::getUserService).thenReturn(userService);
-			when(userService.getUser(5)).thenReturn(user);
+			when(userDisplayNameDao.getDisplayNames(Collections.singletonList(5)))
+			        .thenReturn(Collections.singletonMap(5, "Test User"));
 			
 			when(auditDao.getEntitiesModifiedInRevision(1, Collections.emptySet())).thenReturn(Collections.emptyList());
 			
 			List<AuditEntity<?>> auditEntities = Collections.singletonList(mockEntity);
+			when(auditDao.getRecordedFieldChanges(auditEntities)).thenReturn(Collections.singletonList(null));
+			when(auditDao.getPreviousRevisions(auditEntities)).thenReturn(Collections.singletonList(null));
 			List<AuditLogDetailDTO> result = auditService.getEntityDetailedAudit(auditEntities, TestEntity.class);
 			
 			assertNotNull(result);
@@ -487,11 +506,46 @@ class AuditServiceImplTest {
 			AuditLogDetailDTO dto = result.get(0);
 			assertEquals("Test User", dto.getChangedBy());
 			
-			verify(userService).getUser(5);
-			
+			verify(userDisplayNameDao).getDisplayNames(Collections.singletonList(5));
+			context.verify(Context::getUserService, never());
 		}
 	}
 	
+	@Test
+	void shouldUseRecordedFieldChanges_WithoutLoadingPreviousRevisions() {
+		AuditEntity<?> mockEntity = mock(AuditEntity.class);
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		when(revEntity.getId()).thenReturn(1);
+		when(mockEntity.getRevisionEntity()).thenReturn(revEntity);
+		doReturn(new TestEntity()).when(mockEntity).getEntity();
+		List<AuditEntity<?>> auditEntities = Collections.singletonList(mockEntity);
+		List<AuditFieldDiff> recorded = Collections.singletonList(new AuditFieldDiff("name", "a", "b", true));
+		when(auditDao.getRecordedFieldChanges(auditEntities)).thenReturn(Collections.singletonList(recorded));
+		
+		List<AuditLogDetailDTO> result = new ArrayList<>();
+		auditService.forEachAuditLogDetail(auditEntities, true, result::add);
+		
+		assertEquals(recorded, result.get(0).getChanges());
+		verify(auditDao, never()).getPreviousRevisions(any());
+	}
+	
+	@Test
+	void shouldNotLoadPreviousRevisions_WhenChangesAreNotIncluded() {
+		AuditEntity<?> mockEntity = mock(AuditEntity.class);
+		OpenmrsRevisionEntity revEntity = mock(OpenmrsRevisionEntity.class);
+		when(revEntity.getId()).thenReturn(1);
+		when(mockEntity.getRevisionEntity()).thenReturn(revEntity);
+		doReturn(new TestEntity()).when(mockEntity).getEntity();
+		
+		List<AuditLogDetailDTO> result = new ArrayList<>();
+		auditService.forEachAuditLogDetail(Collections.singletonList(mockEntity), false, result::add);
+		
+		assertEquals(1, result.size());
+		assertEquals("Unknown", result.get(0).getChangedBy());
+		assertTrue(result.get(0).getChanges().isEmpty());
+		verify(auditDao, never()).getPreviousRevisions(any());
+	}
+	
 	@Test
 	void shouldReturnEmptyList_WhenGivenEmptyAuditEntities() {
 		List<AuditEntity<?>> emptyList = Collections.emptyList();
@@ -503,17 +557,15 @@ class AuditServiceImplTest {
 	
 	@Test
 	public void getAuditedEntitiesNames_shouldReturnSimpleNames() {
-		try (MockedStatic<UtilClass> utilClassMock = mockStatic(UtilClass.class)) {
-			utilClassMock.when(UtilClass::findClassesWithAnnotation)
-			        .thenReturn(Arrays.asList("org.openmrs.Allergy", "org.openmrs.Cohort"));
-			
-			AuditEntityTypesResponseDto entityTypes = auditService.getAuditedEntitiesNames();
-			
-			assertNotNull(entityTypes);
-			assertEquals(2, entityTypes.getEntityTypes().size());
-			assertEquals("Allergy", entityTypes.getEntityTypes().get(0));
-			assertEquals("Cohort", entityTypes.getEntityTypes().get(1));
-		}
+		when(auditedEntityRegistry.getAuditedEntityNames())
+		        .thenReturn(Arrays.asList("org.openmrs.Allergy", "org.openmrs.Cohort"));
+		
+		AuditEntityTypesResponseDto entityTypes = auditService.getAuditedEntitiesNames();
+		
+		assertNotNull(entityTypes);
+		assertEquals(2, entityTypes.getEntityTypes().size());
+		assertEquals("Allergy", entityTypes.getEntityTypes().get(0));
+		assertEquals("Cohort", entityTypes.getEntityTypes().get(1));
 	}
 	
 }
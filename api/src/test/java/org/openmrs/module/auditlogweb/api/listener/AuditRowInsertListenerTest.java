@@ -0,0 +1,137 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.listener;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.hibernate.event.service.spi.EventListenerGroup;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
+import org.openmrs.module.auditlogweb.api.dao.AuditTableMetadata;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.dao.CrossEntityRevisionQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuditRowInsertListenerTest {
+	
+	private static final String AUDIT_ENTITY_NAME = "org.openmrs.Patient_AUD";
+	
+	private final AuditedEntityRegistry registry = mock(AuditedEntityRegistry.class);
+	
+	private final CrossEntityRevisionQuery crossEntityRevisionQuery = mock(CrossEntityRevisionQuery.class);
+	
+	private RecordingListener listener;
+	
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() {
+		AuditEntitiesConfiguration configuration = mock(AuditEntitiesConfiguration.class);
+		when(configuration.getOriginalIdPropName()).thenReturn("originalId");
+		when(configuration.getRevisionFieldName()).thenReturn("REV");
+		when(configuration.getRevisionTypePropName()).thenReturn("REVTYPE");
+		EnversService enversService = mock(EnversService.class);
+		when(enversService.getAuditEntitiesConfiguration()).thenReturn(configuration);
+		EventListenerRegistry eventListenerRegistry = mock(EventListenerRegistry.class);
+		when(eventListenerRegistry.getEventListenerGroup(EventType.POST_INSERT))
+		        .thenReturn(mock(EventListenerGroup.class));
+		ServiceRegistryImplementor serviceRegistry = mock(ServiceRegistryImplementor.class);
+		when(serviceRegistry.getService(EnversService.class)).thenReturn(enversService);
+		when(serviceRegistry.getService(EventListenerRegistry.class)).thenReturn(eventListenerRegistry);
+		SessionFactoryImplementor factory = mock(SessionFactoryImplementor.class);
+		when(factory.getServiceRegistry()).thenReturn(serviceRegistry);
+		SessionFactory sessionFactory = mock(SessionFactory.class);
+		when(sessionFactory.unwrap(SessionFactoryImplementor.class)).thenReturn(factory);
+		
+		AuditTableMetadata table = AuditTableMetadata.builder().entityClass(Patient.class)
+		        .auditEntityName(AUDIT_ENTITY_NAME).tableName("patient_audit").build();
+		when(crossEntityRevisionQuery.getTableMetadata(Patient.class)).thenReturn(Optional.of(table));
+		
+		listener = new RecordingListener(sessionFactory, crossEntityRevisionQuery, registry);
+		listener.register();
+	}
+	
+	@Test
+	void shouldPickUpAuditedEntities_WhenRegistryIsFilledAfterFirstInsert() {
+		when(registry.getAuditedEntityClasses()).thenReturn(Collections.emptyList());
+		listener.onPostInsert(auditRowInsert(7));
+		assertThat(listener.entityIds, empty());
+		
+		when(registry.getAuditedEntityClasses()).thenReturn(Collections.<Class<?>> singletonList(Patient.class));
+		listener.onPostInsert(auditRowInsert(8));
+		
+		assertThat(listener.entityIds, contains("8"));
+	}
+	
+	@Test
+	void shouldRebuildAuditTables_WhenRegistryIsRefreshed() {
+		when(registry.getAuditedEntityClasses()).thenReturn(Collections.<Class<?>> singletonList(Patient.class));
+		listener.onPostInsert(auditRowInsert(7));
+		
+		when(registry.getAuditedEntityClasses()).thenReturn(Collections.emptyList());
+		listener.onPostInsert(auditRowInsert(8));
+		
+		assertThat(listener.entityIds, contains("7"));
+	}
+	
+	private static PostInsertEvent auditRowInsert(int entityId) {
+		EntityPersister persister = mock(EntityPersister.class);
+		when(persister.getEntityName()).thenReturn(AUDIT_ENTITY_NAME);
+		Map<String, Object> originalId = new HashMap<>();
+		originalId.put("REV", mock(OpenmrsRevisionEntity.class));
+		originalId.put("patientId", entityId);
+		Map<String, Object> data = new HashMap<>();
+		data.put("originalId", originalId);
+		data.put("REVTYPE", RevisionType.ADD);
+		PostInsertEvent event = mock(PostInsertEvent.class);
+		when(event.getPersister()).thenReturn(persister);
+		when(event.getEntity()).thenReturn(data);
+		return event;
+	}
+	
+	private static class RecordingListener extends AuditRowInsertListener {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<String> entityIds = new ArrayList<>();
+		
+		RecordingListener(SessionFactory sessionFactory, CrossEntityRevisionQuery crossEntityRevisionQuery,
+		    AuditedEntityRegistry auditedEntityRegistry) {
+			super(sessionFactory, crossEntityRevisionQuery, auditedEntityRegistry);
+		}
+		
+		@Override
+		protected void onAuditRowInserted(PostInsertEvent event, AuditTableMetadata table,
+		        OpenmrsRevisionEntity revision, String entityId, RevisionType revisionType) {
+			entityIds.add(entityId);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.task;
+
+import org.hibernate.envers.RevisionType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.openmrs.api.db.hibernate.envers.OpenmrsRevisionEntity;
+import org.openmrs.module.auditlogweb.AuditEntity;
+import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditFieldChangeDao;
+import org.openmrs.module.auditlogweb.api.dao.AuditRevisionKey;
+import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuditFieldChangeWriterTest {
+	
+	@Mock
+	private AuditDao auditDao;
+	
+	@Mock
+	private AuditFieldChangeDao fieldChangeDao;
+	
+	private AuditFieldChangeWriter writer;
+	
+	private final AuditRevisionKey recordedKey = new AuditRevisionKey(5, Named.class, "1");
+	
+	private final AuditRevisionKey newKey = new AuditRevisionKey(6, Named.class, "1");
+	
+	@BeforeEach
+	void setUp() {
+		MockitoAnnotations.openMocks(this);
+		writer = new AuditFieldChangeWriter(auditDao, fieldChangeDao, mock(PlatformTransactionManager.class));
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldRecordChangedFieldsOfRowsNotRecordedYet() {
+		OpenmrsRevisionEntity revision = mock(OpenmrsRevisionEntity.class);
+		AuditEntity<?> auditEntity = new AuditEntity<>(new Named("new"), revision, RevisionType.MOD, 1);
+		when(fieldChangeDao.findFieldChanges(any()))
+		        .thenReturn(Collections.singletonMap(recordedKey, Collections.emptyList()));
+		when(auditDao.hydrateRevisionKeysByKey(Collections.singletonList(newKey)))
+		        .thenReturn(Collections.singletonMap(newKey, auditEntity));
+		when(auditDao.getPreviousRevisions(Collections.singletonList(auditEntity)))
+		        .thenReturn(Collections.singletonList(new Named("old")));
+		
+		int recorded = writer.write(Arrays.asList(recordedKey, newKey));
+		
+		ArgumentCaptor<Map<AuditRevisionKey, List<AuditFieldDiff>>> changes = ArgumentCaptor.forClass(Map.class);
+		verify(fieldChangeDao).saveFieldChanges(changes.capture());
+		assertThat(recorded, is(1));
+		assertThat(changes.getValue().keySet(), contains(newKey));
+		assertThat(changes.getValue().get(newKey), contains(new AuditFieldDiff("name", "old", "new", true)));
+	}
+	
+	@Test
+	void shouldSkipRowsAlreadyRecorded() {
+		when(fieldChangeDao.findFieldChanges(any()))
+		        .thenReturn(Collections.singletonMap(recordedKey, Collections.emptyList()));
+		
+		assertThat(writer.write(Collections.singletonList(recordedKey)), is(0));
+		verify(auditDao, never()).hydrateRevisionKeysByKey(any());
+		verify(fieldChangeDao, never()).saveFieldChanges(any());
+	}
+	
+	static class Named {
+		
+		private final String name;
+		
+		Named(String name) {
+			this.name = name;
+		}
+	}
+}
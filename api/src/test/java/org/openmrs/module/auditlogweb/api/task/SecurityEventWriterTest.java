@@ -0,0 +1,175 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.task;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.openmrs.module.auditlogweb.AuditSecurityEvent;
+import org.openmrs.module.auditlogweb.api.dao.AuditDao;
+import org.openmrs.module.auditlogweb.api.utils.AuditSecurityEventType;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class SecurityEventWriterTest {
+	
+	@Mock
+	private AuditDao auditDao;
+	
+	private SecurityEventWriter writer;
+	
+	private final List<AuditSecurityEvent> batchWritten = Collections.synchronizedList(new ArrayList<>());
+	
+	@BeforeEach
+	void setUp() {
+		MockitoAnnotations.openMocks(this);
+		writer = new SecurityEventWriter(auditDao, mock(PlatformTransactionManager.class));
+		doAnswer(invocation -> {
+			List<AuditSecurityEvent> events = invocation.getArgument(0);
+			batchWritten.addAll(events);
+			return null;
+		}).when(auditDao).saveSecurityEvents(anyList());
+	}
+	
+	@AfterEach
+	void tearDown() {
+		writer.stop();
+	}
+	
+	@Test
+	void shouldWriteEventRightAwayWhenNotRunning() {
+		AuditSecurityEvent event = event("admin");
+		
+		writer.write(event);
+		
+		verify(auditDao).saveSecurityEvent(event);
+		verify(auditDao).flush();
+		verify(auditDao, never()).saveSecurityEvents(anyList());
+	}
+	
+	@Test
+	void shouldWriteQueuedEventsInBatchesAndDrainThemOnStop() {
+		AuditSecurityEvent first = event("first");
+		AuditSecurityEvent second = event("second");
+		AuditSecurityEvent third = event("third");
+		writer.start(2, 100L, 10);
+		
+		writer.write(first);
+		writer.write(second);
+		writer.write(third);
+		writer.stop();
+		
+		assertThat(writer.isRunning(), is(false));
+		assertThat(batchWritten, contains(first, second, third));
+		verify(auditDao, never()).saveSecurityEvent(any());
+	}
+	
+	@Test
+	void shouldWriteEventRightAwayWhenQueueIsFull() throws InterruptedException {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			writing.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			batchWritten.addAll(invocation.getArgument(0));
+			return null;
+		}).when(auditDao).saveSecurityEvents(anyList());
+		AuditSecurityEvent first = event("first");
+		AuditSecurityEvent queued = event("queued");
+		AuditSecurityEvent overflow = event("overflow");
+		writer.start(1, 100L, 1);
+		
+		writer.write(first);
+		assertThat(writing.await(5, TimeUnit.SECONDS), is(true));
+		writer.write(queued);
+		writer.write(overflow);
+		
+		verify(auditDao).saveSecurityEvent(overflow);
+		release.countDown();
+		writer.stop();
+		assertThat(batchWritten, contains(first, queued));
+	}
+	
+	@Test
+	void shouldWriteEventsOneByOneWhenBatchFails() {
+		doThrow(new IllegalStateException("batch failed")).when(auditDao).saveSecurityEvents(anyList());
+		AuditSecurityEvent first = event("first");
+		AuditSecurityEvent second = event("second");
+		writer.start(10, 100L, 10);
+		
+		writer.write(first);
+		writer.write(second);
+		writer.stop();
+		
+		verify(auditDao).saveSecurityEvent(first);
+		verify(auditDao).saveSecurityEvent(second);
+	}
+	
+	@Test
+	void shouldWriteEveryEvent_WhenStoppedWhileEventsAreBeingWritten() throws Exception {
+		List<AuditSecurityEvent> writtenOneByOne = Collections.synchronizedList(new ArrayList<>());
+		doAnswer(invocation -> writtenOneByOne.add(invocation.getArgument(0))).when(auditDao).saveSecurityEvent(any());
+		List<AuditSecurityEvent> events = new ArrayList<>();
+		for (int i = 0; i < 4000; i++) {
+			events.add(event("user" + i));
+		}
+		writer.start(50, 10L, 100);
+		
+		int threads = 4;
+		CountDownLatch ready = new CountDownLatch(threads);
+		CountDownLatch go = new CountDownLatch(1);
+		ExecutorService callers = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			List<AuditSecurityEvent> share = events.subList(t * 1000, (t + 1) * 1000);
+			callers.submit(() -> {
+				ready.countDown();
+				go.await();
+				share.forEach(writer::write);
+				return null;
+			});
+		}
+		assertThat(ready.await(5, TimeUnit.SECONDS), is(true));
+		go.countDown();
+		writer.stop();
+		callers.shutdown();
+		assertThat(callers.awaitTermination(30, TimeUnit.SECONDS), is(true));
+		
+		List<AuditSecurityEvent> written = new ArrayList<>(batchWritten);
+		written.addAll(writtenOneByOne);
+		assertThat(written, containsInAnyOrder(events.toArray()));
+	}
+	
+	private static AuditSecurityEvent event(String username) {
+		return AuditSecurityEvent.builder().eventType(AuditSecurityEventType.LOGIN_SUCCESS).username(username)
+		        .eventTime(new Date()).build();
+	}
+}
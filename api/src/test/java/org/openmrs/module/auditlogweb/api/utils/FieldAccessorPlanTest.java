@@ -0,0 +1,79 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.auditlogweb.api.utils;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.module.auditlogweb.api.utils.FieldAccessorPlan.FieldAccessor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FieldAccessorPlanTest {
+	
+	@Test
+	void shouldBuildPlanOncePerClass() {
+		assertThat(FieldAccessorPlan.forClass(Child.class), sameInstance(FieldAccessorPlan.forClass(Child.class)));
+	}
+	
+	@Test
+	void shouldListInstanceFieldsOfTheWholeHierarchy() {
+		List<String> names = Arrays.stream(FieldAccessorPlan.forClass(Child.class).getAccessors())
+		        .map(FieldAccessor::getName).collect(Collectors.toList());
+		
+		assertThat(names, contains("tags", "rawTags", "name"));
+	}
+	
+	@Test
+	void shouldReadPrivateFields() {
+		Child child = new Child();
+		((Parent) child).name = "child";
+		
+		assertThat(FieldAccessorPlan.forClass(Child.class).getAccessors()[2].get(child), is("child"));
+	}
+	
+	@Test
+	void shouldResolveCollectionElementTypes() {
+		FieldAccessor[] accessors = FieldAccessorPlan.forClass(Child.class).getAccessors();
+		
+		assertThat(accessors[0].getElementType(), is(String.class));
+		assertThat(accessors[1].getElementType(), nullValue());
+	}
+	
+	@Test
+	void shouldFail_WhenTargetIsNotAnInstanceOfTheClass() {
+		FieldAccessor accessor = FieldAccessorPlan.forClass(Child.class).getAccessors()[0];
+		
+		assertThrows(RuntimeException.class, () -> accessor.get("not a child"));
+	}
+	
+	private static class Parent {
+		
+		private static final String CONSTANT = "ignored";
+		
+		private String name;
+	}
+	
+	@SuppressWarnings("rawtypes")
+	private static class Child extends Parent {
+		
+		private Set<String> tags;
+		
+		private Set rawTags;
+	}
+}
@@ -9,11 +9,18 @@
  */
 package org.openmrs.module.auditlogweb.api.utils;
 
+import org.hibernate.collection.internal.PersistentList;
+import org.hibernate.collection.spi.PersistentCollection;
 import org.hibernate.envers.Audited;
+import org.hibernate.envers.internal.entities.mapper.relation.lazy.proxy.ListProxy;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
 import org.junit.jupiter.api.Test;
 import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
 import java.time.LocalDate;
 import java.time.Month;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -23,15 +30,14 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class UtilClassUnitTest {
 	
-	@Test
-	public void findClassesWithAuditedAnnotation() {
-		List<String> auditedClasses = UtilClass.findClassesWithAnnotation();
-		assertTrue(auditedClasses.contains(TestAuditedClass.class.getName()));
-	}
-	
 	@Test
 	public void doesClassContainsAuditedAnnotation() {
 		assertTrue(UtilClass.doesClassContainsAuditedAnnotation(TestAuditedClass.class));
@@ -65,6 +71,15 @@ public class UtilClassUnitTest {
 		assertEquals(date.atTime(23,59,59).plusNanos(999_000_000).atZone(java.time.ZoneId.systemDefault()).toInstant(),endDate.toInstant());assertNull(UtilClass.toEndDate(null));
 	}
 	
+	@Test
+	public void formatApproximateCount_shouldRoundToLargestUnit() {
+		assertEquals("999", UtilClass.formatApproximateCount(999));
+		assertEquals("1.5K", UtilClass.formatApproximateCount(1520));
+		assertEquals("12.4M", UtilClass.formatApproximateCount(12_400_000));
+		assertEquals("2B", UtilClass.formatApproximateCount(2_000_000_000L));
+		assertEquals("1M", UtilClass.formatApproximateCount(999_960));
+	}
+	
 	@Test
 	public void parseDate_shouldReturnCorrectDate() {
 		LocalDate date=LocalDate.of(2025,Month.JULY,9);Date startDate=UtilClass.parseDate("09/07/2025",false);assertNotNull(startDate);assertEquals(date.atStartOfDay().atZone(java.time.ZoneId.systemDefault()).toInstant(),startDate.toInstant());
@@ -159,6 +174,150 @@ public class UtilClassUnitTest {
 		assertTrue(foundChildField);
 	}
 	
+	@Test
+	public void getEntityIdAsString_shouldFallBackToUuidAndThenUnknown() {
+		PersonImpl person = new PersonImpl();
+		person.setUuid("person-uuid");
+		
+		assertEquals("person-uuid", UtilClass.getEntityIdAsString(person));
+		assertEquals("unknown", UtilClass.getEntityIdAsString(new ChildClass()));
+	}
+	
+	@Test
+	public void serializeFieldValue_shouldUseIdBeforeUuid() {
+		IdentifiedClass identified = new IdentifiedClass();
+		identified.setUuid("identified-uuid");
+		assertEquals("IdentifiedClass#identified-uuid", UtilClass.serializeFieldValue(identified));
+		
+		identified.setId(7);
+		assertEquals("IdentifiedClass#7", UtilClass.serializeFieldValue(identified));
+		assertEquals(7, UtilClass.getEntityId(identified));
+		assertNull(UtilClass.getEntityId(new ChildClass()));
+	}
+	
+	@Test
+	public void serializeFieldValue_shouldNotLoadLazyValues() {
+		HibernateProxy proxy = mock(HibernateProxy.class);
+		LazyInitializer initializer = mock(LazyInitializer.class);
+		when(proxy.getHibernateLazyInitializer()).thenReturn(initializer);
+		when(initializer.isUninitialized()).thenReturn(true);
+		when(initializer.getIdentifier()).thenReturn(5);
+		doReturn(PersonImpl.class).when(initializer).getPersistentClass();
+		PersistentCollection collection = mock(PersistentCollection.class);
+		
+		assertEquals("PersonImpl#5", UtilClass.serializeFieldValue(proxy));
+		assertEquals(UtilClass.NOT_LOADED, UtilClass.serializeFieldValue(collection));
+		verify(initializer, never()).initialize();
+		verify(collection, never()).forceInitialization();
+	}
+	
+	@Test
+	public void serializeFieldValue_shouldSerializeCollectionElementsByIdentifier() {
+		IdentifiedClass first = new IdentifiedClass();
+		first.setId(1);
+		IdentifiedClass second = new IdentifiedClass();
+		second.setId(2);
+		
+		assertEquals("[IdentifiedClass#1, IdentifiedClass#2]", UtilClass.serializeFieldValue(Arrays.asList(first, second)));
+		assertEquals("", UtilClass.serializeFieldValue(Collections.emptySet()));
+	}
+	
+	@Test
+	public void computeFieldDiffs_shouldReportAddedAndRemovedCollectionElements() {
+		CollectionHolder oldHolder = new CollectionHolder();
+		oldHolder.setElements(Arrays.asList(identified(1), identified(2)));
+		CollectionHolder newHolder = new CollectionHolder();
+		newHolder.setElements(Arrays.asList(identified(2), identified(3)));
+		
+		AuditFieldDiff diff = UtilClass.computeFieldDiffs(CollectionHolder.class, oldHolder, newHolder).get(0);
+		
+		assertEquals("elements", diff.getFieldName());
+		assertEquals("[IdentifiedClass#1]", diff.getOldValue());
+		assertEquals("[IdentifiedClass#3]", diff.getCurrentValue());
+		assertTrue(diff.isChanged());
+	}
+	
+	@Test
+	public void computeFieldDiffs_shouldNotReportReorderedCollectionAsChanged() {
+		CollectionHolder oldHolder = new CollectionHolder();
+		oldHolder.setElements(Arrays.asList(identified(1), identified(2)));
+		CollectionHolder newHolder = new CollectionHolder();
+		newHolder.setElements(Arrays.asList(identified(2), identified(1)));
+		
+		AuditFieldDiff diff = UtilClass.computeFieldDiffs(CollectionHolder.class, oldHolder, newHolder).get(0);
+		
+		assertEquals("", diff.getOldValue());
+		assertEquals("", diff.getCurrentValue());
+		assertFalse(diff.isChanged());
+	}
+	
+	@Test
+	public void computeFieldDiffs_shouldReportAllElementsAsAdded_GivenNoPreviousCollection() {
+		CollectionHolder holder = new CollectionHolder();
+		holder.setElements(Arrays.asList(identified(1), identified(2)));
+		
+		AuditFieldDiff diff = UtilClass.computeFieldDiffs(CollectionHolder.class, null, holder).get(0);
+		
+		assertEquals("", diff.getOldValue());
+		assertEquals("[IdentifiedClass#1, IdentifiedClass#2]", diff.getCurrentValue());
+		assertTrue(diff.isChanged());
+	}
+	
+	@Test
+	public void computeFieldDiffs_shouldNotCompareUnloadedCollections() {
+		CollectionHolder oldHolder = new CollectionHolder();
+		oldHolder.setElements(Collections.singletonList(identified(1)));
+		CollectionHolder newHolder = new CollectionHolder();
+		newHolder.setElements(mock(PersistentList.class));
+		
+		AuditFieldDiff diff = UtilClass.computeFieldDiffs(CollectionHolder.class, oldHolder, newHolder).get(0);
+		
+		assertEquals(UtilClass.NOT_LOADED, diff.getCurrentValue());
+		assertFalse(diff.isChanged());
+	}
+	
+	@Test
+	public void computeFieldDiffs_shouldCompareEnversCollectionsByElementsLoadedAhead() {
+		CollectionHolder oldHolder = new CollectionHolder();
+		oldHolder.setElements(new ListProxy<>(() -> {
+			throw new AssertionError("the old collection was loaded");
+		}));
+		CollectionHolder newHolder = new CollectionHolder();
+		newHolder.setElements(new ListProxy<>(() -> {
+			throw new AssertionError("the current collection was loaded");
+		}));
+		CollectionElements loadedAhead = (entity, fieldName) -> entity == oldHolder
+		        ? Arrays.asList("IdentifiedClass#1", "IdentifiedClass#2")
+		        : Arrays.asList("IdentifiedClass#2", "IdentifiedClass#3");
+		
+		AuditFieldDiff diff = UtilClass.computeFieldDiffs(CollectionHolder.class, oldHolder, newHolder, loadedAhead)
+		        .get(0);
+		
+		assertEquals("[IdentifiedClass#1]", diff.getOldValue());
+		assertEquals("[IdentifiedClass#3]", diff.getCurrentValue());
+		assertTrue(diff.isChanged());
+	}
+	
+	@Test
+	public void computeFieldDiffs_shouldTreatEnversCollectionsAsNotLoaded_GivenNoElementsLoadedAhead() {
+		CollectionHolder holder = new CollectionHolder();
+		holder.setElements(new ListProxy<>(() -> {
+			throw new AssertionError("the collection was loaded");
+		}));
+		
+		List<AuditFieldDiff> diffs = UtilClass.computeFieldDiffs(CollectionHolder.class, null, holder);
+		
+		assertEquals(UtilClass.NOT_LOADED, diffs.get(0).getCurrentValue());
+		assertTrue(UtilClass.hasUnloadedFields(diffs));
+		assertEquals(Collections.singletonList("elements"), UtilClass.findUnloadedCollectionFields(holder));
+	}
+	
+	private static IdentifiedClass identified(int id) {
+		IdentifiedClass identified = new IdentifiedClass();
+		identified.setId(id);
+		return identified;
+	}
+	
 	// Dummy Audited class for testing only
 	@Audited
 	public static class TestAuditedClass {}
@@ -246,6 +405,32 @@ public class UtilClassUnitTest {
 		}
 	}
 	
+	public static class IdentifiedClass extends BaseOpenmrsObject {
+		
+		private Integer id;
+		
+		public Integer getId() {
+			return id;
+		}
+		
+		public void setId(Integer id) {
+			this.id = id;
+		}
+	}
+	
+	public static class CollectionHolder {
+		
+		private List<IdentifiedClass> elements;
+		
+		public List<IdentifiedClass> getElements() {
+			return elements;
+		}
+		
+		public void setElements(List<IdentifiedClass> elements) {
+			this.elements = elements;
+		}
+	}
+	
 	public static class BaseOpenmrsData extends BaseOpenmrsObject {}
 	
 	public static class BaseOpenmrsObject {
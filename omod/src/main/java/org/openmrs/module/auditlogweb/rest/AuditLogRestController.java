@@ -9,32 +9,53 @@
  */
 package org.openmrs.module.auditlogweb.rest;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.RequiredArgsConstructor;
 import org.hibernate.ObjectNotFoundException;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Role;
-import org.openmrs.User;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlogweb.AuditEntity;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
 import org.openmrs.module.auditlogweb.api.AuditService;
+import org.openmrs.module.auditlogweb.api.dao.AuditEntityPage;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
 import org.openmrs.module.auditlogweb.api.dto.AuditLogDetailDTO;
 import org.openmrs.module.auditlogweb.api.dto.AuditLogResponseDto;
 import org.openmrs.module.auditlogweb.api.dto.AuditEntityTypesResponseDto;
 import org.openmrs.module.auditlogweb.api.utils.AuditLogConstants;
 import org.openmrs.module.auditlogweb.api.utils.UtilClass;
 import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
 
 import javax.persistence.NoResultException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * REST controller for exposing audit log entries via the OpenMRS REST API.
@@ -57,25 +78,139 @@ public class AuditLogRestController {
 	
 	private final AuditService auditService;
 	
+	private final AuditedEntityRegistry auditedEntityRegistry;
+	
+	private final ObjectProvider<RequestMappingHandlerAdapter> handlerAdapters;
+	
+	private volatile ObjectWriter rowWriter;
+	
 	/**
-	 * Retrieves paginated audit log entries with optional filters: user ID, username, date range, and
-	 * entity type.
+	 * Retrieves paginated audit log entries with optional filters: user IDs, username, role, date
+	 * range, and entity type. Pages can be addressed by number or, for deep paging, by the {@code nextCursor}
+	 * returned with the previous page.
 	 *
-	 * @param page zero-based page index
+	 * @param page zero-based page index, ignored when a cursor is given
 	 * @param size number of results per page
-	 * @param userId optional user ID
-	 * @param username optional username (resolved to user ID)
+	 * @param userId optional user IDs, repeated or comma-separated, matching the changes of any of them
+	 * @param username optional username (resolved to user ID), used when no user ID is given
+	 * @param role optional role name, matching the changes of the users assigned that role
 	 * @param startDate optional start date ("dd/MM/yyyy")
 	 * @param endDate optional end date ("dd/MM/yyyy")
 	 * @param entityType optional entity type filter
-	 * @return a structured response containing audit log entries
+	 * @param cursor optional cursor of the page to fetch, as returned in {@code nextCursor}
+	 * @param estimate true to estimate the total from database statistics instead of counting
+	 * @return a structured response containing audit log entries, flagged as partial if some entity
+	 *         types could not be queried in time
 	 * @throws ResponseStatusException if input is invalid
 	 */
 	@GetMapping
 	public AuditLogResponseDto getAuditLogs(@RequestParam(defaultValue = "0") int page,
-	        @RequestParam(defaultValue = "20") int size, @RequestParam(required = false) Integer userId,
-	        @RequestParam(required = false) String username, @RequestParam(required = false) String startDate,
-	        @RequestParam(required = false) String endDate, @RequestParam(required = false) String entityType) {
+	        @RequestParam(defaultValue = "20") int size, @RequestParam(required = false) List<Integer> userId,
+	        @RequestParam(required = false) String username, @RequestParam(required = false) String role,
+	        @RequestParam(required = false) String startDate,
+	        @RequestParam(required = false) String endDate, @RequestParam(required = false) String entityType,
+	        @RequestParam(required = false) String cursor, @RequestParam(defaultValue = "false") boolean estimate) {
+		AuditQueryContext.clear();
+		try {
+			AuditLogResponseDto response = findAuditLogs(page, size, userId, username, role, startDate, endDate, entityType,
+			    cursor, estimate, null);
+			response.setPartial(AuditQueryContext.isPartialResult());
+			return response;
+		}
+		finally {
+			AuditQueryContext.clear();
+		}
+	}
+	
+	/**
+	 * Streams the same listing as {@link #getAuditLogs}, writing each log to the response as soon as
+	 * its changes are computed, so that memory use does not grow with the page size. The totals, the
+	 * cursor and the flags follow the {@code logs} array, as they are only known once all logs are
+	 * written.
+	 *
+	 * @throws ResponseStatusException if input is invalid
+	 * @throws IOException if the response cannot be written
+	 */
+	@GetMapping(params = "stream=true")
+	public void streamAuditLogs(@RequestParam(defaultValue = "0") int page,
+	        @RequestParam(defaultValue = "20") int size, @RequestParam(required = false) List<Integer> userId,
+	        @RequestParam(required = false) String username, @RequestParam(required = false) String role,
+	        @RequestParam(required = false) String startDate,
+	        @RequestParam(required = false) String endDate, @RequestParam(required = false) String entityType,
+	        @RequestParam(required = false) String cursor, @RequestParam(defaultValue = "false") boolean estimate,
+	        HttpServletResponse httpResponse) throws IOException {
+		httpResponse.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		httpResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		
+		// Nothing reaches the client before the generator buffer fills up, so failures while resolving
+		// the filters or running the first queries still turn into error responses. The generator is
+		// therefore neither closed nor flushed on failure.
+		ObjectWriter writer = getRowWriter();
+		JsonGenerator generator = writer.getFactory().createGenerator(httpResponse.getOutputStream(), JsonEncoding.UTF8);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		AuditQueryContext.clear();
+		try {
+			generator.writeStartObject();
+			generator.writeArrayFieldStart("logs");
+			AuditLogResponseDto response = findAuditLogs(page, size, userId, username, role, startDate, endDate, entityType,
+			    cursor, estimate, detail -> writeRow(writer, generator, detail));
+			generator.writeEndArray();
+			generator.writeNumberField("totalLogs", response.getTotalLogs());
+			generator.writeNumberField("currentPage", response.getCurrentPage());
+			generator.writeNumberField("totalPages", response.getTotalPages());
+			generator.writeStringField("nextCursor", response.getNextCursor());
+			generator.writeBooleanField("partial", AuditQueryContext.isPartialResult());
+			generator.writeBooleanField("estimated", response.isEstimated());
+			generator.writeEndObject();
+			generator.close();
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		finally {
+			AuditQueryContext.clear();
+		}
+	}
+	
+	/**
+	 * Returns the writer of the rows of streamed listings. It uses the object mapper of the JSON
+	 * message converter that serializes the other responses, so that a log reads the same whether it
+	 * is streamed or not. Flushing is left to the generator and the servlet container, which flush
+	 * whenever their buffers fill up, rather than once per row.
+	 */
+	private ObjectWriter getRowWriter() {
+		if (rowWriter == null) {
+			ObjectMapper objectMapper = handlerAdapters.orderedStream()
+			        .flatMap(adapter -> adapter.getMessageConverters().stream())
+			        .filter(MappingJackson2HttpMessageConverter.class::isInstance)
+			        .map(converter -> ((MappingJackson2HttpMessageConverter) converter).getObjectMapper()).findFirst()
+			        .orElseGet(() -> Jackson2ObjectMapperBuilder.json().build());
+			rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		}
+		return rowWriter;
+	}
+	
+	private static void writeRow(ObjectWriter writer, JsonGenerator generator, AuditLogDetailDTO detail) {
+		try {
+			writer.writeValue(generator, detail);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Resolves the filters and finds the page of audit logs shared by the plain and the streamed
+	 * listings.
+	 *
+	 * @param rows receives each log as soon as it is built, in which case the logs are not collected
+	 *            into the response; {@code null} to collect them
+	 * @return the response, without logs if they were passed to {@code rows}
+	 * @throws ResponseStatusException if input is invalid
+	 */
+	private AuditLogResponseDto findAuditLogs(int page, int size, List<Integer> userId, String username, String role,
+	        String startDate, String endDate, String entityType, String cursor, boolean estimate,
+	        Consumer<AuditLogDetailDTO> rows) {
 		if (page < 0)
 			page = 0;
 		if (size <= 0)
@@ -84,28 +219,72 @@ public class AuditLogRestController {
 		Date start = UtilClass.parseDate(startDate, false);
 		Date end = UtilClass.parseDate(endDate, true);
 		
-		Integer effectiveUserId = userId;
-		if (effectiveUserId == null && username != null && !username.isEmpty()) {
-			effectiveUserId = resolveUserIdFromUsername(username);
-			if (effectiveUserId == null) {
-				return new AuditLogResponseDto(0, page, 0, Collections.emptyList());
-			}
+		Collection<Integer> userIds = resolveUserIds(userId, username, role);
+		if (userIds != null && userIds.isEmpty()) {
+			return new AuditLogResponseDto(0, page, 0, Collections.emptyList());
 		}
 		
-		boolean fullDetails = userId != null || username != null || startDate != null || endDate != null
+		boolean fullDetails = userId != null || username != null || role != null || startDate != null || endDate != null
 		        || entityType != null;
 		
-		List<AuditLogDetailDTO> auditDetails = auditService.mapAuditEntitiesToDetails(auditService
-		        .getAllRevisionsAcrossEntitiesWithEntityType(page, size, effectiveUserId, start, end, entityType, "desc"));
-		
-		if (!fullDetails) {
-			auditDetails.forEach(d -> d.setChanges(Collections.emptyList()));
+		AuditEntityPage auditPage;
+		if (cursor != null && !cursor.isEmpty()) {
+			auditPage = auditService.getRevisionsAcrossEntitiesByUsersAfterCursor(cursor, size, userIds, start, end,
+			    entityType, "desc");
+		} else {
+			auditPage = auditService.getRevisionsAcrossEntitiesByUsers(page, size, userIds, start, end, entityType, "desc");
+		}
+		List<AuditEntity<?>> auditEntities = auditPage.getEntries();
+		List<AuditLogDetailDTO> auditDetails = null;
+		if (rows != null) {
+			auditService.forEachAuditLogDetail(auditEntities, fullDetails, rows);
+		} else {
+			auditDetails = auditService.mapAuditEntitiesToDetails(auditEntities);
+			if (!fullDetails) {
+				auditDetails.forEach(d -> d.setChanges(Collections.emptyList()));
+			}
 		}
 		
-		long total = auditService.countRevisionsAcrossEntitiesWithEntityType(effectiveUserId, start, end, entityType);
+		Long estimatedTotal = estimate
+		        ? auditService.estimateRevisionsAcrossEntitiesByUsers(userIds, start, end, entityType)
+		        : null;
+		long total = estimatedTotal != null ? estimatedTotal
+		        : auditService.countRevisionsAcrossEntitiesByUsers(userIds, start, end, entityType);
 		int totalPages = (int) Math.ceil(total / (double) size);
 		
-		return new AuditLogResponseDto(Math.toIntExact(total), page, totalPages, auditDetails);
+		AuditLogResponseDto response = new AuditLogResponseDto(Math.toIntExact(total), page, totalPages, auditDetails,
+		        auditService.getNextCursor(auditPage));
+		response.setEstimated(estimatedTotal != null);
+		return response;
+	}
+	
+	/**
+	 * Resolves the user filters of a listing to the IDs of the users whose changes are wanted. The
+	 * role is resolved with a single query, and the users it yields are matched together with any
+	 * given user.
+	 *
+	 * @return the IDs of the users, empty if no user matches the filters, or {@code null} if the
+	 *         listing is not filtered by user
+	 */
+	private Collection<Integer> resolveUserIds(List<Integer> userId, String username, String role) {
+		Set<Integer> userIds = null;
+		if (userId != null && userId.stream().anyMatch(Objects::nonNull)) {
+			userIds = userId.stream().filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+		} else if (username != null && !username.isEmpty()) {
+			userIds = new LinkedHashSet<>();
+			Integer resolved = auditService.resolveUserId(username);
+			if (resolved != null) {
+				userIds.add(resolved);
+			}
+		}
+		if (role != null && !role.trim().isEmpty()) {
+			List<Integer> roleUserIds = auditService.resolveUserIdsByRole(role);
+			if (userIds == null) {
+				return roleUserIds;
+			}
+			userIds.retainAll(roleUserIds);
+		}
+		return userIds;
 	}
 	
 	@GetMapping("/{revisionId}")
@@ -115,7 +294,7 @@ public class AuditLogRestController {
 			throw new IllegalArgumentException("One or more required parameters are empty");
 		}
 		
-		Class<?> entityClass = UtilClass.resolveAuditedEntityClass(entityName);
+		Class<?> entityClass = auditedEntityRegistry.findByName(entityName);
 		if (entityClass == null) {
 			throw new IllegalArgumentException("Cannot find class for " + entityName);
 		}
@@ -143,9 +322,4 @@ public class AuditLogRestController {
 	public AuditEntityTypesResponseDto getAuditEntityTypes() {
 		return auditService.getAuditedEntitiesNames();
 	}
-	
-	private Integer resolveUserIdFromUsername(String username) {
-		User user = Context.getUserService().getUserByUsername(username);
-		return user != null ? user.getUserId() : null;
-	}
 }
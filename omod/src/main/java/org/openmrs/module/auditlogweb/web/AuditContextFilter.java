@@ -20,13 +20,16 @@ import org.apache.commons.lang3.StringUtils;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlogweb.api.AuditLogContext;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 /**
  * Captures request context for security auditing. And stores IP/User-Agent/session info in
- * {@link AuditLogContext}, and clears the context after the request.
+ * {@link AuditLogContext}, and clears the context after the request. Also clears the per-request
+ * {@link AuditQueryContext}, so a partial result never carries over to the next request served by
+ * the same pooled thread.
  */
 public class AuditContextFilter extends OncePerRequestFilter {
 	
@@ -36,6 +39,7 @@ public class AuditContextFilter extends OncePerRequestFilter {
 	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
 	        throws ServletException, IOException {
 		
+		AuditQueryContext.clear();
 		try {
 			HttpSession session = request.getSession(false);
 			
@@ -51,6 +55,7 @@ public class AuditContextFilter extends OncePerRequestFilter {
 		}
 		finally {
 			AuditLogContext.clear();
+			AuditQueryContext.clear();
 		}
 	}
 	
@@ -10,7 +10,9 @@
 package org.openmrs.module.auditlogweb.web.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
 import org.openmrs.module.auditlogweb.api.AuditService;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
 import org.openmrs.module.auditlogweb.api.utils.EnversUtils;
 import org.openmrs.module.auditlogweb.api.utils.UtilClass;
 import org.openmrs.module.auditlogweb.web.EnversUiHelper;
@@ -62,6 +64,8 @@ public class AuditlogwebController {
 	
 	private final AuditService auditService;
 	
+	private final AuditedEntityRegistry auditedEntityRegistry;
+	
 	private final EnversUiHelper enversUiHelper;
 	
 	private final AuditLogViewService viewService;
@@ -102,6 +106,9 @@ public class AuditlogwebController {
 			
 			model.addAttribute("audits", audits);
 			model.addAttribute("totalCount", result.getTotalCount());
+			model.addAttribute("estimated", result.isEstimated());
+			model.addAttribute("partial", AuditQueryContext.isPartialResult());
+			model.addAttribute("approximateTotal", UtilClass.formatApproximateCount(result.getTotalCount()));
 			model.addAttribute("totalPages", totalPages);
 			model.addAttribute("hasNextPage", page + 1 < totalPages);
 			model.addAttribute("hasPreviousPage", page > 0);
@@ -129,7 +136,7 @@ public class AuditlogwebController {
 	 */
 	@ModelAttribute("classes")
 	protected List<String> getClasses() throws Exception {
-		return UtilClass.findClassesWithAnnotation();
+		return auditedEntityRegistry.getAuditedEntityNames();
 	}
 	
 	/**
@@ -178,6 +185,9 @@ public class AuditlogwebController {
 			
 			model.addAttribute("audits", auditDtos);
 			model.addAttribute("totalCount", result.getTotalCount());
+			model.addAttribute("estimated", result.isEstimated());
+			model.addAttribute("partial", AuditQueryContext.isPartialResult());
+			model.addAttribute("approximateTotal", UtilClass.formatApproximateCount(result.getTotalCount()));
 			model.addAttribute("totalPages", totalPages);
 			model.addAttribute("hasNextPage", (page + 1) < totalPages);
 			model.addAttribute("hasPreviousPage", page > 0);
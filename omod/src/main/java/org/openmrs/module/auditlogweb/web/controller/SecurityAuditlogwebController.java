@@ -10,6 +10,7 @@
 package org.openmrs.module.auditlogweb.web.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
 import org.openmrs.api.APIAuthenticationException;
 import org.openmrs.module.auditlogweb.AuditSecurityEvent;
 import org.openmrs.module.auditlogweb.api.AuditService;
@@ -47,6 +48,7 @@ public class SecurityAuditlogwebController {
 	@RequestMapping(method = { RequestMethod.GET, RequestMethod.POST })
 	public String onView(@RequestParam(value = "eventType", required = false) String eventType,
 	        @RequestParam(value = "username", required = false) String username,
+	        @RequestParam(value = "role", required = false) String role,
 	        @RequestParam(value = "startDate", required = false) String startDate,
 	        @RequestParam(value = "endDate", required = false) String endDate,
 	        @RequestParam(value = "page", defaultValue = "0") int page,
@@ -57,8 +59,17 @@ public class SecurityAuditlogwebController {
 		
 		try {
 			
-			List<AuditSecurityEvent> events = auditService.getSecurityEvents(eventType, username, start, end, page, size);
-			long totalCount = auditService.countSecurityEvents(eventType, username, start, end);
+			List<AuditSecurityEvent> events;
+			long totalCount;
+			if (StringUtils.isNotBlank(role)) {
+				// the role is resolved once and its users are matched by a single predicate
+				List<Integer> userIds = auditService.resolveUserIdsByRole(role);
+				events = auditService.getSecurityEvents(eventType, username, userIds, start, end, page, size);
+				totalCount = auditService.countSecurityEvents(eventType, username, userIds, start, end);
+			} else {
+				events = auditService.getSecurityEvents(eventType, username, start, end, page, size);
+				totalCount = auditService.countSecurityEvents(eventType, username, start, end);
+			}
 			int totalPages = (int) Math.ceil((double) totalCount / Math.max(size, 1));
 			
 			model.addAttribute("events", events);
@@ -70,6 +81,7 @@ public class SecurityAuditlogwebController {
 			model.addAttribute("pageSize", size);
 			model.addAttribute("eventType", eventType);
 			model.addAttribute("usernameFilter", username);
+			model.addAttribute("roleFilter", role);
 			model.addAttribute("startDate", startDate);
 			model.addAttribute("endDate", endDate);
 			model.addAttribute("page", "securityauditlogs");
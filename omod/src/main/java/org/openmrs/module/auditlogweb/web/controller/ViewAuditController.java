@@ -16,6 +16,7 @@ import org.openmrs.GlobalProperty;
 import org.openmrs.Role;
 import org.openmrs.module.auditlogweb.AuditEntity;
 import org.openmrs.module.auditlogweb.api.AuditService;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
 import org.openmrs.module.auditlogweb.api.dto.AuditFieldDiff;
 import org.openmrs.module.auditlogweb.api.utils.AuditTypeMapper;
 import org.openmrs.module.auditlogweb.api.utils.EnversUtils;
@@ -46,6 +47,8 @@ public class ViewAuditController {
 	
 	private final AuditService auditService;
 	
+	private final AuditedEntityRegistry auditedEntityRegistry;
+	
 	private final EnversUiHelper enversUiHelper;
 	
 	private static final String VIEW = MODULE_PATH + "/viewAudit";
@@ -73,7 +76,11 @@ public class ViewAuditController {
 		
 		try {
 			int auditId = Integer.parseInt(auditIdParam);
-			Class<?> clazz = Class.forName(className);
+			Class<?> clazz = auditedEntityRegistry.findByName(className);
+			if (clazz == null) {
+				model.addAttribute("errorMessage", "Unknown entity type: " + className);
+				return new ModelAndView(VIEW, model);
+			}
 			
 			// Handle different ID types
 			Object entityId;
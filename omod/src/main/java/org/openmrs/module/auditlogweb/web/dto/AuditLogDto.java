@@ -14,6 +14,7 @@ import lombok.Data;
 import org.hibernate.envers.RevisionType;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Role;
+import org.openmrs.module.auditlogweb.api.utils.UtilClass;
 
 import java.util.Date;
 
@@ -48,12 +49,8 @@ public class AuditLogDto {
 		} else if (entity instanceof GlobalProperty) {
 			return ((GlobalProperty) entity).getProperty();
 		} else {
-			try {
-				return entity.getClass().getMethod("getId").invoke(entity).toString();
-			}
-			catch (Exception e) {
-				return "NA";
-			}
+			Object id = UtilClass.getEntityId(entity);
+			return id != null ? id.toString() : "NA";
 		}
 	}
 }
@@ -22,4 +22,13 @@ public class PaginatedAuditResult {
 	private List<AuditEntity<?>> audits;
 	
 	private long totalCount;
+	
+	/**
+	 * True if {@code totalCount} is an estimate rather than an exact count.
+	 */
+	private boolean estimated;
+	
+	public PaginatedAuditResult(List<AuditEntity<?>> audits, long totalCount) {
+		this(audits, totalCount, false);
+	}
 }
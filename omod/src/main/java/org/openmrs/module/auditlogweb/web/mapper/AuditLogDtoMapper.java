@@ -11,10 +11,12 @@ package org.openmrs.module.auditlogweb.web.mapper;
 
 import org.openmrs.module.auditlogweb.AuditEntity;
 import org.openmrs.module.auditlogweb.api.AuditService;
+import org.openmrs.module.auditlogweb.api.dao.UserDisplayNameDao;
 import org.openmrs.module.auditlogweb.web.dto.AuditLogDto;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -46,19 +48,27 @@ public class AuditLogDtoMapper {
 	 * @return a populated {@link AuditLogDto} representing the audit entry
 	 */
 	public AuditLogDto toDto(AuditEntity<?> entity) {
-		String classSimpleName = (entity.getEntity() != null ? entity.getEntity().getClass().getSimpleName() : "Unknown");
-		return new AuditLogDto(entity.getEntity(), entity.getRevisionType(),
-		        auditService.resolveUsername(entity.getChangedBy()), entity.getRevisionEntity().getChangedOn(),
-		        entity.getRevisionEntity(), classSimpleName);
+		return toDto(entity, auditService.resolveUsername(entity.getChangedBy()));
 	}
 	
 	/**
-	 * Converts a list of {@link AuditEntity} objects into a list of {@link AuditLogDto} objects.
+	 * Converts a list of {@link AuditEntity} objects into a list of {@link AuditLogDto} objects. The
+	 * usernames of all entries are resolved together.
 	 *
 	 * @param entities the list of audit entities to convert
 	 * @return a list of {@link AuditLogDto} entries
 	 */
 	public List<AuditLogDto> toDtoList(List<AuditEntity<?>> entities) {
-		return entities.stream().map(this::toDto).collect(Collectors.toList());
+		Map<Integer, String> usernames = auditService
+		        .resolveUsernames(entities.stream().map(AuditEntity::getChangedBy).collect(Collectors.toList()));
+		return entities.stream()
+		        .map(entity -> toDto(entity, usernames.getOrDefault(entity.getChangedBy(), UserDisplayNameDao.UNKNOWN_USER)))
+		        .collect(Collectors.toList());
+	}
+	
+	private AuditLogDto toDto(AuditEntity<?> entity, String username) {
+		String classSimpleName = (entity.getEntity() != null ? entity.getEntity().getClass().getSimpleName() : "Unknown");
+		return new AuditLogDto(entity.getEntity(), entity.getRevisionType(), username,
+		        entity.getRevisionEntity().getChangedOn(), entity.getRevisionEntity(), classSimpleName);
 	}
 }
@@ -11,7 +11,10 @@ package org.openmrs.module.auditlogweb.web.service;
 
 import lombok.RequiredArgsConstructor;
 import org.openmrs.module.auditlogweb.AuditEntity;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlogweb.api.AuditService;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
+import org.openmrs.module.auditlogweb.api.utils.AuditLogConstants;
 import org.openmrs.module.auditlogweb.api.utils.UtilClass;
 import org.openmrs.module.auditlogweb.web.dto.AuditFilter;
 import org.openmrs.module.auditlogweb.web.dto.PaginatedAuditResult;
@@ -33,6 +36,8 @@ public class AuditLogViewService {
 	
 	private final AuditService auditService;
 	
+	private final AuditedEntityRegistry auditedEntityRegistry;
+	
 	/**
 	 * Retrieves a list of audit log entries for the given audited entity class, optionally filtered by
 	 * user, start date, and end date, and paginated.
@@ -108,8 +113,8 @@ public class AuditLogViewService {
 	 * @param size number of records per page
 	 * @param sortOrder the sort order for results (e.g., "asc" or "desc")
 	 * @return a {@link PaginatedAuditResult} containing the list of audit entries and the total count
-	 * @throws ClassNotFoundException if {@code domainClassName} is provided but the class cannot be
-	 *             found
+	 * @throws ClassNotFoundException if {@code domainClassName} is provided but is not an audited
+	 *             entity
 	 */
 	public PaginatedAuditResult fetchAuditLogsGlobal(String domainClassName, String username, String startDateStr,
 	        String endDateStr, int page, int size, String sortOrder) throws ClassNotFoundException {
@@ -117,7 +122,10 @@ public class AuditLogViewService {
 		AuditFilter filters = parseFilters(username, startDateStr, endDateStr);
 		
 		if (domainClassName != null && !domainClassName.isEmpty()) {
-			Class<?> clazz = Class.forName(domainClassName);
+			Class<?> clazz = auditedEntityRegistry.findByName(domainClassName);
+			if (clazz == null) {
+				throw new ClassNotFoundException(domainClassName);
+			}
 			List<AuditEntity<?>> audits = fetchAuditLogs(clazz, page, size, username, filters.getStartDate(),
 			    filters.getEndDate(), sortOrder);
 			long totalCount = countAuditLogs(clazz, username, filters.getStartDate(), filters.getEndDate());
@@ -125,12 +133,22 @@ public class AuditLogViewService {
 		} else {
 			List<AuditEntity<?>> audits = auditService.getAllRevisionsAcrossEntities(page, size, filters.getUserId(),
 			    filters.getStartDate(), filters.getEndDate(), sortOrder);
+			Long estimate = isEstimatedCountsEnabled() ? auditService.estimateRevisionsAcrossEntitiesWithEntityType(
+			    filters.getUserId(), filters.getStartDate(), filters.getEndDate(), null) : null;
+			if (estimate != null) {
+				return new PaginatedAuditResult(audits, estimate, true);
+			}
 			long totalCount = auditService.countRevisionsAcrossEntities(filters.getUserId(), filters.getStartDate(),
 			    filters.getEndDate());
 			return new PaginatedAuditResult(audits, totalCount);
 		}
 	}
 	
+	private boolean isEstimatedCountsEnabled() {
+		return Boolean.parseBoolean(
+		    Context.getAdministrationService().getGlobalProperty(AuditLogConstants.GP_ESTIMATED_COUNTS_ENABLED, "false"));
+	}
+	
 	/**
 	 * Parses raw filter input strings into an AuditFilter object. Resolves username to userId and
 	 * parses dates.
@@ -142,7 +160,7 @@ public class AuditLogViewService {
 	 */
 	private AuditFilter parseFilters(String username, String startDateStr, String endDateStr) {
 		AuditFilter filter = new AuditFilter();
-		filter.setUserId(auditService.resolveUserId(username));
+		filter.setUserId(resolveUserId(username));
 		filter.setStartDate(UtilClass.toStartDate(UtilClass.parse(startDateStr)));
 		filter.setEndDate(UtilClass.toEndDate(UtilClass.parse(endDateStr)));
 		return filter;
@@ -101,6 +101,14 @@
             </tbody>
         </table>
 
+        <c:if test="${partial}">
+            <div class="partial-result"><spring:message code="auditlogweb.partialResult"/></div>
+        </c:if>
+
+        <c:if test="${estimated}">
+            <div class="total-estimate"><spring:message code="auditlogweb.approximateTotal" arguments="${approximateTotal}" htmlEscape="true"/></div>
+        </c:if>
+
         <div class="pagination-controls">
             <div class="pagination-container">
                 <c:choose>
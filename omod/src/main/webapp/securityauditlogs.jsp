@@ -34,7 +34,12 @@
 
             <div>
                 <label for="username">USER</label>
-                <input type="text" id="username" name="username" value="<c:out value='${usernameFilter}'/>" placeholder="Search users..."/>
+                <input type="text" id="username" name="username" value="<c:out value='${usernameFilter}'/>" placeholder="Username starts with..."/>
+            </div>
+
+            <div>
+                <label for="role">ROLE</label>
+                <input type="text" id="role" name="role" value="<c:out value='${roleFilter}'/>" placeholder="Exact role name..."/>
             </div>
 
             <div>
@@ -9,41 +9,57 @@
  */
 package org.openmrs.module.auditlogweb.rest;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.hibernate.ObjectNotFoundException;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.MockedStatic;
 import org.mockito.MockitoAnnotations;
 import org.openmrs.Patient;
-import org.openmrs.User;
-import org.openmrs.api.UserService;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlogweb.AuditEntity;
 import org.openmrs.module.auditlogweb.api.dto.AuditEntityTypesResponseDto;
 import org.openmrs.module.auditlogweb.api.dto.AuditLogDetailDTO;
 import org.openmrs.module.auditlogweb.api.utils.UtilClass;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
 import org.openmrs.module.auditlogweb.api.AuditService;
+import org.openmrs.module.auditlogweb.api.dao.AuditEntityPage;
+import org.openmrs.module.auditlogweb.api.dao.AuditedEntityRegistry;
 import org.openmrs.module.auditlogweb.rest.exceptions.RestExceptionHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
 
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.anyString;
-import static org.mockito.Mockito.mockStatic;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -54,6 +70,12 @@ public class AuditLogRestControllerTest {
 	@Mock
 	private AuditService auditService;
 	
+	@Mock
+	private AuditedEntityRegistry auditedEntityRegistry;
+	
+	@Mock
+	private ObjectProvider<RequestMappingHandlerAdapter> handlerAdapters;
+	
 	@InjectMocks
 	private AuditLogRestController auditLogRestController;
 	
@@ -66,14 +88,79 @@ public class AuditLogRestControllerTest {
 	
 	@Test
 	public void shouldUseEfficientEntityTypeFiltering() throws Exception {
-		when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(0, 20, null, null, null, "Patient", "desc"))
-		        .thenReturn(Collections.emptyList());
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, "Patient", "desc"))
+		        .thenReturn(AuditEntityPage.empty());
 		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
-		when(auditService.countRevisionsAcrossEntitiesWithEntityType(null, null, null, "Patient")).thenReturn(5L);
+		when(auditService.countRevisionsAcrossEntitiesByUsers(null, null, null, "Patient")).thenReturn(5L);
 		mockMvc.perform(get("/rest/v1/auditlogs").param("entityType", "Patient")).andExpect(status().isOk());
 		
-		verify(auditService).getAllRevisionsAcrossEntitiesWithEntityType(0, 20, null, null, null, "Patient", "desc");
-		verify(auditService).countRevisionsAcrossEntitiesWithEntityType(null, null, null, "Patient");
+		verify(auditService).getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, "Patient", "desc");
+		verify(auditService).countRevisionsAcrossEntitiesByUsers(null, null, null, "Patient");
+	}
+	
+	@Test
+	public void shouldFetchPageAfterCursorAndReturnNextCursor() throws Exception {
+		when(auditService.getRevisionsAcrossEntitiesByUsersAfterCursor("abc", 20, null, null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
+		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
+		when(auditService.countRevisionsAcrossEntitiesByUsers(null, null, null, null)).thenReturn(40L);
+		when(auditService.getNextCursor(any())).thenReturn("next");
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("cursor", "abc")).andExpect(status().isOk())
+		        .andExpect(jsonPath("$.nextCursor", is("next")));
+		
+		verify(auditService).getRevisionsAcrossEntitiesByUsersAfterCursor("abc", 20, null, null, null, null, "desc");
+		verify(auditService, never()).getRevisionsAcrossEntitiesByUsers(anyInt(), anyInt(), any(), any(), any(),
+		    any(), anyString());
+	}
+	
+	@Test
+	public void shouldFlagPartialResults() throws Exception {
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, null, "desc"))
+		        .thenAnswer(invocation -> {
+			        AuditQueryContext.markPartialResult();
+			        return AuditEntityPage.empty();
+		        });
+		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
+		when(auditService.countRevisionsAcrossEntitiesByUsers(null, null, null, null)).thenReturn(0L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs")).andExpect(status().isOk()).andExpect(jsonPath("$.partial", is(true)));
+		
+		assertThat(AuditQueryContext.isPartialResult(), is(false));
+	}
+	
+	@Test
+	public void shouldReturnEstimatedTotal_WhenEstimateIsRequested() throws Exception {
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
+		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
+		when(auditService.estimateRevisionsAcrossEntitiesByUsers(null, null, null, null)).thenReturn(12400L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("estimate", "true")).andExpect(status().isOk())
+		        .andExpect(jsonPath("$.totalLogs", is(12400))).andExpect(jsonPath("$.estimated", is(true)));
+		
+		verify(auditService, never()).countRevisionsAcrossEntitiesByUsers(any(), any(), any(), any());
+	}
+	
+	@Test
+	public void shouldCountExactly_WhenTotalCannotBeEstimated() throws Exception {
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
+		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
+		when(auditService.estimateRevisionsAcrossEntitiesByUsers(null, null, null, null)).thenReturn(null);
+		when(auditService.countRevisionsAcrossEntitiesByUsers(null, null, null, null)).thenReturn(8L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("estimate", "true")).andExpect(status().isOk())
+		        .andExpect(jsonPath("$.totalLogs", is(8))).andExpect(jsonPath("$.estimated", is(false)));
+	}
+	
+	@Test
+	public void shouldReturnBadRequestForInvalidCursor() throws Exception {
+		when(auditService.getRevisionsAcrossEntitiesByUsersAfterCursor(eq("bad"), anyInt(), any(), any(), any(), any(),
+		    anyString())).thenThrow(new IllegalArgumentException("Invalid cursor: bad"));
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("cursor", "bad")).andExpect(status().isBadRequest())
+		        .andExpect(jsonPath("$.message", is("Invalid cursor: bad")));
 	}
 	
 	@Test
@@ -85,20 +172,20 @@ public class AuditLogRestControllerTest {
 	
 	@Test
 	public void shouldHandleDateRangeWithoutNPE() throws Exception {
-		when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(anyInt(), anyInt(), any(), any(), any(), any(),
-		    anyString())).thenReturn(Collections.emptyList());
+		when(auditService.getRevisionsAcrossEntitiesByUsers(anyInt(), anyInt(), any(), any(), any(), any(),
+		    anyString())).thenReturn(AuditEntityPage.empty());
 		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
-		when(auditService.countRevisionsAcrossEntitiesWithEntityType(any(), any(), any(), any())).thenReturn(0L);
+		when(auditService.countRevisionsAcrossEntitiesByUsers(any(), any(), any(), any())).thenReturn(0L);
 		
 		mockMvc.perform(get("/rest/v1/auditlogs").param("startDate", "01/01/2023")).andExpect(status().isOk());
 	}
 	
 	@Test
 	public void shouldHandleUnknownEntityTypeGracefully() throws Exception {
-		when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(anyInt(), anyInt(), any(), any(), any(), any(),
-		    anyString())).thenReturn(Collections.emptyList());
+		when(auditService.getRevisionsAcrossEntitiesByUsers(anyInt(), anyInt(), any(), any(), any(), any(),
+		    anyString())).thenReturn(AuditEntityPage.empty());
 		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
-		when(auditService.countRevisionsAcrossEntitiesWithEntityType(any(), any(), any(), any())).thenReturn(0L);
+		when(auditService.countRevisionsAcrossEntitiesByUsers(any(), any(), any(), any())).thenReturn(0L);
 		
 		mockMvc.perform(get("/rest/v1/auditlogs").param("entityType", "UnknownType")).andExpect(status().isOk())
 		        .andExpect(jsonPath("$.totalLogs", is(0)));
@@ -111,68 +198,98 @@ public class AuditLogRestControllerTest {
 	
 	@Test
 	public void shouldResolveUsernameToUserId() throws Exception {
-		try (MockedStatic<Context> contextMock = mockStatic(Context.class)) {
-			UserService userService = mock(UserService.class);
-			User mockUser = new User(1);
-			contextMock.when(() -> Context.getUserService()).thenReturn(userService);
-			when(userService.getUserByUsername("testuser")).thenReturn(mockUser);
-			
-			when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(0, 20, 1, null, null, null, "desc"))
-			        .thenReturn(Collections.emptyList());
-			when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
-			when(auditService.countRevisionsAcrossEntitiesWithEntityType(1, null, null, null)).thenReturn(1L);
-			
-			mockMvc.perform(get("/rest/v1/auditlogs").param("username", "testuser")).andExpect(status().isOk());
-			
-			verify(auditService).getAllRevisionsAcrossEntitiesWithEntityType(0, 20, 1, null, null, null, "desc");
-		}
+		when(auditService.resolveUserId("testuser")).thenReturn(1);
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, Collections.singleton(1), null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
+		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
+		when(auditService.countRevisionsAcrossEntitiesByUsers(Collections.singleton(1), null, null, null)).thenReturn(1L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("username", "testuser")).andExpect(status().isOk());
+		
+		verify(auditService).getRevisionsAcrossEntitiesByUsers(0, 20, Collections.singleton(1), null, null, null, "desc");
 	}
 	
 	@Test
 	public void shouldReturnEmptyResultForUnknownUsername() throws Exception {
-		try (MockedStatic<Context> contextMock = mockStatic(Context.class)) {
-			UserService userService = mock(UserService.class);
-			contextMock.when(() -> Context.getUserService()).thenReturn(userService);
-			when(userService.getUserByUsername("unknown")).thenReturn(null);
-			
-			mockMvc.perform(get("/rest/v1/auditlogs").param("username", "unknown")).andExpect(status().isOk())
-			        .andExpect(jsonPath("$.totalLogs", is(0))).andExpect(jsonPath("$.currentPage", is(0)))
-			        .andExpect(jsonPath("$.totalPages", is(0))).andExpect(jsonPath("$.logs", is(Collections.emptyList())));
-			
-			verify(userService).getUserByUsername("unknown");
-			verifyNoInteractions(auditService);
-		}
+		when(auditService.resolveUserId("unknown")).thenReturn(null);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("username", "unknown")).andExpect(status().isOk())
+		        .andExpect(jsonPath("$.totalLogs", is(0))).andExpect(jsonPath("$.currentPage", is(0)))
+		        .andExpect(jsonPath("$.totalPages", is(0))).andExpect(jsonPath("$.logs", is(Collections.emptyList())));
+		
+		verify(auditService).resolveUserId("unknown");
+		verifyNoMoreInteractions(auditService);
+	}
+	
+	@Test
+	public void shouldMatchSeveralUsersInOneListing() throws Exception {
+		Set<Integer> userIds = new HashSet<>(Arrays.asList(3, 5));
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, userIds, null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
+		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
+		when(auditService.countRevisionsAcrossEntitiesByUsers(userIds, null, null, null)).thenReturn(0L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("userId", "3", "5")).andExpect(status().isOk());
+		
+		verify(auditService).getRevisionsAcrossEntitiesByUsers(0, 20, userIds, null, null, null, "desc");
+		verify(auditService).countRevisionsAcrossEntitiesByUsers(userIds, null, null, null);
+	}
+	
+	@Test
+	public void shouldResolveRoleToItsUsersOnce() throws Exception {
+		List<Integer> userIds = Arrays.asList(2, 4);
+		when(auditService.resolveUserIdsByRole("Provider")).thenReturn(userIds);
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, userIds, null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
+		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
+		when(auditService.countRevisionsAcrossEntitiesByUsers(userIds, null, null, null)).thenReturn(0L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("role", "Provider")).andExpect(status().isOk());
+		
+		verify(auditService).resolveUserIdsByRole("Provider");
+		verify(auditService).getRevisionsAcrossEntitiesByUsers(0, 20, userIds, null, null, null, "desc");
+	}
+	
+	@Test
+	public void shouldReturnEmptyResult_WhenNoGivenUserHasRole() throws Exception {
+		when(auditService.resolveUserIdsByRole("Provider")).thenReturn(Arrays.asList(2, 4));
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("userId", "3").param("role", "Provider"))
+		        .andExpect(status().isOk()).andExpect(jsonPath("$.totalLogs", is(0)));
+		
+		verify(auditService).resolveUserIdsByRole("Provider");
+		verifyNoMoreInteractions(auditService);
 	}
 	
 	@Test
 	public void shouldCorrectInvalidPagination() throws Exception {
-		when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(0, 20, null, null, null, null, "desc"))
-		        .thenReturn(Collections.emptyList());
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
 		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
-		when(auditService.countRevisionsAcrossEntitiesWithEntityType(any(), any(), any(), any())).thenReturn(0L);
+		when(auditService.countRevisionsAcrossEntitiesByUsers(any(), any(), any(), any())).thenReturn(0L);
 		
 		// Negative page and zero size should be corrected to defaults
 		mockMvc.perform(get("/rest/v1/auditlogs").param("page", "-5").param("size", "0")).andExpect(status().isOk());
 		
-		verify(auditService).getAllRevisionsAcrossEntitiesWithEntityType(0, 20, null, null, null, null, "desc");
+		verify(auditService).getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, null, "desc");
 	}
 	
 	@Test
 	public void shouldHandleEndDateOnlyWithoutError() throws Exception {
-		when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(anyInt(), anyInt(), any(), any(), any(), any(),
-		    anyString())).thenReturn(Collections.emptyList());
+		when(auditService.getRevisionsAcrossEntitiesByUsers(anyInt(), anyInt(), any(), any(), any(), any(),
+		    anyString())).thenReturn(AuditEntityPage.empty());
 		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
-		when(auditService.countRevisionsAcrossEntitiesWithEntityType(any(), any(), any(), any())).thenReturn(0L);
+		when(auditService.countRevisionsAcrossEntitiesByUsers(any(), any(), any(), any())).thenReturn(0L);
 		
 		mockMvc.perform(get("/rest/v1/auditlogs").param("endDate", "01/01/2024")).andExpect(status().isOk());
 	}
 	
 	@Test
 	public void shouldDefaultTo20WhenSizeIsZeroOrNegative() throws Exception {
-		when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(0, 20, null, null, null, null, "desc"))
-		        .thenReturn(Collections.emptyList());
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, null, "desc"))
+		        .thenReturn(AuditEntityPage.empty());
 		when(auditService.mapAuditEntitiesToDetails(any())).thenReturn(Collections.emptyList());
-		when(auditService.countRevisionsAcrossEntitiesWithEntityType(any(), any(), any(), any())).thenReturn(0L);
+		when(auditService.countRevisionsAcrossEntitiesByUsers(any(), any(), any(), any())).thenReturn(0L);
 		
 		mockMvc.perform(get("/rest/v1/auditlogs").param("size", "-10")).andExpect(status().isOk());
 	}
@@ -196,31 +313,27 @@ public class AuditLogRestControllerTest {
 		AuditEntity<?> auditEntity = mock(AuditEntity.class);
 		AuditLogDetailDTO auditLogDetailDTO = mock(AuditLogDetailDTO.class);
 		
-		try (MockedStatic<UtilClass> utilClassMock = mockStatic(UtilClass.class)) {
-			utilClassMock.when(() -> UtilClass.resolveAuditedEntityClass("Patient")).thenReturn(Patient.class);
-			when(auditService.getAuditEntityRevisionById(Patient.class, 42, 7))
-			        .thenReturn((AuditEntity<Patient>) auditEntity);
-			when(auditService.mapAuditEntitiesToDetails(Collections.singletonList(auditEntity)))
-			        .thenReturn(Collections.singletonList(auditLogDetailDTO));
-			
-			mockMvc.perform(get("/rest/v1/auditlogs/7").param("entityName", "Patient").param("entityId", "42"))
-			        .andExpect(status().isOk());
-			
-			verify(auditService).getAuditEntityRevisionById(Patient.class, 42, 7);
-			verify(auditService).mapAuditEntitiesToDetails(Collections.singletonList(auditEntity));
-		}
+		when(auditedEntityRegistry.findByName("Patient")).thenReturn(Patient.class);
+		when(auditService.getAuditEntityRevisionById(Patient.class, 42, 7))
+		        .thenReturn((AuditEntity<Patient>) auditEntity);
+		when(auditService.mapAuditEntitiesToDetails(Collections.singletonList(auditEntity)))
+		        .thenReturn(Collections.singletonList(auditLogDetailDTO));
+		
+		mockMvc.perform(get("/rest/v1/auditlogs/7").param("entityName", "Patient").param("entityId", "42"))
+		        .andExpect(status().isOk());
+		
+		verify(auditService).getAuditEntityRevisionById(Patient.class, 42, 7);
+		verify(auditService).mapAuditEntitiesToDetails(Collections.singletonList(auditEntity));
 	}
 	
 	@Test
 	public void shouldReturnBadRequestWhenFetchEntityRevisionDataIsMissing() throws Exception {
-		try (MockedStatic<UtilClass> utilClassMock = mockStatic(UtilClass.class)) {
-			utilClassMock.when(() -> UtilClass.resolveAuditedEntityClass("Patient")).thenReturn(Patient.class);
-			when(auditService.getAuditEntityRevisionById(Patient.class, 42, 7))
-			        .thenThrow(new ObjectNotFoundException(42, "Patient"));
-			
-			mockMvc.perform(get("/rest/v1/auditlogs/7").param("entityName", "Patient").param("entityId", "42"))
-			        .andExpect(status().isNotFound());
-		}
+		when(auditedEntityRegistry.findByName("Patient")).thenReturn(Patient.class);
+		when(auditService.getAuditEntityRevisionById(Patient.class, 42, 7))
+		        .thenThrow(new ObjectNotFoundException(42, "Patient"));
+		
+		mockMvc.perform(get("/rest/v1/auditlogs/7").param("entityName", "Patient").param("entityId", "42"))
+		        .andExpect(status().isNotFound());
 	}
 	
 	@Test
@@ -231,11 +344,11 @@ public class AuditLogRestControllerTest {
 		AuditLogDetailDTO log = new AuditLogDetailDTO(7, "Patient", "UPDATED", "admin", expectedStartDate,
 		        Collections.emptyList(), Collections.emptyList());
 		
-		when(auditService.getAllRevisionsAcrossEntitiesWithEntityType(0, 20, null, expectedStartDate, expectedEndDate, null,
-		    "desc")).thenReturn(Collections.singletonList(auditEntity));
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, expectedStartDate, expectedEndDate, null,
+		    "desc")).thenReturn(new AuditEntityPage(Collections.singletonList(auditEntity), null));
 		when(auditService.mapAuditEntitiesToDetails(Collections.singletonList(auditEntity)))
 		        .thenReturn(Collections.singletonList(log));
-		when(auditService.countRevisionsAcrossEntitiesWithEntityType(null, expectedStartDate, expectedEndDate, null))
+		when(auditService.countRevisionsAcrossEntitiesByUsers(null, expectedStartDate, expectedEndDate, null))
 		        .thenReturn(1L);
 		
 		mockMvc.perform(get("/rest/v1/auditlogs").param("startDate", "01/01/2025").param("endDate", "31/01/2025"))
@@ -244,12 +357,68 @@ public class AuditLogRestControllerTest {
 		        .andExpect(jsonPath("$.logs[0].revisionID", is(7)))
 		        .andExpect(jsonPath("$.logs[0].entityType", is("Patient")));
 		
-		verify(auditService).getAllRevisionsAcrossEntitiesWithEntityType(eq(0), eq(20), eq(null), eq(expectedStartDate),
+		verify(auditService).getRevisionsAcrossEntitiesByUsers(eq(0), eq(20), eq(null), eq(expectedStartDate),
 		    eq(expectedEndDate), eq(null), eq("desc"));
-		verify(auditService).countRevisionsAcrossEntitiesWithEntityType(eq(null), eq(expectedStartDate), eq(expectedEndDate),
+		verify(auditService).countRevisionsAcrossEntitiesByUsers(eq(null), eq(expectedStartDate), eq(expectedEndDate),
 		    eq(null));
 	}
 	
+	@Test
+	public void shouldStreamLogsFollowedByTotals_GivenStreamParam() throws Exception {
+		AuditEntity<?> auditEntity = mock(AuditEntity.class);
+		List<AuditEntity<?>> auditEntities = Collections.singletonList(auditEntity);
+		AuditLogDetailDTO log = new AuditLogDetailDTO(7, "Patient", "UPDATED", "admin", new Date(0),
+		        Collections.emptyList(), Collections.emptyList());
+		
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, "Patient", "desc"))
+		        .thenReturn(new AuditEntityPage(auditEntities, null));
+		doAnswer(invocation -> {
+			invocation.<Consumer<AuditLogDetailDTO>> getArgument(2).accept(log);
+			return null;
+		}).when(auditService).forEachAuditLogDetail(eq(auditEntities), eq(true), any());
+		when(auditService.countRevisionsAcrossEntitiesByUsers(null, null, null, "Patient")).thenReturn(1L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("entityType", "Patient").param("stream", "true"))
+		        .andExpect(status().isOk()).andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+		        .andExpect(jsonPath("$.logs[0].revisionID", is(7)))
+		        .andExpect(jsonPath("$.logs[0].changedOn", is("01/01/1970 00:00:00")))
+		        .andExpect(jsonPath("$.totalLogs", is(1))).andExpect(jsonPath("$.totalPages", is(1)))
+		        .andExpect(jsonPath("$.partial", is(false)));
+		
+		verify(auditService, never()).mapAuditEntitiesToDetails(any());
+	}
+	
+	@Test
+	public void shouldStreamLogsWithObjectMapperOfConfiguredJsonConverter() throws Exception {
+		AuditEntity<?> auditEntity = mock(AuditEntity.class);
+		List<AuditEntity<?>> auditEntities = Collections.singletonList(auditEntity);
+		AuditLogDetailDTO log = new AuditLogDetailDTO(7, "Patient", "UPDATED", "admin", new Date(0), null, null);
+		RequestMappingHandlerAdapter handlerAdapter = new RequestMappingHandlerAdapter();
+		handlerAdapter.setMessageConverters(Collections.singletonList(new MappingJackson2HttpMessageConverter(
+		        Jackson2ObjectMapperBuilder.json().serializationInclusion(JsonInclude.Include.NON_NULL).build())));
+		
+		when(handlerAdapters.orderedStream()).thenReturn(Stream.of(handlerAdapter));
+		when(auditService.getRevisionsAcrossEntitiesByUsers(0, 20, null, null, null, "Patient", "desc"))
+		        .thenReturn(new AuditEntityPage(auditEntities, null));
+		doAnswer(invocation -> {
+			invocation.<Consumer<AuditLogDetailDTO>> getArgument(2).accept(log);
+			return null;
+		}).when(auditService).forEachAuditLogDetail(eq(auditEntities), eq(true), any());
+		when(auditService.countRevisionsAcrossEntitiesByUsers(null, null, null, "Patient")).thenReturn(1L);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs").param("entityType", "Patient").param("stream", "true"))
+		        .andExpect(status().isOk()).andExpect(jsonPath("$.logs[0].revisionID", is(7)))
+		        .andExpect(content().string(not(containsString("\"changes\""))));
+	}
+	
+	@Test
+	public void shouldReturnBadRequest_WhenStreamingWithInvalidDate() throws Exception {
+		mockMvc.perform(get("/rest/v1/auditlogs").param("startDate", "2025/01/01").param("stream", "true"))
+		        .andExpect(status().isBadRequest()).andExpect(jsonPath("$.error", is("Bad Request")));
+		
+		verifyNoInteractions(auditService);
+	}
+	
 	@Test
 	public void shouldReturnBadRequestForInvalidMonthDate() throws Exception {
 		mockMvc.perform(get("/rest/v1/auditlogs").param("startDate", "31/02/2025")).andExpect(status().isBadRequest())
@@ -259,16 +428,12 @@ public class AuditLogRestControllerTest {
 	
 	@Test
 	public void shouldReturnEntityTypes() throws Exception {
-		try (MockedStatic<UtilClass> utilClassMock = mockStatic(UtilClass.class)) {
-			utilClassMock.when(UtilClass::findClassesWithAnnotation)
-			        .thenReturn(Arrays.asList("org.openmrs.Allergy", "org.openmrs.Cohort"));
-			AuditEntityTypesResponseDto entityTypesResponseDto = new AuditEntityTypesResponseDto(
-			        Arrays.asList("Allergy", "Cohort"));
-			when(auditService.getAuditedEntitiesNames()).thenReturn(entityTypesResponseDto);
-			
-			mockMvc.perform(get("/rest/v1/auditlogs/entityTypes")).andExpect(status().isOk())
-			        .andExpect(jsonPath("$.entityTypes[0]", is("Allergy")))
-			        .andExpect(jsonPath("$.entityTypes[1]", is("Cohort")));
-		}
+		AuditEntityTypesResponseDto entityTypesResponseDto = new AuditEntityTypesResponseDto(
+		        Arrays.asList("Allergy", "Cohort"));
+		when(auditService.getAuditedEntitiesNames()).thenReturn(entityTypesResponseDto);
+		
+		mockMvc.perform(get("/rest/v1/auditlogs/entityTypes")).andExpect(status().isOk())
+		        .andExpect(jsonPath("$.entityTypes[0]", is("Allergy")))
+		        .andExpect(jsonPath("$.entityTypes[1]", is("Cohort")));
 	}
 }
@@ -22,7 +22,9 @@ import org.mockito.MockitoAnnotations;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.auditlogweb.api.AuditLogContext;
+import org.openmrs.module.auditlogweb.api.AuditQueryContext;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -60,6 +62,7 @@ class AuditContextFilterTest {
 	@AfterEach
 	void cleanUp() throws Exception {
 		AuditLogContext.clear();
+		AuditQueryContext.clear();
 		if (mocks != null) {
 			mocks.close();
 		}
@@ -148,4 +151,21 @@ class AuditContextFilterTest {
 		verify(filterChain).doFilter(request, response);
 		assertNull(AuditLogContext.get());
 	}
+	
+	@Test
+	void shouldClearPartialResultLeftByAnEarlierRequestOnTheSameThread() throws Exception {
+		when(request.getSession(false)).thenReturn(null);
+		AuditQueryContext.markPartialResult();
+		
+		doAnswer(invocation -> {
+			assertFalse(AuditQueryContext.isPartialResult());
+			AuditQueryContext.markPartialResult();
+			return null;
+		}).when(filterChain).doFilter(request, response);
+		
+		filter.doFilter(request, response, filterChain);
+		
+		verify(filterChain).doFilter(request, response);
+		assertFalse(AuditQueryContext.isPartialResult());
+	}
 }
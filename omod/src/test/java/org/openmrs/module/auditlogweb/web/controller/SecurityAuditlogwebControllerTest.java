@@ -69,6 +69,22 @@ class SecurityAuditlogwebControllerTest {
 		verify(auditService).countSecurityEvents(null, null, null, null);
 	}
 	
+	@Test
+	void shouldFilterEventsByTheUsersOfRole() throws Exception {
+		List<Integer> userIds = Arrays.asList(2, 4);
+		List<AuditSecurityEvent> mockEvents = Arrays.asList(mock(AuditSecurityEvent.class));
+		when(auditService.resolveUserIdsByRole("Provider")).thenReturn(userIds);
+		when(auditService.getSecurityEvents(null, null, userIds, null, null, 0, 15)).thenReturn(mockEvents);
+		when(auditService.countSecurityEvents(null, null, userIds, null, null)).thenReturn(1L);
+		
+		mockMvc.perform(get("/module/auditlogweb/securityauditlogs.form").param("role", "Provider"))
+		        .andExpect(status().isOk()).andExpect(model().attribute("events", mockEvents))
+		        .andExpect(model().attribute("roleFilter", "Provider"));
+		
+		verify(auditService).resolveUserIdsByRole("Provider");
+		verify(auditService).countSecurityEvents(null, null, userIds, null, null);
+	}
+	
 	@Test
 	void shouldReturnAccessDeniedOnAuthenticationFailure() throws Exception {
 		when(auditService.getSecurityEvents(any(), any(), any(), any(), anyInt(), anyInt()))